@@ -0,0 +1,72 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.benchmarks;
+
+import ac.simons.akismet.AkismetComment;
+
+/**
+ * Comments used by all benchmarks.
+ * @author Michael J. Simons
+ */
+final class Comments {
+	private Comments() {
+	}
+	
+	/**
+	 * @param size Either <code>small</code> or <code>64k</code>
+	 * @return A comment with all fields set and content of the given size
+	 */
+	static AkismetComment newComment(final String size) {
+		final AkismetComment rv = new AkismetComment();
+		rv.setUserIp("80.138.52.114");
+		rv.setUserAgent("Mozilla/5.0 (Windows; U; Windows NT 6.1; en-US) AppleWebKit/534.10 (KHTML, like Gecko) Chrome/8.0.552.224 Safari/534.10");
+		rv.setReferrer("http://dailyfratze.de/marie");
+		rv.setPermalink("http://dailyfratze.de/marie/2011/1/3");
+		rv.setCommentType("comment");
+		rv.setCommentAuthor("Michael");
+		rv.setCommentAuthorEmail("misi@planet-punk.de");
+		rv.setCommentAuthorUrl("http://planet-punk.de");
+		if("64k".equals(size)) {
+			// Mixed content that needs encoding: umlauts, reserved characters and plain text
+			final String sentence = "Scharfes Outfit :D Schöne Grüße & bis bald? ";
+			final char[] content = new char[64 * 1024];
+			for(int i = 0; i < content.length; ++i)
+				content[i] = sentence.charAt(i % sentence.length());
+			rv.setCommentContent(new String(content));
+		} else {
+			rv.setCommentContent("Scharfes Outfit :D");
+		}
+		return rv;
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.message.BasicNameValuePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ac.simons.akismet.AkismetComment;
+
+/**
+ * Measures the encoding of comments into request bodies. Run with <code>-prof gc</code>
+ * to see the bytes allocated per operation (<code>gc.alloc.rate.norm</code>). 
+ * {@link #legacyFormEntity()} is the former encoding through name value pairs and a
+ * {@link UrlEncodedFormEntity} and serves as baseline for {@link #toForm()}.
+ * @author Michael J. Simons
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+	@Param({"small", "64k"})
+	public String size;
+	
+	private AkismetComment comment;
+	
+	@Setup
+	public void setup() {
+		this.comment = Comments.newComment(this.size);
+	}
+	
+	@Benchmark
+	public byte[] toForm() throws Exception {
+		return this.comment.toForm("http://dailyfratze.de");
+	}
+	
+	@Benchmark
+	public HttpEntity legacyFormEntity() throws Exception {
+		final List<NameValuePair> p = new ArrayList<>();
+		p.add(new BasicNameValuePair("blog", "http://dailyfratze.de"));
+		p.add(new BasicNameValuePair("user_ip", this.comment.getUserIp()));
+		p.add(new BasicNameValuePair("userAgent", this.comment.getUserAgent()));
+		p.add(new BasicNameValuePair("referrer", this.comment.getReferrer()));
+		p.add(new BasicNameValuePair("permalink", this.comment.getPermalink()));
+		p.add(new BasicNameValuePair("comment_type", this.comment.getCommentType()));
+		p.add(new BasicNameValuePair("comment_author", this.comment.getCommentAuthor()));
+		p.add(new BasicNameValuePair("comment_author_email", this.comment.getCommentAuthorEmail()));
+		p.add(new BasicNameValuePair("comment_author_url", this.comment.getCommentAuthorUrl()));
+		p.add(new BasicNameValuePair("comment_content", this.comment.getCommentContent()));
+		return new UrlEncodedFormEntity(p, "UTF-8");
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.AkismetException;
+
+/**
+ * Measures throughput and latency distribution of comment-checks against an in-process 
+ * stub server over loopback.
+ * @author Michael J. Simons
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+	@Param({"small", "64k"})
+	public String size;
+	
+	private StubAkismetServer server;
+	
+	private CloseableHttpClient httpClient;
+	
+	private Akismet akismet;
+	
+	private AkismetComment comment;
+	
+	@Setup
+	public void setup() throws Exception {
+		this.server = new StubAkismetServer();
+		final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(64);
+		connectionManager.setDefaultMaxPerRoute(64);
+		this.httpClient = HttpClients.custom().setConnectionManager(connectionManager).setProxy(this.server.getProxy()).build();
+		this.akismet = new Akismet(this.httpClient);
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://dailyfratze.de");
+		this.comment = Comments.newComment(this.size);
+	}
+	
+	@TearDown
+	public void tearDown() throws Exception {
+		this.httpClient.close();
+		this.server.close();
+	}
+	
+	@Benchmark
+	@Threads(1)
+	public boolean commentCheckSingleThreaded() throws AkismetException {
+		return this.akismet.commentCheck(this.comment);
+	}
+	
+	@Benchmark
+	@Threads(16)
+	public boolean commentCheckManyThreads() throws AkismetException {
+		return this.akismet.commentCheck(this.comment);
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * A client that doesn't do any I/O. It writes the request entity to nowhere and 
+ * answers every request with the same body, so that only the overhead of the 
+ * library is measured.
+ * @author Michael J. Simons
+ */
+@SuppressWarnings("deprecation")
+final class InMemoryHttpClient implements HttpClient {
+	private static final OutputStream NOWHERE = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+	
+	private final byte[] body;
+	
+	InMemoryHttpClient(final String body) {
+		this.body = body.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public HttpResponse execute(HttpHost target, HttpRequest request, HttpContext context) throws IOException {
+		if(request instanceof HttpEntityEnclosingRequest)
+			((HttpEntityEnclosingRequest) request).getEntity().writeTo(NOWHERE);
+		final HttpResponse rv = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+		rv.setEntity(new ByteArrayEntity(this.body));
+		return rv;
+	}
+
+	@Override
+	public HttpResponse execute(HttpUriRequest request) throws IOException {
+		return execute(null, request, (HttpContext) null);
+	}
+
+	@Override
+	public HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException {
+		return execute((HttpHost) null, request, context);
+	}
+
+	@Override
+	public HttpResponse execute(HttpHost target, HttpRequest request) throws IOException {
+		return execute(target, request, (HttpContext) null);
+	}
+
+	@Override
+	public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler) throws IOException {
+		return responseHandler.handleResponse(execute(request));
+	}
+
+	@Override
+	public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler, HttpContext context) throws IOException {
+		return responseHandler.handleResponse(execute(request, context));
+	}
+
+	@Override
+	public <T> T execute(HttpHost target, HttpRequest request, ResponseHandler<? extends T> responseHandler) throws IOException {
+		return responseHandler.handleResponse(execute(target, request));
+	}
+
+	@Override
+	public <T> T execute(HttpHost target, HttpRequest request, ResponseHandler<? extends T> responseHandler, HttpContext context) throws IOException {
+		return responseHandler.handleResponse(execute(target, request, context));
+	}
+
+	@Override
+	public HttpParams getParams() {
+		return new BasicHttpParams();
+	}
+
+	@Override
+	public ClientConnectionManager getConnectionManager() {
+		return null;
+	}
+}
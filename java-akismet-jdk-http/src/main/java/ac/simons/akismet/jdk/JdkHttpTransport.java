@@ -0,0 +1,178 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.jdk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+import ac.simons.akismet.Transport;
+import ac.simons.akismet.TransportRequest;
+import ac.simons.akismet.TransportResponse;
+
+/**
+ * A transport based on the {@link HttpClient} of the JDK. With HTTP/2 (Akismet supports it over
+ * <code>https</code>, see {@link ac.simons.akismet.Akismet#setApiScheme(String)}) all concurrent calls 
+ * to one host are multiplexed over a single connection. Asynchronous calls are always supported.
+ * @author Michael J. Simons
+ */
+public class JdkHttpTransport implements Transport {
+	private final HttpClient httpClient;
+	
+	/**
+	 * Creates a transport preferring HTTP/2 with a connect timeout of 5 seconds.
+	 */
+	public JdkHttpTransport() {
+		this(HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).connectTimeout(Duration.ofSeconds(5)).build());
+	}
+	
+	/**
+	 * @param httpClient The client to use
+	 */
+	public JdkHttpTransport(final HttpClient httpClient) {
+		this.httpClient = httpClient;
+	}
+
+	public HttpClient getHttpClient() {
+		return httpClient;
+	}
+	
+	private static HttpRequest newHttpRequest(final TransportRequest request) {
+		final HttpRequest.Builder rv = HttpRequest.newBuilder(request.getUri())
+			.header("User-Agent", request.getUserAgent())
+			.header("Content-Type", TransportRequest.CONTENT_TYPE)
+			.POST(BodyPublishers.ofByteArray(request.getForm()));
+		if(request.getTimeout() > 0)
+			rv.timeout(Duration.ofMillis(request.getTimeout()));
+		return rv.build();
+	}
+	
+	/**
+	 * The http client reports timeouts as {@link HttpTimeoutException}, which is no {@link java.io.InterruptedIOException}
+	 */
+	private static Throwable translate(final Throwable e) {
+		final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+		if(!(cause instanceof HttpTimeoutException))
+			return cause;
+		final SocketTimeoutException rv = new SocketTimeoutException(cause.getMessage());
+		rv.initCause(cause);
+		return rv;
+	}
+
+	@Override
+	public TransportResponse execute(final TransportRequest request) throws IOException {
+		try {
+			return new Response(this.httpClient.send(newHttpRequest(request), BodyHandlers.ofInputStream()));
+		} catch(HttpTimeoutException e) {
+			throw (SocketTimeoutException) translate(e);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a response", e);
+		}
+	}
+
+	@Override
+	public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+		final CompletableFuture<TransportResponse> rv = new CompletableFuture<>();
+		final CompletableFuture<HttpResponse<InputStream>> call = this.httpClient.sendAsync(newHttpRequest(request), BodyHandlers.ofInputStream());
+		call.whenComplete((response, e) -> {
+			if(e != null)
+				rv.completeExceptionally(translate(e));
+			else if(!rv.complete(new Response(response))) {
+				// The caller gave up already, release the stream
+				try {
+					response.body().close();
+				} catch(IOException ignored) {
+				}
+			}
+		});
+		rv.whenComplete((response, e) -> {
+			if(e != null)
+				call.cancel(true);
+		});
+		return rv;
+	}
+
+	@Override
+	public boolean supportsAsync() {
+		return true;
+	}
+	
+	private static class Response implements TransportResponse {
+		private final HttpResponse<InputStream> response;
+
+		Response(final HttpResponse<InputStream> response) {
+			this.response = response;
+		}
+
+		@Override
+		public int getStatusCode() {
+			return response.statusCode();
+		}
+
+		@Override
+		public String getReasonPhrase() {
+			return String.valueOf(response.statusCode());
+		}
+
+		@Override
+		public void forEachHeader(final BiConsumer<String, String> consumer) {
+			response.headers().map().forEach((name, values) -> values.forEach(value -> consumer.accept(name, value)));
+		}
+
+		@Override
+		public InputStream getBody() {
+			return response.body();
+		}
+
+		@Override
+		public void close() throws IOException {
+			// Reading to the end keeps HTTP/1.1 connections reusable, closing early would close the connection
+			try(InputStream body = response.body()) {
+				body.transferTo(OutputStream.nullOutputStream());
+			}
+		}
+	}
+}
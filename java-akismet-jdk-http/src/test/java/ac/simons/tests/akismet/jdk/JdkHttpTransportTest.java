@@ -0,0 +1,153 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet.jdk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.CheckResult;
+import ac.simons.akismet.FallbackVerdict;
+import ac.simons.akismet.jdk.JdkHttpTransport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Michael J. Simons
+ */
+public class JdkHttpTransportTest {
+	private HttpServer server;
+	private Akismet akismet;
+	private volatile long delay;
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.setExecutor(Executors.newCachedThreadPool());
+		this.server.createContext("/", this::handle);
+		this.server.start();
+		
+		// The stub is used as proxy, so that the per key host names don't need to resolve
+		final HttpClient httpClient = HttpClient.newBuilder().proxy(ProxySelector.of(this.server.getAddress())).build();
+		this.akismet = new Akismet(new JdkHttpTransport(httpClient));
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+	}
+	
+	@After
+	public void tearDown() {
+		this.server.stop(0);
+	}
+	
+	private void handle(final HttpExchange exchange) throws IOException {
+		final String path = exchange.getRequestURI().getPath();
+		final String form = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.US_ASCII);
+		final String body;
+		if(path.endsWith("/verify-key"))
+			body = form.contains("key=123test") ? "valid" : "invalid";
+		else if(path.endsWith("/comment-check")) {
+			final boolean spam = form.contains("comment_author=viagra-test-123");
+			if(spam)
+				exchange.getResponseHeaders().add("X-akismet-pro-tip", "discard");
+			body = String.valueOf(spam);
+		} else
+			body = "Thanks for making the web a better place.";
+		try {
+			if(this.delay > 0)
+				Thread.sleep(this.delay);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		final byte[] response = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(200, response.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(response);
+		}
+	}
+	
+	private static AkismetComment newComment(final String author) {
+		final AkismetComment rv = new AkismetComment();
+		rv.setUserIp("127.0.0.1");
+		rv.setUserAgent("Mozilla/5.0");
+		rv.setCommentAuthor(author);
+		rv.setCommentContent("Hallo Welt");
+		return rv;
+	}
+	
+	@Test
+	public void allCallsWork() throws Exception {
+		Assert.assertTrue(akismet.verifyKey());
+		Assert.assertTrue(akismet.verifyKeyAsync().join());
+		Assert.assertTrue(akismet.commentCheck(newComment("viagra-test-123")));
+		Assert.assertFalse(akismet.commentCheck(newComment("Michael")));
+		Assert.assertTrue(akismet.submitSpam(newComment("viagra-test-123")));
+		Assert.assertTrue(akismet.submitHamAsync(newComment("Michael")).join());
+		
+		final CheckResult result = akismet.commentCheckDetailedAsync(newComment("viagra-test-123")).join();
+		Assert.assertTrue(result.isDiscard());
+	}
+	
+	@Test
+	public void concurrentChecks() {
+		final List<CompletableFuture<Boolean>> checks = new ArrayList<>();
+		for(int i = 0; i < 50; ++i)
+			checks.add(akismet.commentCheckAsync(newComment(i % 2 == 0 ? "viagra-test-123" : "Michael")));
+		for(int i = 0; i < 50; ++i)
+			Assert.assertEquals(i % 2 == 0, checks.get(i).join());
+	}
+	
+	@Test
+	public void timeoutsAreRecognized() throws Exception {
+		this.delay = 500;
+		akismet.setLatencyBudget(100);
+		akismet.setFallbackVerdict(FallbackVerdict.SPAM);
+		Assert.assertTrue(akismet.commentCheck(newComment("Michael")));
+		Assert.assertTrue(akismet.commentCheckAsync(newComment("Michael")).join());
+	}
+}
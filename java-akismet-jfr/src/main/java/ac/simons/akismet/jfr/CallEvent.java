@@ -0,0 +1,98 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * One completed Akismet call with the durations of its phases. The event begins when the call starts and is committed when it has completed.
+ * @author Michael J. Simons
+ */
+@Name("ac.simons.akismet.Call")
+@Label("Akismet Call")
+@Category("Akismet")
+@Description("A completed call of the Akismet API")
+@StackTrace(false)
+final class CallEvent extends jdk.jfr.Event {
+	@Label("Function")
+	String function;
+	
+	@Label("Outcome")
+	String outcome;
+	
+	@Label("Verdict")
+	@Description("spam, discard or ham for comment-check")
+	String verdict;
+	
+	@Label("Status Code")
+	@Description("0 if there was no response")
+	int statusCode;
+	
+	@Label("Payload Size")
+	@DataAmount
+	int payloadSize;
+	
+	@Label("Attempts")
+	@Description("Number of requests sent, more than 1 for hedged calls")
+	int attempts;
+	
+	@Label("Queue Time")
+	@Description("Time waited for a permit of the request scheduler")
+	@Timespan
+	long queueTime;
+	
+	@Label("Encode Time")
+	@Timespan
+	long encodeTime;
+	
+	@Label("Response Time")
+	@Description("Time until the response headers arrived, including connection lease and connect")
+	@Timespan
+	long responseTime;
+	
+	@Label("Read Time")
+	@Timespan
+	long readTime;
+	
+	@Label("Call Duration")
+	@Description("Duration of the call without the queue time")
+	@Timespan
+	long callDuration;
+}
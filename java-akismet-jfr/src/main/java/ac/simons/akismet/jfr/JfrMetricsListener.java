@@ -0,0 +1,183 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.jfr;
+
+import jdk.jfr.EventType;
+
+import ac.simons.akismet.CallDetails;
+import ac.simons.akismet.MetricsListener;
+
+/**
+ * A {@link MetricsListener} that emits JDK Flight Recorder events: <code>ac.simons.akismet.Call</code> for 
+ * every call with its phases, <code>ac.simons.akismet.Retry</code> for hedges, failovers and resent submissions, 
+ * <code>ac.simons.akismet.ConnectionLease</code> and <code>ac.simons.akismet.Connect</code> for the connections of a 
+ * {@link ac.simons.akismet.ConnectionPool}. The events are in the category "Akismet" and have no stack traces.
+ * Calls, leases and connects are timed from their start to their end.<br>
+ * Details of calls are only collected while a recording has the call event enabled, so the listener can be set
+ * permanently. All calls are passed on to an optional delegate, for example a 
+ * {@link ac.simons.akismet.HistogramMetricsListener}, but without the contexts of the started hooks.
+ * @author Michael J. Simons
+ */
+public class JfrMetricsListener implements MetricsListener {
+	private static final EventType CALL = EventType.getEventType(CallEvent.class);
+	private static final EventType LEASE = EventType.getEventType(ConnectionLeaseEvent.class);
+	private static final EventType CONNECT = EventType.getEventType(ConnectEvent.class);
+	
+	private final MetricsListener delegate;
+	
+	public JfrMetricsListener() {
+		this(null);
+	}
+	
+	/**
+	 * @param delegate Receives all calls as well, may be null
+	 */
+	public JfrMetricsListener(final MetricsListener delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void record(final Operation operation, final Outcome outcome, final long durationNanos) {
+		if(this.delegate != null)
+			this.delegate.record(operation, outcome, durationNanos);
+	}
+
+	@Override
+	public boolean isDetailed() {
+		return CALL.isEnabled() || (this.delegate != null && this.delegate.isDetailed());
+	}
+
+	@Override
+	public Object callStarted(final Operation operation) {
+		if(!CALL.isEnabled())
+			return null;
+		final CallEvent rv = new CallEvent();
+		rv.begin();
+		return rv;
+	}
+
+	@Override
+	public void recordDetails(final CallDetails details) {
+		final CallEvent event = details.getContext() instanceof CallEvent ? (CallEvent) details.getContext() : null;
+		if(event != null)
+			event.end();
+		if(event != null && event.shouldCommit()) {
+			event.function = details.getOperation().getFunction();
+			event.outcome = details.getOutcome().name();
+			if(details.getOperation() == Operation.COMMENT_CHECK && details.getStatusCode() == 200)
+				event.verdict = details.isDiscard() ? "discard" : details.getOutcome() == Outcome.SPAM ? "spam" : "ham";
+			event.statusCode = details.getStatusCode();
+			event.payloadSize = details.getPayloadSize();
+			event.attempts = details.getAttempts();
+			event.queueTime = details.getQueueTime();
+			event.encodeTime = details.getEncodeTime();
+			event.responseTime = details.getResponseTime();
+			event.readTime = details.getReadTime();
+			event.callDuration = details.getDuration();
+			event.commit();
+		}
+		if(this.delegate != null && this.delegate.isDetailed())
+			this.delegate.recordDetails(details);
+	}
+
+	@Override
+	public void recordRetry(final Operation operation, final Retry retry) {
+		final RetryEvent event = new RetryEvent();
+		if(event.shouldCommit()) {
+			event.function = operation.getFunction();
+			event.reason = retry.name();
+			event.commit();
+		}
+		if(this.delegate != null)
+			this.delegate.recordRetry(operation, retry);
+	}
+
+	@Override
+	public Object connectionLeaseStarted(final String host) {
+		if(!LEASE.isEnabled())
+			return null;
+		final ConnectionLeaseEvent rv = new ConnectionLeaseEvent();
+		rv.begin();
+		return rv;
+	}
+
+	@Override
+	public void recordConnectionLease(final String host, final long waitNanos) {
+		if(this.delegate != null)
+			this.delegate.recordConnectionLease(host, waitNanos);
+	}
+
+	@Override
+	public void recordConnectionLease(final String host, final long waitNanos, final Object context) {
+		if(context instanceof ConnectionLeaseEvent) {
+			final ConnectionLeaseEvent event = (ConnectionLeaseEvent) context;
+			event.end();
+			if(event.shouldCommit()) {
+				event.host = host;
+				event.waitTime = waitNanos;
+				event.commit();
+			}
+		}
+		recordConnectionLease(host, waitNanos);
+	}
+
+	@Override
+	public Object connectStarted(final String host) {
+		if(!CONNECT.isEnabled())
+			return null;
+		final ConnectEvent rv = new ConnectEvent();
+		rv.begin();
+		return rv;
+	}
+
+	@Override
+	public void recordConnect(final String host, final long durationNanos) {
+		if(this.delegate != null)
+			this.delegate.recordConnect(host, durationNanos);
+	}
+
+	@Override
+	public void recordConnect(final String host, final long durationNanos, final Object context) {
+		if(context instanceof ConnectEvent) {
+			final ConnectEvent event = (ConnectEvent) context;
+			event.end();
+			if(event.shouldCommit()) {
+				event.host = host;
+				event.connectTime = durationNanos;
+				event.commit();
+			}
+		}
+		recordConnect(host, durationNanos);
+	}
+}
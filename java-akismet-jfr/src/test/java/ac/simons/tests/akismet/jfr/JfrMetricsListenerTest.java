@@ -0,0 +1,192 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet.jfr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.apache.http.HttpHost;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.ConnectionPool;
+import ac.simons.akismet.HedgingPolicy;
+import ac.simons.akismet.MetricsListener.Outcome;
+import ac.simons.akismet.jfr.JfrMetricsListener;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Michael J. Simons
+ */
+public class JfrMetricsListenerTest {
+	private HttpServer server;
+	private ConnectionPool pool;
+	private Akismet akismet;
+	private final Map<Outcome, LongAdder> outcomes = new ConcurrentHashMap<>();
+	private JfrMetricsListener listener;
+	private volatile long delay;
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.setExecutor(Executors.newCachedThreadPool());
+		this.server.createContext("/", this::handle);
+		this.server.start();
+		
+		// The stub is used as proxy, so that the per key host names don't need to resolve
+		this.pool = new ConnectionPool(4, 30_000, 10_000, new HttpHost("127.0.0.1", this.server.getAddress().getPort()));
+		this.listener = new JfrMetricsListener((operation, outcome, durationNanos) -> this.outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment());
+		this.pool.setMetricsListener(this.listener);
+		this.akismet = new Akismet(pool.getHttpClient(), pool.getHttpAsyncClient());
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+		this.akismet.setMetricsListener(this.listener);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.pool.close();
+		this.server.stop(0);
+	}
+	
+	private void handle(final HttpExchange exchange) throws IOException {
+		final String form = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.US_ASCII);
+		final boolean spam = form.contains("comment_author=viagra-test-123");
+		if(spam)
+			exchange.getResponseHeaders().add("X-akismet-pro-tip", "discard");
+		try {
+			if(this.delay > 0)
+				Thread.sleep(this.delay);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		final byte[] response = String.valueOf(spam).getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(200, response.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(response);
+		}
+	}
+	
+	private static AkismetComment newComment(final String author) {
+		final AkismetComment rv = new AkismetComment();
+		rv.setUserIp("127.0.0.1");
+		rv.setUserAgent("Mozilla/5.0");
+		rv.setCommentAuthor(author);
+		rv.setCommentContent("Hallo Welt");
+		return rv;
+	}
+	
+	private static List<RecordedEvent> events(final List<RecordedEvent> events, final String name) {
+		// Events from different threads are not necessarily ordered within the recording
+		return events.stream()
+			.filter(event -> event.getEventType().getName().equals(name))
+			.sorted(Comparator.comparing(RecordedEvent::getStartTime))
+			.collect(Collectors.toList());
+	}
+	
+	@Test
+	public void callsAreRecorded() throws Exception {
+		Assert.assertFalse(listener.isDetailed());
+		final Path file = Files.createTempFile("akismet", ".jfr");
+		try(Recording recording = new Recording()) {
+			recording.enable("ac.simons.akismet.Call");
+			recording.enable("ac.simons.akismet.Retry");
+			recording.enable("ac.simons.akismet.ConnectionLease");
+			recording.enable("ac.simons.akismet.Connect");
+			recording.start();
+			Assert.assertTrue(listener.isDetailed());
+			
+			Assert.assertTrue(akismet.commentCheck(newComment("viagra-test-123")));
+			Assert.assertFalse(akismet.commentCheckAsync(newComment("Michael")).join());
+			akismet.setHedgingPolicy(new HedgingPolicy(20, 0.0, 1.0));
+			this.delay = 100;
+			Assert.assertFalse(akismet.commentCheck(newComment("Michael")));
+			
+			recording.stop();
+			recording.dump(file);
+		}
+		
+		final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+		Files.delete(file);
+		final List<RecordedEvent> calls = events(events, "ac.simons.akismet.Call");
+		Assert.assertEquals(3, calls.size());
+		final RecordedEvent spam = calls.get(0);
+		Assert.assertEquals("comment-check", spam.getString("function"));
+		Assert.assertEquals("SPAM", spam.getString("outcome"));
+		Assert.assertEquals("discard", spam.getString("verdict"));
+		Assert.assertEquals(200, spam.getInt("statusCode"));
+		Assert.assertTrue(spam.getInt("payloadSize") > 0);
+		Assert.assertTrue(spam.getDuration("responseTime").toNanos() > 0);
+		Assert.assertEquals("ham", calls.get(1).getString("verdict"));
+		Assert.assertEquals(2, calls.get(2).getInt("attempts"));
+		// The events span the calls
+		Assert.assertTrue(spam.getDuration().toNanos() > 0);
+		Assert.assertTrue(calls.get(2).getDuration().toMillis() >= 90);
+		
+		final List<RecordedEvent> retries = events(events, "ac.simons.akismet.Retry");
+		Assert.assertEquals(1, retries.size());
+		Assert.assertEquals("HEDGE", retries.get(0).getString("reason"));
+		Assert.assertEquals(4, events(events, "ac.simons.akismet.ConnectionLease").size());
+		Assert.assertEquals(1, events(events, "ac.simons.akismet.Connect").size());
+		Assert.assertEquals("123test.rest.akismet.com", events(events, "ac.simons.akismet.Connect").get(0).getString("host"));
+		Assert.assertTrue(events(events, "ac.simons.akismet.Connect").get(0).getDuration().toNanos() > 0);
+		Assert.assertTrue(events(events, "ac.simons.akismet.ConnectionLease").stream().allMatch(event -> event.getDuration().toNanos() > 0));
+		
+		// Calls are passed on to the delegate
+		Assert.assertEquals(1, outcomes.get(Outcome.SPAM).sum());
+		Assert.assertEquals(2, outcomes.get(Outcome.HAM).sum());
+		Assert.assertFalse(listener.isDetailed());
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.micrometer;
+
+import java.util.concurrent.TimeUnit;
+
+import ac.simons.akismet.MetricsListener;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Publishes the calls made by {@link ac.simons.akismet.Akismet} to a Micrometer registry as a timer 
+ * named <code>akismet.calls</code>, tagged with the <code>operation</code> (the API function) and 
+ * the <code>outcome</code>. All timers are registered upfront, so recording a call neither looks up 
+ * nor creates meters.
+ * @author Michael J. Simons
+ */
+public class MicrometerMetricsListener implements MetricsListener {
+	private static final int OUTCOMES = Outcome.values().length;
+	
+	private final Timer[] timers;
+	
+	/**
+	 * Creates a listener publishing p50, p99 and p999 of every operation and outcome.
+	 * @param registry The registry to register the timers in
+	 */
+	public MicrometerMetricsListener(final MeterRegistry registry) {
+		this(registry, 0.5, 0.99, 0.999);
+	}
+	
+	/**
+	 * @param registry The registry to register the timers in
+	 * @param percentiles Percentiles to publish, may be empty
+	 */
+	public MicrometerMetricsListener(final MeterRegistry registry, final double... percentiles) {
+		final Operation[] operations = Operation.values();
+		this.timers = new Timer[operations.length * OUTCOMES];
+		for(Operation operation : operations) {
+			for(Outcome outcome : Outcome.values()) {
+				this.timers[operation.ordinal() * OUTCOMES + outcome.ordinal()] = Timer.builder("akismet.calls")
+					.description("Calls made to Akismet")
+					.tag("operation", operation.getFunction())
+					.tag("outcome", outcome.name().toLowerCase())
+					.publishPercentiles(percentiles)
+					.register(registry);
+			}
+		}
+	}
+
+	@Override
+	public void record(final Operation operation, final Outcome outcome, final long durationNanos) {
+		this.timers[operation.ordinal() * OUTCOMES + outcome.ordinal()].record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet.micrometer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ac.simons.akismet.MetricsListener.Operation;
+import ac.simons.akismet.MetricsListener.Outcome;
+import ac.simons.akismet.micrometer.MicrometerMetricsListener;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * @author Michael J. Simons
+ */
+public class MicrometerMetricsListenerTest {
+	@Test
+	public void callsArePublished() {
+		final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		final MicrometerMetricsListener listener = new MicrometerMetricsListener(registry);
+		listener.record(Operation.COMMENT_CHECK, Outcome.SPAM, TimeUnit.MILLISECONDS.toNanos(20));
+		listener.record(Operation.COMMENT_CHECK, Outcome.SPAM, TimeUnit.MILLISECONDS.toNanos(40));
+		listener.record(Operation.SUBMIT_HAM, Outcome.BAD_STATUS, TimeUnit.MILLISECONDS.toNanos(10));
+		
+		final Timer spam = registry.get("akismet.calls").tag("operation", "comment-check").tag("outcome", "spam").timer();
+		Assert.assertEquals(2, spam.count());
+		Assert.assertEquals(60, spam.totalTime(TimeUnit.MILLISECONDS), 0.1);
+		Assert.assertEquals(1, registry.get("akismet.calls").tag("operation", "submit-ham").tag("outcome", "bad_status").timer().count());
+		Assert.assertEquals(0, registry.get("akismet.calls").tag("operation", "verify-key").tag("outcome", "valid").timer().count());
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.reactive;
+
+import java.util.function.Function;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.Verdict;
+import reactor.core.publisher.Flux;
+
+/**
+ * Adapts {@link VerdictProcessor} to Reactor. Needs reactor-core on the classpath:
+ * <pre>
+ * comments.transform(VerdictFlux.check(akismet, 16, true)).subscribe(verdict -&gt; ...);
+ * </pre>
+ * @author Michael J. Simons
+ */
+public final class VerdictFlux {
+	private VerdictFlux() {
+	}
+	
+	/**
+	 * @param akismet The instance used for all checks
+	 * @param maxInFlight Maximum number of comments requested and not yet published
+	 * @param ordered True to publish the verdicts in the order of the comments
+	 * @return A transformation creating a new processor for every subscription
+	 */
+	public static Function<Flux<AkismetComment>, Flux<Verdict>> check(final Akismet akismet, final int maxInFlight, final boolean ordered) {
+		return comments -> Flux.defer(() -> {
+			final VerdictProcessor processor = new VerdictProcessor(akismet, maxInFlight, ordered);
+			comments.subscribe(processor);
+			return processor;
+		});
+	}
+}
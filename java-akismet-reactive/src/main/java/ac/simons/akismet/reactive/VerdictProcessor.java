@@ -0,0 +1,268 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.reactive;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.AkismetException;
+import ac.simons.akismet.CheckResult;
+import ac.simons.akismet.Verdict;
+
+/**
+ * A processor that checks a stream of comments and publishes one verdict per comment. At most 
+ * <code>maxInFlight</code> comments are requested from upstream that have not been published 
+ * downstream yet, so a slow subscriber slows down the checks and the upstream instead of buffering.<br>
+ * Failed checks are published as failed verdicts and don't terminate the stream. Cancelling the subscription
+ * cancels the upstream and aborts all checks in flight.<br>
+ * The processor supports a single subscriber and needs an {@link Akismet} instance whose transport
+ * supports asynchronous calls. Use <code>org.reactivestreams.FlowAdapters.toFlowProcessor</code> to use it 
+ * as <code>java.util.concurrent.Flow.Processor</code>.
+ * @author Michael J. Simons
+ */
+public class VerdictProcessor implements Processor<AkismetComment, Verdict> {
+	/**
+	 * A comment in order of arrival, the verdict is set once its check completes
+	 */
+	private static final class Slot {
+		volatile Verdict verdict;
+	}
+	
+	private final Akismet akismet;
+	private final int maxInFlight;
+	private final boolean ordered;
+	
+	private final AtomicReference<Subscription> upstream = new AtomicReference<>();
+	private final AtomicReference<Subscriber<? super Verdict>> downstream = new AtomicReference<>();
+	private final AtomicLong demand = new AtomicLong();
+	private final AtomicInteger wip = new AtomicInteger();
+	
+	/** Comments requested from upstream and not yet published */
+	private final AtomicInteger outstanding = new AtomicInteger();
+	/** Checks that have not completed yet */
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final Set<CompletableFuture<CheckResult>> checks = ConcurrentHashMap.newKeySet();
+	/** Slots in order of arrival if ordered */
+	private final ConcurrentLinkedQueue<Slot> slots = new ConcurrentLinkedQueue<>();
+	/** Verdicts in order of completion if unordered */
+	private final ConcurrentLinkedQueue<Verdict> verdicts = new ConcurrentLinkedQueue<>();
+	
+	private volatile boolean upstreamDone;
+	private volatile Throwable upstreamError;
+	private volatile boolean cancelled;
+	private boolean terminated;
+	
+	/**
+	 * @param akismet The instance used for all checks
+	 * @param maxInFlight Maximum number of comments requested and not yet published
+	 * @param ordered True to publish the verdicts in the order of the comments, false to publish them as soon as they are available
+	 */
+	public VerdictProcessor(final Akismet akismet, final int maxInFlight, final boolean ordered) {
+		if(maxInFlight <= 0)
+			throw new IllegalArgumentException("Maximum number of comments in flight must be positive");
+		if(!akismet.getTransport().supportsAsync())
+			throw new IllegalArgumentException("The transport doesn't support asynchronous calls");
+		this.akismet = akismet;
+		this.maxInFlight = maxInFlight;
+		this.ordered = ordered;
+	}
+
+	@Override
+	public void onSubscribe(final Subscription subscription) {
+		if(!this.upstream.compareAndSet(null, subscription)) {
+			subscription.cancel();
+			return;
+		}
+		if(this.cancelled)
+			subscription.cancel();
+		else
+			drain();
+	}
+
+	@Override
+	public void onNext(final AkismetComment comment) {
+		if(comment == null)
+			throw new NullPointerException("Comment must not be null");
+		if(this.cancelled)
+			return;
+		this.inFlight.incrementAndGet();
+		final Slot slot = new Slot();
+		if(this.ordered)
+			this.slots.add(slot);
+		final CompletableFuture<CheckResult> check = this.akismet.commentCheckDetailedAsync(comment);
+		this.checks.add(check);
+		check.handle((result, e) -> {
+			if(e == null)
+				return Verdict.of(comment, result);
+			final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+			return Verdict.failed(comment, cause instanceof AkismetException ? (AkismetException) cause : new AkismetException(cause));
+		}).thenAccept(verdict -> {
+			this.checks.remove(check);
+			if(this.ordered)
+				slot.verdict = verdict;
+			else
+				this.verdicts.add(verdict);
+			this.inFlight.decrementAndGet();
+			drain();
+		});
+	}
+
+	@Override
+	public void onError(final Throwable throwable) {
+		this.upstreamError = throwable;
+		this.upstreamDone = true;
+		drain();
+	}
+
+	@Override
+	public void onComplete() {
+		this.upstreamDone = true;
+		drain();
+	}
+
+	@Override
+	public void subscribe(final Subscriber<? super Verdict> subscriber) {
+		if(!this.downstream.compareAndSet(null, subscriber)) {
+			subscriber.onSubscribe(new Subscription() {
+				@Override
+				public void request(long n) {
+				}
+				
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("VerdictProcessor allows only a single subscriber"));
+			return;
+		}
+		subscriber.onSubscribe(new Subscription() {
+			@Override
+			public void request(final long n) {
+				if(n <= 0) {
+					cancel();
+					subscriber.onError(new IllegalArgumentException("Number of requested verdicts must be positive"));
+					return;
+				}
+				demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+				drain();
+			}
+
+			@Override
+			public void cancel() {
+				if(cancelled)
+					return;
+				cancelled = true;
+				final Subscription subscription = upstream.get();
+				if(subscription != null)
+					subscription.cancel();
+				checks.forEach(check -> check.cancel(true));
+				drain();
+			}
+		});
+		drain();
+	}
+	
+	/**
+	 * Publishes available verdicts, terminates the subscriber and requests more comments. Only one thread
+	 * at a time runs the loop, other threads only mark that another pass is needed.
+	 */
+	private void drain() {
+		if(this.wip.getAndIncrement() != 0)
+			return;
+		int missed = 1;
+		while(true) {
+			final Subscriber<? super Verdict> subscriber = this.downstream.get();
+			if(this.cancelled) {
+				this.slots.clear();
+				this.verdicts.clear();
+			} else if(subscriber != null && !this.terminated) {
+				final long requested = this.demand.get();
+				long emitted = 0;
+				while(emitted != requested && !this.cancelled) {
+					final Verdict verdict = poll();
+					if(verdict == null)
+						break;
+					subscriber.onNext(verdict);
+					this.outstanding.decrementAndGet();
+					++emitted;
+				}
+				if(emitted > 0 && requested != Long.MAX_VALUE)
+					this.demand.addAndGet(-emitted);
+				
+				if(this.upstreamDone && this.inFlight.get() == 0 && (this.ordered ? this.slots.isEmpty() : this.verdicts.isEmpty())) {
+					this.terminated = true;
+					if(this.upstreamError != null)
+						subscriber.onError(this.upstreamError);
+					else
+						subscriber.onComplete();
+				} else {
+					final Subscription subscription = this.upstream.get();
+					final int free = this.maxInFlight - this.outstanding.get();
+					if(subscription != null && !this.upstreamDone && free > 0) {
+						this.outstanding.addAndGet(free);
+						subscription.request(free);
+					}
+				}
+			}
+			missed = this.wip.addAndGet(-missed);
+			if(missed == 0)
+				break;
+		}
+	}
+	
+	/**
+	 * @return The next verdict to publish or null
+	 */
+	private Verdict poll() {
+		if(!this.ordered)
+			return this.verdicts.poll();
+		final Slot head = this.slots.peek();
+		if(head == null || head.verdict == null)
+			return null;
+		this.slots.poll();
+		return head.verdict;
+	}
+}
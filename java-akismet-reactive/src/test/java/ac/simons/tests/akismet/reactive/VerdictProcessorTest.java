@@ -0,0 +1,330 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet.reactive;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.Transport;
+import ac.simons.akismet.TransportRequest;
+import ac.simons.akismet.TransportResponse;
+import ac.simons.akismet.Verdict;
+import ac.simons.akismet.reactive.VerdictFlowable;
+import ac.simons.akismet.reactive.VerdictFlux;
+import ac.simons.akismet.reactive.VerdictProcessor;
+import io.reactivex.Flowable;
+import reactor.core.publisher.Flux;
+
+/**
+ * @author Michael J. Simons
+ */
+public class VerdictProcessorTest {
+	/**
+	 * Answers comment checks after a random delay and tracks the number of concurrent and cancelled requests
+	 */
+	static class StubTransport implements Transport {
+		final ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+		final AtomicInteger concurrent = new AtomicInteger();
+		final AtomicInteger maxConcurrent = new AtomicInteger();
+		final AtomicInteger cancelled = new AtomicInteger();
+		volatile long maxDelay = 20;
+		
+		@Override
+		public TransportResponse execute(final TransportRequest request) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+			final CompletableFuture<TransportResponse> rv = new CompletableFuture<>();
+			final AtomicBoolean finished = new AtomicBoolean();
+			final int current = this.concurrent.incrementAndGet();
+			this.maxConcurrent.accumulateAndGet(current, Math::max);
+			final boolean spam = new String(request.getForm(), StandardCharsets.US_ASCII).contains("comment_author=viagra-test-123");
+			// The request counts as finished before its dependent stages run
+			this.executor.schedule(() -> {
+				if(finished.compareAndSet(false, true)) {
+					this.concurrent.decrementAndGet();
+					rv.complete(response(spam));
+				}
+			}, ThreadLocalRandom.current().nextLong(this.maxDelay + 1), TimeUnit.MILLISECONDS);
+			rv.whenComplete((response, e) -> {
+				if(rv.isCancelled() && finished.compareAndSet(false, true)) {
+					this.concurrent.decrementAndGet();
+					this.cancelled.incrementAndGet();
+				}
+			});
+			return rv;
+		}
+
+		@Override
+		public boolean supportsAsync() {
+			return true;
+		}
+		
+		static TransportResponse response(final boolean spam) {
+			return new TransportResponse() {
+				@Override
+				public int getStatusCode() {
+					return 200;
+				}
+
+				@Override
+				public String getReasonPhrase() {
+					return "OK";
+				}
+
+				@Override
+				public void forEachHeader(final BiConsumer<String, String> consumer) {
+				}
+
+				@Override
+				public InputStream getBody() {
+					return new ByteArrayInputStream(String.valueOf(spam).getBytes(StandardCharsets.US_ASCII));
+				}
+
+				@Override
+				public void close() {
+				}
+			};
+		}
+	}
+	
+	/**
+	 * Requests verdicts in batches and records them
+	 */
+	static class RecordingSubscriber implements Subscriber<Verdict> {
+		final List<Verdict> verdicts = new CopyOnWriteArrayList<>();
+		final CountDownLatch done = new CountDownLatch(1);
+		final long batch;
+		volatile Subscription subscription;
+		volatile Throwable error;
+		
+		RecordingSubscriber(final long batch) {
+			this.batch = batch;
+		}
+		
+		@Override
+		public void onSubscribe(final Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(this.batch);
+		}
+
+		@Override
+		public void onNext(final Verdict verdict) {
+			this.verdicts.add(verdict);
+			if(this.verdicts.size() % this.batch == 0)
+				this.subscription.request(this.batch);
+		}
+
+		@Override
+		public void onError(final Throwable throwable) {
+			this.error = throwable;
+			this.done.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			this.done.countDown();
+		}
+	}
+	
+	private StubTransport transport;
+	private Akismet akismet;
+	
+	@Before
+	public void setup() {
+		this.transport = new StubTransport();
+		this.akismet = new Akismet(this.transport);
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+	}
+	
+	@After
+	public void tearDown() {
+		this.transport.executor.shutdownNow();
+	}
+	
+	static AkismetComment newComment(final int i) {
+		final AkismetComment rv = new AkismetComment();
+		rv.setUserIp("192.168.0.1");
+		rv.setUserAgent("Mozilla/5.0");
+		rv.setCommentAuthor(i % 3 == 0 ? "viagra-test-123" : "author-" + i);
+		rv.setCommentContent("comment " + i);
+		return rv;
+	}
+	
+	static List<AkismetComment> newComments(final int n) {
+		return IntStream.range(0, n).mapToObj(VerdictProcessorTest::newComment).collect(Collectors.toList());
+	}
+	
+	@Test
+	public void verdictsArePublishedInOrder() throws InterruptedException {
+		final List<AkismetComment> comments = newComments(100);
+		final VerdictProcessor processor = new VerdictProcessor(this.akismet, 8, true);
+		final RecordingSubscriber subscriber = new RecordingSubscriber(5);
+		Flowable.fromIterable(comments).subscribe(processor);
+		processor.subscribe(subscriber);
+		
+		Assert.assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+		Assert.assertNull(subscriber.error);
+		Assert.assertEquals(100, subscriber.verdicts.size());
+		for(int i = 0; i < comments.size(); ++i) {
+			final Verdict verdict = subscriber.verdicts.get(i);
+			Assert.assertSame(comments.get(i), verdict.getComment());
+			Assert.assertTrue(verdict.isSuccessful());
+			Assert.assertEquals(i % 3 == 0, verdict.isSpam());
+		}
+		Assert.assertTrue(this.transport.maxConcurrent.get() <= 8);
+	}
+	
+	@Test
+	public void unorderedVerdictsAreComplete() throws InterruptedException {
+		final List<AkismetComment> comments = newComments(100);
+		final VerdictProcessor processor = new VerdictProcessor(this.akismet, 16, false);
+		final RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		Flowable.fromIterable(comments).subscribe(processor);
+		processor.subscribe(subscriber);
+		
+		Assert.assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(100, subscriber.verdicts.size());
+		final List<AkismetComment> checked = new ArrayList<>();
+		subscriber.verdicts.forEach(verdict -> checked.add(verdict.getComment()));
+		Assert.assertTrue(checked.containsAll(comments));
+		Assert.assertTrue(this.transport.maxConcurrent.get() <= 16);
+	}
+	
+	@Test
+	public void slowSubscribersBoundTheChecksInFlight() throws InterruptedException {
+		final AtomicInteger emitted = new AtomicInteger();
+		final VerdictProcessor processor = new VerdictProcessor(this.akismet, 4, true);
+		Flowable.range(0, 1000).map(i -> {
+			emitted.incrementAndGet();
+			return newComment(i);
+		}).subscribe(processor);
+		final RecordingSubscriber subscriber = new RecordingSubscriber(1) {
+			@Override
+			public void onNext(final Verdict verdict) {
+				this.verdicts.add(verdict);
+			}
+		};
+		processor.subscribe(subscriber);
+		
+		Thread.sleep(200);
+		Assert.assertEquals(1, subscriber.verdicts.size());
+		// One published verdict frees one slot
+		Assert.assertEquals(5, emitted.get());
+		
+		subscriber.subscription.request(2);
+		Thread.sleep(200);
+		Assert.assertEquals(3, subscriber.verdicts.size());
+		Assert.assertEquals(7, emitted.get());
+		Assert.assertTrue(this.transport.maxConcurrent.get() <= 4);
+	}
+	
+	@Test
+	public void cancellationAbortsChecksInFlight() throws InterruptedException {
+		this.transport.maxDelay = 10_000;
+		final AtomicInteger emitted = new AtomicInteger();
+		final VerdictProcessor processor = new VerdictProcessor(this.akismet, 8, false);
+		Flowable.range(0, 1000).map(i -> {
+			emitted.incrementAndGet();
+			return newComment(i);
+		}).subscribe(processor);
+		final RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		processor.subscribe(subscriber);
+		
+		final long deadline = System.currentTimeMillis() + 5_000;
+		while(this.transport.concurrent.get() < 8 && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		subscriber.subscription.cancel();
+		
+		Assert.assertEquals(0, this.transport.concurrent.get());
+		Assert.assertTrue(this.transport.cancelled.get() >= 8 - subscriber.verdicts.size());
+		Assert.assertEquals(8 + subscriber.verdicts.size(), emitted.get());
+		Assert.assertEquals(1, subscriber.done.getCount());
+	}
+	
+	@Test
+	public void requestingNothingIsAnError() throws InterruptedException {
+		final VerdictProcessor processor = new VerdictProcessor(this.akismet, 8, true);
+		Flowable.fromIterable(newComments(10)).subscribe(processor);
+		final RecordingSubscriber subscriber = new RecordingSubscriber(0);
+		processor.subscribe(subscriber);
+		
+		Assert.assertTrue(subscriber.done.await(1, TimeUnit.SECONDS));
+		Assert.assertTrue(subscriber.error instanceof IllegalArgumentException);
+	}
+	
+	@Test
+	public void adaptersCheckAllComments() {
+		final List<Verdict> viaReactor = Flux.fromIterable(newComments(50))
+				.transform(VerdictFlux.check(this.akismet, 8, true))
+				.collectList().block();
+		Assert.assertEquals(50, viaReactor.size());
+		Assert.assertTrue(viaReactor.get(0).isSpam());
+		Assert.assertFalse(viaReactor.get(1).isSpam());
+		
+		final List<Verdict> viaRxJava = Flowable.fromIterable(newComments(50))
+				.compose(VerdictFlowable.check(this.akismet, 8, true))
+				.toList().blockingGet();
+		Assert.assertEquals(50, viaRxJava.size());
+		Assert.assertTrue(viaRxJava.get(48).isSpam());
+		Assert.assertFalse(viaRxJava.get(49).isSpam());
+	}
+}
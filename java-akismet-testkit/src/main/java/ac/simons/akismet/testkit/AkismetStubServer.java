@@ -0,0 +1,381 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.testkit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.HttpHost;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded stand in for the Akismet API that answers <code>verify-key</code>, <code>comment-check</code>,
+ * <code>submit-spam</code> and <code>submit-ham</code> the way {@link ac.simons.akismet.Akismet} expects them.
+ * The verdicts are scripted, the response times follow a {@link Latency} distribution and errors, timeouts
+ * and a limit of concurrent requests can be injected.<br>
+ * Akismet uses a host name per API key, so clients reach the stub by using it as http proxy, for example
+ * through <code>new ConnectionPool(16, 30_000, 10_000, stub.getProxy())</code>.
+ * @author Michael J. Simons
+ */
+public class AkismetStubServer implements AutoCloseable {
+	private static final String THANKS = "Thanks for making the web a better place.";
+	
+	static {
+		// Otherwise headers and body are delayed by Nagle's algorithm
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+	
+	private final Logger logger = LoggerFactory.getLogger(AkismetStubServer.class);
+	
+	private final HttpServer server;
+	
+	private final ExecutorService executor;
+	
+	private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+	
+	private final LongAdder rejected = new LongAdder();
+	
+	private final LongAdder errors = new LongAdder();
+	
+	private final LongAdder timeouts = new LongAdder();
+	
+	private final AtomicInteger active = new AtomicInteger();
+	
+	private final AtomicInteger maxActive = new AtomicInteger();
+	
+	private volatile Set<String> validKeys = Collections.emptySet();
+	
+	private volatile StubVerdict.Script script = StubVerdict.documented();
+	
+	private volatile Latency latency = Latency.none();
+	
+	private volatile double errorRate;
+	
+	private volatile int errorStatus = 500;
+	
+	private volatile double timeoutRate;
+	
+	private volatile long timeout = 60_000;
+	
+	private volatile Semaphore concurrencyLimit;
+	
+	/**
+	 * Creates a stub on a free port of the loopback interface.
+	 * @throws IOException If the server cannot be started
+	 */
+	public AkismetStubServer() throws IOException {
+		this(new InetSocketAddress("127.0.0.1", 0));
+	}
+	
+	/**
+	 * @param address The address to listen on
+	 * @throws IOException If the server cannot be started
+	 */
+	public AkismetStubServer(final InetSocketAddress address) throws IOException {
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			final Thread rv = new Thread(runnable, "akismet-stub");
+			rv.setDaemon(true);
+			return rv;
+		});
+		this.server = HttpServer.create(address, 1024);
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/", this::handle);
+		this.server.start();
+	}
+	
+	private void handle(final HttpExchange exchange) throws IOException {
+		final String path = exchange.getRequestURI().getPath();
+		final String function = path.substring(path.lastIndexOf('/') + 1);
+		this.requests.computeIfAbsent(function, key -> new LongAdder()).increment();
+		
+		final Semaphore limit = this.concurrencyLimit;
+		if(limit != null && !limit.tryAcquire()) {
+			this.rejected.increment();
+			respond(exchange, 503, "Too many concurrent requests", Collections.emptyMap());
+			return;
+		}
+		final int current = this.active.incrementAndGet();
+		this.maxActive.accumulateAndGet(current, Math::max);
+		try {
+			final Map<String, String> parameters = decode(exchange.getRequestBody());
+			final Random random = ThreadLocalRandom.current();
+			if(random.nextDouble() < this.timeoutRate) {
+				this.timeouts.increment();
+				// Holds the connection without answering until the client gives up
+				sleep(this.timeout);
+				exchange.close();
+				return;
+			}
+			sleep(this.latency.next(random));
+			if(random.nextDouble() < this.errorRate) {
+				this.errors.increment();
+				respond(exchange, this.errorStatus, "Injected error", Collections.emptyMap());
+				return;
+			}
+			answer(exchange, function, parameters);
+		} catch(RuntimeException e) {
+			logger.warn(String.format("Could not answer %s", path), e);
+			respond(exchange, 500, e.getMessage(), Collections.emptyMap());
+		} finally {
+			this.active.decrementAndGet();
+			if(limit != null)
+				limit.release();
+		}
+	}
+	
+	private void answer(final HttpExchange exchange, final String function, final Map<String, String> parameters) throws IOException {
+		final Map<String, String> headers = new HashMap<>();
+		switch(function) {
+			case "verify-key":
+				respond(exchange, 200, isValid(parameters.get("key")) ? "valid" : "invalid", headers);
+				break;
+			case "comment-check":
+				if(!isValid(keyOf(exchange.getRequestURI()))) {
+					headers.put("X-akismet-debug-help", "Invalid API key");
+					respond(exchange, 200, "invalid", headers);
+					break;
+				}
+				final StubVerdict verdict = this.script.verdictOf(parameters);
+				switch(verdict) {
+					case DISCARD:
+						headers.put("X-akismet-pro-tip", "discard");
+						respond(exchange, 200, "true", headers);
+						break;
+					case SPAM:
+						respond(exchange, 200, "true", headers);
+						break;
+					case INVALID:
+						headers.put("X-akismet-debug-help", "Scripted invalid request");
+						respond(exchange, 200, "invalid", headers);
+						break;
+					default:
+						respond(exchange, 200, "false", headers);
+				}
+				break;
+			case "submit-spam":
+			case "submit-ham":
+				respond(exchange, 200, THANKS, headers);
+				break;
+			default:
+				respond(exchange, 404, "Unknown function " + function, headers);
+		}
+	}
+	
+	/**
+	 * @return The API key from the host name of a request made through the proxy, null for direct requests
+	 */
+	private static String keyOf(final URI uri) {
+		final String host = uri.getHost();
+		if(host == null)
+			return null;
+		final int i = host.indexOf('.');
+		return i < 0 ? null : host.substring(0, i);
+	}
+	
+	private boolean isValid(final String key) {
+		final Set<String> keys = this.validKeys;
+		return keys.isEmpty() || keys.contains(key);
+	}
+	
+	private static void respond(final HttpExchange exchange, final int status, final String body, final Map<String, String> headers) throws IOException {
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		headers.forEach(exchange.getResponseHeaders()::add);
+		exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+	
+	private static void sleep(final long millis) {
+		if(millis <= 0)
+			return;
+		try {
+			Thread.sleep(millis);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static Map<String, String> decode(final InputStream in) throws IOException {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final byte[] b = new byte[4096];
+		int read;
+		while((read = in.read(b)) != -1)
+			buffer.write(b, 0, read);
+		final Map<String, String> rv = new HashMap<>();
+		final String form = new String(buffer.toByteArray(), StandardCharsets.US_ASCII);
+		if(!form.isEmpty()) {
+			for(String pair : form.split("&")) {
+				final int i = pair.indexOf('=');
+				if(i < 0)
+					rv.put(URLDecoder.decode(pair, "UTF-8"), null);
+				else
+					rv.put(URLDecoder.decode(pair.substring(0, i), "UTF-8"), URLDecoder.decode(pair.substring(i + 1), "UTF-8"));
+			}
+		}
+		return rv;
+	}
+	
+	/**
+	 * @return The stub as proxy for http clients
+	 */
+	public HttpHost getProxy() {
+		return new HttpHost("127.0.0.1", getAddress().getPort());
+	}
+	
+	public InetSocketAddress getAddress() {
+		return this.server.getAddress();
+	}
+	
+	/**
+	 * @param validKeys The API keys accepted by the stub, all keys are accepted if empty (the default)
+	 */
+	public void setValidKeys(final Set<String> validKeys) {
+		this.validKeys = Collections.unmodifiableSet(new HashSet<>(validKeys));
+	}
+	
+	/**
+	 * @param script Decides the verdicts of comment-checks, defaults to {@link StubVerdict#documented()}
+	 */
+	public void setScript(final StubVerdict.Script script) {
+		this.script = script;
+	}
+	
+	/**
+	 * @param latency The distribution of the response times, defaults to {@link Latency#none()}
+	 */
+	public void setLatency(final Latency latency) {
+		this.latency = latency;
+	}
+	
+	/**
+	 * @param errorRate The fraction of requests answered with an error status
+	 * @param errorStatus The status of those answers
+	 */
+	public void setErrors(final double errorRate, final int errorStatus) {
+		if(errorRate < 0 || errorRate > 1)
+			throw new IllegalArgumentException("Error rate must be between 0 and 1");
+		this.errorRate = errorRate;
+		this.errorStatus = errorStatus;
+	}
+	
+	/**
+	 * @param timeoutRate The fraction of requests that are not answered
+	 * @param timeout Time in milliseconds after which the connection of an unanswered request is closed, should exceed the timeout of the client
+	 */
+	public void setTimeouts(final double timeoutRate, final long timeout) {
+		if(timeoutRate < 0 || timeoutRate > 1)
+			throw new IllegalArgumentException("Timeout rate must be between 0 and 1");
+		this.timeoutRate = timeoutRate;
+		this.timeout = timeout;
+	}
+	
+	/**
+	 * @param maxConcurrency Maximum number of requests handled at the same time, further requests are 
+	 * answered with 503. 0 for no limit (the default)
+	 */
+	public void setMaxConcurrency(final int maxConcurrency) {
+		if(maxConcurrency < 0)
+			throw new IllegalArgumentException("Maximum concurrency must not be negative");
+		this.concurrencyLimit = maxConcurrency == 0 ? null : new Semaphore(maxConcurrency);
+	}
+	
+	/**
+	 * @param function One of the API functions, for example <code>comment-check</code>
+	 * @return The number of requests of that function received so far
+	 */
+	public long getRequests(final String function) {
+		final LongAdder counter = this.requests.get(function);
+		return counter == null ? 0 : counter.sum();
+	}
+	
+	/**
+	 * @return The number of requests received so far
+	 */
+	public long getRequests() {
+		return this.requests.values().stream().mapToLong(LongAdder::sum).sum();
+	}
+	
+	/**
+	 * @return The number of requests rejected because of the concurrency limit
+	 */
+	public long getRejected() {
+		return this.rejected.sum();
+	}
+	
+	public long getErrors() {
+		return this.errors.sum();
+	}
+	
+	public long getTimeouts() {
+		return this.timeouts.sum();
+	}
+	
+	/**
+	 * @return The maximum number of requests handled at the same time so far
+	 */
+	public int getPeakConcurrency() {
+		return this.maxActive.get();
+	}
+
+	@Override
+	public void close() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+}
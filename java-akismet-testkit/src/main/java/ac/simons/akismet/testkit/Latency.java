@@ -0,0 +1,104 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.testkit;
+
+import java.util.Random;
+
+/**
+ * A distribution of response times of the {@link AkismetStubServer}.
+ * @author Michael J. Simons
+ */
+@FunctionalInterface
+public interface Latency {
+	/** z-score of the 99th percentile of the standard normal distribution */
+	double Z_99 = 2.3263;
+	
+	/**
+	 * @param random The source of randomness
+	 * @return The next response time in milliseconds
+	 */
+	long next(Random random);
+	
+	/**
+	 * @return Responses without delay
+	 */
+	static Latency none() {
+		return random -> 0;
+	}
+	
+	/**
+	 * @param millis The response time in milliseconds
+	 * @return Responses that all take the same time
+	 */
+	static Latency fixed(final long millis) {
+		if(millis < 0)
+			throw new IllegalArgumentException("Response time must not be negative");
+		return random -> millis;
+	}
+	
+	/**
+	 * @param min The minimum response time in milliseconds
+	 * @param max The maximum response time in milliseconds
+	 * @return Response times that are distributed uniformly between min and max
+	 */
+	static Latency uniform(final long min, final long max) {
+		if(min < 0 || max < min)
+			throw new IllegalArgumentException("Response times must not be negative and max must not be less than min");
+		return random -> min + (long) (random.nextDouble() * (max - min + 1));
+	}
+	
+	/**
+	 * @param mean The mean response time in milliseconds
+	 * @return Exponentially distributed response times
+	 */
+	static Latency exponential(final double mean) {
+		if(mean <= 0)
+			throw new IllegalArgumentException("Mean response time must be positive");
+		return random -> Math.round(-mean * Math.log(1.0 - random.nextDouble()));
+	}
+	
+	/**
+	 * A log-normal distribution has the long tail that real services show.
+	 * @param median The median response time in milliseconds
+	 * @param p99 The 99th percentile of the response times in milliseconds
+	 * @return Log-normally distributed response times
+	 */
+	static Latency logNormal(final double median, final double p99) {
+		if(median <= 0 || p99 < median)
+			throw new IllegalArgumentException("Median must be positive and the 99th percentile must not be less than the median");
+		final double mu = Math.log(median);
+		final double sigma = Math.log(p99 / median) / Z_99;
+		return random -> Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.testkit;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.AkismetException;
+import ac.simons.akismet.MetricsListener;
+import ac.simons.akismet.MetricsListener.Operation;
+import ac.simons.akismet.MetricsListener.Outcome;
+
+/**
+ * Drives comment-checks of an {@link Akismet} instance at a target rate and measures the achieved throughput
+ * and the latency percentiles.<br>
+ * The load is open: checks are started on a fixed schedule, regardless of how long earlier checks take, and 
+ * latencies are measured from the time a check was scheduled, so that a stalled client doesn't hide its 
+ * stall by sending less (coordinated omission). Checks are non-blocking if the transport supports it, 
+ * otherwise they run on a thread per outstanding check.
+ * @author Michael J. Simons
+ */
+public class LoadGenerator {
+	/** Highest latency the histogram can record, in microseconds */
+	private static final long MAX_LATENCY = TimeUnit.MINUTES.toMicros(10);
+	
+	private final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+	
+	private final Akismet akismet;
+	
+	private final Supplier<AkismetComment> comments;
+	
+	private int maxOutstanding = 10_000;
+	
+	private long drainTimeout = 60_000;
+	
+	/**
+	 * @param akismet The instance to drive
+	 * @param comments Supplies the comments to check, called from a single thread
+	 */
+	public LoadGenerator(final Akismet akismet, final Supplier<AkismetComment> comments) {
+		this.akismet = akismet;
+		this.comments = comments;
+	}
+	
+	/**
+	 * Runs checks at the given rate and waits for all of them to complete. Checks that would exceed the maximum
+	 * number of outstanding checks are dropped and reported as such. Metrics listeners set on the instance
+	 * still receive all calls.
+	 * @param rate Target number of checks per second
+	 * @param duration Time in milliseconds to send checks for
+	 * @return The report of the run
+	 * @throws InterruptedException If interrupted while sending or waiting for outstanding checks
+	 */
+	public LoadReport run(final double rate, final long duration) throws InterruptedException {
+		if(rate <= 0 || duration <= 0)
+			throw new IllegalArgumentException("Rate and duration must be positive");
+		
+		final Histogram latencies = new ConcurrentHistogram(MAX_LATENCY, 3);
+		final LongAdder succeeded = new LongAdder();
+		final LongAdder failed = new LongAdder();
+		final Map<Outcome, LongAdder> outcomes = new EnumMap<>(Outcome.class);
+		for(Outcome outcome : Outcome.values())
+			outcomes.put(outcome, new LongAdder());
+		final Semaphore outstanding = new Semaphore(this.maxOutstanding);
+		final AtomicLong lastCompletion = new AtomicLong();
+		final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+		
+		final MetricsListener previousListener = this.akismet.getMetricsListener();
+		this.akismet.setMetricsListener((operation, outcome, durationNanos) -> {
+			if(operation == Operation.COMMENT_CHECK)
+				outcomes.get(outcome).increment();
+			if(previousListener != null)
+				previousListener.record(operation, outcome, durationNanos);
+		});
+		final boolean async = this.akismet.getTransport().supportsAsync();
+		final ExecutorService executor = async ? null : Executors.newCachedThreadPool(runnable -> {
+			final Thread rv = new Thread(runnable, "akismet-load");
+			rv.setDaemon(true);
+			return rv;
+		});
+		
+		final long period = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+		final long start = System.nanoTime();
+		final long end = start + TimeUnit.MILLISECONDS.toNanos(duration);
+		long sent = 0;
+		long dropped = 0;
+		long pending = 0;
+		try {
+			for(long scheduled = start; scheduled < end; scheduled += period) {
+				long now;
+				while((now = System.nanoTime()) < scheduled)
+					LockSupport.parkNanos(scheduled - now);
+				if(Thread.interrupted())
+					throw new InterruptedException();
+				if(!outstanding.tryAcquire()) {
+					++dropped;
+					continue;
+				}
+				++sent;
+				final long intended = scheduled;
+				final AkismetComment comment = this.comments.get();
+				final Runnable completed = () -> {
+					final long completion = System.nanoTime();
+					latencies.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(completion - intended), MAX_LATENCY));
+					lastCompletion.accumulateAndGet(completion, Math::max);
+					outstanding.release();
+				};
+				if(async) {
+					this.akismet.commentCheckDetailedAsync(comment).whenComplete((result, e) -> {
+						if(e == null)
+							succeeded.increment();
+						else {
+							failed.increment();
+							firstFailure.compareAndSet(null, e instanceof CompletionException ? e.getCause() : e);
+						}
+						completed.run();
+					});
+				} else {
+					executor.execute(() -> {
+						try {
+							this.akismet.commentCheckDetailed(comment);
+							succeeded.increment();
+						} catch(AkismetException e) {
+							failed.increment();
+							firstFailure.compareAndSet(null, e);
+						}
+						completed.run();
+					});
+				}
+			}
+			if(!outstanding.tryAcquire(this.maxOutstanding, this.drainTimeout, TimeUnit.MILLISECONDS)) {
+				pending = this.maxOutstanding - outstanding.availablePermits();
+				logger.warn(String.format("%d checks were still outstanding after %dms", pending, this.drainTimeout));
+			}
+		} finally {
+			this.akismet.setMetricsListener(previousListener);
+			if(executor != null)
+				executor.shutdownNow();
+		}
+		
+		if(firstFailure.get() != null)
+			logger.warn(String.format("%d checks failed, the first one with: %s", failed.sum(), firstFailure.get().getMessage()), firstFailure.get());
+		
+		final Map<Outcome, Long> counts = new EnumMap<>(Outcome.class);
+		outcomes.forEach((outcome, count) -> counts.put(outcome, count.sum()));
+		final long elapsed = Math.max(lastCompletion.get(), end) - start;
+		return new LoadReport(rate, sent, succeeded.sum(), failed.sum(), dropped, pending, elapsed, latencies.copy(), counts);
+	}
+	
+	public int getMaxOutstanding() {
+		return maxOutstanding;
+	}
+
+	/**
+	 * @param maxOutstanding Maximum number of checks that are sent and not yet completed, 10,000 by default
+	 */
+	public void setMaxOutstanding(final int maxOutstanding) {
+		if(maxOutstanding <= 0)
+			throw new IllegalArgumentException("Maximum number of outstanding checks must be positive");
+		this.maxOutstanding = maxOutstanding;
+	}
+
+	public long getDrainTimeout() {
+		return drainTimeout;
+	}
+
+	/**
+	 * @param drainTimeout Time in milliseconds to wait for outstanding checks after the last one has been sent, 60 seconds by default
+	 */
+	public void setDrainTimeout(final long drainTimeout) {
+		this.drainTimeout = drainTimeout;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.testkit;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import ac.simons.akismet.MetricsListener.Outcome;
+
+/**
+ * The result of a {@link LoadGenerator} run. Latencies are measured from the time a check was scheduled.
+ * @author Michael J. Simons
+ */
+public final class LoadReport {
+	private final double targetRate;
+	
+	private final long sent;
+	
+	private final long succeeded;
+	
+	private final long failed;
+	
+	private final long dropped;
+	
+	private final long pending;
+	
+	private final long elapsed;
+	
+	private final Histogram latencies;
+	
+	private final Map<Outcome, Long> outcomes;
+
+	LoadReport(final double targetRate, final long sent, final long succeeded, final long failed, final long dropped, final long pending, final long elapsed, final Histogram latencies, final Map<Outcome, Long> outcomes) {
+		this.targetRate = targetRate;
+		this.sent = sent;
+		this.succeeded = succeeded;
+		this.failed = failed;
+		this.dropped = dropped;
+		this.pending = pending;
+		this.elapsed = elapsed;
+		this.latencies = latencies;
+		this.outcomes = Collections.unmodifiableMap(outcomes);
+	}
+
+	public double getTargetRate() {
+		return targetRate;
+	}
+
+	/**
+	 * @return Number of checks sent
+	 */
+	public long getSent() {
+		return sent;
+	}
+
+	/**
+	 * @return Number of checks that returned a result, including fallback verdicts
+	 */
+	public long getSucceeded() {
+		return succeeded;
+	}
+
+	/**
+	 * @return Number of checks that failed with an exception
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return Number of checks not sent because too many checks were outstanding
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return Number of checks that didn't complete within the drain timeout
+	 */
+	public long getPending() {
+		return pending;
+	}
+
+	/**
+	 * @return Time in nanoseconds from the start of the run to the last completed check
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	/**
+	 * @return Completed checks per second
+	 */
+	public double getThroughput() {
+		return (this.succeeded + this.failed) / (this.elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+	}
+	
+	/**
+	 * @param percentile A percentile between 0 and 100
+	 * @return The latency at this percentile in milliseconds
+	 */
+	public double getLatency(final double percentile) {
+		return this.latencies.getValueAtPercentile(percentile) / 1000.0;
+	}
+	
+	/**
+	 * @return The latencies in microseconds
+	 */
+	public Histogram getLatencies() {
+		return latencies.copy();
+	}
+	
+	/**
+	 * @return The outcomes of the comment-check calls as reported to metrics listeners, by outcome
+	 */
+	public Map<Outcome, Long> getOutcomes() {
+		return outcomes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("target %.1f/s, achieved %.1f/s, sent %d, succeeded %d, failed %d, dropped %d, pending %d, latency p50 %.2fms, p90 %.2fms, p99 %.2fms, p99.9 %.2fms, max %.2fms, outcomes %s",
+				this.targetRate, getThroughput(), this.sent, this.succeeded, this.failed, this.dropped, this.pending, 
+				getLatency(50), getLatency(90), getLatency(99), getLatency(99.9), this.latencies.getMaxValue() / 1000.0, this.outcomes);
+	}
+}
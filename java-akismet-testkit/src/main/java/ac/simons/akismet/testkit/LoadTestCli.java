@@ -0,0 +1,115 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.testkit;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.ConnectionPool;
+
+/**
+ * Runs the {@link LoadGenerator} against an embedded {@link AkismetStubServer}, so that the client can be 
+ * load-tested offline:
+ * <pre>java -cp java-akismet-testkit.jar:... ac.simons.akismet.testkit.LoadTestCli --rate 500 --duration 30</pre>
+ * Optional arguments are <code>--median MS</code> and <code>--p99 MS</code> (log-normal latency of the stub, 
+ * 20 and 200 by default), <code>--error-rate R</code> and <code>--timeout-rate R</code> (0 by default), 
+ * <code>--max-concurrency N</code> of the stub (unlimited by default) and <code>--connections N</code> of the 
+ * client (64 by default).
+ * @author Michael J. Simons
+ */
+public final class LoadTestCli {
+	private LoadTestCli() {
+	}
+	
+	public static void main(final String... args) throws Exception {
+		final Map<String, String> options = new HashMap<>();
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			if(!args[i].startsWith("--")) {
+				usage(String.format("Unexpected argument %s", args[i]));
+				return;
+			}
+			options.put(args[i].substring(2), args[i + 1]);
+		}
+		if(args.length % 2 != 0) {
+			usage(String.format("Missing value of %s", args[args.length - 1]));
+			return;
+		}
+		for(String required : new String[] {"rate", "duration"}) {
+			if(!options.containsKey(required)) {
+				usage(String.format("Missing --%s", required));
+				return;
+			}
+		}
+		
+		final double rate = Double.parseDouble(options.get("rate"));
+		final long duration = Long.parseLong(options.get("duration")) * 1000;
+		final int connections = Integer.parseInt(options.getOrDefault("connections", "64"));
+		
+		try(
+			AkismetStubServer stub = new AkismetStubServer();
+			ConnectionPool pool = new ConnectionPool(connections, 30_000, 10_000, stub.getProxy())
+		) {
+			stub.setLatency(Latency.logNormal(Double.parseDouble(options.getOrDefault("median", "20")), Double.parseDouble(options.getOrDefault("p99", "200"))));
+			stub.setErrors(Double.parseDouble(options.getOrDefault("error-rate", "0")), 500);
+			stub.setTimeouts(Double.parseDouble(options.getOrDefault("timeout-rate", "0")), 60_000);
+			stub.setMaxConcurrency(Integer.parseInt(options.getOrDefault("max-concurrency", "0")));
+			
+			final Akismet akismet = new Akismet(pool.getHttpClient(), pool.getHttpAsyncClient());
+			akismet.setApiKey("load-test");
+			akismet.setApiConsumer("http://load.test");
+			
+			final AtomicLong sequence = new AtomicLong();
+			final LoadGenerator generator = new LoadGenerator(akismet, () -> {
+				final long i = sequence.incrementAndGet();
+				final AkismetComment rv = new AkismetComment();
+				rv.setUserIp("10.0.0." + (i % 256));
+				rv.setUserAgent("Mozilla/5.0");
+				rv.setCommentAuthor(i % 10 == 0 ? "viagra-test-123" : "author-" + i);
+				rv.setCommentContent("Comment number " + i);
+				return rv;
+			});
+			System.out.println(generator.run(rate, duration));
+			System.out.println(String.format("stub: peak concurrency %d, rejected %d, errors %d, timeouts %d", stub.getPeakConcurrency(), stub.getRejected(), stub.getErrors(), stub.getTimeouts()));
+		}
+	}
+	
+	private static void usage(final String message) {
+		System.err.println(message);
+		System.err.println("Usage: LoadTestCli --rate CHECKS_PER_SECOND --duration SECONDS [--median MS] [--p99 MS] [--error-rate R] [--timeout-rate R] [--max-concurrency N] [--connections N]");
+		System.exit(2);
+	}
+}
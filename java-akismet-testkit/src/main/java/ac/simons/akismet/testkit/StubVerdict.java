@@ -0,0 +1,81 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.testkit;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The answers of the {@link AkismetStubServer} to comment-checks.
+ * @author Michael J. Simons
+ */
+public enum StubVerdict {
+	/** Answers <code>false</code> */
+	HAM,
+	/** Answers <code>true</code> */
+	SPAM,
+	/** Answers <code>true</code> with <code>X-akismet-pro-tip: discard</code> */
+	DISCARD,
+	/** Answers <code>invalid</code> with a <code>X-akismet-debug-help</code> header, like Akismet does for missing parameters */
+	INVALID;
+	
+	/**
+	 * Decides the verdict of a comment-check from its form parameters.
+	 */
+	@FunctionalInterface
+	public interface Script {
+		StubVerdict verdictOf(Map<String, String> parameters);
+	}
+	
+	/**
+	 * Behaves like the test values documented by Akismet: Comments by <code>viagra-test-123</code> or 
+	 * <code>akismet-guaranteed-spam@example.com</code> are spam, all other comments are ham.
+	 * @return The default script of the stub
+	 */
+	public static Script documented() {
+		return parameters -> "viagra-test-123".equals(parameters.get("comment_author")) || "akismet-guaranteed-spam@example.com".equals(parameters.get("comment_author_email")) ? SPAM : HAM;
+	}
+	
+	/**
+	 * @param verdicts The verdicts to answer with
+	 * @return A script that answers with the given verdicts in turn, starting over after the last one
+	 */
+	public static Script sequence(final StubVerdict... verdicts) {
+		if(verdicts.length == 0)
+			throw new IllegalArgumentException("At least one verdict is needed");
+		final StubVerdict[] copy = verdicts.clone();
+		final AtomicInteger next = new AtomicInteger();
+		return parameters -> copy[Math.floorMod(next.getAndIncrement(), copy.length)];
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet.testkit;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.AkismetUnavailableException;
+import ac.simons.akismet.CheckResult;
+import ac.simons.akismet.ConnectionPool;
+import ac.simons.akismet.FallbackVerdict;
+import ac.simons.akismet.testkit.AkismetStubServer;
+import ac.simons.akismet.testkit.Latency;
+import ac.simons.akismet.testkit.StubVerdict;
+
+/**
+ * @author Michael J. Simons
+ */
+public class AkismetStubServerTest {
+	private AkismetStubServer stub;
+	private ConnectionPool pool;
+	
+	@Before
+	public void setup() throws Exception {
+		this.stub = new AkismetStubServer();
+		this.pool = new ConnectionPool(16, 30_000, 10_000, this.stub.getProxy());
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.pool.close();
+		this.stub.close();
+	}
+	
+	private Akismet newAkismet(final String apiKey) {
+		final Akismet rv = new Akismet(this.pool.getHttpClient(), this.pool.getHttpAsyncClient());
+		rv.setApiKey(apiKey);
+		rv.setApiConsumer("http://test.com");
+		return rv;
+	}
+	
+	static AkismetComment newComment(final String author) {
+		final AkismetComment rv = new AkismetComment();
+		rv.setUserIp("192.168.0.1");
+		rv.setUserAgent("Mozilla/5.0");
+		rv.setCommentAuthor(author);
+		rv.setCommentContent("Hello");
+		return rv;
+	}
+	
+	@Test
+	public void answersLikeAkismet() throws Exception {
+		this.stub.setValidKeys(Collections.singleton("123test"));
+		final Akismet akismet = newAkismet("123test");
+		
+		Assert.assertTrue(akismet.verifyKey());
+		Assert.assertFalse(newAkismet("wrong").verifyKey());
+		Assert.assertTrue(akismet.commentCheck(newComment("viagra-test-123")));
+		Assert.assertFalse(akismet.commentCheck(newComment("michael")));
+		Assert.assertTrue(akismet.submitSpam(newComment("viagra-test-123")));
+		Assert.assertTrue(akismet.submitHam(newComment("michael")));
+		
+		Assert.assertEquals(2, this.stub.getRequests("verify-key"));
+		Assert.assertEquals(2, this.stub.getRequests("comment-check"));
+		Assert.assertEquals(1, this.stub.getRequests("submit-spam"));
+		Assert.assertEquals(1, this.stub.getRequests("submit-ham"));
+		Assert.assertEquals(6, this.stub.getRequests());
+	}
+	
+	@Test
+	public void verdictsCanBeScripted() throws Exception {
+		this.stub.setScript(StubVerdict.sequence(StubVerdict.SPAM, StubVerdict.DISCARD, StubVerdict.HAM));
+		final Akismet akismet = newAkismet("123test");
+		
+		final CheckResult spam = akismet.commentCheckDetailed(newComment("michael"));
+		Assert.assertTrue(spam.isSpam());
+		Assert.assertFalse(spam.isDiscard());
+		final CheckResult discard = akismet.commentCheckDetailed(newComment("michael"));
+		Assert.assertTrue(discard.isDiscard());
+		Assert.assertEquals("discard", discard.getHeaders().get("X-akismet-pro-tip"));
+		Assert.assertFalse(akismet.commentCheckDetailed(newComment("viagra-test-123")).isSpam());
+		Assert.assertTrue(akismet.commentCheckDetailed(newComment("michael")).isSpam());
+	}
+	
+	@Test
+	public void errorsAndTimeoutsCanBeInjected() throws Exception {
+		final Akismet akismet = newAkismet("123test");
+		akismet.setFallbackVerdict(FallbackVerdict.UNKNOWN);
+		
+		this.stub.setErrors(1.0, 500);
+		// Akismet treats bad status codes as ham
+		Assert.assertFalse(akismet.commentCheck(newComment("viagra-test-123")));
+		Assert.assertEquals(1, this.stub.getErrors());
+		
+		this.stub.setErrors(0, 500);
+		this.stub.setTimeouts(1.0, 2_000);
+		akismet.setLatencyBudget(200);
+		try {
+			akismet.commentCheck(newComment("viagra-test-123"));
+			Assert.fail("Timeout expected");
+		} catch(AkismetUnavailableException e) {
+		}
+		Assert.assertEquals(1, this.stub.getTimeouts());
+	}
+	
+	@Test
+	public void concurrentRequestsCanBeLimited() {
+		this.stub.setMaxConcurrency(2);
+		this.stub.setLatency(Latency.fixed(300));
+		final Akismet akismet = newAkismet("123test");
+		
+		final List<CompletableFuture<Boolean>> checks = IntStream.range(0, 6)
+				.mapToObj(i -> akismet.commentCheckAsync(newComment("viagra-test-123")))
+				.collect(Collectors.toList());
+		final List<Boolean> verdicts = checks.stream().map(CompletableFuture::join).collect(Collectors.toList());
+		
+		Assert.assertEquals(4, this.stub.getRejected());
+		Assert.assertEquals(2, this.stub.getPeakConcurrency());
+		// Rejected checks are answered with 503 and treated as ham
+		Assert.assertEquals(2, verdicts.stream().filter(Boolean::booleanValue).count());
+	}
+	
+	@Test
+	public void latenciesFollowTheirDistribution() {
+		final Random random = new Random(4711);
+		final long[] logNormal = sorted(Latency.logNormal(20, 200), random);
+		Assert.assertEquals(20, logNormal[logNormal.length / 2], 2);
+		Assert.assertEquals(200, logNormal[logNormal.length * 99 / 100], 20);
+		
+		final long[] uniform = sorted(Latency.uniform(10, 20), random);
+		Assert.assertEquals(10, uniform[0]);
+		Assert.assertEquals(20, uniform[uniform.length - 1]);
+		
+		final long[] exponential = sorted(Latency.exponential(50), random);
+		Assert.assertEquals(50, LongStream.of(exponential).average().getAsDouble(), 2);
+		
+		Assert.assertEquals(new HashSet<>(Arrays.asList(7L)), LongStream.of(sorted(Latency.fixed(7), random)).boxed().collect(Collectors.toSet()));
+	}
+	
+	private static long[] sorted(final Latency latency, final Random random) {
+		return LongStream.range(0, 100_000).map(i -> latency.next(random)).sorted().toArray();
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet.testkit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.ConnectionPool;
+import ac.simons.akismet.MetricsListener.Outcome;
+import ac.simons.akismet.testkit.AkismetStubServer;
+import ac.simons.akismet.testkit.Latency;
+import ac.simons.akismet.testkit.LoadGenerator;
+import ac.simons.akismet.testkit.LoadReport;
+
+/**
+ * @author Michael J. Simons
+ */
+public class LoadGeneratorTest {
+	private AkismetStubServer stub;
+	private ConnectionPool pool;
+	private Akismet akismet;
+	private LoadGenerator generator;
+	
+	@Before
+	public void setup() throws Exception {
+		this.stub = new AkismetStubServer();
+		this.pool = new ConnectionPool(64, 30_000, 10_000, this.stub.getProxy());
+		this.akismet = new Akismet(this.pool.getHttpClient(), this.pool.getHttpAsyncClient());
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+		
+		final AtomicLong sequence = new AtomicLong();
+		this.generator = new LoadGenerator(this.akismet, () -> {
+			final long i = sequence.incrementAndGet();
+			final AkismetComment rv = new AkismetComment();
+			rv.setUserIp("192.168.0.1");
+			rv.setUserAgent("Mozilla/5.0");
+			rv.setCommentAuthor(i % 2 == 0 ? "viagra-test-123" : "author-" + i);
+			rv.setCommentContent("Comment " + i);
+			return rv;
+		});
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.pool.close();
+		this.stub.close();
+	}
+	
+	@Test
+	public void targetRateIsReached() throws InterruptedException {
+		this.stub.setLatency(Latency.fixed(10));
+		final LoadReport report = this.generator.run(200, 2_000);
+		
+		Assert.assertEquals(400, report.getSent());
+		Assert.assertEquals(400, report.getSucceeded());
+		Assert.assertEquals(0, report.getFailed());
+		Assert.assertEquals(0, report.getDropped());
+		Assert.assertEquals(400, this.stub.getRequests("comment-check"));
+		Assert.assertEquals(200, report.getThroughput(), 20);
+		Assert.assertTrue(report.getLatency(50) >= 10);
+		Assert.assertEquals(Long.valueOf(200), report.getOutcomes().get(Outcome.SPAM));
+		Assert.assertEquals(Long.valueOf(200), report.getOutcomes().get(Outcome.HAM));
+		Assert.assertNull(this.akismet.getMetricsListener());
+	}
+	
+	@Test
+	public void checksBeyondTheOutstandingLimitAreDropped() throws InterruptedException {
+		this.stub.setLatency(Latency.fixed(200));
+		this.generator.setMaxOutstanding(20);
+		final LoadReport report = this.generator.run(200, 1_000);
+		
+		Assert.assertEquals(200, report.getSent() + report.getDropped());
+		Assert.assertTrue(report.getDropped() > 0);
+		Assert.assertTrue(this.stub.getPeakConcurrency() <= 20);
+		Assert.assertTrue(report.getLatency(50) >= 200);
+	}
+	
+	@Test
+	public void rejectedChecksAreReported() throws InterruptedException {
+		this.stub.setLatency(Latency.fixed(200));
+		this.stub.setMaxConcurrency(10);
+		final LoadReport report = this.generator.run(200, 1_000);
+		
+		Assert.assertEquals(200, report.getSent());
+		Assert.assertTrue(this.stub.getRejected() > 0);
+		Assert.assertEquals(this.stub.getRejected(), report.getOutcomes().get(Outcome.BAD_STATUS).longValue());
+		Assert.assertEquals(200 - this.stub.getRejected(), report.getOutcomes().get(Outcome.SPAM) + report.getOutcomes().get(Outcome.HAM));
+	}
+}
@@ -33,121 +33,1005 @@
  */
 package ac.simons.akismet;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpStatus;
-import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.nio.client.HttpAsyncClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ac.simons.akismet.MetricsListener.Operation;
+import ac.simons.akismet.MetricsListener.Outcome;
+import ac.simons.akismet.MetricsListener.Retry;
+import ac.simons.akismet.RequestScheduler.Priority;
+
 /**
  * Loosely oriented at http://akismet.com/development/api/
  * @author Michael J. Simons
  */
 public class Akismet {
+	private static final int HTTP_OK = 200;
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+	private static final int HTTP_INTERNAL_SERVER_ERROR = 500;
+	
+	/** Number of synthetic encode and parse cycles of a warm-up */
+	private static final int WARM_UP_CYCLES = 200;
+	
 	/** The default user agent */
 	private final String userAgent;
-	/** The default content type */
-	private final String contentType = "application/x-www-form-urlencoded; charset=utf-8";
 	/** A logger */
 	private final Logger logger = LoggerFactory.getLogger(Akismet.class);
 	
-	private final HttpClient httpClient;
+	/** Used for all calls */
+	private final Transport transport;
 	
-	private String apiEndpoint = "rest.akismet.com";
-	private String apiVersion = "1.1";	
-		
-	/** The API key being verified for use with the API */
-	private String apiKey;
-	/**
-	 * A.k.a "blog" 
-	 * The front page or home URL of the instance making the request. 
-	 * For a blog, site, or wiki this would be the front page. Note: Must be a full URI, including http://. 
+	/** 
+	 * Scheme, endpoint, version, API key, api consumer (a.k.a "blog") and whether calls are made at all. 
+	 * Replaced as a whole, each call reads it exactly once.
 	 */
-	private String apiConsumer;	
+	private final AtomicReference<AkismetConfiguration> configuration;
+	
+	/** Local filters that run before comment-check calls */
+	private PreFilter[] preFilters = new PreFilter[0];
+	
+	/** Optional cache for comment-check verdicts */
+	private VerdictCache verdictCache;
+	
+	/** Maximum number of concurrent checks in bulk calls */
+	private int bulkConcurrency = 8;
+	
+	/** Optional circuit breaker for comment-check calls */
+	private CircuitBreaker circuitBreaker;
+	
+	/** Maximum time in milliseconds a comment-check may take, 0 for no limit */
+	private long latencyBudget = 0;
+	
+	/** Verdict used when Akismet is unavailable */
+	private FallbackVerdict fallbackVerdict = FallbackVerdict.HAM;
+	
+	/** Optional listener for the duration and outcome of all calls */
+	private MetricsListener metricsListener;
+	
+	/** Optional policy for hedging idempotent calls */
+	private HedgingPolicy hedgingPolicy;
 	
-	/** If set to false, all comments are treated as ham and no akismet calls are made */
-	private boolean enabled = true;
+	/** Optional rate limit and prioritization of all calls */
+	private RequestScheduler requestScheduler;
+	
+	/** Optional store of author reputations */
+	private ReputationStore reputationStore;
+	
+	/** Optional index of recent spam contents */
+	private NearDuplicateIndex nearDuplicateIndex;
+	
+	/** True once a warm-up has verified the key and opened its connections */
+	private volatile boolean ready;
 	
 	public Akismet(HttpClient httpClient) {	
-		this.httpClient = httpClient;
-		final Properties version = new Properties();
-		try {
-			version.load(Akismet.class.getResourceAsStream("/ac/simons/akismet/version.properties"));
-		} catch(IOException e) {
+		this(httpClient, null);
+	}
+	
+	/**
+	 * Creates a new Akismet instance that is able to make non-blocking calls through
+	 * the <code>*Async</code> methods. The asynchronous client must have been started
+	 * before it is used and is not closed by this instance.
+	 * @param httpClient The client used for all blocking calls
+	 * @param httpAsyncClient The client used for all non-blocking calls, may be null
+	 */
+	public Akismet(HttpClient httpClient, HttpAsyncClient httpAsyncClient) {	
+		this(new ApacheTransport(httpClient, httpAsyncClient));
+	}
+	
+	/**
+	 * Creates a new Akismet instance that makes all calls through the given transport.
+	 * @param transport The transport to use
+	 */
+	public Akismet(Transport transport) {
+		this.transport = transport;
+		this.configuration = new AtomicReference<>(AkismetConfiguration.DEFAULT);
+		this.userAgent = UserAgent.VALUE;
+		logger.debug(String.format("Akismet (%s) ready...", this.userAgent));
+	}
+	
+	/**
+	 * Holds the user agent, which is computed once when the first instance is created.
+	 */
+	private static final class UserAgent {
+		static final String VALUE;
+		
+		static {
+			final Properties version = new Properties();
+			try(InputStream in = Akismet.class.getResourceAsStream("/ac/simons/akismet/version.properties")) {
+				version.load(in);
+			} catch(IOException e) {
+			}
+			VALUE = String.format("Java/%s java-akismet/%s", System.getProperty("java.version"), version.getProperty("ac.simons.akismet.version"));
+			LoggerFactory.getLogger(Akismet.class).info(String.format("Akismet (%s) ready...", VALUE));
 		}
-		this.userAgent = String.format("Java/%s java-akismet/%s", System.getProperty("java.version"), version.getProperty("ac.simons.akismet.version"));
-		logger.info(String.format("Akismet (%s) ready...", this.userAgent));
+	}
+
+	/**
+	 * Creates a lightweight instance for another key and consumer that shares the transport and
+	 * copies all other settings of the template. Pre filters, verdict cache, circuit breaker, request scheduler, 
+	 * reputation store and near duplicate index are shared with the template, the latter three keep their
+	 * entries per api consumer.
+	 * @param template The instance to copy
+	 * @param apiKey The API key of the new instance
+	 * @param apiConsumer The api consumer of the new instance
+	 */
+	Akismet(final Akismet template, final String apiKey, final String apiConsumer) {
+		this.transport = template.transport;
+		this.userAgent = template.userAgent;
+		this.configuration = new AtomicReference<>(template.getConfiguration().withApiKey(apiKey).withApiConsumer(apiConsumer));
+		this.preFilters = template.preFilters;
+		this.verdictCache = template.verdictCache;
+		this.bulkConcurrency = template.bulkConcurrency;
+		this.circuitBreaker = template.circuitBreaker;
+		this.latencyBudget = template.latencyBudget;
+		this.fallbackVerdict = template.fallbackVerdict;
+		this.metricsListener = template.metricsListener;
+		this.hedgingPolicy = template.hedgingPolicy;
+		this.requestScheduler = template.requestScheduler;
+		this.reputationStore = template.reputationStore;
+		this.nearDuplicateIndex = template.nearDuplicateIndex;
 	}
 
 	public String getUserAgent() {
 		return userAgent;
 	}
 
+	public AkismetConfiguration getConfiguration() {
+		return this.configuration.get();
+	}
+
+	/**
+	 * Atomically replaces the configuration, for example to rotate the API key or to switch endpoints 
+	 * while calls are made. Calls never wait for a reconfiguration and each call uses either the old 
+	 * or the new configuration as a whole. Calls already started keep their configuration.<br>
+	 * The update may be applied more than once if other threads reconfigure concurrently, 
+	 * so it should be free of side effects.
+	 * @param update Computes the new configuration from the current one
+	 * @return The new configuration
+	 */
+	public AkismetConfiguration reconfigure(final UnaryOperator<AkismetConfiguration> update) {
+		final AkismetConfiguration rv = this.configuration.updateAndGet(update);
+		logger.debug(String.format("Reconfigured: %s", rv));
+		return rv;
+	}
+
+	public String getApiScheme() {
+		return getConfiguration().getApiScheme();
+	}
+
+	/**
+	 * @param apiScheme Either <code>http</code> (the default) or <code>https</code>
+	 * @see ConnectionPool
+	 */
+	public void setApiScheme(String apiScheme) {
+		reconfigure(configuration -> configuration.withApiScheme(apiScheme));
+	}
+
 	public String getApiEndpoint() {
-		return apiEndpoint;
+		return getConfiguration().getApiEndpoint();
 	}
 
 	public void setApiEndpoint(String apiEndpoint) {
-		this.apiEndpoint = apiEndpoint;
+		reconfigure(configuration -> configuration.withApiEndpoint(apiEndpoint));
 	}
 
 	public String getApiVersion() {
-		return apiVersion;
+		return getConfiguration().getApiVersion();
 	}
 
 	public void setApiVersion(String apiVersion) {
-		this.apiVersion = apiVersion;
+		reconfigure(configuration -> configuration.withApiVersion(apiVersion));
 	}
 
+	public Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * @return The blocking client or null, if this instance doesn't use an {@link ApacheTransport}
+	 */
 	public HttpClient getHttpClient() {
-		return httpClient;
+		return transport instanceof ApacheTransport ? ((ApacheTransport) transport).getHttpClient() : null;
+	}
+
+	/**
+	 * @return The asynchronous client or null, if there is none or this instance doesn't use an {@link ApacheTransport}
+	 */
+	public HttpAsyncClient getHttpAsyncClient() {
+		return transport instanceof ApacheTransport ? ((ApacheTransport) transport).getHttpAsyncClient() : null;
 	}
 
 	public String getApiKey() {
-		return apiKey;
+		return getConfiguration().getApiKey();
 	}
 
 	public void setApiKey(String apikey) {
-		this.apiKey = apikey;
+		reconfigure(configuration -> configuration.withApiKey(apikey));
 	}
 
 	public String getApiConsumer() {
-		return apiConsumer;
+		return getConfiguration().getApiConsumer();
 	}
 
+	/**
+	 * @param apiConsumer A.k.a "blog", the front page or home URL of the instance making the request. 
+	 * For a blog, site, or wiki this would be the front page. Note: Must be a full URI, including http://. 
+	 */
 	public void setApiConsumer(String apiConsumer) {
-		this.apiConsumer = apiConsumer;
+		reconfigure(configuration -> configuration.withApiConsumer(apiConsumer));
 	}
 	
 	public boolean isEnabled() {
-		return enabled;
+		return getConfiguration().isEnabled();
 	}
 
+	/**
+	 * @param enabled If set to false, all comments are treated as ham and no akismet calls are made
+	 */
 	public void setEnabled(boolean enabled) {
-		this.enabled = enabled;
+		reconfigure(configuration -> configuration.withEnabled(enabled));
 	}
 
-	private HttpPost newHttpPostRequest(final String uri) {
-		final HttpPost request = new HttpPost(uri);
-		request.setHeader("User-Agent", this.userAgent);
-		request.setHeader("Content-Type", this.contentType);
-		return request;
+	public List<PreFilter> getPreFilters() {
+		return Arrays.asList(preFilters.clone());
+	}
+
+	/**
+	 * Sets local filters that are asked in order before a comment is checked by Akismet. The
+	 * first filter that decides on spam or ham answers the check without an Akismet call.
+	 * @param preFilters The filters to use, may be empty
+	 */
+	public void setPreFilters(List<PreFilter> preFilters) {
+		this.preFilters = preFilters.toArray(new PreFilter[preFilters.size()]);
 	}
 
-	private HttpResponse callAkismet(final String function, final AkismetComment comment) throws Exception {
-		final HttpPost request = newHttpPostRequest(String.format("http://%s.%s/%s/%s", this.getApiKey(), this.getApiEndpoint(), this.getApiVersion(), function));
-		request.setEntity(comment.toEntity(this.getApiConsumer()));
-		return this.getHttpClient().execute(request);
+	public VerdictCache getVerdictCache() {
+		return verdictCache;
+	}
+
+	/**
+	 * Enables caching of comment-check verdicts.
+	 * @param verdictCache The cache to use, null disables caching
+	 */
+	public void setVerdictCache(VerdictCache verdictCache) {
+		this.verdictCache = verdictCache;
+	}
+
+	public int getBulkConcurrency() {
+		return bulkConcurrency;
+	}
+
+	/**
+	 * @param bulkConcurrency Maximum number of concurrent checks used by {@link #commentCheckAll(Collection)}
+	 */
+	public void setBulkConcurrency(int bulkConcurrency) {
+		if(bulkConcurrency <= 0)
+			throw new IllegalArgumentException("Bulk concurrency must be positive");
+		this.bulkConcurrency = bulkConcurrency;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Protects comment-check calls with a circuit breaker. While the breaker is open,
+	 * all checks return the {@link #getFallbackVerdict() fallback verdict}.
+	 * @param circuitBreaker The breaker to use, null disables it
+	 */
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	public long getLatencyBudget() {
+		return latencyBudget;
+	}
+
+	/**
+	 * Sets the maximum time a comment-check may take. Checks that exceed it are treated as failed
+	 * and return the {@link #getFallbackVerdict() fallback verdict}. Non-blocking calls are cancelled 
+	 * when the budget is exceeded. Blocking calls are made asynchronously if the transport supports it, 
+	 * otherwise the budget is passed to the transport as request timeout. The {@link ApacheTransport} applies
+	 * it to each phase (connection lease, connect and read) of the blocking call.<br>
+	 * Note that a budget replaces the default request configuration of the Apache clients for comment-check calls.
+	 * @param latencyBudget The budget in milliseconds, 0 for no limit
+	 */
+	public void setLatencyBudget(long latencyBudget) {
+		if(latencyBudget < 0)
+			throw new IllegalArgumentException("Latency budget must not be negative");
+		this.latencyBudget = latencyBudget;
+	}
+
+	public FallbackVerdict getFallbackVerdict() {
+		return fallbackVerdict;
+	}
+
+	/**
+	 * The fallback verdict is only used if a circuit breaker or a latency budget is set. Without them, 
+	 * timeouts are thrown as {@link AkismetUnavailableException}.
+	 * @param fallbackVerdict Verdict used when the circuit breaker is open or the latency budget is exceeded
+	 */
+	public void setFallbackVerdict(FallbackVerdict fallbackVerdict) {
+		this.fallbackVerdict = fallbackVerdict;
+	}
+
+	public MetricsListener getMetricsListener() {
+		return metricsListener;
+	}
+
+	/**
+	 * @param metricsListener Receives the duration and outcome of all calls, null disables recording
+	 * @see HistogramMetricsListener
+	 */
+	public void setMetricsListener(MetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+
+	public HedgingPolicy getHedgingPolicy() {
+		return hedgingPolicy;
+	}
+
+	/**
+	 * Enables hedged requests for comment-check and verify-key calls. Submissions are never hedged. 
+	 * Hedging needs a transport that supports asynchronous calls, blocking calls wait for the hedged call.
+	 * @param hedgingPolicy The policy to use, null disables hedging
+	 */
+	public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+		this.hedgingPolicy = hedgingPolicy;
+	}
+
+	public RequestScheduler getRequestScheduler() {
+		return requestScheduler;
+	}
+
+	/**
+	 * Limits the rate of all calls and makes live checks go before feedback and bulk checks. Blocking calls
+	 * wait for their permit on the calling thread, the latency budget starts after the permit has been given.
+	 * @param requestScheduler The scheduler to use, null disables rate limiting
+	 */
+	public void setRequestScheduler(RequestScheduler requestScheduler) {
+		this.requestScheduler = requestScheduler;
+	}
+
+	public ReputationStore getReputationStore() {
+		return reputationStore;
+	}
+
+	/**
+	 * Enables skipping checks of trusted authors. The store is updated with the verdicts of Akismet 
+	 * and all submissions, checks decided by pre filters or the verdict cache are not recorded.
+	 * @param reputationStore The store to use, null disables reputation tracking
+	 */
+	public void setReputationStore(ReputationStore reputationStore) {
+		this.reputationStore = reputationStore;
+	}
+
+	public NearDuplicateIndex getNearDuplicateIndex() {
+		return nearDuplicateIndex;
+	}
+
+	/**
+	 * Enables answering checks of near duplicates of recent spam without calling Akismet. The index is 
+	 * updated with the verdicts of Akismet and all submissions. Matches are only confirmed if the transport
+	 * supports asynchronous calls.
+	 * @param nearDuplicateIndex The index to use, null disables near duplicate detection
+	 */
+	public void setNearDuplicateIndex(NearDuplicateIndex nearDuplicateIndex) {
+		this.nearDuplicateIndex = nearDuplicateIndex;
+	}
+
+	private TransportRequest newCallRequest(final AkismetConfiguration configuration, final Operation operation, final AkismetComment comment) throws AkismetException {
+		return new TransportRequest(configuration.getUri(operation), comment.toForm(configuration.getApiConsumer()), this.userAgent, latencyBudgetFor(operation));
+	}
+	
+	private long latencyBudgetFor(final Operation operation) {
+		return operation == Operation.COMMENT_CHECK ? this.latencyBudget : 0;
+	}
+	
+	private TransportRequest newVerifyKeyRequest(final AkismetConfiguration configuration) throws AkismetException {
+		final byte[] form = new byte[encodeVerifyKey(configuration, null)];
+		encodeVerifyKey(configuration, form);
+		return new TransportRequest(configuration.getUri(Operation.VERIFY_KEY), form, this.userAgent, 0);
+	}
+	
+	/**
+	 * @param form The target array, null to compute the length only
+	 * @return The length of the form
+	 */
+	private int encodeVerifyKey(final AkismetConfiguration configuration, final byte[] form) {
+		final int pos = FormEncoder.field(form, 0, "key", configuration.getApiKey(), true);
+		return FormEncoder.field(form, pos, "blog", configuration.getApiConsumer(), true);
+	}
+
+	/**
+	 * Executes the given request asynchronously. If the request has a timeout, the returned future fails with an 
+	 * {@link AkismetUnavailableException} once it is exceeded, which aborts the request.
+	 * @param request The request to execute
+	 * @return A future response
+	 */
+	private CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+		if(!this.transport.supportsAsync())
+			return failed(new AkismetException("The transport doesn't support asynchronous calls"));
+		return withTimeout(this.transport.executeAsync(request), request.getTimeout());
+	}
+	
+	/**
+	 * Fails the given future with an {@link AkismetUnavailableException} once the timeout is exceeded.
+	 * @param future The future to watch
+	 * @param timeout Timeout in milliseconds, 0 for no timeout
+	 * @return The future
+	 */
+	private static <T> CompletableFuture<T> withTimeout(final CompletableFuture<T> future, final long timeout) {
+		if(timeout > 0) {
+			final ScheduledFuture<?> timer = SharedScheduler.get().schedule(
+				() -> future.completeExceptionally(new AkismetUnavailableException(String.format("No response within %dms", timeout))), timeout, TimeUnit.MILLISECONDS
+			);
+			future.whenComplete((response, e) -> timer.cancel(false));
+		}
+		return future;
+	}
+	
+	/**
+	 * Executes the given request asynchronously and sends a second, identical request if the first one 
+	 * isn't answered within the delay of the policy. The first response wins, the other request is
+	 * cancelled and its response, if any, closed. The timeout of the request applies to both. If a {@link RequestScheduler}
+	 * is set, the second request waits for a permit with the lowest priority.
+	 * @param operation The operation being called
+	 * @param request The request to execute
+	 * @param policy The hedging policy
+	 * @param details The details of the call, may be null
+	 * @return A future response
+	 */
+	private CompletableFuture<TransportResponse> executeHedged(final Operation operation, final TransportRequest request, final HedgingPolicy policy, final CallDetails details) {
+		final long start = System.nanoTime();
+		final long delay = policy.onRequest();
+		final CompletableFuture<TransportResponse> rv = new CompletableFuture<>();
+		final AtomicInteger outstanding = new AtomicInteger(1);
+		final List<CompletableFuture<TransportResponse>> attempts = new CopyOnWriteArrayList<>();
+		attempt(request, rv, outstanding, attempts);
+		final ScheduledFuture<?> hedge = SharedScheduler.get().schedule(() -> {
+			if(rv.isDone() || !policy.tryHedge())
+				return;
+			// Hedges are additional calls, so they must not exceed the rate limit
+			final RequestScheduler scheduler = this.requestScheduler;
+			final CompletableFuture<Void> permit = scheduler == null ? CompletableFuture.completedFuture(null) : scheduler.acquire(Priority.BULK);
+			rv.whenComplete((response, e) -> permit.cancel(false));
+			permit.thenRun(() -> {
+				if(rv.isDone())
+					return;
+				outstanding.incrementAndGet();
+				final MetricsListener listener = this.metricsListener;
+				if(listener != null)
+					listener.recordRetry(operation, Retry.HEDGE);
+				if(details != null)
+					details.hedged();
+				attempt(request, rv, outstanding, attempts);
+			});
+		}, delay, TimeUnit.NANOSECONDS);
+		rv.whenComplete((response, e) -> {
+			hedge.cancel(false);
+			attempts.forEach(attempt -> attempt.cancel(true));
+			if(e == null)
+				policy.record(System.nanoTime() - start);
+		});
+		return withTimeout(rv, request.getTimeout());
+	}
+	
+	/**
+	 * Sends one attempt of a hedged request. The first successful attempt completes the result, the result fails
+	 * only after all attempts failed.
+	 */
+	private void attempt(final TransportRequest request, final CompletableFuture<TransportResponse> result, final AtomicInteger outstanding, final List<CompletableFuture<TransportResponse>> attempts) {
+		final CompletableFuture<TransportResponse> attempt;
+		try {
+			attempt = this.transport.executeAsync(request);
+		} catch(RuntimeException e) {
+			if(outstanding.decrementAndGet() == 0)
+				result.completeExceptionally(e);
+			return;
+		}
+		attempts.add(attempt);
+		attempt.whenComplete((response, e) -> {
+			if(e == null) {
+				if(!result.complete(response))
+					closeQuietly(response);
+			} else if(outstanding.decrementAndGet() == 0)
+				result.completeExceptionally(e);
+		});
+		// The result may have been completed while this attempt was added
+		if(result.isDone())
+			attempt.cancel(true);
+	}
+	
+	private void closeQuietly(final TransportResponse response) {
+		try {
+			response.close();
+		} catch(IOException e) {
+			logger.debug(String.format("Could not close response of a cancelled hedge: %s", e.getMessage()));
+		}
+	}
+	
+	/**
+	 * Executes a call with the default priority of the operation.
+	 * @see #call(Operation, Priority, boolean, Callable, ResponseHandler)
+	 */
+	private <T> CompletableFuture<T> call(final Operation operation, final boolean async, final Callable<TransportRequest> request, final ResponseHandler<T> handler) {
+		return call(operation, operation.isIdempotent() ? Priority.LIVE : Priority.FEEDBACK, async, request, handler);
+	}
+	
+	/**
+	 * Executes a call once the {@link RequestScheduler}, if any, permits it and reports overload to the scheduler.
+	 * @param operation The operation being called
+	 * @param priority The priority of the call
+	 * @param async True to wait for the permit and execute the call asynchronously
+	 * @param request Creates the request
+	 * @param handler Handles the response
+	 * @return A future result, completed exceptionally with an {@link AkismetException}
+	 */
+	private <T> CompletableFuture<T> call(final Operation operation, final Priority priority, final boolean async, final Callable<TransportRequest> request, final ResponseHandler<T> handler) {
+		final long requested = System.nanoTime();
+		final RequestScheduler scheduler = this.requestScheduler;
+		if(scheduler == null)
+			return send(operation, async, request, handler, requested);
+		
+		final ResponseHandler<T> recordingHandler = response -> {
+			final int statusCode = response.getStatusCode();
+			scheduler.record(statusCode == HTTP_TOO_MANY_REQUESTS || statusCode >= HTTP_INTERNAL_SERVER_ERROR);
+			return handler.handle(response);
+		};
+		final CompletableFuture<Void> permit = scheduler.acquire(priority);
+		CompletableFuture<T> rv;
+		if(async) {
+			final AtomicReference<CompletableFuture<T>> sent = new AtomicReference<>();
+			rv = permit.thenCompose(v -> {
+				sent.set(send(operation, true, request, recordingHandler, requested));
+				return sent.get();
+			});
+			final CompletableFuture<T> composed = rv;
+			rv.whenComplete((result, e) -> {
+				if(composed.isCancelled()) {
+					permit.cancel(false);
+					if(sent.get() != null)
+						sent.get().cancel(true);
+				}
+			});
+		} else {
+			try {
+				permit.get();
+				rv = send(operation, false, request, recordingHandler, requested);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				permit.cancel(false);
+				rv = failed(e);
+			} catch(ExecutionException e) {
+				rv = failed(e.getCause());
+			}
+		}
+		rv.whenComplete((result, e) -> {
+			if(e != null && (e instanceof CompletionException ? e.getCause() : e) instanceof AkismetUnavailableException)
+				scheduler.record(true);
+		});
+		return rv;
+	}
+	
+	/**
+	 * Executes a call through the transport and records its outcome. Idempotent calls are hedged if 
+	 * a {@link HedgingPolicy} is set, which always makes them asynchronous.
+	 * @param operation The operation being called
+	 * @param async True to execute the call asynchronously
+	 * @param request Creates the request
+	 * @param handler Handles the response
+	 * @param requested Time the call has been requested, before waiting for a permit
+	 * @return A future result, completed exceptionally with an {@link AkismetException}
+	 */
+	private <T> CompletableFuture<T> send(final Operation operation, final boolean async, final Callable<TransportRequest> request, final ResponseHandler<T> handler, final long requested) {
+		final long start = System.nanoTime();
+		final HedgingPolicy hedging = this.hedgingPolicy;
+		final MetricsListener listener = this.metricsListener;
+		final CallDetails details = listener != null && listener.isDetailed() ? new CallDetails(operation, start - requested, start, listener.callStarted(operation)) : null;
+		final Callable<TransportRequest> encoding = details == null ? request : () -> details.encoded(request.call());
+		final ResponseHandler<T> reading = details == null ? handler : response -> {
+			details.responded(response.getStatusCode());
+			final T rv = handler.handle(response);
+			details.read(rv);
+			return rv;
+		};
+		CompletableFuture<T> rv;
+		try {
+			if(hedging != null && operation.isIdempotent() && this.transport.supportsAsync())
+				rv = handleAsync(executeHedged(operation, encoding.call(), hedging, details), reading);
+			else if(async)
+				rv = handleAsync(executeAsync(encoding.call()), reading);
+			else
+				rv = CompletableFuture.completedFuture(handle(this.transport.execute(encoding.call()), reading));
+		} catch(Exception e) {
+			rv = failed(e);
+		}
+		if(listener != null)
+			rv.whenComplete((result, e) -> {
+				final Outcome outcome = outcomeOf(operation, result, e);
+				final long duration = System.nanoTime() - start;
+				listener.record(operation, outcome, duration);
+				if(details != null)
+					listener.recordDetails(details.completed(outcome, duration));
+			});
+		return rv;
+	}
+	
+	/**
+	 * @param result A {@link CheckResult} for comment-check, a Boolean for all other operations
+	 */
+	private static Outcome outcomeOf(final Operation operation, final Object result, final Throwable e) {
+		if(e != null) {
+			final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+			return cause instanceof AkismetUnavailableException ? Outcome.UNAVAILABLE : Outcome.ERROR;
+		}
+		if(result == null)
+			return Outcome.BAD_STATUS;
+		switch(operation) {
+			case VERIFY_KEY:
+				return (Boolean) result ? Outcome.VALID : Outcome.INVALID;
+			case COMMENT_CHECK:
+				return ((CheckResult) result).isSpam() ? Outcome.SPAM : Outcome.HAM;
+			default:
+				return (Boolean) result ? Outcome.SUBMITTED : Outcome.BAD_STATUS;
+		}
+	}
+	
+	/**
+	 * @return True if the exception or one of its causes is an I/O timeout
+	 */
+	private static boolean isTimeout(final Throwable e) {
+		for(Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if(cause instanceof InterruptedIOException)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return The exception itself if it is an {@link AkismetException}, otherwise an {@link AkismetUnavailableException} 
+	 * for timeouts or an {@link AkismetException}
+	 */
+	private static AkismetException toAkismetException(final Throwable e) {
+		if(e instanceof AkismetException)
+			return (AkismetException) e;
+		return isTimeout(e) ? new AkismetUnavailableException(e) : new AkismetException(e);
+	}
+	
+	private static <T> CompletableFuture<T> failed(final Throwable e) {
+		final CompletableFuture<T> rv = new CompletableFuture<>();
+		rv.completeExceptionally(toAkismetException(e));
+		return rv;
+	}
+	
+	/**
+	 * Waits for the given future and unwraps its exceptions.
+	 * @param future The future to wait for
+	 * @return The result of the future
+	 * @throws AkismetException If the future completed exceptionally
+	 */
+	static <T> T join(final CompletableFuture<T> future) throws AkismetException {
+		try {
+			return future.join();
+		} catch(CompletionException e) {
+			if(e.getCause() instanceof AkismetException)
+				throw (AkismetException) e.getCause();
+			throw new AkismetException(e.getCause());
+		} catch(CancellationException e) {
+			throw new AkismetException(e);
+		}
+	}
+	
+	/**
+	 * Used to handle responses inside completion stages, all exceptions are turned into
+	 * AkismetExceptions.
+	 */
+	@FunctionalInterface
+	private interface ResponseHandler<T> {
+		T handle(TransportResponse response) throws Exception;
+	}
+	
+	/**
+	 * Handles the response and always closes it afterwards.
+	 */
+	private static <T> T handle(final TransportResponse response, final ResponseHandler<T> handler) throws Exception {
+		try {
+			return handler.handle(response);
+		} finally {
+			response.close();
+		}
+	}
+	
+	/**
+	 * Cancels the source when the dependent future is cancelled, so that cancellation reaches the request.
+	 * @return The dependent future
+	 */
+	private static <T> CompletableFuture<T> cancelling(final CompletableFuture<T> dependent, final CompletableFuture<?> source) {
+		dependent.whenComplete((result, e) -> {
+			if(dependent.isCancelled())
+				source.cancel(true);
+		});
+		return dependent;
+	}
+	
+	private static <T> CompletableFuture<T> handleAsync(final CompletableFuture<TransportResponse> response, final ResponseHandler<T> handler) {
+		return cancelling(response.handle((r, e) -> {
+			if(e != null)
+				throw new CompletionException(toAkismetException(e instanceof CompletionException ? e.getCause() : e));
+			try {
+				return handle(r, handler);
+			} catch(Exception ex) {
+				throw new CompletionException(new AkismetException(ex));
+			}
+		}), response);
+	}
+	
+	/**
+	 * @return True if the key is valid or null, if Akismet didn't answer at all
+	 */
+	private Boolean handleVerifyKeyResponse(final TransportResponse response) throws Exception {
+		Boolean rv = null;
+		if(response.getStatusCode() == HTTP_OK)
+			rv = bodyEquals(response.getBody(), "valid");
+		else 
+			logger.warn(String.format("Something bad happened while verifying key, assuming key is invalid: %s", response.getReasonPhrase()));
+		return rv;
+	}
+	
+	/**
+	 * @return The result or null, if Akismet didn't answer with a verdict. Only the answers <code>true</code> 
+	 * and <code>false</code> are verdicts, Akismet answers <code>invalid</code> for invalid keys or requests
+	 */
+	private CheckResult handleCommentCheckResponse(final AkismetComment comment, final TransportResponse response) throws Exception {
+		CheckResult rv = null;
+		if(response.getStatusCode() == HTTP_OK) {
+			final Boolean spam = readVerdict(response.getBody());
+			if(spam != null)
+				rv = toCheckResult(spam, response);
+			else
+				logger.warn(String.format("Akismet didn't answer with a verdict, assuming comment is ham: %s", headerOf(response, "X-akismet-debug-help")));
+		} else 
+			logger.warn(String.format("Something bad happened while checking a comment, assuming comment is ham: %s", response.getReasonPhrase()));
+		if(logger.isDebugEnabled())
+			logger.debug(String.format("Result for comment %s was: -> %s <-", comment.toString(), (rv == null || !rv.isSpam() ? "ham" : rv.isDiscard() ? "discard" : "spam")));
+		return rv;
+	}
+	
+	/**
+	 * Creates a result from the verdict and the <code>X-akismet-*</code> headers of the response. 
+	 * Responses without such headers share the constant results.
+	 */
+	private static CheckResult toCheckResult(final boolean spam, final TransportResponse response) {
+		final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		response.forEachHeader((name, value) -> {
+			if(name.regionMatches(true, 0, "X-akismet-", 0, 10))
+				headers.put(name, value);
+		});
+		if(headers.isEmpty())
+			return CheckResult.of(spam);
+		return new CheckResult(spam, spam && "discard".equalsIgnoreCase(headers.get("X-akismet-pro-tip")), headers);
+	}
+	
+	/**
+	 * Compares the body of a response with the expected answer, ignoring surrounding whitespace. Only the bytes
+	 * needed for the comparison are read, the rest of the body is consumed when the response is closed.
+	 * @param body The body of a response
+	 * @param expected The expected answer, US-ASCII only
+	 * @return True if the body equals the expected answer
+	 */
+	private static boolean bodyEquals(final InputStream body, final String expected) throws IOException {
+		return remainderEquals(body, skipWhitespace(body, body.read()), expected);
+	}
+	
+	/**
+	 * Reads the verdict of comment-check like {@link #bodyEquals(InputStream, String)}.
+	 * @param body The body of a response
+	 * @return True for spam, false for ham or null, if the body is neither <code>true</code> nor <code>false</code>
+	 */
+	private static Boolean readVerdict(final InputStream body) throws IOException {
+		final int b = skipWhitespace(body, body.read());
+		if(b == 't')
+			return remainderEquals(body, b, "true") ? Boolean.TRUE : null;
+		if(b == 'f')
+			return remainderEquals(body, b, "false") ? Boolean.FALSE : null;
+		return null;
+	}
+	
+	/**
+	 * @param first The first byte of the remainder
+	 * @return True if the remainder of the body is the expected answer
+	 */
+	private static boolean remainderEquals(final InputStream body, final int first, final String expected) throws IOException {
+		int b = first;
+		for(int i = 0; i < expected.length(); ++i) {
+			if(b != expected.charAt(i))
+				return false;
+			b = body.read();
+		}
+		return skipWhitespace(body, b) == -1;
+	}
+	
+	/**
+	 * @return The first byte, starting with <code>first</code>, that is not whitespace
+	 */
+	private static int skipWhitespace(final InputStream body, final int first) throws IOException {
+		int b = first;
+		while(b != -1 && Character.isWhitespace(b))
+			b = body.read();
+		return b;
+	}
+	
+	/**
+	 * @return The value of the header or null, if the response has no such header
+	 */
+	private static String headerOf(final TransportResponse response, final String name) {
+		final String[] rv = new String[1];
+		response.forEachHeader((header, value) -> {
+			if(header.equalsIgnoreCase(name))
+				rv[0] = value;
+		});
+		return rv[0];
+	}
+	
+	/**
+	 * Checks a comment through the circuit breaker, if any.
+	 * @param comment The comment to check
+	 * @param async True to make an asynchronous call
+	 * @param priority The priority of the check
+	 * @return A future result, null if Akismet didn't answer with a verdict
+	 */
+	private CompletableFuture<CheckResult> checkComment(final AkismetConfiguration configuration, final AkismetComment comment, final boolean async, final Priority priority) {
+		final CircuitBreaker breaker = this.circuitBreaker;
+		final CircuitBreaker.Permit permit = breaker == null ? null : breaker.tryAcquire();
+		if(breaker != null && permit == null)
+			return failed(new AkismetUnavailableException("Circuit breaker is open"));
+		
+		final long start = System.nanoTime();
+		final CompletableFuture<CheckResult> rv = call(Operation.COMMENT_CHECK, priority, async, () -> newCallRequest(configuration, Operation.COMMENT_CHECK, comment), response -> handleCommentCheckResponse(comment, response));
+		if(permit != null)
+			rv.whenComplete((result, e) -> {
+				if((e instanceof CompletionException ? e.getCause() : e) instanceof CancellationException)
+					permit.release();
+				else
+					permit.record(e != null || result == null, System.nanoTime() - start);
+			});
+		final ReputationStore reputation = this.reputationStore;
+		final NearDuplicateIndex duplicates = this.nearDuplicateIndex;
+		if(reputation != null || duplicates != null)
+			rv.thenAccept(result -> {
+				if(result != null)
+					record(configuration, comment, !result.isSpam());
+			});
+		return rv;
+	}
+	
+	/**
+	 * Checks a comment through the pre filters, the reputation store, the near duplicate index and the verdict cache, if any.
+	 */
+	private CompletableFuture<CheckResult> lookup(final AkismetConfiguration configuration, final AkismetComment comment, final boolean async, final Priority priority) {
+		for(PreFilter preFilter : this.preFilters) {
+			final PreFilter.Decision decision = preFilter.filter(comment);
+			if(decision != PreFilter.Decision.ASK_AKISMET) {
+				if(logger.isDebugEnabled())
+					logger.debug(String.format("Comment %s was decided by %s: -> %s <-", comment.toString(), preFilter.getClass().getSimpleName(), decision.name().toLowerCase()));
+				return CompletableFuture.completedFuture(CheckResult.of(decision == PreFilter.Decision.SPAM));
+			}
+		}
+		
+		final ReputationStore reputation = this.reputationStore;
+		if(reputation != null && reputation.isTrusted(comment, configuration.getApiConsumer())) {
+			if(logger.isDebugEnabled())
+				logger.debug(String.format("Comment %s is from a trusted author: -> ham <-", comment.toString()));
+			return CompletableFuture.completedFuture(CheckResult.HAM);
+		}
+		
+		final NearDuplicateIndex duplicates = this.nearDuplicateIndex;
+		if(duplicates != null && duplicates.matches(comment.getCommentContent(), configuration.getApiConsumer())) {
+			if(logger.isDebugEnabled())
+				logger.debug(String.format("Comment %s is a near duplicate of recent spam: -> spam <-", comment.toString()));
+			if(duplicates.isConfirm() && this.transport.supportsAsync())
+				checkComment(configuration, comment, true, Priority.BULK);
+			return CompletableFuture.completedFuture(CheckResult.SPAM);
+		}
+		
+		final VerdictCache cache = this.verdictCache;
+		if(cache == null)
+			return checkComment(configuration, comment, async, priority);
+		// Cancelling a check must not cancel the checks coalesced with it
+		return cache.get(comment.fingerprint(configuration.getApiConsumer()), () -> checkComment(configuration, comment, async, priority)).thenApply(Function.identity());
+	}
+	
+	/**
+	 * @return True if unavailable checks are answered with the fallback verdict. That's only the case
+	 * if a circuit breaker or a latency budget is set, plain timeouts are not masked
+	 */
+	private boolean isFallingBack() {
+		return this.fallbackVerdict != FallbackVerdict.UNKNOWN && (this.circuitBreaker != null || this.latencyBudget > 0);
+	}
+	
+	/**
+	 * @param e The reason Akismet is unavailable
+	 * @return The fallback verdict
+	 * @throws AkismetUnavailableException If there is no fallback verdict
+	 */
+	private CheckResult fallback(final AkismetUnavailableException e) throws AkismetUnavailableException {
+		if(!isFallingBack())
+			throw e;
+		logger.debug(String.format("Akismet is unavailable, assuming comment is %s: %s", this.fallbackVerdict.name().toLowerCase(), e.getMessage()));
+		return CheckResult.fallback(this.fallbackVerdict == FallbackVerdict.SPAM);
+	}
+	
+	/**
+	 * Records a verdict or submission for the api consumer of the configuration in the reputation store 
+	 * and the near duplicate index, if any.
+	 */
+	private void record(final AkismetConfiguration configuration, final AkismetComment comment, final boolean ham) {
+		final ReputationStore reputation = this.reputationStore;
+		if(reputation != null)
+			reputation.record(comment, configuration.getApiConsumer(), ham);
+		final NearDuplicateIndex duplicates = this.nearDuplicateIndex;
+		if(duplicates != null) {
+			if(ham)
+				duplicates.remove(comment.getCommentContent(), configuration.getApiConsumer());
+			else
+				duplicates.add(comment.getCommentContent(), configuration.getApiConsumer());
+		}
+	}
+	
+	private boolean handleSubmitSpamResponse(final TransportResponse response) throws Exception {
+		boolean rv = false;
+		if(response.getStatusCode() != HTTP_OK)
+			logger.warn(String.format("Something bad happened while submitting Spam: %s", response.getReasonPhrase()));
+		else {
+			logger.debug("Spam successfully submitted");
+			rv = true;
+		}
+		return rv;
+	}
+	
+	private boolean handleSubmitHamResponse(final TransportResponse response) throws Exception {
+		boolean rv = false;
+		if(response.getStatusCode() != HTTP_OK)
+			logger.warn(String.format("Something bad happened while submitting ham: %s", response.getReasonPhrase()));
+		else {
+			logger.debug("Ham successfully submitted");
+			rv = true;
+		}
+		return rv;
 	}
 
 	/**
@@ -156,24 +1040,149 @@ public class Akismet {
 	 * @throws AkismetException All exceptions and "invalid" responses are thrown
 	 */
 	public boolean verifyKey() throws AkismetException {
-		boolean rv = false;
+		final AkismetConfiguration configuration = getConfiguration();
+		return Boolean.TRUE.equals(join(call(Operation.VERIFY_KEY, false, () -> newVerifyKeyRequest(configuration), this::handleVerifyKeyResponse)));
+	}	
+	
+	/**
+	 * Non-blocking variant of {@link #verifyKey()}.
+	 * @return A future that is completed with true if the key is valid or exceptionally with an {@link AkismetException}
+	 */
+	public CompletableFuture<Boolean> verifyKeyAsync() {
+		final AkismetConfiguration configuration = getConfiguration();
+		final CompletableFuture<Boolean> call = call(Operation.VERIFY_KEY, true, () -> newVerifyKeyRequest(configuration), this::handleVerifyKeyResponse);
+		return cancelling(call.thenApply(Boolean.TRUE::equals), call);
+	}
+	
+	/**
+	 * Prepares this instance for its first calls, so that they pay neither for DNS lookups and connection setup nor 
+	 * for code that hasn't been compiled yet: The key is verified, the given number of connections to the host of 
+	 * the API key is opened and comments and responses are encoded and parsed a few times. All of this happens in 
+	 * the background, the returned future and {@link #isReady()} report the outcome, for example to health checks.<br>
+	 * The connections are opened by sending concurrent verify-key requests to the host of the API key. They are
+	 * sent asynchronously if the transport supports it, otherwise by a temporary pool of threads. 
+	 * @param connections Number of connections to open, should not exceed the connections per route of the transport
+	 * @return A future that is completed with true if the key is valid and all connections have been opened, 
+	 * with false if the key is invalid or exceptionally with an {@link AkismetException}
+	 */
+	public CompletableFuture<Boolean> warmUp(final int connections) {
+		if(connections < 0)
+			throw new IllegalArgumentException("Number of connections must not be negative");
+		
+		final long start = System.nanoTime();
+		final AkismetConfiguration configuration = getConfiguration();
+		final boolean async = this.transport.supportsAsync();
+		final ExecutorService executor = async ? null : Executors.newFixedThreadPool(connections + 1);
+		final CompletableFuture<Boolean> key = inBackground(executor, () -> call(Operation.VERIFY_KEY, async, () -> newVerifyKeyRequest(configuration), this::handleVerifyKeyResponse));
+		final List<CompletableFuture<Boolean>> opened = new ArrayList<>(connections);
+		for(int i = 0; i < connections; ++i)
+			opened.add(inBackground(executor, () -> openConnection(configuration, async)));
+		final CompletableFuture<Void> cycles = CompletableFuture.runAsync(this::runSyntheticCycles);
+		
+		// The readiness is updated before the returned future completes
+		return CompletableFuture.allOf(opened.toArray(new CompletableFuture<?>[connections]))
+			.thenCombine(cycles, (v1, v2) -> v1)
+			.thenCombine(key, (v, valid) -> Boolean.TRUE.equals(valid))
+			.whenComplete((valid, e) -> {
+				if(executor != null)
+					executor.shutdown();
+				this.ready = e == null && valid;
+				if(e != null)
+					logger.warn(String.format("Warm-up failed: %s", (e instanceof CompletionException ? e.getCause() : e).getMessage()));
+				else
+					logger.info(String.format("Warm-up finished after %dms, key is %s, %d connections opened", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), valid ? "valid" : "invalid", connections));
+			});
+	}
+	
+	/**
+	 * @return True if the last {@link #warmUp(int) warm-up} has been successful, false if there was none yet
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+	
+	/**
+	 * Runs the task on the executor or, if there is none, on the calling thread.
+	 */
+	private static <T> CompletableFuture<T> inBackground(final ExecutorService executor, final Supplier<CompletableFuture<T>> task) {
+		if(executor == null)
+			return task.get();
+		return CompletableFuture.supplyAsync(task, executor).thenCompose(Function.identity());
+	}
+	
+	/**
+	 * Sends a verify-key request to the host of the API key, without hedging, rate limiting or recording. 
+	 * Akismet answers verify-key on that host as well.
+	 * @return A future that is completed once the response has been read
+	 */
+	private CompletableFuture<Boolean> openConnection(final AkismetConfiguration configuration, final boolean async) {
 		try {
-			final HttpPost request = newHttpPostRequest(String.format("http://%s/%s/verify-key", this.getApiEndpoint(), this.getApiVersion()));			
-			final List<NameValuePair> p = new ArrayList<>();
-			p.add(new BasicNameValuePair("key", this.getApiKey()));
-			p.add(new BasicNameValuePair("blog", this.getApiConsumer()));			
-			request.setEntity(new UrlEncodedFormEntity(p, "UTF-8"));
-			final HttpResponse response = this.getHttpClient().execute(request);
-			final String body = EntityUtils.toString(response.getEntity());
-			if(response.getStatusLine().getStatusCode() == HttpStatus.SC_OK)
-				rv = body.trim().equals("valid");
-			else 
-				logger.warn(String.format("Something bad happened while verifying key, assuming key is invalid: %s", response.getStatusLine().getReasonPhrase()));			
+			final TransportRequest verifyKey = newVerifyKeyRequest(configuration);
+			final TransportRequest request = new TransportRequest(configuration.getUri(Operation.COMMENT_CHECK).resolve(Operation.VERIFY_KEY.getFunction()), verifyKey.getForm(), this.userAgent, 0);
+			if(async)
+				return handleAsync(executeAsync(request), this::handleVerifyKeyResponse);
+			return CompletableFuture.completedFuture(handle(this.transport.execute(request), this::handleVerifyKeyResponse));
 		} catch(Exception e) {
-			throw new AkismetException(e);
+			return failed(e);
 		}
-		return rv;
-	}	
+	}
+	
+	/**
+	 * Encodes a synthetic comment and parses synthetic responses {@link #WARM_UP_CYCLES} times.
+	 */
+	private void runSyntheticCycles() {
+		final AkismetComment comment = new AkismetComment();
+		comment.setUserIp("127.0.0.1");
+		comment.setUserAgent(this.userAgent);
+		comment.setCommentAuthor("warm-up");
+		comment.setCommentContent("A synthetic comment, never sent to Akismet");
+		try {
+			for(int i = 0; i < WARM_UP_CYCLES; ++i) {
+				comment.toForm("http://localhost");
+				comment.fingerprint("http://localhost");
+				// Parses the verdict like handleCommentCheckResponse, but without logging each synthetic result
+				handle(new SyntheticResponse((i & 1) == 0 ? "true" : "false"), response -> toCheckResult(readVerdict(response.getBody()), response));
+				handle(new SyntheticResponse("valid"), this::handleVerifyKeyResponse);
+			}
+		} catch(Exception e) {
+			throw new CompletionException(new AkismetException(e));
+		}
+	}
+	
+	/**
+	 * A successful response with a fixed body and a pro tip header, used to warm up the parsing of responses.
+	 */
+	private static final class SyntheticResponse implements TransportResponse {
+		private final byte[] body;
+		
+		SyntheticResponse(final String body) {
+			this.body = body.getBytes(StandardCharsets.US_ASCII);
+		}
+
+		@Override
+		public int getStatusCode() {
+			return HTTP_OK;
+		}
+
+		@Override
+		public String getReasonPhrase() {
+			return "OK";
+		}
+
+		@Override
+		public void forEachHeader(final BiConsumer<String, String> consumer) {
+			consumer.accept("X-akismet-pro-tip", "discard");
+		}
+
+		@Override
+		public InputStream getBody() {
+			return new ByteArrayInputStream(this.body);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
 	
 	/**
 	 * This is basically the core of everything. This call takes a number of arguments 
@@ -184,51 +1193,192 @@ public class Akismet {
 	 * I would recommend erring on the side of too much data, as everything is used as 
 	 * part of the Akismet signature.
 	 * @param comment The comment to check for spam
-	 * @return True, if the comment is spam, false otherwise
+	 * @return True, if the comment is spam, false otherwise. The fallback verdict if Akismet is unavailable 
+	 * and a circuit breaker or latency budget is set
 	 * @throws AkismetException All exceptions and "invalid" responses are thrown
+	 * @see #setCircuitBreaker(CircuitBreaker)
+	 * @see #setLatencyBudget(long)
 	 */
 	public boolean commentCheck(final AkismetComment comment) throws AkismetException {
+		return commentCheckDetailed(comment).isSpam();
+	}
+	
+	/**
+	 * Same as {@link #commentCheck(AkismetComment)} but returns the detailed result, including
+	 * Akismets advice to discard blatant spam and all diagnostic headers.
+	 * @param comment The comment to check for spam
+	 * @return The result of the check. A result without headers if the check was answered without calling 
+	 * Akismet or if Akismet didn't answer with a verdict
+	 * @throws AkismetException All exceptions and "invalid" responses are thrown
+	 */
+	public CheckResult commentCheckDetailed(final AkismetComment comment) throws AkismetException {
+		return checkDetailed(comment, Priority.LIVE);
+	}
+	
+	private CheckResult checkDetailed(final AkismetComment comment, final Priority priority) throws AkismetException {
 		// When in doubt, assume that the comment is ham
-		boolean rv = false;
-		if(enabled) {
+		CheckResult rv = CheckResult.HAM;
+		final AkismetConfiguration configuration = getConfiguration();
+		if(configuration.isEnabled()) {
 			try {
-				final HttpResponse response = this.callAkismet("comment-check", comment);
-				final String body = EntityUtils.toString(response.getEntity());
-				if(response.getStatusLine().getStatusCode() == HttpStatus.SC_OK)
-					rv = body.trim().equals("true");
-				else 
-					logger.warn(String.format("Something bad happened while checking a comment, assuming comment is ham: %s", response.getStatusLine().getReasonPhrase()));
-				if(logger.isDebugEnabled())
-					logger.debug(String.format("Result for comment %s was: -> %s <-", comment.toString(), (rv ? "spam" : "ham")));
-			} catch(Exception e) {
-				throw new AkismetException(e);
+				final CheckResult result = join(lookup(configuration, comment, this.latencyBudget > 0 && this.transport.supportsAsync(), priority));
+				if(result != null)
+					rv = result;
+			} catch(AkismetUnavailableException e) {
+				rv = fallback(e);
 			}
 		}
 		return rv;
 	}
 	
 	/**
-	 * This call is for submitting comments that weren't marked 
-	 * as spam but should have been.
-	 * @param comment The comment to be checked for spam
-	 * @return True if the spam was successfully submitted.
+	 * Non-blocking variant of {@link #commentCheck(AkismetComment)}. The returned future is completed
+	 * on an I/O thread of the transport, so dependent stages should not block. Cancelling the future
+	 * aborts the request, unless it has been coalesced with other checks by the verdict cache.
+	 * @param comment The comment to check for spam
+	 * @return A future that is completed with true if the comment is spam or exceptionally with an {@link AkismetException}
+	 */
+	public CompletableFuture<Boolean> commentCheckAsync(final AkismetComment comment) {
+		final CompletableFuture<CheckResult> check = commentCheckDetailedAsync(comment);
+		return cancelling(check.thenApply(CheckResult::isSpam), check);
+	}
+	
+	/**
+	 * Non-blocking variant of {@link #commentCheckDetailed(AkismetComment)}.
+	 * @param comment The comment to check for spam
+	 * @return A future that is completed with the result or exceptionally with an {@link AkismetException}
+	 */
+	public CompletableFuture<CheckResult> commentCheckDetailedAsync(final AkismetComment comment) {
+		return checkDetailedAsync(comment, Priority.LIVE);
+	}
+	
+	private CompletableFuture<CheckResult> checkDetailedAsync(final AkismetComment comment, final Priority priority) {
+		final AkismetConfiguration configuration = getConfiguration();
+		if(!configuration.isEnabled())
+			return CompletableFuture.completedFuture(CheckResult.HAM);
+		final CompletableFuture<CheckResult> lookup = lookup(configuration, comment, true, priority);
+		return cancelling(lookup.handle((result, e) -> {
+			if(e == null)
+				return result == null ? CheckResult.HAM : result;
+			final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+			if(cause instanceof AkismetUnavailableException && isFallingBack())
+				return CheckResult.fallback(this.fallbackVerdict == FallbackVerdict.SPAM);
+			throw new CompletionException(cause);
+		}), lookup);
+	}
+	
+	/**
+	 * Same as {@link #commentCheckDetailed(AkismetComment)}, but for checks that are not waited for by a user, 
+	 * like imports of archives. The call waits for a {@link Priority#BULK bulk} permit of the 
+	 * {@link RequestScheduler}, if any, so that live checks go first.
+	 * @param comment The comment to check for spam
+	 * @return The result of the check
 	 * @throws AkismetException All exceptions and "invalid" responses are thrown
 	 */
-	public boolean submitSpam(final AkismetComment comment) throws AkismetException {
-		boolean rv = false;
+	public CheckResult commentCheckDetailedInBulk(final AkismetComment comment) throws AkismetException {
+		return checkDetailed(comment, Priority.BULK);
+	}
+	
+	/**
+	 * Non-blocking variant of {@link #commentCheckDetailedInBulk(AkismetComment)}.
+	 * @param comment The comment to check for spam
+	 * @return A future that is completed with the result or exceptionally with an {@link AkismetException}
+	 */
+	public CompletableFuture<CheckResult> commentCheckDetailedInBulkAsync(final AkismetComment comment) {
+		return checkDetailedAsync(comment, Priority.BULK);
+	}
+	
+	/**
+	 * Checks all given comments with at most {@link #getBulkConcurrency()} concurrent calls.
+	 * @param comments The comments to check
+	 * @return One verdict per comment, in the order of the collection
+	 * @throws AkismetException Only if the calling thread is interrupted. Failed checks are reported per verdict
+	 * @see #commentCheckAll(Iterator, int)
+	 */
+	public List<Verdict> commentCheckAll(final Collection<AkismetComment> comments) throws AkismetException {
+		return commentCheckAll(comments.iterator(), this.bulkConcurrency);
+	}
+	
+	/**
+	 * Checks all comments of the given iterator with at most <code>maxConcurrency</code> concurrent calls. The 
+	 * checks are executed exactly like {@link #commentCheck(AkismetComment)}, including the verdict cache.<br>
+	 * If the transport supports asynchronous calls, the checks are issued asynchronously and the calling thread only 
+	 * waits for free slots, otherwise a temporary pool of <code>maxConcurrency</code> threads is used 
+	 * for blocking calls.
+	 * @param comments The comments to check
+	 * @param maxConcurrency Maximum number of checks in flight
+	 * @return One verdict per comment, in the order of the iterator
+	 * @throws AkismetException Only if the calling thread is interrupted. Failed checks are reported per verdict
+	 */
+	public List<Verdict> commentCheckAll(final Iterator<AkismetComment> comments, final int maxConcurrency) throws AkismetException {
+		if(maxConcurrency <= 0)
+			throw new IllegalArgumentException("Maximum concurrency must be positive");
+		
+		final ExecutorService executor = !this.transport.supportsAsync() ? Executors.newFixedThreadPool(maxConcurrency) : null;
+		final Function<AkismetComment, CompletableFuture<CheckResult>> check;
+		if(executor == null)
+			check = this::commentCheckDetailedInBulkAsync;
+		else
+			check = comment -> CompletableFuture.supplyAsync(() -> {
+				try {
+					return commentCheckDetailedInBulk(comment);
+				} catch(AkismetException e) {
+					throw new CompletionException(e);
+				}
+			}, executor);
+		
+		final Semaphore permits = new Semaphore(maxConcurrency);
+		final List<CompletableFuture<Verdict>> verdicts = new ArrayList<>();
 		try {
-			final HttpResponse response = this.callAkismet("submit-spam", comment);
-			final String body = EntityUtils.toString(response.getEntity());
-			if(response.getStatusLine().getStatusCode() != HttpStatus.SC_OK)
-				logger.warn(String.format("Something bad happened while submitting Spam: %s", response.getStatusLine().getReasonPhrase()));
-			else {
-				logger.debug(String.format("Spam successfully submitted, response was '%s'", body));
-				rv = true;
+			while(comments.hasNext()) {
+				final AkismetComment comment = comments.next();
+				permits.acquire();
+				verdicts.add(check.apply(comment).handle((result, e) -> {
+					permits.release();
+					if(e == null)
+						return Verdict.of(comment, result);
+					final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+					return Verdict.failed(comment, cause instanceof AkismetException ? (AkismetException) cause : new AkismetException(cause));
+				}));
 			}
+			final List<Verdict> rv = new ArrayList<>(verdicts.size());
+			for(CompletableFuture<Verdict> verdict : verdicts)
+				rv.add(verdict.get());
+			return rv;
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AkismetException(e);
 		} catch(Exception e) {
+			// Cannot happen, all verdicts are handled
 			throw new AkismetException(e);
+		} finally {
+			if(executor != null)
+				executor.shutdownNow();
 		}
-		return rv;
+	}
+	
+	/**
+	 * This call is for submitting comments that weren't marked 
+	 * as spam but should have been.
+	 * @param comment The comment to be checked for spam
+	 * @return True if the spam was successfully submitted.
+	 * @throws AkismetException All exceptions and "invalid" responses are thrown
+	 */
+	public boolean submitSpam(final AkismetComment comment) throws AkismetException {
+		final AkismetConfiguration configuration = getConfiguration();
+		record(configuration, comment, false);
+		return join(call(Operation.SUBMIT_SPAM, false, () -> newCallRequest(configuration, Operation.SUBMIT_SPAM, comment), this::handleSubmitSpamResponse));
+	}
+	
+	/**
+	 * Non-blocking variant of {@link #submitSpam(AkismetComment)}.
+	 * @param comment The comment to be submitted as spam
+	 * @return A future that is completed with true if the spam was successfully submitted or exceptionally with an {@link AkismetException}
+	 */
+	public CompletableFuture<Boolean> submitSpamAsync(final AkismetComment comment) {
+		final AkismetConfiguration configuration = getConfiguration();
+		record(configuration, comment, false);
+		return call(Operation.SUBMIT_SPAM, true, () -> newCallRequest(configuration, Operation.SUBMIT_SPAM, comment), this::handleSubmitSpamResponse);
 	}
 	
 	/**
@@ -239,19 +1389,19 @@ public class Akismet {
 	 * @throws AkismetException All exceptions and "invalid" responses are thrown
 	 */
 	public boolean submitHam(final AkismetComment comment) throws AkismetException {
-		boolean rv = false;
-		try {
-			final HttpResponse response = this.callAkismet("submit-ham", comment);
-			final String body = EntityUtils.toString(response.getEntity());
-			if(response.getStatusLine().getStatusCode() != HttpStatus.SC_OK)
-				logger.warn(String.format("Something bad happened while submitting ham: %s", response.getStatusLine().getReasonPhrase()));
-			else {
-				logger.debug(String.format("Ham successfully submitted, response was '%s'", body));
-				rv = true;
-			}
-		} catch(Exception e) {
-			throw new AkismetException(e);
-		}
-		return rv;
+		final AkismetConfiguration configuration = getConfiguration();
+		record(configuration, comment, true);
+		return join(call(Operation.SUBMIT_HAM, false, () -> newCallRequest(configuration, Operation.SUBMIT_HAM, comment), this::handleSubmitHamResponse));
+	}
+	
+	/**
+	 * Non-blocking variant of {@link #submitHam(AkismetComment)}.
+	 * @param comment The comment to be submitted as ham
+	 * @return A future that is completed with true if the ham was successfully submitted or exceptionally with an {@link AkismetException}
+	 */
+	public CompletableFuture<Boolean> submitHamAsync(final AkismetComment comment) {
+		final AkismetConfiguration configuration = getConfiguration();
+		record(configuration, comment, true);
+		return call(Operation.SUBMIT_HAM, true, () -> newCallRequest(configuration, Operation.SUBMIT_HAM, comment), this::handleSubmitHamResponse);
 	}
 }
@@ -36,15 +36,12 @@ package ac.simons.akismet;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import javax.xml.bind.annotation.XmlElement;
 
-import org.apache.http.NameValuePair;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.message.BasicNameValuePair;
-
 /**
  * Represents a comment send to akismet for spam check. From the api:<br>
  * This is basically the core of everything. This call takes a number of arguments 
@@ -95,37 +92,80 @@ public class AkismetComment implements Serializable {
 	}
 	
 	/**
-	 * Converts this comment to a HttpEntity to use in a akismet call
+	 * Converts this comment to an url encoded form to use in a akismet call
 	 * @param apiConsumer The api key for this instance
-	 * @return A form entity ready for submitting to Akismet server
-	 * @throws Exception all exceptions from Http client are retrown, also when fields are not filled
+	 * @return A form ready for submitting to Akismet server
+	 * @throws AkismetException when fields are not filled
 	 */
-	public UrlEncodedFormEntity toEntity(final String apiConsumer) throws Exception {
-		final List<NameValuePair> p = new ArrayList<>();
-		
+	public byte[] toForm(final String apiConsumer) throws AkismetException {
 		if(!areRequiredFieldsFilled())
 			throw new AkismetException("The fields blog, userIp and userAgent are required!");
 		
-		p.add(new BasicNameValuePair("blog", apiConsumer));
-		p.add(new BasicNameValuePair("user_ip", this.getUserIp()));
-		p.add(new BasicNameValuePair("userAgent", this.getUserAgent()));
-		
-		if(!isBlank(this.getReferrer()))
-			p.add(new BasicNameValuePair("referrer", this.getReferrer()));
-		if(!isBlank(this.getPermalink()))
-			p.add(new BasicNameValuePair("permalink", this.getPermalink()));
-		if(!isBlank(this.getCommentType()))
-			p.add(new BasicNameValuePair("comment_type", this.getCommentType()));
-		if(!isBlank(this.getCommentAuthor()))
-			p.add(new BasicNameValuePair("comment_author", this.getCommentAuthor()));
-		if(!isBlank(this.getCommentAuthorEmail()))
-			p.add(new BasicNameValuePair("comment_author_email", this.getCommentAuthorEmail()));
-		if(!isBlank(this.getCommentAuthorUrl()))
-			p.add(new BasicNameValuePair("comment_author_url", this.getCommentAuthorUrl()));
-		if(!isBlank(this.getCommentContent()))
-			p.add(new BasicNameValuePair("comment_content", this.getCommentContent()));
+		final byte[] rv = new byte[this.encode(null, apiConsumer)];
+		this.encode(rv, apiConsumer);
+		return rv;
+	}
+	
+	/**
+	 * Encodes all fields in the order Akismet expects them.
+	 * @param form The target array, null to compute the length only
+	 * @return The length of the form
+	 */
+	private int encode(final byte[] form, final String apiConsumer) {
+		int pos = FormEncoder.field(form, 0, "blog", apiConsumer, true);
+		pos = FormEncoder.field(form, pos, "user_ip", this.getUserIp(), true);
+		pos = FormEncoder.field(form, pos, "userAgent", this.getUserAgent(), true);
+		pos = FormEncoder.field(form, pos, "referrer", this.getReferrer(), false);
+		pos = FormEncoder.field(form, pos, "permalink", this.getPermalink(), false);
+		pos = FormEncoder.field(form, pos, "comment_type", this.getCommentType(), false);
+		pos = FormEncoder.field(form, pos, "comment_author", this.getCommentAuthor(), false);
+		pos = FormEncoder.field(form, pos, "comment_author_email", this.getCommentAuthorEmail(), false);
+		pos = FormEncoder.field(form, pos, "comment_author_url", this.getCommentAuthorUrl(), false);
+		return FormEncoder.field(form, pos, "comment_content", this.getCommentContent(), false);
+	}
+	
+	/**
+	 * Computes a stable fingerprint over all fields that {@link #toForm(String)} sends to Akismet.
+	 * Two comments with the same fingerprint lead to identical calls.
+	 * @param apiConsumer The api consumer (blog) the comment is checked for
+	 * @return A SHA-256 based hex string
+	 */
+	public String fingerprint(final String apiConsumer) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			// SHA-256 is required on every Java platform
+			throw new IllegalStateException(e);
+		}
+		update(digest, "blog", String.valueOf(apiConsumer), true);
+		update(digest, "user_ip", String.valueOf(this.getUserIp()), true);
+		update(digest, "userAgent", String.valueOf(this.getUserAgent()), true);
+		update(digest, "referrer", this.getReferrer(), false);
+		update(digest, "permalink", this.getPermalink(), false);
+		update(digest, "comment_type", this.getCommentType(), false);
+		update(digest, "comment_author", this.getCommentAuthor(), false);
+		update(digest, "comment_author_email", this.getCommentAuthorEmail(), false);
+		update(digest, "comment_author_url", this.getCommentAuthorUrl(), false);
+		update(digest, "comment_content", this.getCommentContent(), false);
 		
-		return new UrlEncodedFormEntity(p, "UTF-8");
+		final byte[] hash = digest.digest();
+		final char[] rv = new char[hash.length * 2];
+		for(int i = 0; i < hash.length; ++i) {
+			rv[2 * i] = Character.forDigit((hash[i] >> 4) & 0xF, 16);
+			rv[2 * i + 1] = Character.forDigit(hash[i] & 0xF, 16);
+		}
+		return new String(rv);
+	}
+	
+	private static void update(final MessageDigest digest, final String name, final String value, final boolean required) {
+		// Blank optional values are not send and therefore not part of the fingerprint
+		if(!required && isBlank(value))
+			return;
+		digest.update(name.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(value.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
 	}
 	
 	@XmlElement(name="user_ip")
@@ -0,0 +1,149 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.net.URI;
+
+import ac.simons.akismet.MetricsListener.Operation;
+
+/**
+ * An immutable snapshot of the settings that address Akismet: scheme, endpoint, version, API key, 
+ * api consumer and whether calls are made at all. {@link Akismet} publishes one snapshot at a time 
+ * and each call reads exactly one of them, so that a call never mixes the key of one snapshot with 
+ * the consumer or the endpoint of another. The URIs of all API functions are computed once per snapshot.
+ * @author Michael J. Simons
+ * @see Akismet#reconfigure(java.util.function.UnaryOperator)
+ */
+public final class AkismetConfiguration {
+	/** The configuration of new instances */
+	static final AkismetConfiguration DEFAULT = new AkismetConfiguration("http", "rest.akismet.com", "1.1", null, null, true, null);
+	
+	private final String apiScheme;
+	
+	private final String apiEndpoint;
+	
+	private final String apiVersion;
+	
+	private final String apiKey;
+	
+	private final String apiConsumer;
+	
+	private final boolean enabled;
+	
+	private final ApiEndpoints apiEndpoints;
+	
+	/**
+	 * @param apiEndpoints The URIs to reuse, null to compute them
+	 */
+	private AkismetConfiguration(final String apiScheme, final String apiEndpoint, final String apiVersion, final String apiKey, final String apiConsumer, final boolean enabled, final ApiEndpoints apiEndpoints) {
+		this.apiScheme = apiScheme;
+		this.apiEndpoint = apiEndpoint;
+		this.apiVersion = apiVersion;
+		this.apiKey = apiKey;
+		this.apiConsumer = apiConsumer;
+		this.enabled = enabled;
+		this.apiEndpoints = apiEndpoints != null ? apiEndpoints : new ApiEndpoints(apiScheme, apiKey, apiEndpoint, apiVersion);
+	}
+
+	public String getApiScheme() {
+		return apiScheme;
+	}
+
+	public String getApiEndpoint() {
+		return apiEndpoint;
+	}
+
+	public String getApiVersion() {
+		return apiVersion;
+	}
+
+	public String getApiKey() {
+		return apiKey;
+	}
+
+	public String getApiConsumer() {
+		return apiConsumer;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * @param apiScheme Either <code>http</code> or <code>https</code>
+	 * @return A copy of this configuration with the given scheme
+	 */
+	public AkismetConfiguration withApiScheme(final String apiScheme) {
+		if(!("http".equals(apiScheme) || "https".equals(apiScheme)))
+			throw new IllegalArgumentException("Scheme must be either http or https");
+		return new AkismetConfiguration(apiScheme, this.apiEndpoint, this.apiVersion, this.apiKey, this.apiConsumer, this.enabled, null);
+	}
+	
+	public AkismetConfiguration withApiEndpoint(final String apiEndpoint) {
+		return new AkismetConfiguration(this.apiScheme, apiEndpoint, this.apiVersion, this.apiKey, this.apiConsumer, this.enabled, null);
+	}
+	
+	public AkismetConfiguration withApiVersion(final String apiVersion) {
+		return new AkismetConfiguration(this.apiScheme, this.apiEndpoint, apiVersion, this.apiKey, this.apiConsumer, this.enabled, null);
+	}
+	
+	public AkismetConfiguration withApiKey(final String apiKey) {
+		return new AkismetConfiguration(this.apiScheme, this.apiEndpoint, this.apiVersion, apiKey, this.apiConsumer, this.enabled, null);
+	}
+	
+	public AkismetConfiguration withApiConsumer(final String apiConsumer) {
+		return new AkismetConfiguration(this.apiScheme, this.apiEndpoint, this.apiVersion, this.apiKey, apiConsumer, this.enabled, this.apiEndpoints);
+	}
+	
+	public AkismetConfiguration withEnabled(final boolean enabled) {
+		return new AkismetConfiguration(this.apiScheme, this.apiEndpoint, this.apiVersion, this.apiKey, this.apiConsumer, enabled, this.apiEndpoints);
+	}
+	
+	/**
+	 * @param operation An API function
+	 * @return The URI of the function for this configuration
+	 * @throws AkismetException if the configuration doesn't form a valid URI
+	 */
+	URI getUri(final Operation operation) throws AkismetException {
+		return this.apiEndpoints.get(operation);
+	}
+
+	@Override
+	public String toString() {
+		// The key is left out on purpose
+		return "AkismetConfiguration [apiScheme=" + apiScheme + ", apiEndpoint=" + apiEndpoint
+				+ ", apiVersion=" + apiVersion + ", apiConsumer=" + apiConsumer
+				+ ", enabled=" + enabled + "]";
+	}
+}
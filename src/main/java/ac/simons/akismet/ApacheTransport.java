@@ -0,0 +1,181 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * The default transport based on Apache HttpComponents 4.x.
+ * @author Michael J. Simons
+ */
+public class ApacheTransport implements Transport {
+	private static final ContentType FORM_CONTENT_TYPE = ContentType.create("application/x-www-form-urlencoded", StandardCharsets.UTF_8);
+	
+	private static final byte[] EMPTY_BODY = new byte[0];
+	
+	private final HttpClient httpClient;
+	
+	/** Used for all asynchronous requests, may be null */
+	private final HttpAsyncClient httpAsyncClient;
+	
+	public ApacheTransport(final HttpClient httpClient) {
+		this(httpClient, null);
+	}
+	
+	/**
+	 * @param httpClient The client used for all blocking requests
+	 * @param httpAsyncClient The client used for all non-blocking requests, must have been started, may be null
+	 */
+	public ApacheTransport(final HttpClient httpClient, final HttpAsyncClient httpAsyncClient) {
+		this.httpClient = httpClient;
+		this.httpAsyncClient = httpAsyncClient;
+	}
+
+	public HttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	public HttpAsyncClient getHttpAsyncClient() {
+		return httpAsyncClient;
+	}
+	
+	/**
+	 * Creates the post request. If the request has a timeout, it is applied to each phase (connection lease, 
+	 * connect and read) and replaces the default request configuration of the client.
+	 */
+	private static HttpPost newHttpPost(final TransportRequest request) {
+		final HttpPost rv = new HttpPost(request.getUri());
+		rv.setHeader("User-Agent", request.getUserAgent());
+		rv.setHeader("Content-Type", TransportRequest.CONTENT_TYPE);
+		rv.setEntity(new ByteArrayEntity(request.getForm(), FORM_CONTENT_TYPE));
+		final int timeout = (int) request.getTimeout();
+		if(timeout > 0)
+			rv.setConfig(RequestConfig.custom().setConnectionRequestTimeout(timeout).setConnectTimeout(timeout).setSocketTimeout(timeout).build());
+		return rv;
+	}
+
+	@Override
+	public TransportResponse execute(final TransportRequest request) throws IOException {
+		return new Response(this.httpClient.execute(newHttpPost(request)));
+	}
+
+	@Override
+	public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+		if(this.httpAsyncClient == null)
+			throw new UnsupportedOperationException("No HttpAsyncClient configured, asynchronous calls are not available");
+		final CompletableFuture<TransportResponse> rv = new CompletableFuture<>();
+		final Future<HttpResponse> call = this.httpAsyncClient.execute(newHttpPost(request), new FutureCallback<HttpResponse>() {
+			@Override
+			public void completed(HttpResponse result) {
+				rv.complete(new Response(result));
+			}
+
+			@Override
+			public void failed(Exception ex) {
+				rv.completeExceptionally(ex);
+			}
+
+			@Override
+			public void cancelled() {
+				rv.cancel(false);
+			}
+		});
+		rv.whenComplete((response, e) -> {
+			if(e != null)
+				call.cancel(true);
+		});
+		return rv;
+	}
+
+	@Override
+	public boolean supportsAsync() {
+		return this.httpAsyncClient != null;
+	}
+	
+	private static class Response implements TransportResponse {
+		private final HttpResponse response;
+		
+		Response(final HttpResponse response) {
+			this.response = response;
+		}
+
+		@Override
+		public int getStatusCode() {
+			return response.getStatusLine().getStatusCode();
+		}
+
+		@Override
+		public String getReasonPhrase() {
+			return response.getStatusLine().getReasonPhrase();
+		}
+
+		@Override
+		public void forEachHeader(final BiConsumer<String, String> consumer) {
+			for(HeaderIterator i = response.headerIterator(); i.hasNext();) {
+				final Header header = i.nextHeader();
+				consumer.accept(header.getName(), header.getValue());
+			}
+		}
+
+		@Override
+		public InputStream getBody() throws IOException {
+			final HttpEntity entity = response.getEntity();
+			return entity == null ? new ByteArrayInputStream(EMPTY_BODY) : entity.getContent();
+		}
+
+		@Override
+		public void close() throws IOException {
+			EntityUtils.consume(response.getEntity());
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.net.URI;
+
+import ac.simons.akismet.MetricsListener.Operation;
+
+/**
+ * The URIs of all API functions for one combination of scheme, key, endpoint and version. Instances are 
+ * immutable and rebuilt by {@link AkismetConfiguration} whenever one of them changes, so that no URI has
+ * to be formatted and parsed per call. The URIs are built with the first call, so that invalid keys or 
+ * endpoints are reported by the call as an {@link AkismetException} and not by the setters.
+ * @author Michael J. Simons
+ */
+final class ApiEndpoints {
+	private final String apiScheme;
+	
+	private final String apiKey;
+	
+	private final String apiEndpoint;
+	
+	private final String apiVersion;
+	
+	/** Built on first use, concurrent callers may build it more than once */
+	private volatile URI[] uris;
+	
+	ApiEndpoints(final String apiScheme, final String apiKey, final String apiEndpoint, final String apiVersion) {
+		this.apiScheme = apiScheme;
+		this.apiKey = apiKey;
+		this.apiEndpoint = apiEndpoint;
+		this.apiVersion = apiVersion;
+	}
+	
+	/**
+	 * @param operation An API function
+	 * @return The URI of the function
+	 * @throws AkismetException if scheme, key, endpoint and version don't form a valid URI
+	 */
+	URI get(final Operation operation) throws AkismetException {
+		URI[] rv = this.uris;
+		if(rv == null) {
+			rv = build();
+			this.uris = rv;
+		}
+		return rv[operation.ordinal()];
+	}
+	
+	private URI[] build() throws AkismetException {
+		final Operation[] operations = Operation.values();
+		final URI[] rv = new URI[operations.length];
+		try {
+			for(Operation operation : operations) {
+				// verify-key is the one call that is made without the API key subdomain
+				if(operation == Operation.VERIFY_KEY)
+					rv[operation.ordinal()] = URI.create(String.format("%s://%s/%s/%s", this.apiScheme, this.apiEndpoint, this.apiVersion, operation.getFunction()));
+				else
+					rv[operation.ordinal()] = URI.create(String.format("%s://%s.%s/%s/%s", this.apiScheme, this.apiKey, this.apiEndpoint, this.apiVersion, operation.getFunction()));
+			}
+		} catch(IllegalArgumentException e) {
+			throw new AkismetException(e);
+		}
+		return rv;
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DnsResolver} that caches the addresses of the Akismet hosts independent of the DNS cache of the JVM:
+ * <ul>
+ * <li>Addresses are cached for the configured time to live. Concurrent calls for a host that is not cached 
+ * wait for one lookup</li>
+ * <li>Addresses used during the last fifth of their time to live or after it are refreshed in the background, 
+ * one refresh per host at a time. Expired addresses are returned until the refresh has finished, so that
+ * hosts that are in use are never resolved on the calling thread again</li>
+ * <li>If a refresh fails, the last known addresses are kept for another time to live and are used until the
+ * resolver answers again</li>
+ * <li>Addresses that have not been used for {@value #EVICTION_TTLS} times the time to live are removed 
+ * whenever a host is resolved by the delegate</li>
+ * <li>Alternative addresses can be added per host. They are returned after the resolved addresses and 
+ * alone if the host cannot be resolved. Note that only the blocking client tries more than the first address</li>
+ * </ul>
+ * {@link ConnectionPool} uses an instance with a time to live of one minute by default.
+ * @author Michael J. Simons
+ */
+public class CachingDnsResolver implements DnsResolver {
+	/** Number of times to live after which unused addresses are removed */
+	public static final int EVICTION_TTLS = 5;
+	
+	private final Logger logger = LoggerFactory.getLogger(CachingDnsResolver.class);
+	
+	private final DnsResolver delegate;
+	
+	/** Time to live in nanoseconds */
+	private final long ttl;
+	
+	private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+	
+	private final ConcurrentMap<String, InetAddress[]> alternatives = new ConcurrentHashMap<>();
+	
+	/** Lookups of hosts that are not cached, shared by all callers waiting for them */
+	private final ConcurrentMap<String, CompletableFuture<Entry>> lookups = new ConcurrentHashMap<>();
+	
+	/** A single thread for refreshes that stops when idle */
+	private final ExecutorService refresher = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+		final Thread thread = new Thread(runnable, "akismet-dns-refresher");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private static final class Entry {
+		final InetAddress[] addresses;
+		
+		/** Time of the resolution or of the last failed refresh in nanoseconds */
+		final long resolvedAt;
+		
+		final AtomicBoolean refreshing = new AtomicBoolean();
+		
+		/** Time of the last call for the addresses in nanoseconds */
+		volatile long lastUsed;
+		
+		Entry(final InetAddress[] addresses, final long resolvedAt) {
+			this.addresses = addresses;
+			this.resolvedAt = resolvedAt;
+			this.lastUsed = resolvedAt;
+		}
+	}
+	
+	/**
+	 * Creates a resolver that uses the system resolver and caches addresses for one minute.
+	 */
+	public CachingDnsResolver() {
+		this(SystemDefaultDnsResolver.INSTANCE, TimeUnit.MINUTES.toMillis(1));
+	}
+	
+	/**
+	 * @param delegate The resolver asked for addresses
+	 * @param ttl Time to live of the addresses in milliseconds
+	 */
+	public CachingDnsResolver(final DnsResolver delegate, final long ttl) {
+		if(ttl <= 0)
+			throw new IllegalArgumentException("Time to live must be positive");
+		this.delegate = delegate;
+		this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+	}
+	
+	/**
+	 * Adds alternative addresses for a host, for example of another data center.
+	 * @param host The host name
+	 * @param addresses The alternative addresses, in order of preference
+	 */
+	public void addAlternatives(final String host, final InetAddress... addresses) {
+		this.alternatives.merge(host.toLowerCase(), addresses.clone(), (current, added) -> merge(current, added));
+		this.cache.remove(host.toLowerCase());
+	}
+	
+	/**
+	 * Removes the alternative addresses of a host.
+	 * @param host The host name
+	 */
+	public void removeAlternatives(final String host) {
+		this.alternatives.remove(host.toLowerCase());
+		this.cache.remove(host.toLowerCase());
+	}
+
+	@Override
+	public InetAddress[] resolve(final String host) throws UnknownHostException {
+		final String key = host.toLowerCase();
+		final Entry entry = this.cache.get(key);
+		if(entry != null) {
+			final long now = System.nanoTime();
+			entry.lastUsed = now;
+			if(now - entry.resolvedAt >= this.ttl - this.ttl / 5 && entry.refreshing.compareAndSet(false, true))
+				this.refresher.execute(() -> refresh(key, entry));
+			return entry.addresses.clone();
+		}
+		try {
+			return awaitLookup(key).addresses.clone();
+		} catch(UnknownHostException e) {
+			final InetAddress[] rv = this.alternatives.get(key);
+			if(rv == null)
+				throw e;
+			return rv.clone();
+		}
+	}
+	
+	/**
+	 * Looks the host up on the calling thread or waits for the lookup another thread already does.
+	 */
+	private Entry awaitLookup(final String host) throws UnknownHostException {
+		final CompletableFuture<Entry> own = new CompletableFuture<>();
+		final CompletableFuture<Entry> running = this.lookups.putIfAbsent(host, own);
+		if(running != null) {
+			try {
+				return running.join();
+			} catch(CompletionException e) {
+				if(e.getCause() instanceof UnknownHostException)
+					throw (UnknownHostException) e.getCause();
+				throw e;
+			}
+		}
+		try {
+			// Another lookup may have finished between reading the cache and registering this one
+			Entry rv = this.cache.get(host);
+			if(rv == null)
+				rv = lookup(host);
+			own.complete(rv);
+			return rv;
+		} catch(UnknownHostException | RuntimeException e) {
+			own.completeExceptionally(e);
+			throw e;
+		} finally {
+			this.lookups.remove(host, own);
+		}
+	}
+	
+	/**
+	 * Removes the cached addresses of all hosts.
+	 */
+	public void clear() {
+		this.cache.clear();
+	}
+	
+	private Entry lookup(final String host) throws UnknownHostException {
+		InetAddress[] addresses = this.delegate.resolve(host);
+		final InetAddress[] alternatives = this.alternatives.get(host);
+		if(alternatives != null)
+			addresses = merge(addresses, alternatives);
+		final Entry rv = new Entry(addresses, System.nanoTime());
+		this.cache.put(host, rv);
+		evict(rv.resolvedAt);
+		return rv;
+	}
+	
+	/**
+	 * Removes the addresses of hosts that are not used anymore.
+	 */
+	private void evict(final long now) {
+		this.cache.values().removeIf(entry -> now - entry.lastUsed >= EVICTION_TTLS * this.ttl);
+	}
+	
+	private void refresh(final String host, final Entry entry) {
+		try {
+			lookup(host);
+		} catch(UnknownHostException | RuntimeException e) {
+			// Extends the lifetime of the last known addresses, the refresh is tried again with the next call after the refresh window
+			logger.warn(String.format("Could not refresh the addresses of %s, using the last known addresses: %s", host, e.getMessage()));
+			this.cache.replace(host, entry, new Entry(entry.addresses, System.nanoTime()));
+		} finally {
+			entry.refreshing.set(false);
+		}
+	}
+	
+	private static InetAddress[] merge(final InetAddress[] first, final InetAddress[] second) {
+		final Set<InetAddress> rv = new LinkedHashSet<>(Arrays.asList(first));
+		rv.addAll(Arrays.asList(second));
+		return rv.toArray(new InetAddress[rv.size()]);
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import ac.simons.akismet.MetricsListener.Operation;
+import ac.simons.akismet.MetricsListener.Outcome;
+
+/**
+ * The phases of one completed call, passed to {@link MetricsListener#recordDetails(CallDetails)}. All durations
+ * are in nanoseconds:
+ * <ul>
+ * <li>{@link #getQueueTime()}: Waiting for a permit of the {@link RequestScheduler}</li>
+ * <li>{@link #getEncodeTime()}: Encoding the form</li>
+ * <li>{@link #getResponseTime()}: From sending the request until the response headers arrived. This includes 
+ * waiting for a pooled connection, connecting and the time to first byte, see 
+ * {@link MetricsListener#recordConnectionLease(String, long)} for the first two</li>
+ * <li>{@link #getReadTime()}: Reading and parsing the body</li>
+ * </ul>
+ * Phases that didn't happen, for example because the call failed before, are 0.
+ * @author Michael J. Simons
+ */
+public final class CallDetails {
+	private final Operation operation;
+	
+	private final long queueTime;
+	
+	private final Object context;
+	
+	/** Start of the call, then end of the current phase */
+	private long mark;
+	
+	private long encodeTime;
+	
+	private int payloadSize;
+	
+	private long responseTime;
+	
+	private int statusCode;
+	
+	private long readTime;
+	
+	private boolean discard;
+	
+	private volatile int attempts = 1;
+	
+	private Outcome outcome;
+	
+	private long duration;
+	
+	/**
+	 * @param operation The called operation
+	 * @param queueTime Time waited for a permit
+	 * @param start Start of the call
+	 * @param context The context returned by {@link MetricsListener#callStarted(Operation)}
+	 */
+	CallDetails(final Operation operation, final long queueTime, final long start, final Object context) {
+		this.operation = operation;
+		this.queueTime = queueTime;
+		this.mark = start;
+		this.context = context;
+	}
+	
+	TransportRequest encoded(final TransportRequest request) {
+		final long now = System.nanoTime();
+		this.encodeTime = now - this.mark;
+		this.payloadSize = request.getForm().length;
+		this.mark = now;
+		return request;
+	}
+	
+	void responded(final int statusCode) {
+		final long now = System.nanoTime();
+		this.responseTime = now - this.mark;
+		this.statusCode = statusCode;
+		this.mark = now;
+	}
+	
+	void read(final Object result) {
+		this.readTime = System.nanoTime() - this.mark;
+		this.discard = result instanceof CheckResult && ((CheckResult) result).isDiscard();
+	}
+	
+	void hedged() {
+		++this.attempts;
+	}
+	
+	CallDetails completed(final Outcome outcome, final long duration) {
+		this.outcome = outcome;
+		this.duration = duration;
+		return this;
+	}
+
+	public Operation getOperation() {
+		return operation;
+	}
+
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * @return The status of the response or 0, if there was none
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return True if Akismet advised to discard the comment
+	 */
+	public boolean isDiscard() {
+		return discard;
+	}
+
+	/**
+	 * @return Size of the form in bytes
+	 */
+	public int getPayloadSize() {
+		return payloadSize;
+	}
+
+	/**
+	 * @return Number of requests sent, more than 1 if the call has been hedged
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * @return The context returned by {@link MetricsListener#callStarted(Operation)} when the call started
+	 */
+	public Object getContext() {
+		return context;
+	}
+
+	public long getQueueTime() {
+		return queueTime;
+	}
+
+	public long getEncodeTime() {
+		return encodeTime;
+	}
+
+	public long getResponseTime() {
+		return responseTime;
+	}
+
+	public long getReadTime() {
+		return readTime;
+	}
+
+	/**
+	 * @return The duration of the call without the queue time, the same as passed to {@link MetricsListener#record(Operation, Outcome, long)}
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	@Override
+	public String toString() {
+		return "CallDetails [operation=" + operation + ", outcome=" + outcome + ", statusCode=" + statusCode
+				+ ", payloadSize=" + payloadSize + ", attempts=" + attempts + ", queueTime=" + queueTime
+				+ ", encodeTime=" + encodeTime + ", responseTime=" + responseTime + ", readTime=" + readTime
+				+ ", duration=" + duration + "]";
+	}
+}
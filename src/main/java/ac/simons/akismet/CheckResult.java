@@ -0,0 +1,147 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The detailed result of a comment-check. Besides the verdict, Akismet may flag blatant spam
+ * with the <code>X-akismet-pro-tip: discard</code> header. Such comments can be dropped right away 
+ * instead of being stored for moderation. All <code>X-akismet-*</code> headers of the response are
+ * kept for diagnostics.
+ * @author Michael J. Simons
+ */
+public final class CheckResult {
+	/** A ham result without headers */
+	public static final CheckResult HAM = new CheckResult(false, false, Collections.emptyMap());
+	
+	/** A spam result without headers */
+	public static final CheckResult SPAM = new CheckResult(true, false, Collections.emptyMap());
+	
+	/** A result for blatant spam without headers */
+	public static final CheckResult DISCARD = new CheckResult(true, true, Collections.emptyMap());
+	
+	/** The fallback verdicts used while Akismet is unavailable */
+	private static final CheckResult FALLBACK_HAM = new CheckResult(false, false, Collections.emptyMap(), true);
+	private static final CheckResult FALLBACK_SPAM = new CheckResult(true, false, Collections.emptyMap(), true);
+	
+	private final boolean spam;
+	
+	private final boolean discard;
+	
+	private final Map<String, String> headers;
+	
+	private final boolean fallback;
+	
+	/**
+	 * @param spam True if the comment is spam
+	 * @param discard True if the comment is blatant spam
+	 * @param headers The <code>X-akismet-*</code> headers of the response, with case insensitive keys
+	 */
+	CheckResult(final boolean spam, final boolean discard, final Map<String, String> headers) {
+		this(spam, discard, headers, false);
+	}
+	
+	private CheckResult(final boolean spam, final boolean discard, final Map<String, String> headers, final boolean fallback) {
+		this.spam = spam;
+		this.discard = discard;
+		this.headers = Collections.unmodifiableMap(headers);
+		this.fallback = fallback;
+	}
+	
+	/**
+	 * @param spam The verdict
+	 * @return A result without headers
+	 */
+	public static CheckResult of(final boolean spam) {
+		return spam ? SPAM : HAM;
+	}
+	
+	/**
+	 * @param spam The fallback verdict
+	 * @return A result that is marked as fallback
+	 */
+	static CheckResult fallback(final boolean spam) {
+		return spam ? FALLBACK_SPAM : FALLBACK_HAM;
+	}
+
+	/**
+	 * @return True if the comment is spam
+	 */
+	public boolean isSpam() {
+		return spam;
+	}
+
+	/**
+	 * @return True if the comment is blatant spam that can be discarded without storing it
+	 */
+	public boolean isDiscard() {
+		return discard;
+	}
+	
+	/**
+	 * @return True if Akismet was unavailable and the verdict is the {@link Akismet#getFallbackVerdict() fallback verdict}
+	 * instead of a decision
+	 */
+	public boolean isFallback() {
+		return fallback;
+	}
+	
+	/**
+	 * @return The value of <code>X-akismet-pro-tip</code> or null
+	 */
+	public String getProTip() {
+		return headers.get("X-akismet-pro-tip");
+	}
+	
+	/**
+	 * @return The value of <code>X-akismet-debug-help</code> or null
+	 */
+	public String getDebugHelp() {
+		return headers.get("X-akismet-debug-help");
+	}
+
+	/**
+	 * @return All <code>X-akismet-*</code> headers of the response, keys are case insensitive
+	 */
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	@Override
+	public String toString() {
+		return "CheckResult [spam=" + spam + ", discard=" + discard + ", fallback=" + fallback + ", headers=" + headers + "]";
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A circuit breaker for calls to Akismet. The outcome of the last <code>windowSize</code> calls 
+ * is recorded. If either the rate of failed calls or the rate of slow calls reaches its threshold,
+ * the breaker opens and rejects all calls for the configured duration. After that, a number of 
+ * trial calls is permitted. If they all succeed in time, the breaker closes again, otherwise it 
+ * opens again.<br>
+ * Each call gets a {@link Permit} that remembers the state it was granted in. Outcomes of calls 
+ * permitted in an earlier state are ignored, so that only trial calls decide about closing the breaker.
+ * @author Michael J. Simons
+ */
+public class CircuitBreaker {
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+	
+	/**
+	 * The permit for a single call. Either its outcome must be recorded or it must be released.
+	 */
+	public final class Permit {
+		private final long generation;
+		private final boolean trial;
+		private boolean done;
+		
+		Permit(final long generation, final boolean trial) {
+			this.generation = generation;
+			this.trial = trial;
+		}
+		
+		/**
+		 * Records the outcome of the permitted call.
+		 * @param failed True if the call failed
+		 * @param duration Duration of the call in nanoseconds
+		 */
+		public void record(final boolean failed, final long duration) {
+			CircuitBreaker.this.record(this, failed, duration);
+		}
+		
+		/**
+		 * Releases the permit of a call that has been cancelled without an outcome. 
+		 * A trial permit can be used by another call.
+		 */
+		public void release() {
+			CircuitBreaker.this.release(this);
+		}
+
+		public boolean isTrial() {
+			return trial;
+		}
+	}
+	
+	private static final byte FAILED = 1;
+	private static final byte SLOW = 2;
+	
+	private final int windowSize;
+	private final double failureRateThreshold;
+	private final double slowCallRateThreshold;
+	private final long slowCallDuration;
+	private final long openDuration;
+	private final int trialCalls;
+	
+	/** Ring buffer of the last outcomes */
+	private final byte[] window;
+	private int index;
+	private int calls;
+	private int failedCalls;
+	private int slowCalls;
+	
+	private State state = State.CLOSED;
+	/** Incremented with every change of the state */
+	private long generation;
+	private long openedAt;
+	private int trialPermits;
+	private int successfulTrials;
+	
+	/**
+	 * Creates a breaker that looks at the last 100 calls, opens at 50% failed calls or 
+	 * 50% calls slower than 2 seconds and stays open for 30 seconds before permitting 
+	 * 5 trial calls.
+	 */
+	public CircuitBreaker() {
+		this(100, 0.5, 0.5, TimeUnit.SECONDS.toMillis(2), TimeUnit.SECONDS.toMillis(30), 5);
+	}
+	
+	/**
+	 * @param windowSize Number of recorded calls
+	 * @param failureRateThreshold Rate of failed calls (0 to 1) at which the breaker opens
+	 * @param slowCallRateThreshold Rate of slow calls (0 to 1) at which the breaker opens
+	 * @param slowCallDuration Duration in milliseconds from which on a call is considered slow
+	 * @param openDuration Time in milliseconds the breaker stays open
+	 * @param trialCalls Number of successful trial calls needed to close the breaker again
+	 */
+	public CircuitBreaker(final int windowSize, final double failureRateThreshold, final double slowCallRateThreshold, final long slowCallDuration, final long openDuration, final int trialCalls) {
+		if(windowSize <= 0 || trialCalls <= 0)
+			throw new IllegalArgumentException("Window size and number of trial calls must be positive");
+		this.windowSize = windowSize;
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallRateThreshold = slowCallRateThreshold;
+		this.slowCallDuration = TimeUnit.MILLISECONDS.toNanos(slowCallDuration);
+		this.openDuration = TimeUnit.MILLISECONDS.toNanos(openDuration);
+		this.trialCalls = trialCalls;
+		this.window = new byte[windowSize];
+	}
+	
+	/**
+	 * Must be called before each call. The outcome of every permitted call must be recorded through
+	 * {@link Permit#record(boolean, long)} or its permit must be released.
+	 * @return The permit for the call or null if the call is not permitted
+	 */
+	public synchronized Permit tryAcquire() {
+		switch(this.state) {
+			case CLOSED:
+				return new Permit(this.generation, false);
+			case OPEN:
+				if(System.nanoTime() - this.openedAt < this.openDuration)
+					return null;
+				this.state = State.HALF_OPEN;
+				++this.generation;
+				this.trialPermits = this.trialCalls - 1;
+				this.successfulTrials = 0;
+				return new Permit(this.generation, true);
+			default:
+				if(this.trialPermits <= 0)
+					return null;
+				--this.trialPermits;
+				return new Permit(this.generation, true);
+		}
+	}
+	
+	synchronized void record(final Permit permit, final boolean failed, final long duration) {
+		if(permit.done)
+			return;
+		permit.done = true;
+		// Outcome of a call permitted before the state changed
+		if(permit.generation != this.generation)
+			return;
+		final boolean slow = duration >= this.slowCallDuration;
+		switch(this.state) {
+			case HALF_OPEN:
+				if(failed || slow)
+					open();
+				else if(++this.successfulTrials >= this.trialCalls)
+					close();
+				break;
+			case CLOSED:
+				if(this.calls == this.windowSize) {
+					final byte evicted = this.window[this.index];
+					this.failedCalls -= evicted & FAILED;
+					this.slowCalls -= (evicted & SLOW) >> 1;
+				} else {
+					++this.calls;
+				}
+				this.window[this.index] = (byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0));
+				this.failedCalls += failed ? 1 : 0;
+				this.slowCalls += slow ? 1 : 0;
+				this.index = (this.index + 1) % this.windowSize;
+				if(this.calls == this.windowSize && (this.failedCalls >= this.failureRateThreshold * this.windowSize || this.slowCalls >= this.slowCallRateThreshold * this.windowSize))
+					open();
+				break;
+			default:
+				break;
+		}
+	}
+	
+	synchronized void release(final Permit permit) {
+		if(permit.done)
+			return;
+		permit.done = true;
+		if(permit.trial && permit.generation == this.generation && this.state == State.HALF_OPEN)
+			++this.trialPermits;
+	}
+	
+	private void open() {
+		this.state = State.OPEN;
+		++this.generation;
+		this.openedAt = System.nanoTime();
+	}
+	
+	private void close() {
+		this.state = State.CLOSED;
+		++this.generation;
+		this.index = 0;
+		this.calls = 0;
+		this.failedCalls = 0;
+		this.slowCalls = 0;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+}
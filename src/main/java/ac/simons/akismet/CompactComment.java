@@ -0,0 +1,468 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * An immutable and compact copy of an {@link AkismetComment} for comments that are held in large numbers, for example 
+ * pending submissions or checks waiting in a queue. All values are stored as UTF-8. User agent, referrer, permalink, 
+ * comment type and blog repeat across many comments and are shared through a bounded intern table. 
+ * The length of the form and the fingerprint for the blog are computed once.<br>
+ * Instances can be shared between threads without synchronization. They are created with {@link #of(AkismetComment, String)}
+ * and converted back with {@link #toAkismetComment()} when they are checked or submitted.
+ * @author Michael J. Simons
+ */
+public final class CompactComment implements Serializable {
+	private static final long serialVersionUID = -1618453370934785032L;
+	
+	/** Shared values of all compact comments */
+	private static final InternTable INTERN_TABLE = new InternTable(4096);
+	
+	/** Bits of the optional fields with blank values, which are neither sent nor part of the fingerprint */
+	private static final int BLANK_REFERRER = 1, BLANK_PERMALINK = 2, BLANK_COMMENT_TYPE = 4, BLANK_AUTHOR = 8,
+			BLANK_AUTHOR_EMAIL = 16, BLANK_AUTHOR_URL = 32, BLANK_CONTENT = 64, BLANK_USER_IP = 128;
+	
+	/** Missing required values are hashed like String.valueOf does */
+	private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+	
+	/**
+	 * The fingerprint for one blog
+	 */
+	private static final class Fingerprint {
+		final String blog;
+		
+		final byte[] hash;
+		
+		Fingerprint(final String blog, final byte[] hash) {
+			this.blog = blog;
+			this.hash = hash;
+		}
+	}
+	
+	/**
+	 * Creates compact comments, all values are optional.
+	 */
+	public static final class Builder {
+		private String userIp;
+		private String userAgent;
+		private String referrer;
+		private String permalink;
+		private String commentType;
+		private String commentAuthor;
+		private String commentAuthorEmail;
+		private String commentAuthorUrl;
+		private String commentContent;
+		private String blog;
+		
+		private Builder() {
+		}
+		
+		public Builder userIp(final String userIp) {
+			this.userIp = userIp;
+			return this;
+		}
+		
+		public Builder userAgent(final String userAgent) {
+			this.userAgent = userAgent;
+			return this;
+		}
+		
+		public Builder referrer(final String referrer) {
+			this.referrer = referrer;
+			return this;
+		}
+		
+		public Builder permalink(final String permalink) {
+			this.permalink = permalink;
+			return this;
+		}
+		
+		public Builder commentType(final String commentType) {
+			this.commentType = commentType;
+			return this;
+		}
+		
+		public Builder commentAuthor(final String commentAuthor) {
+			this.commentAuthor = commentAuthor;
+			return this;
+		}
+		
+		public Builder commentAuthorEmail(final String commentAuthorEmail) {
+			this.commentAuthorEmail = commentAuthorEmail;
+			return this;
+		}
+		
+		public Builder commentAuthorUrl(final String commentAuthorUrl) {
+			this.commentAuthorUrl = commentAuthorUrl;
+			return this;
+		}
+		
+		public Builder commentContent(final String commentContent) {
+			this.commentContent = commentContent;
+			return this;
+		}
+		
+		/**
+		 * @param blog The api consumer the comment will be checked for. Its fingerprint and form length
+		 * are computed in advance if set
+		 * @return This builder
+		 */
+		public Builder blog(final String blog) {
+			this.blog = blog;
+			return this;
+		}
+		
+		public CompactComment build() {
+			return new CompactComment(this);
+		}
+	}
+	
+	private final byte[] userIp;
+	private final InternTable.Entry userAgent;
+	private final InternTable.Entry referrer;
+	private final InternTable.Entry permalink;
+	private final InternTable.Entry commentType;
+	private final byte[] commentAuthor;
+	private final byte[] commentAuthorEmail;
+	private final byte[] commentAuthorUrl;
+	private final byte[] commentContent;
+	private final InternTable.Entry blog;
+	private final int blanks;
+	/** Length of the form for the blog, -1 without blog */
+	private final int formLength;
+	/** The fingerprint for the blog, null without blog */
+	private final byte[] hash;
+	/** The most recently computed fingerprint for another blog */
+	private transient volatile Fingerprint fingerprint;
+	
+	private CompactComment(final Builder builder) {
+		this.userIp = utf8(builder.userIp);
+		this.userAgent = INTERN_TABLE.intern(builder.userAgent);
+		this.referrer = INTERN_TABLE.intern(builder.referrer);
+		this.permalink = INTERN_TABLE.intern(builder.permalink);
+		this.commentType = INTERN_TABLE.intern(builder.commentType);
+		this.commentAuthor = utf8(builder.commentAuthor);
+		this.commentAuthorEmail = utf8(builder.commentAuthorEmail);
+		this.commentAuthorUrl = utf8(builder.commentAuthorUrl);
+		this.commentContent = utf8(builder.commentContent);
+		this.blog = INTERN_TABLE.intern(builder.blog);
+		this.blanks = (isBlank(builder.referrer) ? BLANK_REFERRER : 0)
+				| (isBlank(builder.permalink) ? BLANK_PERMALINK : 0)
+				| (isBlank(builder.commentType) ? BLANK_COMMENT_TYPE : 0)
+				| (isBlank(builder.commentAuthor) ? BLANK_AUTHOR : 0)
+				| (isBlank(builder.commentAuthorEmail) ? BLANK_AUTHOR_EMAIL : 0)
+				| (isBlank(builder.commentAuthorUrl) ? BLANK_AUTHOR_URL : 0)
+				| (isBlank(builder.commentContent) ? BLANK_CONTENT : 0)
+				| (isBlank(builder.userIp) ? BLANK_USER_IP : 0);
+		this.formLength = this.blog == null ? -1 : encode(null, this.blog.utf8);
+		this.hash = this.blog == null ? null : digest(this.blog.utf8);
+	}
+	
+	public static Builder builder() {
+		return new Builder();
+	}
+	
+	/**
+	 * @param comment The comment to convert
+	 * @return A compact copy of the comment
+	 */
+	public static CompactComment of(final AkismetComment comment) {
+		return of(comment, null);
+	}
+	
+	/**
+	 * @param comment The comment to convert
+	 * @param blog The api consumer the comment will be checked for, may be null
+	 * @return A compact copy of the comment
+	 */
+	public static CompactComment of(final AkismetComment comment, final String blog) {
+		return builder()
+			.userIp(comment.getUserIp())
+			.userAgent(comment.getUserAgent())
+			.referrer(comment.getReferrer())
+			.permalink(comment.getPermalink())
+			.commentType(comment.getCommentType())
+			.commentAuthor(comment.getCommentAuthor())
+			.commentAuthorEmail(comment.getCommentAuthorEmail())
+			.commentAuthorUrl(comment.getCommentAuthorUrl())
+			.commentContent(comment.getCommentContent())
+			.blog(blog)
+			.build();
+	}
+	
+	/**
+	 * @param blog The api consumer the comment will be checked for
+	 * @return This comment if it already has been computed for the blog, otherwise a copy for the blog
+	 */
+	public CompactComment withBlog(final String blog) {
+		if(Objects.equals(blog, getBlog()))
+			return this;
+		return builder()
+			.userIp(getUserIp())
+			.userAgent(getUserAgent())
+			.referrer(getReferrer())
+			.permalink(getPermalink())
+			.commentType(getCommentType())
+			.commentAuthor(getCommentAuthor())
+			.commentAuthorEmail(getCommentAuthorEmail())
+			.commentAuthorUrl(getCommentAuthorUrl())
+			.commentContent(getCommentContent())
+			.blog(blog)
+			.build();
+	}
+	
+	/**
+	 * @return A new, mutable comment with the same values
+	 */
+	public AkismetComment toAkismetComment() {
+		final AkismetComment rv = new AkismetComment();
+		rv.setUserIp(getUserIp());
+		rv.setUserAgent(getUserAgent());
+		rv.setReferrer(getReferrer());
+		rv.setPermalink(getPermalink());
+		rv.setCommentType(getCommentType());
+		rv.setCommentAuthor(getCommentAuthor());
+		rv.setCommentAuthorEmail(getCommentAuthorEmail());
+		rv.setCommentAuthorUrl(getCommentAuthorUrl());
+		rv.setCommentContent(getCommentContent());
+		return rv;
+	}
+	
+	private static byte[] utf8(final String value) {
+		return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	private static String string(final byte[] value) {
+		return value == null ? null : new String(value, StandardCharsets.UTF_8);
+	}
+	
+	private static byte[] utf8(final InternTable.Entry entry) {
+		return entry == null ? null : entry.utf8;
+	}
+	
+	private boolean isOmitted(final int field) {
+		return (this.blanks & field) != 0;
+	}
+	
+	/**
+	 * Same as {@link AkismetComment#toForm(String)}, but doesn't encode the values again if the 
+	 * api consumer is the blog of this comment.
+	 * @param apiConsumer The api consumer
+	 * @return A form ready for submitting to Akismet server
+	 * @throws AkismetException when fields are not filled
+	 */
+	public byte[] toForm(final String apiConsumer) throws AkismetException {
+		if(isOmitted(BLANK_USER_IP) || this.userAgent == null)
+			throw new AkismetException("The fields blog, userIp and userAgent are required!");
+		final boolean ownBlog = this.blog != null && this.blog.value.equals(apiConsumer);
+		final byte[] blogBytes = ownBlog ? this.blog.utf8 : utf8(apiConsumer);
+		final byte[] rv = new byte[ownBlog ? this.formLength : encode(null, blogBytes)];
+		encode(rv, blogBytes);
+		return rv;
+	}
+	
+	/**
+	 * Encodes all fields in the order Akismet expects them, like {@link AkismetComment} does.
+	 * @param form The target array, null to compute the length only
+	 * @return The length of the form
+	 */
+	private int encode(final byte[] form, final byte[] blogBytes) {
+		int pos = FormEncoder.field(form, 0, "blog", blogBytes);
+		pos = FormEncoder.field(form, pos, "user_ip", this.userIp);
+		pos = FormEncoder.field(form, pos, "userAgent", utf8(this.userAgent));
+		pos = optional(form, pos, "referrer", utf8(this.referrer), BLANK_REFERRER);
+		pos = optional(form, pos, "permalink", utf8(this.permalink), BLANK_PERMALINK);
+		pos = optional(form, pos, "comment_type", utf8(this.commentType), BLANK_COMMENT_TYPE);
+		pos = optional(form, pos, "comment_author", this.commentAuthor, BLANK_AUTHOR);
+		pos = optional(form, pos, "comment_author_email", this.commentAuthorEmail, BLANK_AUTHOR_EMAIL);
+		pos = optional(form, pos, "comment_author_url", this.commentAuthorUrl, BLANK_AUTHOR_URL);
+		return optional(form, pos, "comment_content", this.commentContent, BLANK_CONTENT);
+	}
+	
+	private int optional(final byte[] form, final int pos, final String name, final byte[] value, final int field) {
+		return isOmitted(field) ? pos : FormEncoder.field(form, pos, name, value);
+	}
+	
+	/**
+	 * Same as {@link AkismetComment#fingerprint(String)}, computed only once for the blog of this comment.
+	 * @param apiConsumer The api consumer (blog) the comment is checked for
+	 * @return A SHA-256 based hex string
+	 */
+	public String fingerprint(final String apiConsumer) {
+		byte[] rv;
+		if(this.blog != null && this.blog.value.equals(apiConsumer))
+			rv = this.hash;
+		else {
+			Fingerprint other = this.fingerprint;
+			if(other == null || !Objects.equals(other.blog, apiConsumer)) {
+				other = new Fingerprint(apiConsumer, digest(utf8(apiConsumer)));
+				this.fingerprint = other;
+			}
+			rv = other.hash;
+		}
+		final char[] hex = new char[rv.length * 2];
+		for(int i = 0; i < rv.length; ++i) {
+			hex[2 * i] = Character.forDigit((rv[i] >> 4) & 0xF, 16);
+			hex[2 * i + 1] = Character.forDigit(rv[i] & 0xF, 16);
+		}
+		return new String(hex);
+	}
+	
+	/**
+	 * Computes the same hash as {@link AkismetComment#fingerprint(String)}.
+	 */
+	private byte[] digest(final byte[] blogBytes) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			// SHA-256 is required on every Java platform
+			throw new IllegalStateException(e);
+		}
+		update(digest, "blog", blogBytes);
+		update(digest, "user_ip", this.userIp);
+		update(digest, "userAgent", utf8(this.userAgent));
+		if(!isOmitted(BLANK_REFERRER))
+			update(digest, "referrer", utf8(this.referrer));
+		if(!isOmitted(BLANK_PERMALINK))
+			update(digest, "permalink", utf8(this.permalink));
+		if(!isOmitted(BLANK_COMMENT_TYPE))
+			update(digest, "comment_type", utf8(this.commentType));
+		if(!isOmitted(BLANK_AUTHOR))
+			update(digest, "comment_author", this.commentAuthor);
+		if(!isOmitted(BLANK_AUTHOR_EMAIL))
+			update(digest, "comment_author_email", this.commentAuthorEmail);
+		if(!isOmitted(BLANK_AUTHOR_URL))
+			update(digest, "comment_author_url", this.commentAuthorUrl);
+		if(!isOmitted(BLANK_CONTENT))
+			update(digest, "comment_content", this.commentContent);
+		return digest.digest();
+	}
+	
+	private static void update(final MessageDigest digest, final String name, final byte[] value) {
+		digest.update(name.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(value == null ? NULL : value);
+		digest.update((byte) 0);
+	}
+	
+	/**
+	 * @return The api consumer the fingerprint and form length have been computed for, may be null
+	 */
+	public String getBlog() {
+		return this.blog == null ? null : this.blog.value;
+	}
+
+	public String getUserIp() {
+		return string(this.userIp);
+	}
+
+	public String getUserAgent() {
+		return this.userAgent == null ? null : this.userAgent.value;
+	}
+
+	public String getReferrer() {
+		return this.referrer == null ? null : this.referrer.value;
+	}
+
+	public String getPermalink() {
+		return this.permalink == null ? null : this.permalink.value;
+	}
+
+	public String getCommentType() {
+		return this.commentType == null ? null : this.commentType.value;
+	}
+
+	public String getCommentAuthor() {
+		return string(this.commentAuthor);
+	}
+
+	public String getCommentAuthorEmail() {
+		return string(this.commentAuthorEmail);
+	}
+
+	public String getCommentAuthorUrl() {
+		return string(this.commentAuthorUrl);
+	}
+
+	public String getCommentContent() {
+		return string(this.commentContent);
+	}
+	
+	@Override
+	public boolean equals(final Object obj) {
+		if(this == obj)
+			return true;
+		if(!(obj instanceof CompactComment))
+			return false;
+		final CompactComment other = (CompactComment) obj;
+		return Arrays.equals(this.userIp, other.userIp)
+			&& Objects.equals(getUserAgent(), other.getUserAgent())
+			&& Objects.equals(getReferrer(), other.getReferrer())
+			&& Objects.equals(getPermalink(), other.getPermalink())
+			&& Objects.equals(getCommentType(), other.getCommentType())
+			&& Arrays.equals(this.commentAuthor, other.commentAuthor)
+			&& Arrays.equals(this.commentAuthorEmail, other.commentAuthorEmail)
+			&& Arrays.equals(this.commentAuthorUrl, other.commentAuthorUrl)
+			&& Arrays.equals(this.commentContent, other.commentContent)
+			&& Objects.equals(getBlog(), other.getBlog());
+	}
+
+	@Override
+	public int hashCode() {
+		int rv = Arrays.hashCode(this.userIp);
+		rv = 31 * rv + Objects.hashCode(getUserAgent());
+		rv = 31 * rv + Arrays.hashCode(this.commentAuthor);
+		rv = 31 * rv + Arrays.hashCode(this.commentAuthorEmail);
+		rv = 31 * rv + Arrays.hashCode(this.commentContent);
+		return rv;
+	}
+
+	@Override
+	public String toString() {
+		return "CompactComment [userIp=" + getUserIp() + ", userAgent=" + getUserAgent()
+				+ ", referrer=" + getReferrer() + ", permalink=" + getPermalink()
+				+ ", commentType=" + getCommentType() + ", commentAuthor="
+				+ getCommentAuthor() + ", commentAuthorEmail=" + getCommentAuthorEmail()
+				+ ", commentAuthorUrl=" + getCommentAuthorUrl() + ", blog=" + getBlog() + "]";
+	}
+}
@@ -0,0 +1,337 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContexts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates and owns a blocking and an asynchronous http client that are tuned for Akismet:
+ * <ul>
+ * <li>Each route (every API key has its own host) may use as many connections as calls are 
+ * expected to run concurrently, so that calls don't queue for connections</li>
+ * <li>Connections are kept alive as long as the server allows, but at most for the configured time</li>
+ * <li>Expired connections and connections idle for longer than the idle timeout are closed by a background task, 
+ * connections idle for more than a second are validated before they are reused</li>
+ * <li>Both clients share one TLS context, so that TLS sessions are resumed for <code>https</code> 
+ * (see {@link Akismet#setApiScheme(String)}) instead of being negotiated for each new connection</li>
+ * <li>Connect, read and connection lease are limited by timeouts</li>
+ * <li>Host names are resolved through a {@link CachingDnsResolver}, unless another resolver is given</li>
+ * </ul>
+ * Use it like this: <code>new Akismet(pool.getHttpClient(), pool.getHttpAsyncClient())</code>. Closing
+ * the pool closes both clients.
+ * @author Michael J. Simons
+ */
+public class ConnectionPool implements Closeable {
+	private static final int CONNECT_TIMEOUT = 5_000;
+	
+	private static final int SOCKET_TIMEOUT = 15_000;
+	
+	private static final int CONNECTION_REQUEST_TIMEOUT = 5_000;
+	
+	/** Connections idle for longer than this are validated before reuse */
+	private static final int VALIDATE_AFTER_INACTIVITY = 1_000;
+	
+	private final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+	
+	private final PoolingHttpClientConnectionManager connectionManager;
+	
+	private final PoolingNHttpClientConnectionManager asyncConnectionManager;
+	
+	private final CloseableHttpClient httpClient;
+	
+	private final CloseableHttpAsyncClient httpAsyncClient;
+	
+	private final ScheduledFuture<?> evictor;
+	
+	/** Optional listener for connection leases and connects */
+	private volatile MetricsListener metricsListener;
+	
+	/**
+	 * Creates a pool with a keep-alive of 30 seconds and an idle timeout of 10 seconds.
+	 * @param maxConcurrency Maximum number of concurrent calls per API key
+	 * @throws IOException If the I/O reactor of the asynchronous client cannot be created
+	 */
+	public ConnectionPool(final int maxConcurrency) throws IOException {
+		this(maxConcurrency, 30_000, 10_000, null);
+	}
+	
+	/**
+	 * @param maxConcurrency Maximum number of concurrent calls per API key, the pools allow twice as many connections in total
+	 * @param keepAlive Maximum time in milliseconds a connection is kept alive
+	 * @param idleTimeout Time in milliseconds after which idle connections are closed
+	 * @param proxy An optional proxy, may be null
+	 * @throws IOException If the I/O reactor of the asynchronous client cannot be created
+	 */
+	public ConnectionPool(final int maxConcurrency, final long keepAlive, final long idleTimeout, final HttpHost proxy) throws IOException {
+		this(maxConcurrency, keepAlive, idleTimeout, proxy, new CachingDnsResolver());
+	}
+	
+	/**
+	 * @param maxConcurrency Maximum number of concurrent calls per API key, the pools allow twice as many connections in total
+	 * @param keepAlive Maximum time in milliseconds a connection is kept alive
+	 * @param idleTimeout Time in milliseconds after which idle connections are closed
+	 * @param proxy An optional proxy, may be null
+	 * @param dnsResolver Resolves the host names for both clients
+	 * @throws IOException If the I/O reactor of the asynchronous client cannot be created
+	 */
+	public ConnectionPool(final int maxConcurrency, final long keepAlive, final long idleTimeout, final HttpHost proxy, final DnsResolver dnsResolver) throws IOException {
+		if(maxConcurrency <= 0)
+			throw new IllegalArgumentException("Maximum concurrency must be positive");
+		if(keepAlive <= 0 || idleTimeout <= 0)
+			throw new IllegalArgumentException("Keep-alive and idle timeout must be positive");
+		
+		final SSLContext sslContext = SSLContexts.createDefault();
+		final ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+			final long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+		};
+		final RequestConfig requestConfig = RequestConfig.custom()
+			.setConnectTimeout(CONNECT_TIMEOUT)
+			.setSocketTimeout(SOCKET_TIMEOUT)
+			.setConnectionRequestTimeout(CONNECTION_REQUEST_TIMEOUT)
+			.build();
+		
+		final Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+			.register("http", PlainConnectionSocketFactory.getSocketFactory())
+			.register("https", new SSLConnectionSocketFactory(sslContext))
+			.build();
+		this.connectionManager = new PoolingHttpClientConnectionManager(socketFactories, dnsResolver) {
+			@Override
+			public ConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+				final ConnectionRequest request = super.requestConnection(route, state);
+				final MetricsListener listener = metricsListener;
+				if(listener == null)
+					return request;
+				return new ConnectionRequest() {
+					@Override
+					public HttpClientConnection get(final long timeout, final TimeUnit tunit) throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+						final String host = route.getTargetHost().getHostName();
+						final Object lease = listener.connectionLeaseStarted(host);
+						final long start = System.nanoTime();
+						try {
+							return request.get(timeout, tunit);
+						} finally {
+							listener.recordConnectionLease(host, System.nanoTime() - start, lease);
+						}
+					}
+
+					@Override
+					public boolean cancel() {
+						return request.cancel();
+					}
+				};
+			}
+			
+			@Override
+			public void connect(final HttpClientConnection managedConn, final HttpRoute route, final int connectTimeout, final HttpContext context) throws IOException {
+				final MetricsListener listener = metricsListener;
+				final String host = route.getTargetHost().getHostName();
+				final Object connect = listener == null ? null : listener.connectStarted(host);
+				final long start = System.nanoTime();
+				try {
+					super.connect(managedConn, route, connectTimeout, context);
+				} finally {
+					if(listener != null)
+						listener.recordConnect(host, System.nanoTime() - start, connect);
+				}
+			}
+		};
+		this.connectionManager.setDefaultMaxPerRoute(maxConcurrency);
+		this.connectionManager.setMaxTotal(2 * maxConcurrency);
+		this.connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+		this.connectionManager.setDefaultSocketConfig(SocketConfig.custom().setTcpNoDelay(true).setSoKeepAlive(true).build());
+		this.httpClient = HttpClients.custom()
+			.setConnectionManager(this.connectionManager)
+			.setKeepAliveStrategy(keepAliveStrategy)
+			.setDefaultRequestConfig(requestConfig)
+			.setProxy(proxy)
+			.disableCookieManagement()
+			.build();
+		
+		final Registry<SchemeIOSessionStrategy> sessionStrategies = RegistryBuilder.<SchemeIOSessionStrategy>create()
+			.register("http", NoopIOSessionStrategy.INSTANCE)
+			.register("https", new SSLIOSessionStrategy(sslContext))
+			.build();
+		final IOReactorConfig reactorConfig = IOReactorConfig.custom()
+			.setTcpNoDelay(true)
+			.setSoKeepAlive(true)
+			.setConnectTimeout(CONNECT_TIMEOUT)
+			.build();
+		this.asyncConnectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactorConfig), null, sessionStrategies, dnsResolver) {
+			@Override
+			public Future<NHttpClientConnection> requestConnection(final HttpRoute route, final Object state, final long connectTimeout, final long leaseTimeout, final TimeUnit tunit, final FutureCallback<NHttpClientConnection> callback) {
+				final MetricsListener listener = metricsListener;
+				if(listener == null)
+					return super.requestConnection(route, state, connectTimeout, leaseTimeout, tunit, callback);
+				final String host = route.getTargetHost().getHostName();
+				final Object lease = listener.connectionLeaseStarted(host);
+				final long start = System.nanoTime();
+				final Runnable record = () -> listener.recordConnectionLease(host, System.nanoTime() - start, lease);
+				return super.requestConnection(route, state, connectTimeout, leaseTimeout, tunit, new FutureCallback<NHttpClientConnection>() {
+					@Override
+					public void completed(final NHttpClientConnection result) {
+						record.run();
+						if(callback != null)
+							callback.completed(result);
+					}
+
+					@Override
+					public void failed(final Exception ex) {
+						record.run();
+						if(callback != null)
+							callback.failed(ex);
+					}
+
+					@Override
+					public void cancelled() {
+						if(callback != null)
+							callback.cancelled();
+					}
+				});
+			}
+		};
+		this.asyncConnectionManager.setDefaultMaxPerRoute(maxConcurrency);
+		this.asyncConnectionManager.setMaxTotal(2 * maxConcurrency);
+		this.httpAsyncClient = HttpAsyncClients.custom()
+			.setConnectionManager(this.asyncConnectionManager)
+			.setKeepAliveStrategy(keepAliveStrategy)
+			.setDefaultRequestConfig(requestConfig)
+			.setProxy(proxy)
+			.disableCookieManagement()
+			.build();
+		this.httpAsyncClient.start();
+		
+		final long period = Math.max(idleTimeout / 2, 10);
+		this.evictor = SharedScheduler.get().scheduleWithFixedDelay(() -> evict(idleTimeout), period, period, TimeUnit.MILLISECONDS);
+	}
+	
+	private void evict(final long idleTimeout) {
+		try {
+			this.connectionManager.closeExpiredConnections();
+			this.connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+			this.asyncConnectionManager.closeExpiredConnections();
+			this.asyncConnectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+		} catch(RuntimeException e) {
+			// Otherwise the scheduler would silently stop the eviction
+			logger.warn("Could not evict idle connections", e);
+		}
+	}
+
+	public CloseableHttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	/**
+	 * @return The asynchronous client, already started
+	 */
+	public CloseableHttpAsyncClient getHttpAsyncClient() {
+		return httpAsyncClient;
+	}
+	
+	public MetricsListener getMetricsListener() {
+		return metricsListener;
+	}
+
+	/**
+	 * @param metricsListener Receives the time spent waiting for connections and connecting, null disables recording
+	 */
+	public void setMetricsListener(MetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+	
+	/**
+	 * @return Leased, pending and available connections of the blocking client
+	 */
+	public PoolStats getStats() {
+		return this.connectionManager.getTotalStats();
+	}
+	
+	/**
+	 * @return Leased, pending and available connections of the asynchronous client
+	 */
+	public PoolStats getAsyncStats() {
+		return this.asyncConnectionManager.getTotalStats();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.evictor.cancel(false);
+		try {
+			this.httpAsyncClient.close();
+		} finally {
+			this.httpClient.close();
+		}
+	}
+}
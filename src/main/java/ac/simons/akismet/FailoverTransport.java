@@ -0,0 +1,453 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ac.simons.akismet.MetricsListener.Operation;
+import ac.simons.akismet.MetricsListener.Retry;
+
+/**
+ * A {@link Transport} that routes calls over alternative Akismet endpoints. All requests to one of the endpoints 
+ * (the configured {@link Akismet#setApiEndpoint(String) api endpoint} should be one of them) are sent to the 
+ * fastest healthy endpoint instead:
+ * <ul>
+ * <li>Latency and error rate of each endpoint are tracked as exponentially weighted moving averages. Server errors
+ * (5xx) and I/O errors count as errors, the latency is measured up to the response headers</li>
+ * <li>Each call goes to the endpoint with the lowest latency per successful call, endpoints without 
+ * successful calls are tried first. Every 50th call goes to the healthy endpoint used least recently, so that 
+ * the latencies of all endpoints stay current</li>
+ * <li>Endpoints are ejected for a while after a number of consecutive errors. If all endpoints are ejected,
+ * the one that comes back first is used</li>
+ * <li>Requests that could not be sent because the host could not be resolved or connected are sent to 
+ * the next endpoint, so that they don't fail as long as one endpoint is reachable. The next endpoint gets the
+ * time left of the {@link TransportRequest#getTimeout() timeout} of the request, requests are not sent again 
+ * once it has passed</li>
+ * </ul>
+ * Endpoints are host names, optionally with a port. Requests to other hosts are passed through unchanged.
+ * @author Michael J. Simons
+ */
+public class FailoverTransport implements Transport {
+	/** Weight of the newest sample in the moving averages */
+	private static final double ALPHA = 0.2;
+	
+	/** Every n-th call probes the endpoint used least recently */
+	private static final int PROBE_INTERVAL = 50;
+	
+	private static final int HTTP_INTERNAL_SERVER_ERROR = 500;
+	
+	private final Logger logger = LoggerFactory.getLogger(FailoverTransport.class);
+	
+	private final Transport delegate;
+	
+	private final Endpoint[] endpoints;
+	
+	private final int maxFailures;
+	
+	/** Time an endpoint is ejected in nanoseconds */
+	private final long ejectionTime;
+	
+	private final AtomicLong calls = new AtomicLong();
+	
+	/** Optional listener for retries on other endpoints */
+	private volatile MetricsListener metricsListener;
+	
+	/**
+	 * Latency, error rate and ejection of one endpoint.
+	 */
+	public static final class Endpoint {
+		private final String name;
+		
+		/** Average latency in nanoseconds, 0 until the first successful call */
+		private double latency;
+		
+		private double errorRate;
+		
+		private int consecutiveFailures;
+		
+		/** End of the ejection in nanoseconds, 0 if not ejected */
+		private long ejectedUntil;
+		
+		private volatile long lastUsed;
+		
+		Endpoint(final String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+		
+		/**
+		 * @return The average latency in milliseconds
+		 */
+		public synchronized double getLatency() {
+			return latency / TimeUnit.MILLISECONDS.toNanos(1);
+		}
+
+		/**
+		 * @return The average rate of errors, between 0 and 1
+		 */
+		public synchronized double getErrorRate() {
+			return errorRate;
+		}
+		
+		public synchronized boolean isEjected() {
+			return getEjectedUntil(System.nanoTime()) != 0;
+		}
+		
+		/**
+		 * Ends the ejection if it has expired.
+		 * @return The end of the ejection in nanoseconds, 0 if not ejected
+		 */
+		synchronized long getEjectedUntil(final long now) {
+			if(this.ejectedUntil != 0 && now - this.ejectedUntil >= 0) {
+				this.ejectedUntil = 0;
+				this.consecutiveFailures = 0;
+			}
+			return this.ejectedUntil;
+		}
+		
+		/**
+		 * @return The latency per successful call
+		 */
+		synchronized double score() {
+			return this.latency / Math.max(0.05, 1.0 - this.errorRate);
+		}
+		
+		/**
+		 * @return True if the endpoint has been ejected by this call
+		 */
+		synchronized boolean record(final boolean failed, final long duration, final int maxFailures, final long ejectionTime) {
+			this.errorRate += ALPHA * ((failed ? 1.0 : 0.0) - this.errorRate);
+			if(!failed) {
+				this.consecutiveFailures = 0;
+				this.latency = this.latency == 0 ? duration : this.latency + ALPHA * (duration - this.latency);
+				return false;
+			}
+			if(++this.consecutiveFailures < maxFailures || this.ejectedUntil != 0)
+				return false;
+			this.ejectedUntil = (System.nanoTime() + ejectionTime) | 1;
+			return true;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return "Endpoint [name=" + name + ", latency=" + getLatency() + ", errorRate=" + errorRate + ", ejected=" + (ejectedUntil != 0) + "]";
+		}
+	}
+	
+	/**
+	 * Creates a transport that ejects endpoints for 30 seconds after 3 consecutive errors.
+	 * @param delegate The transport that sends the requests
+	 * @param endpoints The alternative endpoints
+	 */
+	public FailoverTransport(final Transport delegate, final List<String> endpoints) {
+		this(delegate, endpoints, 3, TimeUnit.SECONDS.toMillis(30));
+	}
+	
+	/**
+	 * @param delegate The transport that sends the requests
+	 * @param endpoints The alternative endpoints
+	 * @param maxFailures Number of consecutive errors after which an endpoint is ejected
+	 * @param ejectionTime Time in milliseconds an endpoint is ejected
+	 */
+	public FailoverTransport(final Transport delegate, final List<String> endpoints, final int maxFailures, final long ejectionTime) {
+		if(endpoints.isEmpty())
+			throw new IllegalArgumentException("At least one endpoint is needed");
+		if(maxFailures <= 0 || ejectionTime <= 0)
+			throw new IllegalArgumentException("Number of failures and ejection time must be positive");
+		this.delegate = delegate;
+		this.endpoints = new Endpoint[endpoints.size()];
+		for(int i = 0; i < this.endpoints.length; ++i)
+			this.endpoints[i] = new Endpoint(endpoints.get(i).toLowerCase());
+		this.maxFailures = maxFailures;
+		this.ejectionTime = TimeUnit.MILLISECONDS.toNanos(ejectionTime);
+	}
+	
+	public Transport getDelegate() {
+		return delegate;
+	}
+	
+	public MetricsListener getMetricsListener() {
+		return metricsListener;
+	}
+
+	/**
+	 * @param metricsListener Receives all requests that are sent to the next endpoint, null disables recording
+	 */
+	public void setMetricsListener(MetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+	
+	/**
+	 * @return All endpoints with their current latency, error rate and ejection
+	 */
+	public List<Endpoint> getEndpoints() {
+		final List<Endpoint> rv = new ArrayList<>(this.endpoints.length);
+		Collections.addAll(rv, this.endpoints);
+		return Collections.unmodifiableList(rv);
+	}
+	
+	/**
+	 * @return The endpoint the request is addressed to (the longest match) or null
+	 */
+	private Endpoint match(final URI uri) {
+		final String authority = uri.getRawAuthority().toLowerCase();
+		Endpoint rv = null;
+		for(Endpoint endpoint : this.endpoints) {
+			final String name = endpoint.name;
+			if((authority.equals(name) || authority.endsWith("." + name)) && (rv == null || name.length() > rv.name.length()))
+				rv = endpoint;
+		}
+		return rv;
+	}
+	
+	/**
+	 * Selects the endpoint for the next attempt of a call.
+	 * @param tried Endpoints already tried for the call
+	 * @return The endpoint or null, if all endpoints have been tried
+	 */
+	private Endpoint select(final Set<Endpoint> tried) {
+		final long now = System.nanoTime();
+		final boolean probe = tried.isEmpty() && this.calls.incrementAndGet() % PROBE_INTERVAL == 0;
+		Endpoint rv = null;
+		double best = Double.MAX_VALUE;
+		Endpoint leastRecentlyUsed = null;
+		// The endpoint whose ejection ends first
+		Endpoint ejected = null;
+		long ejectedUntil = 0;
+		for(Endpoint endpoint : this.endpoints) {
+			if(tried.contains(endpoint))
+				continue;
+			final long until = endpoint.getEjectedUntil(now);
+			if(until != 0) {
+				if(ejected == null || until - ejectedUntil < 0) {
+					ejected = endpoint;
+					ejectedUntil = until;
+				}
+				continue;
+			}
+			final double score = endpoint.score();
+			if(score < best) {
+				best = score;
+				rv = endpoint;
+			}
+			if(leastRecentlyUsed == null || endpoint.lastUsed - leastRecentlyUsed.lastUsed < 0)
+				leastRecentlyUsed = endpoint;
+		}
+		if(probe && leastRecentlyUsed != null)
+			rv = leastRecentlyUsed;
+		if(rv == null)
+			rv = ejected;
+		if(rv != null)
+			rv.lastUsed = now;
+		return rv;
+	}
+	
+	/**
+	 * @param timeout The time left for the call in milliseconds
+	 * @return The request addressed to the target instead of the origin
+	 */
+	private static TransportRequest route(final TransportRequest request, final Endpoint origin, final Endpoint target, final long timeout) {
+		if(origin == target && timeout == request.getTimeout())
+			return request;
+		final URI uri = request.getUri();
+		final String authority = uri.getRawAuthority();
+		final StringBuilder routed = new StringBuilder()
+			.append(uri.getScheme()).append("://")
+			.append(authority, 0, authority.length() - origin.name.length()).append(target.name)
+			.append(uri.getRawPath());
+		if(uri.getRawQuery() != null)
+			routed.append('?').append(uri.getRawQuery());
+		return new TransportRequest(URI.create(routed.toString()), request.getForm(), request.getUserAgent(), timeout);
+	}
+	
+	/**
+	 * @param start Start of the call in nanoseconds
+	 * @return The time left of the timeout of the request in milliseconds, 0 if the request has no timeout
+	 * and a negative value if it has expired
+	 */
+	private static long remaining(final TransportRequest request, final long start) {
+		if(request.getTimeout() <= 0)
+			return 0;
+		final long rv = request.getTimeout() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		return rv > 0 ? rv : -1;
+	}
+	
+	/**
+	 * Reports a request that is sent to the next endpoint.
+	 */
+	private void retried(final TransportRequest request, final Endpoint from, final Endpoint to, final Throwable cause) {
+		logger.debug(String.format("Could not connect to %s, trying %s: %s", from.name, to.name, cause.getMessage()));
+		final MetricsListener listener = this.metricsListener;
+		if(listener == null)
+			return;
+		final String path = request.getUri().getRawPath();
+		for(Operation operation : Operation.values()) {
+			if(path.endsWith("/" + operation.getFunction())) {
+				listener.recordRetry(operation, Retry.FAILOVER);
+				break;
+			}
+		}
+	}
+	
+	private void record(final Endpoint endpoint, final boolean failed, final long start) {
+		if(endpoint.record(failed, System.nanoTime() - start, this.maxFailures, this.ejectionTime))
+			logger.warn(String.format("Ejected %s after %d consecutive errors", endpoint.name, this.maxFailures));
+	}
+	
+	/**
+	 * @return True if the request could not be sent at all
+	 */
+	private static boolean isConnectFailure(final Throwable e) {
+		for(Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if(cause instanceof ConnectException || cause instanceof NoRouteToHostException || cause instanceof UnknownHostException)
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public TransportResponse execute(final TransportRequest request) throws IOException {
+		final Endpoint origin = match(request.getUri());
+		if(origin == null)
+			return this.delegate.execute(request);
+		final long called = System.nanoTime();
+		final Set<Endpoint> tried = new HashSet<>();
+		Endpoint target = select(tried);
+		long timeout = request.getTimeout();
+		while(true) {
+			tried.add(target);
+			final long start = System.nanoTime();
+			try {
+				final TransportResponse rv = this.delegate.execute(route(request, origin, target, timeout));
+				record(target, rv.getStatusCode() >= HTTP_INTERNAL_SERVER_ERROR, start);
+				return rv;
+			} catch(IOException e) {
+				record(target, true, start);
+				timeout = remaining(request, called);
+				final Endpoint next = isConnectFailure(e) && timeout >= 0 ? select(tried) : null;
+				if(next == null)
+					throw e;
+				retried(request, target, next, e);
+				target = next;
+			}
+		}
+	}
+
+	@Override
+	public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+		final Endpoint origin = match(request.getUri());
+		if(origin == null)
+			return this.delegate.executeAsync(request);
+		final CompletableFuture<TransportResponse> rv = new CompletableFuture<>();
+		final Set<Endpoint> tried = new HashSet<>();
+		attempt(request, System.nanoTime(), request.getTimeout(), origin, select(tried), tried, rv);
+		return rv;
+	}
+	
+	/**
+	 * Sends the request to the target and, if it cannot be connected, to the next endpoint with the time left
+	 * of the timeout of the request. The attempts of a call are sequential, so the set of tried endpoints needs 
+	 * no synchronization.
+	 * @param called Start of the call in nanoseconds
+	 * @param timeout The time left for the call in milliseconds
+	 */
+	private void attempt(final TransportRequest request, final long called, final long timeout, final Endpoint origin, final Endpoint target, final Set<Endpoint> tried, final CompletableFuture<TransportResponse> result) {
+		tried.add(target);
+		final long start = System.nanoTime();
+		final CompletableFuture<TransportResponse> call;
+		try {
+			call = this.delegate.executeAsync(route(request, origin, target, timeout));
+		} catch(RuntimeException e) {
+			result.completeExceptionally(e);
+			return;
+		}
+		result.whenComplete((response, e) -> {
+			if(e != null)
+				call.cancel(true);
+		});
+		call.whenComplete((response, e) -> {
+			if(e == null) {
+				record(target, response.getStatusCode() >= HTTP_INTERNAL_SERVER_ERROR, start);
+				if(!result.complete(response))
+					closeQuietly(response);
+				return;
+			}
+			// Aborted because the call is already done
+			if(result.isDone())
+				return;
+			record(target, true, start);
+			final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+			final long left = remaining(request, called);
+			final Endpoint next = isConnectFailure(cause) && left >= 0 ? select(tried) : null;
+			if(next == null)
+				result.completeExceptionally(cause);
+			else {
+				retried(request, target, next, cause);
+				attempt(request, called, left, origin, next, tried, result);
+			}
+		});
+	}
+	
+	private void closeQuietly(final TransportResponse response) {
+		try {
+			response.close();
+		} catch(IOException e) {
+			logger.debug(String.format("Could not close response of an aborted call: %s", e.getMessage()));
+		}
+	}
+
+	@Override
+	public boolean supportsAsync() {
+		return this.delegate.supportsAsync();
+	}
+}
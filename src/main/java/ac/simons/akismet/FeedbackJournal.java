@@ -0,0 +1,281 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An append only journal of spam and ham submissions, stored in memory mapped segment files.<br>
+ * Each record is written as <code>[int length][byte kind][long sequence][payload]</code>, the length 
+ * is written last so that a record torn by a crash is never read. A segment is deleted as soon 
+ * as it and all older segments don't contain any pending submission anymore.
+ * @author Michael J. Simons
+ */
+class FeedbackJournal implements Closeable {
+	static final byte SPAM = 1;
+	static final byte HAM = 2;
+	static final byte DONE = 3;
+	
+	private static final int HEADER_SIZE = 4 + 1 + 8;
+	
+	/**
+	 * A submission read from or written to the journal
+	 */
+	static class Record {
+		final long sequence;
+		final byte kind;
+		final CompactComment comment;
+		final long segment;
+
+		Record(long sequence, byte kind, CompactComment comment, long segment) {
+			this.sequence = sequence;
+			this.kind = kind;
+			this.comment = comment;
+			this.segment = segment;
+		}
+	}
+	
+	private final Path directory;
+	
+	private final int segmentSize;
+	
+	/** Number of pending submissions per segment, ordered from oldest to newest */
+	private final TreeMap<Long, Integer> pendingPerSegment = new TreeMap<>();
+	
+	/** Whether each append is forced to the storage device */
+	private volatile boolean sync = false;
+	
+	private long sequence;
+	
+	private long currentSegment;
+	
+	private MappedByteBuffer current;
+	
+	FeedbackJournal(final Path directory, final int segmentSize) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.segmentSize = segmentSize;
+	}
+	
+	/**
+	 * Reads all segments and returns the submissions that have not been completed yet,
+	 * in the order they have been appended. Must be called once before appending.
+	 * @return Pending submissions
+	 * @throws IOException If the segments cannot be read
+	 */
+	synchronized List<Record> replay() throws IOException {
+		final List<Long> segments = new ArrayList<>();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "feedback-*.journal")) {
+			for(Path file : files) {
+				final String name = file.getFileName().toString();
+				segments.add(Long.parseLong(name.substring("feedback-".length(), name.length() - ".journal".length())));
+			}
+		}
+		segments.sort(null);
+		
+		final Map<Long, Record> pending = new LinkedHashMap<>();
+		for(Long segment : segments) {
+			this.pendingPerSegment.put(segment, 0);
+			this.current = map(segment, 0);
+			this.currentSegment = segment;
+			while(this.current.remaining() >= HEADER_SIZE) {
+				final int start = this.current.position();
+				final int length = this.current.getInt();
+				if(length <= 0 || length > this.current.capacity() - start) {
+					this.current.position(start);
+					break;
+				}
+				final byte kind = this.current.get();
+				final long recordSequence = this.current.getLong();
+				this.sequence = Math.max(this.sequence, recordSequence);
+				if(kind == DONE) 
+					pending.remove(recordSequence);
+				else 
+					pending.put(recordSequence, new Record(recordSequence, kind, readComment(this.current), segment));
+				this.current.position(start + length);
+			}
+		}
+		
+		final List<Record> rv = new ArrayList<>(pending.values());
+		for(Record record : rv)
+			this.pendingPerSegment.merge(record.segment, 1, Integer::sum);
+		if(this.current == null) 
+			roll(0);
+		removeCompletedSegments();
+		return rv;
+	}
+	
+	/**
+	 * Appends a submission.
+	 * @param kind {@link #SPAM} or {@link #HAM}
+	 * @param comment The comment to submit
+	 * @return The appended record
+	 * @throws IOException If the journal cannot be written
+	 */
+	synchronized Record append(final byte kind, final AkismetComment comment) throws IOException {
+		final byte[][] fields = fieldsOf(comment);
+		int length = HEADER_SIZE;
+		for(byte[] field : fields)
+			length += 4 + (field == null ? 0 : field.length);
+		final long recordSequence = write(kind, ++this.sequence, fields, length);
+		this.pendingPerSegment.merge(this.currentSegment, 1, Integer::sum);
+		// Pending submissions can pile up while Akismet is unavailable
+		return new Record(recordSequence, kind, CompactComment.of(comment), this.currentSegment);
+	}
+	
+	/**
+	 * Marks a submission as completed, so that it won't be replayed.
+	 * @param record The completed record
+	 * @throws IOException If the journal cannot be written
+	 */
+	synchronized void complete(final Record record) throws IOException {
+		write(DONE, record.sequence, new byte[0][], HEADER_SIZE);
+		this.pendingPerSegment.computeIfPresent(record.segment, (segment, count) -> count - 1);
+		removeCompletedSegments();
+	}
+	
+	private long write(final byte kind, final long recordSequence, final byte[][] fields, final int length) throws IOException {
+		if(this.current.remaining() < length + 4) 
+			roll(length + 4);
+		final int start = this.current.position();
+		this.current.position(start + 4);
+		this.current.put(kind);
+		this.current.putLong(recordSequence);
+		for(byte[] field : fields) {
+			if(field == null)
+				this.current.putInt(-1);
+			else {
+				this.current.putInt(field.length);
+				this.current.put(field);
+			}
+		}
+		// Commit the record by writing its length
+		this.current.putInt(start, length);
+		if(this.sync)
+			this.current.force();
+		return recordSequence;
+	}
+	
+	private void roll(final int minimumSize) throws IOException {
+		if(this.current != null) {
+			this.current.force();
+			++this.currentSegment;
+		}
+		this.current = map(this.currentSegment, Math.max(this.segmentSize, minimumSize));
+		this.pendingPerSegment.putIfAbsent(this.currentSegment, 0);
+		removeCompletedSegments();
+	}
+	
+	private MappedByteBuffer map(final long segment, final int size) throws IOException {
+		try(FileChannel channel = FileChannel.open(segmentFile(segment), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+		}
+	}
+	
+	private Path segmentFile(final long segment) {
+		return this.directory.resolve(String.format("feedback-%016d.journal", segment));
+	}
+	
+	private void removeCompletedSegments() {
+		Map.Entry<Long, Integer> oldest;
+		while((oldest = this.pendingPerSegment.firstEntry()) != null && oldest.getKey() != this.currentSegment && oldest.getValue() <= 0) {
+			this.pendingPerSegment.pollFirstEntry();
+			try {
+				Files.deleteIfExists(segmentFile(oldest.getKey()));
+			} catch(IOException e) {
+				// Will be retried on the next start
+			}
+		}
+	}
+	
+	private static byte[][] fieldsOf(final AkismetComment comment) {
+		final String[] values = {
+			comment.getUserIp(), comment.getUserAgent(), comment.getReferrer(), comment.getPermalink(), comment.getCommentType(),
+			comment.getCommentAuthor(), comment.getCommentAuthorEmail(), comment.getCommentAuthorUrl(), comment.getCommentContent()
+		};
+		final byte[][] rv = new byte[values.length][];
+		for(int i = 0; i < values.length; ++i)
+			rv[i] = values[i] == null ? null : values[i].getBytes(StandardCharsets.UTF_8);
+		return rv;
+	}
+	
+	private static CompactComment readComment(final MappedByteBuffer buffer) {
+		return CompactComment.builder()
+			.userIp(readString(buffer))
+			.userAgent(readString(buffer))
+			.referrer(readString(buffer))
+			.permalink(readString(buffer))
+			.commentType(readString(buffer))
+			.commentAuthor(readString(buffer))
+			.commentAuthorEmail(readString(buffer))
+			.commentAuthorUrl(readString(buffer))
+			.commentContent(readString(buffer))
+			.build();
+	}
+	
+	private static String readString(final MappedByteBuffer buffer) {
+		final int length = buffer.getInt();
+		if(length < 0)
+			return null;
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	boolean isSync() {
+		return sync;
+	}
+
+	void setSync(boolean sync) {
+		this.sync = sync;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(this.current != null)
+			this.current.force();
+	}
+}
@@ -0,0 +1,364 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ac.simons.akismet.MetricsListener.Operation;
+import ac.simons.akismet.MetricsListener.Retry;
+
+/**
+ * A write-behind queue for spam and ham submissions. Submissions are appended to a local 
+ * journal and acknowledged immediately, a background thread sends them to Akismet in batches
+ * and retries failed submissions with exponential backoff. If the same comment is 
+ * submitted again before the previous submission has been sent, only the latest
+ * submission is sent. Pending submissions are replayed from the journal when a queue is 
+ * created on the same directory again.<br>
+ * The journal survives crashes of the process. To survive crashes of the operating system,
+ * use {@link #setSync(boolean)}, which forces every append to the storage device.
+ * @author Michael J. Simons
+ */
+public class FeedbackQueue implements Closeable {
+	/** Default size of a journal segment */
+	public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+	
+	/** A logger */
+	private final Logger logger = LoggerFactory.getLogger(FeedbackQueue.class);
+	
+	private static class Entry {
+		final FeedbackJournal.Record record;
+		final String fingerprint;
+		int attempts;
+		/** True while the entry waits in the queue */
+		boolean queued;
+
+		Entry(FeedbackJournal.Record record, String fingerprint) {
+			this.record = record;
+			this.fingerprint = fingerprint;
+		}
+	}
+	
+	private final Akismet akismet;
+	
+	private final FeedbackJournal journal;
+	
+	/** Submissions in the order they are sent */
+	private final Deque<Entry> queue = new ArrayDeque<>();
+	
+	/** The latest pending submission per comment */
+	private final Map<String, Entry> latest = new HashMap<>();
+	
+	private final Thread sender;
+	
+	private volatile boolean running = true;
+	
+	private volatile int batchSize = 16;
+	
+	private volatile int maxAttempts = 10;
+	
+	private volatile long initialBackoff = TimeUnit.SECONDS.toMillis(1);
+	
+	private volatile long maxBackoff = TimeUnit.MINUTES.toMillis(5);
+	
+	/** Number of entries waiting in the queue that have not been superseded */
+	private int queued;
+	
+	/** Number of submissions taken from the queue but not yet finished */
+	private int inFlight;
+	
+	/**
+	 * Creates a queue with the default segment size
+	 * @param akismet The instance used for sending submissions
+	 * @param directory The directory of the journal
+	 * @throws IOException If the journal cannot be opened or replayed
+	 */
+	public FeedbackQueue(final Akismet akismet, final Path directory) throws IOException {
+		this(akismet, directory, DEFAULT_SEGMENT_SIZE);
+	}
+	
+	/**
+	 * Creates a new queue, replays all pending submissions from the journal 
+	 * and starts sending them.
+	 * @param akismet The instance used for sending submissions
+	 * @param directory The directory of the journal
+	 * @param segmentSize Size of a journal segment in bytes
+	 * @throws IOException If the journal cannot be opened or replayed
+	 */
+	public FeedbackQueue(final Akismet akismet, final Path directory, final int segmentSize) throws IOException {
+		this.akismet = akismet;
+		this.journal = new FeedbackJournal(directory, segmentSize);
+		final List<FeedbackJournal.Record> pending = this.journal.replay();
+		for(FeedbackJournal.Record record : pending)
+			enqueue(record);
+		if(!pending.isEmpty())
+			logger.info(String.format("Replayed %d pending submissions from %s", pending.size(), directory));
+		
+		this.sender = new Thread(this::send, "akismet-feedback-sender");
+		this.sender.setDaemon(true);
+		this.sender.start();
+	}
+	
+	/**
+	 * Queues the comment for submission as spam.
+	 * @param comment A comment that wasn't marked as spam but should have been
+	 * @throws AkismetException If the submission cannot be written to the journal
+	 */
+	public void submitSpam(final AkismetComment comment) throws AkismetException {
+		submit(FeedbackJournal.SPAM, comment);
+	}
+	
+	/**
+	 * Queues the comment for submission as ham.
+	 * @param comment A comment that was incorrectly marked as spam
+	 * @throws AkismetException If the submission cannot be written to the journal
+	 */
+	public void submitHam(final AkismetComment comment) throws AkismetException {
+		submit(FeedbackJournal.HAM, comment);
+	}
+	
+	private synchronized void submit(final byte kind, final AkismetComment comment) throws AkismetException {
+		if(!this.running)
+			throw new AkismetException("Feedback queue has been closed");
+		// Appending and queueing under one lock keeps the queue in journal order, so that
+		// a submission never supersedes a newer one of the same comment
+		try {
+			enqueue(this.journal.append(kind, comment));
+		} catch(IOException e) {
+			throw new AkismetException(e);
+		}
+	}
+	
+	private synchronized void enqueue(final FeedbackJournal.Record record) throws IOException {
+		final Entry entry = new Entry(record, record.comment.fingerprint(this.akismet.getApiConsumer()));
+		final Entry superseded = this.latest.put(entry.fingerprint, entry);
+		// Superseded entries are skipped when taken from the queue
+		if(superseded != null && superseded.queued) {
+			superseded.queued = false;
+			--this.queued;
+			this.journal.complete(superseded.record);
+		}
+		entry.queued = true;
+		++this.queued;
+		this.queue.addLast(entry);
+		this.notifyAll();
+	}
+	
+	private synchronized List<Entry> takeBatch() throws InterruptedException {
+		while(this.running && this.queued == 0)
+			this.wait();
+		final List<Entry> rv = new ArrayList<>();
+		Entry entry;
+		while(rv.size() < this.batchSize && (entry = this.queue.pollFirst()) != null) {
+			if(!entry.queued)
+				continue;
+			entry.queued = false;
+			--this.queued;
+			rv.add(entry);
+		}
+		this.inFlight += rv.size();
+		return rv;
+	}
+	
+	private synchronized void finished(final Entry entry, final boolean success) {
+		--this.inFlight;
+		final boolean current = this.latest.get(entry.fingerprint) == entry;
+		if(success || !current || entry.attempts >= this.maxAttempts) {
+			if(!success && current)
+				logger.warn(String.format("Giving up on submitting %s after %d attempts", entry.record.comment, entry.attempts));
+			if(current)
+				this.latest.remove(entry.fingerprint);
+			try {
+				this.journal.complete(entry.record);
+			} catch(IOException e) {
+				logger.warn(String.format("Could not mark submission %d as completed, it will be replayed: %s", entry.record.sequence, e.getMessage()));
+			}
+		} else {
+			entry.queued = true;
+			++this.queued;
+			this.queue.addFirst(entry);
+		}
+		this.notifyAll();
+	}
+	
+	private CompletableFuture<Boolean> sendAsync(final Entry entry) {
+		final AkismetComment comment = entry.record.comment.toAkismetComment();
+		if(this.akismet.getTransport().supportsAsync())
+			return entry.record.kind == FeedbackJournal.SPAM ? this.akismet.submitSpamAsync(comment) : this.akismet.submitHamAsync(comment);
+		try {
+			return CompletableFuture.completedFuture(entry.record.kind == FeedbackJournal.SPAM ? this.akismet.submitSpam(comment) : this.akismet.submitHam(comment));
+		} catch(AkismetException e) {
+			final CompletableFuture<Boolean> rv = new CompletableFuture<>();
+			rv.completeExceptionally(e);
+			return rv;
+		}
+	}
+	
+	private void send() {
+		long backoff = 0;
+		while(this.running) {
+			try {
+				if(backoff > 0)
+					Thread.sleep(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+				
+				final List<Entry> batch = takeBatch();
+				final List<CompletableFuture<Boolean>> results = new ArrayList<>(batch.size());
+				final MetricsListener listener = this.akismet.getMetricsListener();
+				for(Entry entry : batch) {
+					if(++entry.attempts > 1 && listener != null)
+						listener.recordRetry(entry.record.kind == FeedbackJournal.SPAM ? Operation.SUBMIT_SPAM : Operation.SUBMIT_HAM, Retry.FEEDBACK);
+					results.add(sendAsync(entry));
+				}
+				
+				boolean failures = false;
+				for(int i = 0; i < batch.size(); ++i) {
+					boolean success;
+					try {
+						// Unlike join, get can be interrupted by close, the unfinished submissions stay in the journal
+						success = results.get(i).get();
+					} catch(ExecutionException e) {
+						logger.debug(String.format("Submission failed: %s", e.getCause().getMessage()));
+						success = false;
+					}
+					failures |= !success;
+					finished(batch.get(i), success);
+				}
+				backoff = failures ? Math.min(this.maxBackoff, Math.max(this.initialBackoff, backoff * 2)) : 0;
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * @return Number of submissions not yet sent successfully
+	 */
+	public synchronized int getPending() {
+		return this.queued + this.inFlight;
+	}
+	
+	/**
+	 * Waits until all pending submissions have been sent.
+	 * @param timeout Maximum time to wait
+	 * @param unit Unit of the timeout
+	 * @return True if there are no pending submissions left
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public synchronized boolean awaitEmpty(final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		long remaining;
+		while(getPending() > 0 && (remaining = deadline - System.nanoTime()) > 0)
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		return getPending() == 0;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @param batchSize Maximum number of submissions sent concurrently
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @param maxAttempts Number of attempts after which a submission is dropped
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Sets the backoff after failed submissions. The backoff doubles with 
+	 * every failed batch up to the maximum and is randomized by 50%.
+	 * @param initialBackoff Backoff after the first failure
+	 * @param maxBackoff Maximum backoff
+	 * @param unit Unit of both values
+	 */
+	public void setBackoff(long initialBackoff, long maxBackoff, TimeUnit unit) {
+		this.initialBackoff = unit.toMillis(initialBackoff);
+		this.maxBackoff = unit.toMillis(maxBackoff);
+	}
+
+	public boolean isSync() {
+		return this.journal.isSync();
+	}
+
+	/**
+	 * @param sync True to force every append to the storage device
+	 */
+	public void setSync(boolean sync) {
+		this.journal.setSync(sync);
+	}
+
+	/**
+	 * Stops sending. Pending submissions stay in the journal and are replayed by the next queue
+	 * on the same directory.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized(this) {
+			this.running = false;
+			this.notifyAll();
+		}
+		this.sender.interrupt();
+		try {
+			this.sender.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.journal.close();
+	}
+}
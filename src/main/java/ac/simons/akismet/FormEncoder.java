@@ -0,0 +1,148 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Writes <code>application/x-www-form-urlencoded</code> fields as percent encoded UTF-8 directly into
+ * a byte array. The encoding is the same as {@link java.net.URLEncoder} and 
+ * {@link org.apache.http.client.utils.URLEncodedUtils} use for forms: alphanumerics and 
+ * <code>-._*</code> are kept, a space becomes a <code>+</code>, everything else is percent encoded.<br>
+ * Each method can be called without a target array to compute the exact length first.
+ * @author Michael J. Simons
+ */
+final class FormEncoder {
+	private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+	
+	private FormEncoder() {
+	}
+	
+	/**
+	 * Writes a field. Optional fields with a blank value are skipped, null values of 
+	 * required fields are written as name without value.
+	 * @param form The target array, null to compute the length only
+	 * @param pos Position in the form, 0 for the first field
+	 * @param name The name of the field, must not need encoding
+	 * @param value The value of the field
+	 * @param required False to skip the field if its value is blank
+	 * @return The position after the field
+	 */
+	static int field(final byte[] form, int pos, final String name, final String value, final boolean required) {
+		if(!required && isBlank(value))
+			return pos;
+		if(pos > 0)
+			pos = put(form, pos, '&');
+		for(int i = 0; i < name.length(); ++i)
+			pos = put(form, pos, name.charAt(i));
+		if(value == null)
+			return pos;
+		pos = put(form, pos, '=');
+		return encode(form, pos, value);
+	}
+	
+	/**
+	 * Writes a field whose value is already UTF-8 encoded. Produces the same output as 
+	 * {@link #field(byte[], int, String, String, boolean)} for the decoded value, but never skips the field.
+	 * @param form The target array, null to compute the length only
+	 * @param pos Position in the form, 0 for the first field
+	 * @param name The name of the field, must not need encoding
+	 * @param value The UTF-8 encoded value of the field, null to write the name without value
+	 * @return The position after the field
+	 */
+	static int field(final byte[] form, int pos, final String name, final byte[] value) {
+		if(pos > 0)
+			pos = put(form, pos, '&');
+		for(int i = 0; i < name.length(); ++i)
+			pos = put(form, pos, name.charAt(i));
+		if(value == null)
+			return pos;
+		pos = put(form, pos, '=');
+		for(byte b : value) {
+			if((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '-' || b == '.' || b == '_' || b == '*')
+				pos = put(form, pos, b);
+			else if(b == ' ')
+				pos = put(form, pos, '+');
+			else
+				pos = escape(form, pos, b);
+		}
+		return pos;
+	}
+	
+	private static int encode(final byte[] form, int pos, final String value) {
+		final int length = value.length();
+		for(int i = 0; i < length; ++i) {
+			final char c = value.charAt(i);
+			if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_' || c == '*')
+				pos = put(form, pos, c);
+			else if(c == ' ')
+				pos = put(form, pos, '+');
+			else if(c < 0x80)
+				pos = escape(form, pos, c);
+			else if(c < 0x800) {
+				pos = escape(form, pos, 0xC0 | (c >> 6));
+				pos = escape(form, pos, 0x80 | (c & 0x3F));
+			} else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				pos = escape(form, pos, 0xF0 | (codePoint >> 18));
+				pos = escape(form, pos, 0x80 | ((codePoint >> 12) & 0x3F));
+				pos = escape(form, pos, 0x80 | ((codePoint >> 6) & 0x3F));
+				pos = escape(form, pos, 0x80 | (codePoint & 0x3F));
+			} else if(Character.isSurrogate(c))
+				// Unpaired surrogates are replaced like String#getBytes does
+				pos = escape(form, pos, '?');
+			else {
+				pos = escape(form, pos, 0xE0 | (c >> 12));
+				pos = escape(form, pos, 0x80 | ((c >> 6) & 0x3F));
+				pos = escape(form, pos, 0x80 | (c & 0x3F));
+			}
+		}
+		return pos;
+	}
+	
+	private static int put(final byte[] form, final int pos, final int b) {
+		if(form != null)
+			form[pos] = (byte) b;
+		return pos + 1;
+	}
+	
+	private static int escape(final byte[] form, final int pos, final int b) {
+		if(form != null) {
+			form[pos] = '%';
+			form[pos + 1] = HEX[(b >> 4) & 0xF];
+			form[pos + 2] = HEX[b & 0xF];
+		}
+		return pos + 3;
+	}
+}
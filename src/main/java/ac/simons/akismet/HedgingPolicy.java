@@ -0,0 +1,158 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configures hedged requests for idempotent calls (comment-check and verify-key). If a call 
+ * hasn't been answered after the hedge delay, a second identical request is sent, the first 
+ * response wins and the other request is cancelled.<br>
+ * The delay is either fixed or tracks a percentile of the latencies of the last 
+ * 128 successful calls. Hedges are limited to <code>maxHedgeRate</code> of all calls, with 
+ * bursts of at most 10 hedges, so that the load on Akismet stays bounded. If the instance has a 
+ * {@link RequestScheduler}, hedges wait for a permit with the lowest priority and are dropped 
+ * if the call is answered in the meantime, so hedging never exceeds its rate limit.
+ * @author Michael J. Simons
+ */
+public class HedgingPolicy {
+	private static final int WINDOW_SIZE = 128;
+	/** The adaptive delay is recomputed after that many samples */
+	private static final int RECOMPUTE_INTERVAL = 16;
+	/** Credits are counted in millionths of a hedge, so that they add up exactly */
+	private static final long CREDITS_PER_HEDGE = 1_000_000;
+	private static final long MAX_CREDITS = 10 * CREDITS_PER_HEDGE;
+	
+	private final long minDelay;
+	private final double percentile;
+	private final long creditsPerRequest;
+	
+	/** Ring buffer of the last latencies in nanoseconds */
+	private final long[] window = new long[WINDOW_SIZE];
+	private int index;
+	private int samples;
+	private long delay;
+	
+	private long credits;
+	private long requests;
+	private long hedges;
+	
+	/**
+	 * Creates a policy that hedges after a fixed delay, at most for 10% of all calls.
+	 * @param delay Delay in milliseconds after which a call is hedged
+	 */
+	public HedgingPolicy(final long delay) {
+		this(delay, 0.0, 0.1);
+	}
+	
+	/**
+	 * @param minDelay Delay in milliseconds after which a call is hedged. If a percentile is given, the lower bound of the delay 
+	 * and the delay used until the first latencies are known
+	 * @param percentile Percentile (0 to 100, exclusive) of recent latencies used as delay, 0 for a fixed delay
+	 * @param maxHedgeRate Maximum rate of hedged calls (0 to 1)
+	 */
+	public HedgingPolicy(final long minDelay, final double percentile, final double maxHedgeRate) {
+		if(minDelay < 0)
+			throw new IllegalArgumentException("Delay must not be negative");
+		if(percentile < 0 || percentile >= 100)
+			throw new IllegalArgumentException("Percentile must be between 0 and 100");
+		if(maxHedgeRate < 0 || maxHedgeRate > 1)
+			throw new IllegalArgumentException("Maximum hedge rate must be between 0 and 1");
+		this.minDelay = TimeUnit.MILLISECONDS.toNanos(minDelay);
+		this.percentile = percentile;
+		this.creditsPerRequest = Math.round(maxHedgeRate * CREDITS_PER_HEDGE);
+		this.delay = this.minDelay;
+	}
+	
+	/**
+	 * Must be called once before each hedgeable call.
+	 * @return The delay in nanoseconds after which the call should be hedged
+	 */
+	public synchronized long onRequest() {
+		++this.requests;
+		this.credits = Math.min(this.credits + this.creditsPerRequest, MAX_CREDITS);
+		return this.delay;
+	}
+	
+	/**
+	 * @return True if a hedge may be sent without exceeding the maximum hedge rate
+	 */
+	public synchronized boolean tryHedge() {
+		if(this.credits < CREDITS_PER_HEDGE)
+			return false;
+		this.credits -= CREDITS_PER_HEDGE;
+		++this.hedges;
+		return true;
+	}
+	
+	/**
+	 * Records the latency of a successful call.
+	 * @param duration Duration in nanoseconds until the first response arrived
+	 */
+	public synchronized void record(final long duration) {
+		if(this.percentile == 0.0)
+			return;
+		this.window[this.index] = duration;
+		this.index = (this.index + 1) % WINDOW_SIZE;
+		this.samples = Math.min(this.samples + 1, WINDOW_SIZE);
+		if(this.index % RECOMPUTE_INTERVAL == 0) {
+			final long[] sorted = Arrays.copyOf(this.window, this.samples);
+			Arrays.sort(sorted);
+			final int rank = (int) Math.ceil(this.percentile / 100.0 * sorted.length) - 1;
+			this.delay = Math.max(this.minDelay, sorted[Math.max(rank, 0)]);
+		}
+	}
+	
+	/**
+	 * @return The current hedge delay in milliseconds
+	 */
+	public synchronized long getDelay() {
+		return TimeUnit.NANOSECONDS.toMillis(delay);
+	}
+
+	/**
+	 * @return The number of hedgeable calls
+	 */
+	public synchronized long getRequests() {
+		return requests;
+	}
+
+	/**
+	 * @return The number of hedges sent
+	 */
+	public synchronized long getHedges() {
+		return hedges;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * A {@link MetricsListener} that keeps a latency histogram per operation and a counter per 
+ * operation and outcome. Recording is wait-free and doesn't allocate: latencies go into 
+ * fixed size HdrHistogram recorders, outcomes into striped counters.<br>
+ * Reading a histogram merges everything recorded since the last read into a cumulative histogram.
+ * Durations are tracked with 3 significant digits up to 10 minutes, longer calls are recorded as 10 minutes.<br>
+ * Requires <code>org.hdrhistogram:HdrHistogram</code> on the classpath.
+ * @author Michael J. Simons
+ */
+public class HistogramMetricsListener implements MetricsListener {
+	private static final long HIGHEST_TRACKABLE_VALUE = TimeUnit.MINUTES.toNanos(10);
+	
+	private static final int NUMBER_OF_SIGNIFICANT_DIGITS = 3;
+	
+	private static final int OUTCOMES = Outcome.values().length;
+	
+	private final Recorder[] recorders;
+	
+	/** Cumulative histograms, guarded by this */
+	private final Histogram[] histograms;
+	
+	/** Reused by the recorders when reading, guarded by this */
+	private final Histogram[] intervals;
+	
+	/** One counter per operation and outcome */
+	private final LongAdder[] counters;
+	
+	public HistogramMetricsListener() {
+		final int operations = Operation.values().length;
+		this.recorders = new Recorder[operations];
+		this.histograms = new Histogram[operations];
+		this.intervals = new Histogram[operations];
+		for(int i = 0; i < operations; ++i) {
+			this.recorders[i] = new Recorder(HIGHEST_TRACKABLE_VALUE, NUMBER_OF_SIGNIFICANT_DIGITS);
+			this.histograms[i] = new Histogram(HIGHEST_TRACKABLE_VALUE, NUMBER_OF_SIGNIFICANT_DIGITS);
+		}
+		this.counters = new LongAdder[operations * OUTCOMES];
+		for(int i = 0; i < this.counters.length; ++i)
+			this.counters[i] = new LongAdder();
+	}
+
+	@Override
+	public void record(final Operation operation, final Outcome outcome, final long durationNanos) {
+		this.counters[operation.ordinal() * OUTCOMES + outcome.ordinal()].increment();
+		this.recorders[operation.ordinal()].recordValue(Math.max(0, Math.min(durationNanos, HIGHEST_TRACKABLE_VALUE)));
+	}
+	
+	/**
+	 * @param operation An operation
+	 * @param outcome An outcome
+	 * @return The number of calls of the given operation with the given outcome
+	 */
+	public long getCount(final Operation operation, final Outcome outcome) {
+		return this.counters[operation.ordinal() * OUTCOMES + outcome.ordinal()].sum();
+	}
+	
+	/**
+	 * @param operation An operation
+	 * @return A copy of the latency histogram of the given operation in nanoseconds
+	 */
+	public synchronized Histogram getHistogram(final Operation operation) {
+		return update(operation).copy();
+	}
+	
+	/**
+	 * @param operation An operation
+	 * @param percentile The percentile, for example 99.9
+	 * @return The latency of the given operation at the given percentile in nanoseconds
+	 */
+	public synchronized long getLatency(final Operation operation, final double percentile) {
+		return update(operation).getValueAtPercentile(percentile);
+	}
+	
+	/**
+	 * Clears all histograms and counters.
+	 */
+	public synchronized void reset() {
+		for(int i = 0; i < this.recorders.length; ++i) {
+			this.recorders[i].reset();
+			this.histograms[i].reset();
+		}
+		for(LongAdder counter : this.counters)
+			counter.reset();
+	}
+	
+	private Histogram update(final Operation operation) {
+		final int i = operation.ordinal();
+		this.intervals[i] = this.recorders[i].getIntervalHistogram(this.intervals[i]);
+		this.histograms[i].add(this.intervals[i]);
+		return this.histograms[i];
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded table of frequent strings together with their UTF-8 encoding, used by {@link CompactComment}
+ * to share values like user agents and permalinks between comments. The table is direct mapped: each
+ * string has exactly one slot and replaces whatever was stored there, so frequent values stay while
+ * rare ones are evicted. Lookups and replacements are lock-free.
+ * @author Michael J. Simons
+ */
+final class InternTable {
+	/**
+	 * An interned value
+	 */
+	static final class Entry implements Serializable {
+		private static final long serialVersionUID = 4209283715389624371L;
+		
+		final String value;
+		
+		final byte[] utf8;
+		
+		Entry(final String value) {
+			this.value = value;
+			this.utf8 = value.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+	
+	private final AtomicReferenceArray<Entry> entries;
+	
+	private final int mask;
+	
+	/**
+	 * @param capacity Number of slots, rounded up to the next power of two
+	 */
+	InternTable(final int capacity) {
+		if(capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive");
+		final int size = Integer.highestOneBit(capacity - 1) << 1;
+		this.entries = new AtomicReferenceArray<>(Math.max(size, 1));
+		this.mask = this.entries.length() - 1;
+	}
+	
+	/**
+	 * @param value The value to intern, may be null
+	 * @return The shared entry of the value, null for null
+	 */
+	Entry intern(final String value) {
+		if(value == null)
+			return null;
+		final int h = value.hashCode();
+		final int slot = (h ^ (h >>> 16)) & this.mask;
+		Entry rv = this.entries.get(slot);
+		if(rv == null || !rv.value.equals(value)) {
+			rv = new Entry(value);
+			this.entries.set(slot, rv);
+		}
+		return rv;
+	}
+}
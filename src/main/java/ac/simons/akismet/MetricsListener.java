@@ -0,0 +1,206 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+/**
+ * Receives the duration and outcome of every call made to Akismet. Implementations are called
+ * from the calling thread for blocking calls and from an I/O thread of the asynchronous client
+ * for non-blocking calls, so they must be thread safe and should neither block nor allocate.<br>
+ * Comments decided by pre filters or the verdict cache are not recorded, neither are checks 
+ * rejected by an open circuit breaker.
+ * @author Michael J. Simons
+ */
+@FunctionalInterface
+public interface MetricsListener {
+	/**
+	 * The Akismet API calls
+	 */
+	enum Operation {
+		VERIFY_KEY("verify-key", true), COMMENT_CHECK("comment-check", true), SUBMIT_SPAM("submit-spam", false), SUBMIT_HAM("submit-ham", false);
+		
+		private final String function;
+		
+		private final boolean idempotent;
+
+		private Operation(final String function, final boolean idempotent) {
+			this.function = function;
+			this.idempotent = idempotent;
+		}
+
+		/**
+		 * @return The name of the API function
+		 */
+		public String getFunction() {
+			return function;
+		}
+
+		/**
+		 * @return True if the call can be repeated without side effects
+		 */
+		public boolean isIdempotent() {
+			return idempotent;
+		}
+	}
+	
+	/**
+	 * The outcome of a call
+	 */
+	enum Outcome {
+		/** comment-check answered spam */
+		SPAM,
+		/** comment-check answered ham */
+		HAM,
+		/** verify-key answered valid */
+		VALID,
+		/** verify-key answered anything else */
+		INVALID,
+		/** submit-spam or submit-ham succeeded */
+		SUBMITTED,
+		/** Akismet answered with a status other than 200 */
+		BAD_STATUS,
+		/** The call timed out */
+		UNAVAILABLE,
+		/** The call failed with an exception */
+		ERROR
+	}
+	
+	/**
+	 * Why a request is sent again
+	 */
+	enum Retry {
+		/** A second request is sent because the first one is slow, see {@link HedgingPolicy} */
+		HEDGE,
+		/** The request is sent to the next endpoint because the first one could not be connected, see {@link FailoverTransport} */
+		FAILOVER,
+		/** A failed submission is sent again by the {@link FeedbackQueue} */
+		FEEDBACK
+	}
+	
+	/**
+	 * Records a completed call.
+	 * @param operation The operation that has been called
+	 * @param outcome The outcome of the call
+	 * @param durationNanos Duration of the call in nanoseconds
+	 */
+	void record(Operation operation, Outcome outcome, long durationNanos);
+	
+	/**
+	 * Collecting the details of a call costs one small allocation per call, so they are only collected if requested.
+	 * @return True if {@link #recordDetails(CallDetails)} should be called
+	 */
+	default boolean isDetailed() {
+		return false;
+	}
+	
+	/**
+	 * Called when a call starts, if {@link #isDetailed()}. The returned context is available through 
+	 * {@link CallDetails#getContext()} when the call is recorded, for example to time an event from 
+	 * the start of the call.
+	 * @param operation The operation being called
+	 * @return An opaque context, may be null
+	 */
+	default Object callStarted(Operation operation) {
+		return null;
+	}
+	
+	/**
+	 * Records the phases of a completed call, right after {@link #record(Operation, Outcome, long)}.
+	 * @param details The details of the call, must not be kept
+	 */
+	default void recordDetails(CallDetails details) {
+	}
+	
+	/**
+	 * Records that a request is sent again.
+	 * @param operation The operation being called
+	 * @param retry The reason
+	 */
+	default void recordRetry(Operation operation, Retry retry) {
+	}
+	
+	/**
+	 * Records the time a request waited for a connection of a {@link ConnectionPool}. For the asynchronous client,
+	 * this includes connecting new connections.
+	 * @param host The host of the connection
+	 * @param waitNanos Time waited in nanoseconds
+	 */
+	default void recordConnectionLease(String host, long waitNanos) {
+	}
+	
+	/**
+	 * Called when a request starts to wait for a connection of a {@link ConnectionPool}.
+	 * @param host The host of the connection
+	 * @return An opaque context passed to {@link #recordConnectionLease(String, long, Object)}, may be null
+	 */
+	default Object connectionLeaseStarted(String host) {
+		return null;
+	}
+	
+	/**
+	 * Records the time a request waited for a connection, see {@link #recordConnectionLease(String, long)}.
+	 * @param host The host of the connection
+	 * @param waitNanos Time waited in nanoseconds
+	 * @param context The context returned by {@link #connectionLeaseStarted(String)}
+	 */
+	default void recordConnectionLease(String host, long waitNanos, Object context) {
+		recordConnectionLease(host, waitNanos);
+	}
+	
+	/**
+	 * Records the time the blocking client of a {@link ConnectionPool} needed to connect a new connection.
+	 * @param host The host of the connection
+	 * @param durationNanos Duration of the connect, including the TLS handshake, in nanoseconds
+	 */
+	default void recordConnect(String host, long durationNanos) {
+	}
+	
+	/**
+	 * Called when the blocking client of a {@link ConnectionPool} starts to connect a new connection.
+	 * @param host The host of the connection
+	 * @return An opaque context passed to {@link #recordConnect(String, long, Object)}, may be null
+	 */
+	default Object connectStarted(String host) {
+		return null;
+	}
+	
+	/**
+	 * Records the time needed to connect a new connection, see {@link #recordConnect(String, long)}.
+	 * @param host The host of the connection
+	 * @param durationNanos Duration of the connect, including the TLS handshake, in nanoseconds
+	 * @param context The context returned by {@link #connectStarted(String)}
+	 */
+	default void recordConnect(String host, long durationNanos, Object context) {
+		recordConnect(host, durationNanos);
+	}
+}
@@ -0,0 +1,405 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An index of the contents of recent spam, used to answer checks of near duplicates 
+ * without calling Akismet. Contents are compared by the Jaccard similarity of their sets of 
+ * lower case character 4-grams, estimated by a MinHash signature of 64 hash functions of which 
+ * only the lowest byte is kept (b-bit MinHash). A signature takes 64 bytes. Contents longer than
+ * 2048 characters are shingled over their first and last 1024 characters only.<br>
+ * The index keeps the signatures of the last <code>capacity</code> spam contents that are
+ * younger than the window in a ring buffer. Lookups don't compare all of them: The signatures are 
+ * split into bands (locality sensitive hashing) and only signatures that share at least one band
+ * with the content are compared. The number of hashes per band is chosen from the minimum similarity,
+ * so that contents with exactly that similarity are found with a probability of at least 99%. Each band
+ * takes about 8 bytes per entry.<br>
+ * Contents can be scoped by the api consumer (blog) they have been checked for, so that one index can be 
+ * shared by many sites without spam of one site matching checks of all other sites.<br>
+ * Contents shorter than 32 characters are neither indexed nor matched.
+ * @author Michael J. Simons
+ */
+public class NearDuplicateIndex {
+	private static final int SHINGLE_SIZE = 4;
+	private static final int MIN_LENGTH = 32;
+	/** Contents longer than that are shingled over their start and end only */
+	private static final int MAX_SHINGLED_LENGTH = 2048;
+	private static final int NUM_HASHES = 64;
+	/** Longs per signature, each holds 8 one byte hashes */
+	private static final int SIGNATURE_LENGTH = NUM_HASHES / 8;
+	private static final long LOW_7_BITS = 0x7F7F7F7F7F7F7F7FL;
+	/** Minimum probability of finding a content with exactly the minimum similarity */
+	private static final double MIN_RECALL = 0.99;
+	
+	/** Seeds of the hash functions */
+	private static final long[] SEEDS = new long[NUM_HASHES];
+	
+	static {
+		for(int i = 0; i < NUM_HASHES; ++i)
+			SEEDS[i] = ThreadLocalRandom.current().nextLong();
+	}
+	
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	/** Signatures of all slots, one after another */
+	private final long[] signatures;
+	/** Time a slot has been written at, 0 for empty slots. Only non empty slots are linked into the buckets */
+	private final long[] timestamps;
+	/** Hash of the api consumer of every slot */
+	private final long[] scopes;
+	private int next;
+	
+	/** Number of one byte hashes per band, 1, 2, 4 or 8 */
+	private final int bandSize;
+	private final int bands;
+	private final int bucketMask;
+	/** The first slot of every bucket of every band, plus one, 0 for empty buckets */
+	private final int[] buckets;
+	/** The next slot in the same bucket for every band and slot, plus one, 0 at the end */
+	private final int[] links;
+	
+	private final long window;
+	/** Minimum number of equal hashes of near duplicates */
+	private final int minEqualHashes;
+	private final boolean confirm;
+	
+	private final LongAdder matches = new LongAdder();
+	
+	/**
+	 * Creates an index of the last 4096 spam contents of the last hour, matching contents with a similarity 
+	 * of at least 0.5 and confirms matches asynchronously.
+	 */
+	public NearDuplicateIndex() {
+		this(4096, TimeUnit.HOURS.toMillis(1), 0.5, true);
+	}
+	
+	/**
+	 * @param capacity Number of spam contents to keep
+	 * @param window Time in milliseconds a spam content is kept
+	 * @param minSimilarity Minimum similarity (0 to 1, exclusive) of near duplicates
+	 * @param confirm True to still check near duplicates asynchronously. Checks that turn out to be ham remove the
+	 * matching spam from the index
+	 */
+	public NearDuplicateIndex(final int capacity, final long window, final double minSimilarity, final boolean confirm) {
+		if(capacity <= 0 || window <= 0)
+			throw new IllegalArgumentException("Capacity and window must be positive");
+		if(minSimilarity <= 0 || minSimilarity >= 1)
+			throw new IllegalArgumentException("Minimum similarity must be between 0 and 1");
+		this.signatures = new long[capacity * SIGNATURE_LENGTH];
+		this.timestamps = new long[capacity];
+		this.scopes = new long[capacity];
+		this.window = TimeUnit.MILLISECONDS.toNanos(window);
+		this.minEqualHashes = (int) Math.ceil(minSimilarity * NUM_HASHES);
+		this.confirm = confirm;
+		
+		this.bandSize = bandSizeFor(minSimilarity);
+		this.bands = NUM_HASHES / this.bandSize;
+		final int bucketsPerBand = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.bucketMask = bucketsPerBand - 1;
+		this.buckets = new int[this.bands * bucketsPerBand];
+		this.links = new int[this.bands * capacity];
+	}
+	
+	/**
+	 * @return The largest band size that finds contents with the given similarity with a probability of at least {@link #MIN_RECALL}
+	 */
+	private static int bandSizeFor(final double similarity) {
+		for(int rv = 8; rv > 1; rv /= 2) {
+			if(1.0 - Math.pow(1.0 - Math.pow(similarity, rv), NUM_HASHES / rv) >= MIN_RECALL)
+				return rv;
+		}
+		return 1;
+	}
+	
+	/**
+	 * Adds the content of a spam comment.
+	 * @param content The content, ignored if too short
+	 * @see #add(String, String)
+	 */
+	public void add(final String content) {
+		add(content, null);
+	}
+	
+	/**
+	 * Adds the content of a spam comment.
+	 * @param content The content, ignored if too short
+	 * @param apiConsumer The api consumer the content has been checked for, may be null
+	 */
+	public void add(final String content, final String apiConsumer) {
+		if(!isIndexable(content))
+			return;
+		final long[] signature = signature(content);
+		final long scope = scopeOf(apiConsumer);
+		this.lock.writeLock().lock();
+		try {
+			final int slot = this.next;
+			this.next = (this.next + 1) % this.timestamps.length;
+			if(this.timestamps[slot] != 0)
+				unlink(slot);
+			System.arraycopy(signature, 0, this.signatures, slot * SIGNATURE_LENGTH, SIGNATURE_LENGTH);
+			this.timestamps[slot] = System.nanoTime() | 1;
+			this.scopes[slot] = scope;
+			for(int band = 0; band < this.bands; ++band) {
+				final int bucket = bucketOf(band, this.signatures, slot * SIGNATURE_LENGTH);
+				this.links[band * this.timestamps.length + slot] = this.buckets[bucket];
+				this.buckets[bucket] = slot + 1;
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Removes all near duplicates of a content that turned out to be ham.
+	 * @param content The content
+	 * @see #remove(String, String)
+	 */
+	public void remove(final String content) {
+		remove(content, null);
+	}
+	
+	/**
+	 * Removes all near duplicates of a content that turned out to be ham for an api consumer.
+	 * @param content The content
+	 * @param apiConsumer The api consumer, may be null
+	 */
+	public void remove(final String content, final String apiConsumer) {
+		if(!isIndexable(content))
+			return;
+		final long[] signature = signature(content);
+		final long scope = scopeOf(apiConsumer);
+		this.lock.writeLock().lock();
+		try {
+			final List<Integer> duplicates = new ArrayList<>();
+			for(int band = 0; band < this.bands; ++band) {
+				for(int slot = this.buckets[bucketOf(band, signature, 0)] - 1; slot >= 0; slot = this.links[band * this.timestamps.length + slot] - 1) {
+					if(this.scopes[slot] == scope && equalHashes(slot, signature) >= this.minEqualHashes && !duplicates.contains(slot))
+						duplicates.add(slot);
+				}
+			}
+			for(int slot : duplicates) {
+				unlink(slot);
+				this.timestamps[slot] = 0;
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * @param content The content of a comment
+	 * @return True if the content is a near duplicate of recent spam
+	 * @see #matches(String, String)
+	 */
+	public boolean matches(final String content) {
+		return matches(content, null);
+	}
+	
+	/**
+	 * @param content The content of a comment
+	 * @param apiConsumer The api consumer the content is checked for, may be null
+	 * @return True if the content is a near duplicate of recent spam of the api consumer
+	 */
+	public boolean matches(final String content, final String apiConsumer) {
+		if(!isIndexable(content))
+			return false;
+		final long[] signature = signature(content);
+		final long scope = scopeOf(apiConsumer);
+		final long now = System.nanoTime();
+		this.lock.readLock().lock();
+		try {
+			for(int band = 0; band < this.bands; ++band) {
+				for(int slot = this.buckets[bucketOf(band, signature, 0)] - 1; slot >= 0; slot = this.links[band * this.timestamps.length + slot] - 1) {
+					if(this.scopes[slot] == scope && now - this.timestamps[slot] <= this.window && equalHashes(slot, signature) >= this.minEqualHashes) {
+						this.matches.increment();
+						return true;
+					}
+				}
+			}
+			return false;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Removes a slot from the buckets of all bands.
+	 */
+	private void unlink(final int slot) {
+		for(int band = 0; band < this.bands; ++band) {
+			final int bucket = bucketOf(band, this.signatures, slot * SIGNATURE_LENGTH);
+			final int offset = band * this.timestamps.length;
+			if(this.buckets[bucket] == slot + 1) {
+				this.buckets[bucket] = this.links[offset + slot];
+				continue;
+			}
+			for(int previous = this.buckets[bucket] - 1; previous >= 0; previous = this.links[offset + previous] - 1) {
+				if(this.links[offset + previous] == slot + 1) {
+					this.links[offset + previous] = this.links[offset + slot];
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return The index of the bucket of the given band of the signature starting at <code>offset</code>
+	 */
+	private int bucketOf(final int band, final long[] signature, final int offset) {
+		final int firstHash = band * this.bandSize;
+		final long hashes = signature[offset + firstHash / 8];
+		final long key = this.bandSize == 8 ? hashes : (hashes >>> (firstHash % 8 * 8)) & ((1L << (this.bandSize * 8)) - 1);
+		return band * (this.bucketMask + 1) + ((int) mix(key ^ SEEDS[band]) & this.bucketMask);
+	}
+	
+	/**
+	 * @return A 64 bit hash of the api consumer, 0 for none
+	 */
+	private static long scopeOf(final String apiConsumer) {
+		if(apiConsumer == null)
+			return 0;
+		long rv = 0xcbf29ce484222325L;
+		for(int i = 0; i < apiConsumer.length(); ++i)
+			rv = (rv ^ apiConsumer.charAt(i)) * 0x100000001b3L;
+		return mix(rv) | 1;
+	}
+	
+	private static boolean isIndexable(final String content) {
+		return content != null && content.length() >= MIN_LENGTH;
+	}
+	
+	/**
+	 * @return The number of equal one byte hashes of the signature in the given slot and the given signature
+	 */
+	private int equalHashes(final int slot, final long[] signature) {
+		int rv = 0;
+		for(int i = 0; i < SIGNATURE_LENGTH; ++i) {
+			final long x = this.signatures[slot * SIGNATURE_LENGTH + i] ^ signature[i];
+			// Sets the high bit of every byte that is zero
+			rv += Long.bitCount(~((x & LOW_7_BITS) + LOW_7_BITS | x | LOW_7_BITS));
+		}
+		return rv;
+	}
+	
+	/**
+	 * Estimates the similarity of two contents.
+	 * @param content1 A content
+	 * @param content2 Another content
+	 * @return The estimated Jaccard similarity of their 4-grams
+	 */
+	public static double similarity(final String content1, final String content2) {
+		final long[] signature1 = signature(content1);
+		final long[] signature2 = signature(content2);
+		int equal = 0;
+		for(int i = 0; i < SIGNATURE_LENGTH; ++i) {
+			final long x = signature1[i] ^ signature2[i];
+			equal += Long.bitCount(~((x & LOW_7_BITS) + LOW_7_BITS | x | LOW_7_BITS));
+		}
+		return equal / (double) NUM_HASHES;
+	}
+	
+	/**
+	 * Computes the b-bit MinHash signature of the lower case character 4-grams of a content. 
+	 * Consecutive whitespace counts as a single blank. Long contents are shingled over their 
+	 * start and end, so that the costs of a signature are bounded.
+	 */
+	private static long[] signature(final String content) {
+		final long[] minima = new long[NUM_HASHES];
+		Arrays.fill(minima, Long.MAX_VALUE);
+		final int head = Math.min(content.length(), MAX_SHINGLED_LENGTH / 2);
+		final int tail = Math.max(head, content.length() - MAX_SHINGLED_LENGTH / 2);
+		long shingle = 0;
+		int length = 0;
+		boolean blank = false;
+		for(int i = 0; i < content.length(); ++i) {
+			if(i == head)
+				i = tail;
+			char c = content.charAt(i);
+			if(Character.isWhitespace(c)) {
+				if(blank)
+					continue;
+				blank = true;
+				c = ' ';
+			} else {
+				blank = false;
+				c = Character.toLowerCase(c);
+			}
+			// The last 4 characters, 16 bit each
+			shingle = shingle << 16 | c;
+			if(++length < SHINGLE_SIZE)
+				continue;
+			for(int j = 0; j < NUM_HASHES; ++j) {
+				final long hash = mix(shingle ^ SEEDS[j]);
+				if(hash < minima[j])
+					minima[j] = hash;
+			}
+		}
+		final long[] rv = new long[SIGNATURE_LENGTH];
+		for(int j = 0; j < NUM_HASHES; ++j)
+			rv[j / 8] |= (minima[j] & 0xFF) << (j % 8 * 8);
+		return rv;
+	}
+	
+	/**
+	 * The finalizer of MurmurHash3
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	public boolean isConfirm() {
+		return confirm;
+	}
+
+	/**
+	 * @return The number of contents that have been matched as near duplicates
+	 */
+	public long getMatches() {
+		return matches.sum();
+	}
+}
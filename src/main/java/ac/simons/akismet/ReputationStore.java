@@ -0,0 +1,238 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the reputation of comment authors, so that checks of authors with a long history of ham 
+ * can be skipped. The identity of an author is the email address, url and ip of the comment together with
+ * the api consumer (blog) it has been checked for, so that one store can be shared by many sites without 
+ * ham of one site making an author trusted on all other sites. Only a seeded 64 bit hash of the identity is 
+ * stored, together with the number of consecutive ham verdicts.<br>
+ * Every author takes 8 bytes in a fixed size table, a store for 1 million authors takes 8MB. If the 
+ * slots for an author are taken, the author with the shortest streak is evicted.<br>
+ * Once an author reaches the configured streak, checks are answered as ham without calling Akismet, 
+ * except for a sample that is still checked. Spam verdicts and submitted spam reset the streak, submitted
+ * ham counts as a ham verdict.
+ * @author Michael J. Simons
+ */
+public class ReputationStore {
+	/** Number of slots an author may occupy */
+	private static final int MAX_PROBES = 8;
+	private static final int STREAK_BITS = 24;
+	private static final long STREAK_MASK = (1L << STREAK_BITS) - 1;
+	
+	/** Entries of tag (upper 40 bits of the hash) and streak, 0 for free slots */
+	private final AtomicLongArray table;
+	private final int mask;
+	private final long seed = ThreadLocalRandom.current().nextLong();
+	
+	private final int hamStreak;
+	private final double sampleRate;
+	
+	private final LongAdder skipped = new LongAdder();
+	
+	/**
+	 * @param capacity Number of authors to keep, rounded up to the next power of two
+	 * @param hamStreak Number of consecutive ham verdicts after which an author is trusted
+	 * @param sampleRate Rate of checks (0 to 1) of trusted authors that are still made
+	 */
+	public ReputationStore(final int capacity, final int hamStreak, final double sampleRate) {
+		if(capacity <= 0 || capacity > 1 << 30)
+			throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+		if(hamStreak <= 0 || hamStreak > STREAK_MASK)
+			throw new IllegalArgumentException("Ham streak must be positive");
+		if(sampleRate < 0 || sampleRate > 1)
+			throw new IllegalArgumentException("Sample rate must be between 0 and 1");
+		final int size = Math.max(MAX_PROBES, Integer.highestOneBit(capacity - 1) << 1);
+		this.table = new AtomicLongArray(size);
+		this.mask = size - 1;
+		this.hamStreak = hamStreak;
+		this.sampleRate = sampleRate;
+	}
+	
+	/**
+	 * @param comment The comment to check
+	 * @return True if the author is trusted and the comment hasn't been sampled for a check
+	 * @see #isTrusted(AkismetComment, String)
+	 */
+	public boolean isTrusted(final AkismetComment comment) {
+		return isTrusted(comment, null);
+	}
+	
+	/**
+	 * @param comment The comment to check
+	 * @param apiConsumer The api consumer the comment is checked for, may be null
+	 * @return True if the author is trusted by the api consumer and the comment hasn't been sampled for a check
+	 */
+	public boolean isTrusted(final AkismetComment comment, final String apiConsumer) {
+		final boolean rv = getStreak(comment, apiConsumer) >= this.hamStreak && ThreadLocalRandom.current().nextDouble() >= this.sampleRate;
+		if(rv)
+			this.skipped.increment();
+		return rv;
+	}
+	
+	/**
+	 * @param comment A comment
+	 * @return The number of consecutive ham verdicts of its author
+	 * @see #getStreak(AkismetComment, String)
+	 */
+	public int getStreak(final AkismetComment comment) {
+		return getStreak(comment, null);
+	}
+	
+	/**
+	 * @param comment A comment
+	 * @param apiConsumer The api consumer, may be null
+	 * @return The number of consecutive ham verdicts of its author for the api consumer
+	 */
+	public int getStreak(final AkismetComment comment, final String apiConsumer) {
+		final long hash = hash(comment, apiConsumer);
+		final long tag = tagOf(hash);
+		for(int i = 0; i < MAX_PROBES; ++i) {
+			final long entry = this.table.get((int) (hash + i) & this.mask);
+			if(entry == 0)
+				break;
+			if(entry >>> STREAK_BITS == tag)
+				return (int) (entry & STREAK_MASK);
+		}
+		return 0;
+	}
+	
+	/**
+	 * Records a verdict for the author of a comment.
+	 * @param comment The comment
+	 * @param ham True if the comment is ham
+	 * @see #record(AkismetComment, String, boolean)
+	 */
+	public void record(final AkismetComment comment, final boolean ham) {
+		record(comment, null, ham);
+	}
+	
+	/**
+	 * Records a verdict for the author of a comment.
+	 * @param comment The comment
+	 * @param apiConsumer The api consumer the verdict has been given for, may be null
+	 * @param ham True if the comment is ham
+	 */
+	public void record(final AkismetComment comment, final String apiConsumer, final boolean ham) {
+		final long hash = hash(comment, apiConsumer);
+		final long tag = tagOf(hash);
+		while(true) {
+			int free = -1;
+			int victim = -1;
+			long victimEntry = 0;
+			long victimStreak = Long.MAX_VALUE;
+			boolean updated = false;
+			boolean found = false;
+			for(int i = 0; i < MAX_PROBES && !found; ++i) {
+				final int slot = (int) (hash + i) & this.mask;
+				final long entry = this.table.get(slot);
+				if(entry == 0) {
+					free = slot;
+					break;
+				}
+				if(entry >>> STREAK_BITS == tag) {
+					found = true;
+					final long streak = ham ? Math.min((entry & STREAK_MASK) + 1, STREAK_MASK) : 0;
+					updated = this.table.compareAndSet(slot, entry, tag << STREAK_BITS | streak);
+				} else if((entry & STREAK_MASK) < victimStreak) {
+					victim = slot;
+					victimEntry = entry;
+					victimStreak = entry & STREAK_MASK;
+				}
+			}
+			if(found) {
+				if(updated)
+					return;
+				continue;
+			}
+			// Unknown authors without ham don't need a slot
+			if(!ham)
+				return;
+			final long entry = tag << STREAK_BITS | 1;
+			if(free >= 0 ? this.table.compareAndSet(free, 0, entry) : this.table.compareAndSet(victim, victimEntry, entry))
+				return;
+		}
+	}
+	
+	/**
+	 * @return The number of checks that have been skipped
+	 */
+	public long getSkipped() {
+		return skipped.sum();
+	}
+	
+	private static long tagOf(final long hash) {
+		final long rv = hash >>> STREAK_BITS;
+		return rv == 0 ? 1 : rv;
+	}
+	
+	/**
+	 * Hashes the normalized identity of the author and the api consumer with the seed of this store.
+	 */
+	private long hash(final AkismetComment comment, final String apiConsumer) {
+		long rv = this.seed;
+		rv = hash(rv, comment.getCommentAuthorEmail());
+		rv = hash(rv, comment.getCommentAuthorUrl());
+		rv = hash(rv, comment.getUserIp());
+		rv = hash(rv, apiConsumer);
+		return mix(rv);
+	}
+	
+	private static long hash(long hash, final String value) {
+		if(value != null) {
+			final String normalized = value.trim();
+			for(int i = 0; i < normalized.length(); ++i)
+				hash = (hash ^ Character.toLowerCase(normalized.charAt(i))) * 0x100000001b3L;
+		}
+		// Separates the fields
+		return (hash ^ 0xFFFF) * 0x100000001b3L;
+	}
+	
+	/**
+	 * The finalizer of MurmurHash3, spreads the bits of the FNV hash over index and tag.
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
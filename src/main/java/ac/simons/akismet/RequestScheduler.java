@@ -0,0 +1,231 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the rate of calls to Akismet with a token bucket and hands out permits by priority, 
+ * so that live checks always go before feedback and bulk work. Akismet enforces its quota per API key, 
+ * so all instances using the same key should share one scheduler.<br>
+ * The scheduler backs off when Akismet signals overload (status 429, 5xx or timeouts) by halving 
+ * its rate, at most once per second and down to 5% of the configured rate, and increases it 
+ * again by 1% of the configured rate for every successful call.
+ * @author Michael J. Simons
+ */
+public class RequestScheduler {
+	/**
+	 * Priorities of calls, permits are handed out in this order
+	 */
+	public enum Priority {
+		/** comment-check and verify-key */
+		LIVE,
+		/** submit-spam and submit-ham */
+		FEEDBACK,
+		/** checks made by {@link Akismet#commentCheckAll(java.util.Collection)}, {@link Akismet#commentCheckDetailedInBulk(AkismetComment)} and hedged requests */
+		BULK
+	}
+	
+	private static final long BACKOFF_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+	private static final double MIN_RATE_FACTOR = 0.05;
+	private static final double INCREASE_FACTOR = 0.01;
+	
+	/**
+	 * A caller waiting for a permit
+	 */
+	private static class Waiter {
+		final CompletableFuture<Void> permit = new CompletableFuture<>();
+		final long enqueuedAt = System.nanoTime();
+	}
+	
+	private final double maxRate;
+	private final double burst;
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final ArrayDeque<Waiter>[] queues = new ArrayDeque[Priority.values().length];
+	private final LongAdder[] permits = new LongAdder[Priority.values().length];
+	private final LongAdder[] waitNanos = new LongAdder[Priority.values().length];
+	
+	/** Current rate in permits per second */
+	private double rate;
+	private double tokens;
+	private long refilledAt = System.nanoTime();
+	private long backedOffAt = System.nanoTime() - BACKOFF_INTERVAL;
+	private boolean drainScheduled;
+	
+	/**
+	 * @param permitsPerSecond Maximum number of calls per second
+	 * @param burst Maximum number of calls that may be made at once after a quiet period
+	 */
+	public RequestScheduler(final double permitsPerSecond, final int burst) {
+		if(permitsPerSecond <= 0 || burst <= 0)
+			throw new IllegalArgumentException("Rate and burst must be positive");
+		this.maxRate = permitsPerSecond;
+		this.burst = burst;
+		this.rate = permitsPerSecond;
+		this.tokens = burst;
+		for(int i = 0; i < this.queues.length; ++i) {
+			this.queues[i] = new ArrayDeque<>();
+			this.permits[i] = new LongAdder();
+			this.waitNanos[i] = new LongAdder();
+		}
+	}
+	
+	/**
+	 * Requests a permit for one call. Permits are handed out in order of priority and, within
+	 * a priority, in order of request.
+	 * @param priority The priority of the call
+	 * @return A future that is completed once the call may be made. If the call has to wait, the future is completed 
+	 * in the common fork join pool. Cancelling it gives up the request
+	 */
+	public CompletableFuture<Void> acquire(final Priority priority) {
+		final Waiter waiter;
+		synchronized(this) {
+			refill();
+			if(this.tokens >= 1.0 && isEmpty()) {
+				this.tokens -= 1.0;
+				this.permits[priority.ordinal()].increment();
+				return CompletableFuture.completedFuture(null);
+			}
+			waiter = new Waiter();
+			this.queues[priority.ordinal()].add(waiter);
+			scheduleDrain();
+		}
+		return waiter.permit;
+	}
+	
+	/**
+	 * Records the response to a call and adapts the rate.
+	 * @param overloaded True if Akismet signalled overload
+	 */
+	public synchronized void record(final boolean overloaded) {
+		if(overloaded) {
+			final long now = System.nanoTime();
+			if(now - this.backedOffAt >= BACKOFF_INTERVAL) {
+				refill();
+				this.rate = Math.max(this.rate / 2.0, this.maxRate * MIN_RATE_FACTOR);
+				this.backedOffAt = now;
+			}
+		} else if(this.rate < this.maxRate) {
+			refill();
+			this.rate = Math.min(this.rate + this.maxRate * INCREASE_FACTOR, this.maxRate);
+		}
+	}
+	
+	private void refill() {
+		final long now = System.nanoTime();
+		this.tokens = Math.min(this.tokens + (now - this.refilledAt) * this.rate / TimeUnit.SECONDS.toNanos(1), this.burst);
+		this.refilledAt = now;
+	}
+	
+	private boolean isEmpty() {
+		for(ArrayDeque<Waiter> queue : this.queues) {
+			if(!queue.isEmpty())
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Schedules handing out permits for the time the next token is available.
+	 */
+	private void scheduleDrain() {
+		if(this.drainScheduled)
+			return;
+		this.drainScheduled = true;
+		final long delay = (long) Math.ceil(Math.max(0.0, 1.0 - this.tokens) * TimeUnit.SECONDS.toNanos(1) / this.rate);
+		SharedScheduler.get().schedule(this::drain, delay, TimeUnit.NANOSECONDS);
+	}
+	
+	private void drain() {
+		final List<Waiter> ready = new ArrayList<>();
+		synchronized(this) {
+			this.drainScheduled = false;
+			refill();
+			for(int i = 0; i < this.queues.length; ++i) {
+				final ArrayDeque<Waiter> queue = this.queues[i];
+				while(this.tokens >= 1.0 && !queue.isEmpty()) {
+					final Waiter waiter = queue.poll();
+					// Waiters that gave up don't need a permit
+					if(waiter.permit.isDone())
+						continue;
+					this.tokens -= 1.0;
+					this.permits[i].increment();
+					this.waitNanos[i].add(System.nanoTime() - waiter.enqueuedAt);
+					ready.add(waiter);
+				}
+			}
+			if(!isEmpty())
+				scheduleDrain();
+		}
+		// Dependent stages encode and send the calls, they must not run on the shared scheduler thread
+		ready.forEach(waiter -> CompletableFuture.runAsync(() -> waiter.permit.complete(null)));
+	}
+	
+	/**
+	 * @return The current rate in permits per second
+	 */
+	public synchronized double getRate() {
+		return rate;
+	}
+	
+	/**
+	 * @param priority A priority
+	 * @return The number of calls of that priority waiting for a permit
+	 */
+	public synchronized int getQueueDepth(final Priority priority) {
+		return queues[priority.ordinal()].size();
+	}
+	
+	/**
+	 * @param priority A priority
+	 * @return The number of permits handed out for that priority
+	 */
+	public long getPermits(final Priority priority) {
+		return permits[priority.ordinal()].sum();
+	}
+	
+	/**
+	 * @param priority A priority
+	 * @return The total time in milliseconds calls of that priority waited for a permit
+	 */
+	public long getWaitTime(final Priority priority) {
+		return TimeUnit.NANOSECONDS.toMillis(waitNanos[priority.ordinal()].sum());
+	}
+}
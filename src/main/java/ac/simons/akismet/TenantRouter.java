@@ -0,0 +1,473 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import ac.simons.akismet.MetricsListener.Operation;
+import ac.simons.akismet.MetricsListener.Outcome;
+
+/**
+ * Routes calls of many tenants, each with its own API key and api consumer, through one shared transport.
+ * Every tenant gets a lightweight {@link Akismet} instance that copies the settings of a template (scheme, 
+ * latency budget, circuit breaker, verdict cache and so on), but has its own key, consumer and optionally 
+ * its own {@link RequestScheduler} as quota. There are no threads or connection pools per tenant.<br>
+ * Results of verify-key are cached per tenant for a configurable time. Checks and submissions of tenants
+ * whose key is known to be invalid fail without calling Akismet. The outcomes of all calls are counted per 
+ * tenant and can be passed to a {@link TenantMetricsListener}.<br>
+ * Settings of the template are copied when a tenant is registered, later changes don't affect registered tenants.
+ * Stateful settings are shared by all tenants: The verdict cache, the {@link ReputationStore} and the 
+ * {@link NearDuplicateIndex} of the template keep their entries per api consumer, so that verdicts and ham 
+ * of one tenant don't apply to others, but they share the capacity. The circuit breaker is shared as well. 
+ * Use {@link Tenant#getAkismet()} to give a tenant its own instances.
+ * @author Michael J. Simons
+ */
+public class TenantRouter {
+	/**
+	 * Receives the duration and outcome of every call together with the tenant. The same rules as for 
+	 * {@link MetricsListener} apply.
+	 */
+	@FunctionalInterface
+	public interface TenantMetricsListener {
+		void record(String tenant, Operation operation, Outcome outcome, long durationNanos);
+	}
+	
+	/**
+	 * A registered tenant
+	 */
+	public static final class Tenant {
+		private final TenantRouter router;
+		
+		private final String id;
+		
+		private final Akismet akismet;
+		
+		private final LongAdder[] calls = new LongAdder[Outcome.values().length];
+		
+		private final LongAdder duration = new LongAdder();
+		
+		/** The latest verify-key call, null if there is none or it failed */
+		private volatile KeyVerification keyVerification;
+		
+		Tenant(final TenantRouter router, final String id, final Akismet akismet) {
+			this.router = router;
+			this.id = id;
+			this.akismet = akismet;
+			for(int i = 0; i < this.calls.length; ++i)
+				this.calls[i] = new LongAdder();
+		}
+		
+		public String getId() {
+			return id;
+		}
+		
+		/**
+		 * @return The instance bound to this tenant, for calls not covered by the router
+		 */
+		public Akismet getAkismet() {
+			return akismet;
+		}
+		
+		/**
+		 * @param outcome An outcome
+		 * @return The number of calls with this outcome so far
+		 */
+		public long getCalls(final Outcome outcome) {
+			return this.calls[outcome.ordinal()].sum();
+		}
+		
+		/**
+		 * @return The total duration of all calls in nanoseconds
+		 */
+		public long getDuration() {
+			return this.duration.sum();
+		}
+		
+		/**
+		 * @return True if the latest verify-key call, which has not expired yet, found the key invalid
+		 */
+		public boolean isKeyInvalid() {
+			final KeyVerification verification = this.keyVerification;
+			return verification != null && verification.isValid(this.router.verifyKeyTtl) && Boolean.FALSE.equals(verification.result.getNow(null));
+		}
+	}
+	
+	/**
+	 * Counts the calls of a tenant, passes them to the {@link TenantMetricsListener} of the router and 
+	 * everything else unchanged to the listener of the template.
+	 */
+	private static final class TenantListener implements MetricsListener {
+		private final TenantRouter router;
+		
+		private final Tenant tenant;
+		
+		/** The listener of the template, may be null */
+		private final MetricsListener delegate;
+		
+		TenantListener(final TenantRouter router, final Tenant tenant, final MetricsListener delegate) {
+			this.router = router;
+			this.tenant = tenant;
+			this.delegate = delegate;
+		}
+		
+		@Override
+		public void record(final Operation operation, final Outcome outcome, final long durationNanos) {
+			this.tenant.calls[outcome.ordinal()].increment();
+			this.tenant.duration.add(durationNanos);
+			final TenantMetricsListener listener = this.router.metricsListener;
+			if(listener != null)
+				listener.record(this.tenant.id, operation, outcome, durationNanos);
+			if(this.delegate != null)
+				this.delegate.record(operation, outcome, durationNanos);
+		}
+		
+		@Override
+		public boolean isDetailed() {
+			return this.delegate != null && this.delegate.isDetailed();
+		}
+		
+		@Override
+		public Object callStarted(final Operation operation) {
+			return this.delegate == null ? null : this.delegate.callStarted(operation);
+		}
+		
+		@Override
+		public void recordDetails(final CallDetails details) {
+			if(this.delegate != null)
+				this.delegate.recordDetails(details);
+		}
+		
+		@Override
+		public void recordRetry(final Operation operation, final Retry retry) {
+			if(this.delegate != null)
+				this.delegate.recordRetry(operation, retry);
+		}
+		
+		@Override
+		public void recordConnectionLease(final String host, final long waitNanos) {
+			if(this.delegate != null)
+				this.delegate.recordConnectionLease(host, waitNanos);
+		}
+		
+		@Override
+		public Object connectionLeaseStarted(final String host) {
+			return this.delegate == null ? null : this.delegate.connectionLeaseStarted(host);
+		}
+		
+		@Override
+		public void recordConnectionLease(final String host, final long waitNanos, final Object context) {
+			if(this.delegate != null)
+				this.delegate.recordConnectionLease(host, waitNanos, context);
+		}
+		
+		@Override
+		public void recordConnect(final String host, final long durationNanos) {
+			if(this.delegate != null)
+				this.delegate.recordConnect(host, durationNanos);
+		}
+		
+		@Override
+		public Object connectStarted(final String host) {
+			return this.delegate == null ? null : this.delegate.connectStarted(host);
+		}
+		
+		@Override
+		public void recordConnect(final String host, final long durationNanos, final Object context) {
+			if(this.delegate != null)
+				this.delegate.recordConnect(host, durationNanos, context);
+		}
+	}
+	
+	/**
+	 * A verify-key call that may still be in flight
+	 */
+	private static final class KeyVerification {
+		final CompletableFuture<Boolean> result;
+		
+		/** Value of {@link System#nanoTime()} when the call completed */
+		volatile long completed;
+		
+		KeyVerification(final CompletableFuture<Boolean> result) {
+			this.result = result;
+		}
+		
+		/**
+		 * @param ttl Time to live in milliseconds
+		 * @return True if the call is in flight or has completed successfully within the time to live
+		 */
+		boolean isValid(final long ttl) {
+			if(!this.result.isDone())
+				return true;
+			// The time of completion is recorded right after the call completed
+			final long at = this.completed;
+			return !this.result.isCompletedExceptionally() && (at == 0 || System.nanoTime() - at < TimeUnit.MILLISECONDS.toNanos(ttl));
+		}
+	}
+	
+	private final Akismet template;
+	
+	private final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+	
+	private volatile long verifyKeyTtl = TimeUnit.HOURS.toMillis(1);
+	
+	private volatile TenantMetricsListener metricsListener;
+	
+	/**
+	 * @param template Provides the transport and the settings of all tenants, its key and consumer are not used
+	 */
+	public TenantRouter(final Akismet template) {
+		this.template = template;
+	}
+	
+	/**
+	 * Registers a tenant that shares the {@link RequestScheduler} of the template, if any.
+	 * @see #register(String, String, String, RequestScheduler)
+	 */
+	public Tenant register(final String id, final String apiKey, final String apiConsumer) {
+		return register(id, apiKey, apiConsumer, this.template.getRequestScheduler());
+	}
+	
+	/**
+	 * Registers a tenant or replaces the tenant with the same id.
+	 * @param id The id of the tenant
+	 * @param apiKey The API key of the tenant
+	 * @param apiConsumer The api consumer (blog) of the tenant
+	 * @param quota Limits the calls of the tenant, may be shared between tenants using the same key or be null
+	 * @return The new tenant
+	 */
+	public Tenant register(final String id, final String apiKey, final String apiConsumer, final RequestScheduler quota) {
+		final Akismet akismet = new Akismet(this.template, apiKey, apiConsumer);
+		akismet.setRequestScheduler(quota);
+		final Tenant rv = new Tenant(this, id, akismet);
+		akismet.setMetricsListener(new TenantListener(this, rv, this.template.getMetricsListener()));
+		this.tenants.put(id, rv);
+		return rv;
+	}
+	
+	/**
+	 * @param id The id of the tenant
+	 * @return The removed tenant or null
+	 */
+	public Tenant remove(final String id) {
+		return this.tenants.remove(id);
+	}
+	
+	/**
+	 * @param id The id of the tenant
+	 * @return The tenant or null, if there is no tenant with this id
+	 */
+	public Tenant getTenant(final String id) {
+		return this.tenants.get(id);
+	}
+	
+	public Collection<Tenant> getTenants() {
+		return Collections.unmodifiableCollection(this.tenants.values());
+	}
+	
+	private Tenant tenant(final String id) throws AkismetException {
+		final Tenant rv = this.tenants.get(id);
+		if(rv == null)
+			throw new AkismetException(String.format("Unknown tenant %s", id));
+		return rv;
+	}
+	
+	/**
+	 * @return The tenant, if it is known and its key is not known to be invalid
+	 */
+	private Tenant usableTenant(final String id) throws AkismetException {
+		final Tenant rv = tenant(id);
+		if(rv.isKeyInvalid())
+			throw new AkismetException(String.format("The API key of tenant %s is invalid", id));
+		return rv;
+	}
+	
+	private <T> CompletableFuture<T> async(final String id, final Function<Akismet, CompletableFuture<T>> call) {
+		try {
+			return call.apply(usableTenant(id).akismet);
+		} catch(AkismetException e) {
+			final CompletableFuture<T> rv = new CompletableFuture<>();
+			rv.completeExceptionally(e);
+			return rv;
+		}
+	}
+	
+	/**
+	 * Verifies the key of a tenant. The result is cached, concurrent calls for the same tenant share one request.
+	 * @param id The id of the tenant
+	 * @return True if the key is valid
+	 * @throws AkismetException If the tenant is unknown or the key couldn't be verified
+	 */
+	public boolean verifyKey(final String id) throws AkismetException {
+		final Tenant tenant = tenant(id);
+		if(this.template.getTransport().supportsAsync())
+			return Akismet.join(verify(tenant));
+		synchronized(tenant) {
+			final KeyVerification current = tenant.keyVerification;
+			if(current != null && current.isValid(this.verifyKeyTtl))
+				return Akismet.join(current.result);
+			final boolean rv = tenant.akismet.verifyKey();
+			final KeyVerification completed = new KeyVerification(CompletableFuture.completedFuture(rv));
+			completed.completed = System.nanoTime();
+			tenant.keyVerification = completed;
+			return rv;
+		}
+	}
+	
+	/**
+	 * Non-blocking variant of {@link #verifyKey(String)}.
+	 * @param id The id of the tenant
+	 * @return A future that is completed with true if the key is valid or exceptionally with an {@link AkismetException}
+	 */
+	public CompletableFuture<Boolean> verifyKeyAsync(final String id) {
+		try {
+			return verify(tenant(id));
+		} catch(AkismetException e) {
+			final CompletableFuture<Boolean> rv = new CompletableFuture<>();
+			rv.completeExceptionally(e);
+			return rv;
+		}
+	}
+	
+	private CompletableFuture<Boolean> verify(final Tenant tenant) {
+		KeyVerification verification = tenant.keyVerification;
+		if(verification == null || !verification.isValid(this.verifyKeyTtl)) {
+			synchronized(tenant) {
+				verification = tenant.keyVerification;
+				if(verification == null || !verification.isValid(this.verifyKeyTtl)) {
+					final KeyVerification started = new KeyVerification(tenant.akismet.verifyKeyAsync());
+					tenant.keyVerification = started;
+					started.result.whenComplete((result, e) -> {
+						if(e == null)
+							started.completed = System.nanoTime();
+						else
+							synchronized(tenant) {
+								if(tenant.keyVerification == started)
+									tenant.keyVerification = null;
+							}
+					});
+					verification = started;
+				}
+			}
+		}
+		// Callers must not be able to cancel the shared call
+		return verification.result.thenApply(Function.identity());
+	}
+	
+	/**
+	 * @see Akismet#commentCheck(AkismetComment)
+	 */
+	public boolean commentCheck(final String id, final AkismetComment comment) throws AkismetException {
+		return usableTenant(id).akismet.commentCheck(comment);
+	}
+	
+	/**
+	 * @see Akismet#commentCheckDetailed(AkismetComment)
+	 */
+	public CheckResult commentCheckDetailed(final String id, final AkismetComment comment) throws AkismetException {
+		return usableTenant(id).akismet.commentCheckDetailed(comment);
+	}
+	
+	/**
+	 * @see Akismet#commentCheckAsync(AkismetComment)
+	 */
+	public CompletableFuture<Boolean> commentCheckAsync(final String id, final AkismetComment comment) {
+		return async(id, akismet -> akismet.commentCheckAsync(comment));
+	}
+	
+	/**
+	 * @see Akismet#commentCheckDetailedAsync(AkismetComment)
+	 */
+	public CompletableFuture<CheckResult> commentCheckDetailedAsync(final String id, final AkismetComment comment) {
+		return async(id, akismet -> akismet.commentCheckDetailedAsync(comment));
+	}
+	
+	/**
+	 * @see Akismet#submitSpam(AkismetComment)
+	 */
+	public boolean submitSpam(final String id, final AkismetComment comment) throws AkismetException {
+		return usableTenant(id).akismet.submitSpam(comment);
+	}
+	
+	/**
+	 * @see Akismet#submitSpamAsync(AkismetComment)
+	 */
+	public CompletableFuture<Boolean> submitSpamAsync(final String id, final AkismetComment comment) {
+		return async(id, akismet -> akismet.submitSpamAsync(comment));
+	}
+	
+	/**
+	 * @see Akismet#submitHam(AkismetComment)
+	 */
+	public boolean submitHam(final String id, final AkismetComment comment) throws AkismetException {
+		return usableTenant(id).akismet.submitHam(comment);
+	}
+	
+	/**
+	 * @see Akismet#submitHamAsync(AkismetComment)
+	 */
+	public CompletableFuture<Boolean> submitHamAsync(final String id, final AkismetComment comment) {
+		return async(id, akismet -> akismet.submitHamAsync(comment));
+	}
+
+	public long getVerifyKeyTtl() {
+		return verifyKeyTtl;
+	}
+
+	/**
+	 * @param verifyKeyTtl Time in milliseconds verify-key results are cached, one hour by default
+	 */
+	public void setVerifyKeyTtl(final long verifyKeyTtl) {
+		if(verifyKeyTtl < 0)
+			throw new IllegalArgumentException("Time to live must not be negative");
+		this.verifyKeyTtl = verifyKeyTtl;
+	}
+
+	public TenantMetricsListener getMetricsListener() {
+		return metricsListener;
+	}
+
+	/**
+	 * @param metricsListener Receives all calls of all tenants, may be null
+	 */
+	public void setMetricsListener(final TenantMetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+}
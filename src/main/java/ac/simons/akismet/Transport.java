@@ -0,0 +1,70 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The http transport used by {@link Akismet}. Every Akismet call is a form POST, so a transport 
+ * only has to send a {@link TransportRequest} and hand back the {@link TransportResponse}.<br>
+ * Timeouts must be reported as {@link java.io.InterruptedIOException} (for example a 
+ * {@link java.net.SocketTimeoutException}), either directly or as cause, so that they are 
+ * recognized as Akismet being unavailable.
+ * @author Michael J. Simons
+ * @see ApacheTransport
+ */
+public interface Transport {
+	/**
+	 * Sends a request and blocks until the response headers are received.
+	 * @param request The request to send
+	 * @return The response, must be closed by the caller
+	 * @throws IOException If the request could not be sent or no response was received
+	 */
+	TransportResponse execute(TransportRequest request) throws IOException;
+	
+	/**
+	 * Sends a request without blocking. Cancelling the returned future or completing it exceptionally
+	 * should abort the request.
+	 * @param request The request to send
+	 * @return A future response, must be closed by the caller
+	 * @throws UnsupportedOperationException If {@link #supportsAsync()} is false
+	 */
+	CompletableFuture<TransportResponse> executeAsync(TransportRequest request);
+	
+	/**
+	 * @return True if {@link #executeAsync(TransportRequest)} is supported
+	 */
+	boolean supportsAsync();
+}
@@ -0,0 +1,88 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.net.URI;
+
+/**
+ * A form POST to one of the Akismet API functions.
+ * @author Michael J. Simons
+ */
+public final class TransportRequest {
+	/** The content type of all requests */
+	public static final String CONTENT_TYPE = "application/x-www-form-urlencoded; charset=utf-8";
+	
+	private final URI uri;
+	
+	private final byte[] form;
+	
+	private final String userAgent;
+	
+	private final long timeout;
+
+	/**
+	 * @param uri The URI of the API function
+	 * @param form The url encoded form, not copied
+	 * @param userAgent The user agent of this library
+	 * @param timeout Time in milliseconds the request may take, 0 for the defaults of the transport
+	 */
+	public TransportRequest(final URI uri, final byte[] form, final String userAgent, final long timeout) {
+		this.uri = uri;
+		this.form = form;
+		this.userAgent = userAgent;
+		this.timeout = timeout;
+	}
+
+	public URI getUri() {
+		return uri;
+	}
+
+	/**
+	 * @return The url encoded form, must not be modified
+	 */
+	public byte[] getForm() {
+		return form;
+	}
+
+	public String getUserAgent() {
+		return userAgent;
+	}
+
+	/**
+	 * @return Time in milliseconds the request may take, 0 for the defaults of the transport
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+/**
+ * The outcome of checking a single comment as part of a bulk call. Either the check
+ * was successful and the comment is spam or ham or the check failed with an exception.
+ * @author Michael J. Simons
+ */
+public class Verdict {
+	private final AkismetComment comment;
+	
+	private final CheckResult result;
+	
+	private final AkismetException exception;
+	
+	private Verdict(final AkismetComment comment, final CheckResult result, final AkismetException exception) {
+		this.comment = comment;
+		this.result = result;
+		this.exception = exception;
+	}
+	
+	public static Verdict of(final AkismetComment comment, final boolean spam) {
+		return new Verdict(comment, CheckResult.of(spam), null);
+	}
+	
+	public static Verdict of(final AkismetComment comment, final CheckResult result) {
+		return new Verdict(comment, result, null);
+	}
+	
+	public static Verdict failed(final AkismetComment comment, final AkismetException exception) {
+		return new Verdict(comment, null, exception);
+	}
+
+	public AkismetComment getComment() {
+		return comment;
+	}
+
+	/**
+	 * @return True if the comment is spam. Always false if the check failed
+	 */
+	public boolean isSpam() {
+		return result != null && result.isSpam();
+	}
+	
+	/**
+	 * @return True if the comment is blatant spam that can be discarded. Always false if the check failed
+	 */
+	public boolean isDiscard() {
+		return result != null && result.isDiscard();
+	}
+	
+	/**
+	 * @return The detailed result of the check or null if the check failed
+	 */
+	public CheckResult getResult() {
+		return result;
+	}
+
+	/**
+	 * @return True if the check didn't fail
+	 */
+	public boolean isSuccessful() {
+		return exception == null;
+	}
+	
+	/**
+	 * @return The reason the check failed or null
+	 */
+	public AkismetException getException() {
+		return exception;
+	}
+
+	@Override
+	public String toString() {
+		return "Verdict [comment=" + comment + ", result=" + result + ", exception=" + exception + "]";
+	}
+}
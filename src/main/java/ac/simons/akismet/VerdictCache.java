@@ -0,0 +1,248 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * An in-process cache for comment-check verdicts. Entries are keyed by 
+ * {@link AkismetComment#fingerprint(String)}, expire after a fixed time to live and
+ * are evicted in least recently used order once the maximum number of entries is reached.<br>
+ * Concurrent lookups of the same missing key are coalesced into one single call (single-flight),
+ * all callers share the result of that call. Failed calls and calls that didn't produce
+ * a verdict are not cached.
+ * @author Michael J. Simons
+ */
+public class VerdictCache {
+	/** The maximum number of independently locked segments */
+	private static final int SEGMENTS = 16;
+	
+	private static class CachedVerdict {
+		final CheckResult result;
+		final long expiresAt;
+
+		CachedVerdict(CheckResult result, long expiresAt) {
+			this.result = result;
+			this.expiresAt = expiresAt;
+		}
+	}
+	
+	private static class Segment extends LinkedHashMap<String, CachedVerdict> {
+		private static final long serialVersionUID = -4024395409312337614L;
+		
+		private final int maxEntries;
+
+		Segment(int maxEntries) {
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedVerdict> eldest) {
+			return size() > maxEntries;
+		}
+	}
+	
+	private final long ttl;
+	
+	private final Segment[] segments;
+	
+	private final ConcurrentMap<String, CompletableFuture<CheckResult>> inFlight = new ConcurrentHashMap<>();
+	
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	
+	/**
+	 * @param ttl Time to live of a cached verdict
+	 * @param unit Unit of the time to live
+	 * @param maxEntries Upper bound of cached verdicts
+	 */
+	public VerdictCache(final long ttl, final TimeUnit unit, final int maxEntries) {
+		if(ttl <= 0 || maxEntries <= 0)
+			throw new IllegalArgumentException("Time to live and maximum number of entries must be positive");
+		this.ttl = unit.toNanos(ttl);
+		// Small caches use fewer segments, the remainder is spread so that the capacities add up to maxEntries
+		this.segments = new Segment[Integer.highestOneBit(Math.min(SEGMENTS, maxEntries))];
+		for(int i = 0; i < this.segments.length; ++i)
+			this.segments[i] = new Segment(maxEntries / this.segments.length + (i < maxEntries % this.segments.length ? 1 : 0));
+	}
+	
+	private Segment segmentFor(final String key) {
+		final int h = key.hashCode();
+		return this.segments[(h ^ (h >>> 16)) & (this.segments.length - 1)];
+	}
+	
+	/**
+	 * @param key A comment fingerprint
+	 * @return The cached verdict or null if there is none
+	 */
+	public Boolean getIfPresent(final String key) {
+		final CheckResult result = getResultIfPresent(key);
+		return result == null ? null : result.isSpam();
+	}
+	
+	/**
+	 * @param key A comment fingerprint
+	 * @return The cached result or null if there is none
+	 */
+	public CheckResult getResultIfPresent(final String key) {
+		final Segment segment = segmentFor(key);
+		synchronized(segment) {
+			final CachedVerdict entry = segment.get(key);
+			if(entry == null)
+				return null;
+			if(entry.expiresAt - System.nanoTime() <= 0) {
+				segment.remove(key);
+				return null;
+			}
+			return entry.result;
+		}
+	}
+	
+	/**
+	 * Caches the given verdict.
+	 * @param key A comment fingerprint
+	 * @param spam The verdict
+	 */
+	public void put(final String key, final boolean spam) {
+		put(key, CheckResult.of(spam));
+	}
+	
+	/**
+	 * Caches the given result.
+	 * @param key A comment fingerprint
+	 * @param result The result
+	 */
+	public void put(final String key, final CheckResult result) {
+		final Segment segment = segmentFor(key);
+		synchronized(segment) {
+			segment.put(key, new CachedVerdict(result, System.nanoTime() + this.ttl));
+		}
+	}
+	
+	/**
+	 * Returns the cached result for <code>key</code> or calls the loader. Only one loader is active per key, 
+	 * concurrent callers get the future of the active loader. The loader may complete with null if
+	 * no result could be retrieved, null is not cached.
+	 * @param key A comment fingerprint
+	 * @param loader Retrieves the result
+	 * @return A future result
+	 */
+	public CompletableFuture<CheckResult> get(final String key, final Supplier<CompletableFuture<CheckResult>> loader) {
+		final CheckResult cached = getResultIfPresent(key);
+		if(cached != null) {
+			this.hits.increment();
+			return CompletableFuture.completedFuture(cached);
+		}
+		this.misses.increment();
+		
+		final CompletableFuture<CheckResult> rv = new CompletableFuture<>();
+		final CompletableFuture<CheckResult> active = this.inFlight.putIfAbsent(key, rv);
+		if(active != null) {
+			this.coalesced.increment();
+			return active;
+		}
+		
+		CompletableFuture<CheckResult> load;
+		try {
+			load = loader.get();
+		} catch(RuntimeException e) {
+			load = new CompletableFuture<>();
+			load.completeExceptionally(e);
+		}
+		load.whenComplete((result, e) -> {
+			if(e == null && result != null)
+				put(key, result);
+			this.inFlight.remove(key, rv);
+			if(e != null)
+				rv.completeExceptionally(e);
+			else
+				rv.complete(result);
+		});
+		return rv;
+	}
+	
+	/**
+	 * Removes all cached verdicts.
+	 */
+	public void invalidateAll() {
+		for(Segment segment : segments) {
+			synchronized(segment) {
+				segment.clear();
+			}
+		}
+	}
+	
+	/**
+	 * @return The number of cached verdicts, including expired ones not yet evicted
+	 */
+	public int size() {
+		int rv = 0;
+		for(Segment segment : segments) {
+			synchronized(segment) {
+				rv += segment.size();
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * @return Number of lookups answered from the cache
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return Number of lookups not answered from the cache, including coalesced ones
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return Number of misses that joined an already active call
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+}
@@ -0,0 +1,328 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.batch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ac.simons.akismet.AkismetComment;
+
+/**
+ * Reads the records of a comment archive one by one.
+ * @author Michael J. Simons
+ */
+final class ArchiveReader implements Closeable {
+	/**
+	 * A record of the archive. Either a comment or the reason the record could not be read.
+	 */
+	static final class Record {
+		final String id;
+		final AkismetComment comment;
+		final String error;
+		/** Position after the record */
+		final long end;
+		
+		Record(final String id, final AkismetComment comment, final String error, final long end) {
+			this.id = id;
+			this.comment = comment;
+			this.error = error;
+			this.end = end;
+		}
+	}
+	
+	/**
+	 * A CSV record that is parsed line by line, so that quoted values spanning 
+	 * lines don't have to be parsed again for each line.
+	 */
+	private static final class CsvRecord {
+		final List<String> values = new ArrayList<>();
+		private final StringBuilder value = new StringBuilder();
+		private boolean quoted;
+		
+		/**
+		 * @param line The next line of the record
+		 * @return True if the record is complete, false if it ends inside a quoted value
+		 */
+		boolean append(final String line) {
+			if(this.quoted)
+				this.value.append('\n');
+			for(int i = 0; i < line.length(); ++i) {
+				final char c = line.charAt(i);
+				if(this.quoted) {
+					if(c != '"')
+						this.value.append(c);
+					else if(i + 1 < line.length() && line.charAt(i + 1) == '"')
+						this.value.append(line.charAt(++i));
+					else
+						this.quoted = false;
+				} else if(c == '"')
+					this.quoted = true;
+				else if(c == ',') {
+					this.values.add(this.value.toString());
+					this.value.setLength(0);
+				} else
+					this.value.append(c);
+			}
+			if(this.quoted)
+				return false;
+			this.values.add(this.value.toString());
+			this.value.setLength(0);
+			return true;
+		}
+	}
+	
+	/** Maximum length of a CSV record spanning lines */
+	static final int MAX_RECORD_LENGTH = 1 << 20;
+	
+	private final ArchiveFormat format;
+	private final MappedLineReader lines;
+	/** Field names of CSV archives */
+	private final List<String> header;
+	/** Maximum number of lines of a CSV record */
+	private final int maxRecordLines;
+	
+	/**
+	 * @param path The archive
+	 * @param format The format of the archive
+	 * @param offset The position to start at, 0 or the end of a previous record
+	 * @param maxRecordLines Maximum number of lines of a CSV record, longer records are reported as errors
+	 */
+	ArchiveReader(final Path path, final ArchiveFormat format, final long offset, final int maxRecordLines) throws IOException {
+		this.format = format;
+		this.maxRecordLines = maxRecordLines;
+		if(format == ArchiveFormat.CSV) {
+			try(MappedLineReader headerLine = new MappedLineReader(path, 0)) {
+				final String line = headerLine.readLine();
+				this.header = line == null ? new ArrayList<>() : parseCsv(line);
+				this.lines = new MappedLineReader(path, Math.max(offset, headerLine.getOffset()));
+			}
+		} else {
+			this.header = null;
+			this.lines = new MappedLineReader(path, offset);
+		}
+	}
+	
+	/**
+	 * @return The next record or null at the end of the archive
+	 */
+	Record next() throws IOException {
+		String line = this.lines.readLine();
+		// Blank lines are not records
+		while(line != null && line.trim().isEmpty())
+			line = this.lines.readLine();
+		if(line == null)
+			return null;
+		
+		Map<String, String> fields;
+		try {
+			if(this.format == ArchiveFormat.CSV) {
+				final List<String> values = readCsv(line);
+				fields = new HashMap<>();
+				for(int i = 0; i < Math.min(values.size(), this.header.size()); ++i)
+					fields.put(this.header.get(i), values.get(i));
+			} else
+				fields = parseJson(line);
+		} catch(IllegalArgumentException e) {
+			return new Record(null, null, e.getMessage(), this.lines.getOffset());
+		}
+		return new Record(fields.get("id"), toComment(fields), null, this.lines.getOffset());
+	}
+	
+	/**
+	 * Reads the remaining lines of a CSV record whose quoted values span lines. 
+	 * If the record is unterminated or too long, reading resyncs at the line after its first line.
+	 * @param line The first line of the record
+	 * @return The values of the record
+	 * @throws IllegalArgumentException If the record is unterminated or too long
+	 */
+	private List<String> readCsv(final String line) throws IOException {
+		final CsvRecord rv = new CsvRecord();
+		if(rv.append(line))
+			return rv.values;
+		final long resync = this.lines.getOffset();
+		int numberOfLines = 1;
+		long length = line.length();
+		String next;
+		while((next = this.lines.readLine()) != null) {
+			length += next.length() + 1;
+			if(++numberOfLines > this.maxRecordLines || length > MAX_RECORD_LENGTH) {
+				this.lines.seek(resync);
+				throw new IllegalArgumentException(String.format("Quoted value exceeds %d lines or %d characters", this.maxRecordLines, MAX_RECORD_LENGTH));
+			}
+			if(rv.append(next))
+				return rv.values;
+		}
+		this.lines.seek(resync);
+		throw new IllegalArgumentException("Unterminated quoted value");
+	}
+	
+	long getSize() {
+		return this.lines.getSize();
+	}
+	
+	static AkismetComment toComment(final Map<String, String> fields) {
+		final AkismetComment rv = new AkismetComment();
+		rv.setUserIp(fields.get("user_ip"));
+		rv.setUserAgent(fields.get("user_agent"));
+		rv.setReferrer(fields.get("referrer"));
+		rv.setPermalink(fields.get("permalink"));
+		rv.setCommentType(fields.get("comment_type"));
+		rv.setCommentAuthor(fields.get("comment_author"));
+		rv.setCommentAuthorEmail(fields.get("comment_author_email"));
+		rv.setCommentAuthorUrl(fields.get("comment_author_url"));
+		rv.setCommentContent(fields.get("comment_content"));
+		return rv;
+	}
+	
+	/**
+	 * Parses one CSV record.
+	 * @return The values or null if the record ends inside a quoted value
+	 */
+	static List<String> parseCsv(final String line) {
+		final CsvRecord rv = new CsvRecord();
+		return rv.append(line) ? rv.values : null;
+	}
+	
+	/**
+	 * Parses a flat JSON object. Numbers, booleans and null are returned as their text, 
+	 * nested objects and arrays are not supported.
+	 * @throws IllegalArgumentException If the line is not a flat JSON object
+	 */
+	static Map<String, String> parseJson(final String line) {
+		final Map<String, String> rv = new HashMap<>();
+		final int[] position = {skipWhitespace(line, 0)};
+		expect(line, position, '{');
+		if(peek(line, position) == '}')
+			++position[0];
+		else {
+			while(true) {
+				final String name = parseString(line, position);
+				expect(line, position, ':');
+				final char c = peek(line, position);
+				final String value;
+				if(c == '"')
+					value = parseString(line, position);
+				else if(c == '{' || c == '[')
+					throw new IllegalArgumentException(String.format("Nested value of %s is not supported", name));
+				else {
+					final int start = position[0];
+					while(position[0] < line.length() && ",} \t".indexOf(line.charAt(position[0])) < 0)
+						++position[0];
+					final String literal = line.substring(start, position[0]);
+					value = "null".equals(literal) ? null : literal;
+				}
+				rv.put(name, value);
+				if(peek(line, position) == ',') {
+					++position[0];
+					continue;
+				}
+				expect(line, position, '}');
+				break;
+			}
+		}
+		if(skipWhitespace(line, position[0]) != line.length())
+			throw new IllegalArgumentException("Unexpected content after JSON object");
+		return rv;
+	}
+	
+	private static int skipWhitespace(final String line, int position) {
+		while(position < line.length() && Character.isWhitespace(line.charAt(position)))
+			++position;
+		return position;
+	}
+	
+	private static char peek(final String line, final int[] position) {
+		position[0] = skipWhitespace(line, position[0]);
+		if(position[0] >= line.length())
+			throw new IllegalArgumentException("Unexpected end of JSON object");
+		return line.charAt(position[0]);
+	}
+	
+	private static void expect(final String line, final int[] position, final char expected) {
+		if(peek(line, position) != expected)
+			throw new IllegalArgumentException(String.format("Expected '%s' at position %d", expected, position[0]));
+		++position[0];
+	}
+	
+	private static String parseString(final String line, final int[] position) {
+		expect(line, position, '"');
+		final StringBuilder rv = new StringBuilder();
+		int i = position[0];
+		while(true) {
+			if(i >= line.length())
+				throw new IllegalArgumentException("Unterminated string");
+			final char c = line.charAt(i++);
+			if(c == '"')
+				break;
+			if(c != '\\') {
+				rv.append(c);
+				continue;
+			}
+			if(i >= line.length())
+				throw new IllegalArgumentException("Unterminated string");
+			final char escaped = line.charAt(i++);
+			switch(escaped) {
+				case 'b': rv.append('\b'); break;
+				case 'f': rv.append('\f'); break;
+				case 'n': rv.append('\n'); break;
+				case 'r': rv.append('\r'); break;
+				case 't': rv.append('\t'); break;
+				case 'u':
+					if(i + 4 > line.length())
+						throw new IllegalArgumentException("Invalid unicode escape");
+					try {
+						rv.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+					} catch(NumberFormatException e) {
+						throw new IllegalArgumentException("Invalid unicode escape");
+					}
+					i += 4;
+					break;
+				default: 
+					rv.append(escaped);
+			}
+		}
+		position[0] = i;
+		return rv.toString();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.lines.close();
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.batch;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.ConnectionPool;
+
+/**
+ * Command line interface of the {@link BatchRunner}:
+ * <pre>java -cp java-akismet.jar:... ac.simons.akismet.batch.BatchCli --key KEY --consumer http://your.site --input comments.jsonl --output verdicts.jsonl</pre>
+ * Optional arguments are <code>--format JSON_LINES|CSV</code> (derived from the file name by default), 
+ * <code>--concurrency N</code> (16 by default) and <code>--scheme http|https</code> (https by default).
+ * Running the same command again after a crash resumes the run.
+ * @author Michael J. Simons
+ */
+public final class BatchCli {
+	private BatchCli() {
+	}
+	
+	public static void main(final String... args) throws Exception {
+		final Map<String, String> options = new HashMap<>();
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			if(!args[i].startsWith("--")) {
+				usage(String.format("Unexpected argument %s", args[i]));
+				return;
+			}
+			options.put(args[i].substring(2), args[i + 1]);
+		}
+		if(args.length % 2 != 0) {
+			usage(String.format("Missing value of %s", args[args.length - 1]));
+			return;
+		}
+		for(String required : new String[] {"key", "consumer", "input", "output"}) {
+			if(!options.containsKey(required)) {
+				usage(String.format("Missing --%s", required));
+				return;
+			}
+		}
+		
+		final Path input = Paths.get(options.get("input"));
+		final Path output = Paths.get(options.get("output"));
+		final ArchiveFormat format = options.containsKey("format") ? ArchiveFormat.valueOf(options.get("format").toUpperCase()) : ArchiveFormat.of(input);
+		final int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+		
+		try(ConnectionPool pool = new ConnectionPool(concurrency)) {
+			final Akismet akismet = new Akismet(pool.getHttpClient(), pool.getHttpAsyncClient());
+			akismet.setApiKey(options.get("key"));
+			akismet.setApiConsumer(options.get("consumer"));
+			akismet.setApiScheme(options.getOrDefault("scheme", "https"));
+			if(!akismet.verifyKey()) {
+				System.err.println("The api key is invalid");
+				System.exit(1);
+			}
+			
+			final BatchRunner runner = new BatchRunner(akismet);
+			runner.setConcurrency(concurrency);
+			runner.run(input, format, output);
+		}
+	}
+	
+	private static void usage(final String message) {
+		System.err.println(message);
+		System.err.println("Usage: BatchCli --key KEY --consumer URL --input FILE --output FILE [--format JSON_LINES|CSV] [--concurrency N] [--scheme http|https]");
+		System.exit(2);
+	}
+}
@@ -0,0 +1,393 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetException;
+import ac.simons.akismet.AkismetUnavailableException;
+import ac.simons.akismet.CheckResult;
+import ac.simons.akismet.batch.ArchiveReader.Record;
+
+/**
+ * Checks all comments of an archive and streams the verdicts to an output file as JSON lines. 
+ * The archive is read incrementally, at most <code>concurrency</code> checks are in flight, 
+ * so memory usage doesn't depend on the size of the archive. The checks have bulk priority, so that live checks 
+ * sharing the {@link ac.simons.akismet.RequestScheduler} of the instance go first.<br>
+ * Verdicts are written in the order of the archive, one per record:
+ * <pre>{"record":0,"id":"42","spam":true,"discard":false}
+ * {"record":1,"error":"Expected '{' at position 0"}</pre>
+ * A checkpoint is written next to the output file periodically. If a checkpoint for the same archive 
+ * exists, the run resumes after the last checkpointed record. The checkpoint is deleted when the
+ * run completes.<br>
+ * Records that could not be checked because Akismet was unavailable are written as errors, fallback verdicts
+ * are never written. The checkpoint doesn't move past the first of them and is kept at the end of the run,
+ * so that running again checks them and all following records again.
+ * @author Michael J. Simons
+ */
+public class BatchRunner {
+	private final Logger logger = LoggerFactory.getLogger(BatchRunner.class);
+	
+	/**
+	 * A record in flight
+	 */
+	private static final class Pending {
+		final long number;
+		final Record record;
+		final CompletableFuture<CheckResult> result;
+		
+		Pending(final long number, final Record record, final CompletableFuture<CheckResult> result) {
+			this.number = number;
+			this.record = record;
+			this.result = result;
+		}
+	}
+	
+	private final Akismet akismet;
+	
+	private int concurrency = 16;
+	private int checkpointInterval = 1000;
+	private long reportInterval = TimeUnit.SECONDS.toMillis(10);
+	private int maxRecordLines = 1000;
+	private Consumer<Progress> progressListener = progress -> logger.info(progress.toString());
+	
+	public BatchRunner(final Akismet akismet) {
+		this.akismet = akismet;
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * @param concurrency Maximum number of checks in flight
+	 */
+	public void setConcurrency(int concurrency) {
+		if(concurrency <= 0)
+			throw new IllegalArgumentException("Concurrency must be positive");
+		this.concurrency = concurrency;
+	}
+
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	/**
+	 * @param checkpointInterval Number of records after which a checkpoint is written
+	 */
+	public void setCheckpointInterval(int checkpointInterval) {
+		if(checkpointInterval <= 0)
+			throw new IllegalArgumentException("Checkpoint interval must be positive");
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	public long getReportInterval() {
+		return reportInterval;
+	}
+
+	/**
+	 * @param reportInterval Time in milliseconds between progress reports
+	 */
+	public void setReportInterval(long reportInterval) {
+		this.reportInterval = reportInterval;
+	}
+
+	public int getMaxRecordLines() {
+		return maxRecordLines;
+	}
+
+	/**
+	 * @param maxRecordLines Maximum number of lines of a CSV record, longer or unterminated records are reported as errors and reading resumes at their second line
+	 */
+	public void setMaxRecordLines(int maxRecordLines) {
+		if(maxRecordLines <= 0)
+			throw new IllegalArgumentException("Maximum number of record lines must be positive");
+		this.maxRecordLines = maxRecordLines;
+	}
+
+	/**
+	 * @param progressListener Receives the progress periodically and at the end of a run, logs the progress by default
+	 */
+	public void setProgressListener(Consumer<Progress> progressListener) {
+		this.progressListener = progressListener;
+	}
+	
+	/**
+	 * @param output An output file
+	 * @return The checkpoint file belonging to the output file
+	 */
+	public static Path checkpointOf(final Path output) {
+		return output.resolveSibling(output.getFileName() + ".checkpoint");
+	}
+	
+	/**
+	 * Checks all comments of the archive, resuming a previous run if there is a checkpoint.
+	 * @param input The archive
+	 * @param format The format of the archive
+	 * @param output The file the verdicts are written to
+	 * @return The final progress
+	 * @throws IOException If the archive cannot be read or the output cannot be written
+	 * @throws AkismetException If the run is interrupted
+	 */
+	public Progress run(final Path input, final ArchiveFormat format, final Path output) throws IOException, AkismetException {
+		final Path checkpoint = checkpointOf(output);
+		final Properties state = readCheckpoint(checkpoint, input);
+		final long startOffset = Long.parseLong(state.getProperty("inputOffset", "0"));
+		long outputOffset = Long.parseLong(state.getProperty("outputOffset", "0"));
+		long records = Long.parseLong(state.getProperty("records", "0"));
+		long spam = Long.parseLong(state.getProperty("spam", "0"));
+		long failed = Long.parseLong(state.getProperty("failed", "0"));
+		if(startOffset > 0)
+			logger.info(String.format("Resuming %s after %d records", input, records));
+		
+		final ExecutorService executor = this.akismet.getTransport().supportsAsync() ? null : Executors.newFixedThreadPool(this.concurrency);
+		final Semaphore permits = new Semaphore(this.concurrency);
+		// Bounds the records that are checked but not yet written because of a slow record before them
+		final int maxPending = 4 * this.concurrency;
+		final ArrayDeque<Pending> pending = new ArrayDeque<>();
+		final long start = System.nanoTime();
+		long lastReport = start;
+		long recordsSinceCheckpoint = 0;
+		// Set once a record could not be checked because Akismet was unavailable, the checkpoint stays before that record
+		boolean unavailable = false;
+		long inputOffset = startOffset;
+		final long startRecords = records;
+		
+		try(
+			ArchiveReader reader = new ArchiveReader(input, format, startOffset, this.maxRecordLines);
+			FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+		) {
+			channel.truncate(outputOffset);
+			channel.position(outputOffset);
+			final OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+			long number = records;
+			Record record;
+			while(true) {
+				record = reader.next();
+				// Writes all finished records in order and waits for a slot
+				while(!pending.isEmpty() && (pending.size() >= maxPending || record == null || pending.peek().result.isDone())) {
+					final Pending head = pending.poll();
+					final CheckResult verdict = await(head.result);
+					if(!unavailable && isUnavailable(head.result)) {
+						out.flush();
+						channel.force(false);
+						writeCheckpoint(checkpoint, input, inputOffset, outputOffset, records, spam, failed);
+						unavailable = true;
+					}
+					final byte[] line = toJson(head, verdict).getBytes(StandardCharsets.UTF_8);
+					out.write(line);
+					outputOffset += line.length;
+					inputOffset = head.record.end;
+					++records;
+					if(head.record.error != null || head.result.isCompletedExceptionally())
+						++failed;
+					else if(verdict.isSpam())
+						++spam;
+					if(++recordsSinceCheckpoint >= this.checkpointInterval && !unavailable) {
+						out.flush();
+						channel.force(false);
+						writeCheckpoint(checkpoint, input, inputOffset, outputOffset, records, spam, failed);
+						recordsSinceCheckpoint = 0;
+					}
+					final long now = System.nanoTime();
+					if(now - lastReport >= TimeUnit.MILLISECONDS.toNanos(this.reportInterval)) {
+						report(new Progress(records, spam, failed, inputOffset, reader.getSize(), records - startRecords, inputOffset - startOffset, now - start));
+						lastReport = now;
+					}
+				}
+				if(record == null)
+					break;
+				
+				final CompletableFuture<CheckResult> result;
+				if(record.error != null)
+					result = CompletableFuture.completedFuture(null);
+				else {
+					permits.acquire();
+					result = check(record, executor);
+					result.whenComplete((r, e) -> permits.release());
+				}
+				pending.add(new Pending(number++, record, result));
+			}
+			out.flush();
+			channel.force(false);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AkismetException(e);
+		} finally {
+			if(executor != null)
+				executor.shutdownNow();
+		}
+		if(unavailable)
+			logger.warn(String.format("Some records of %s could not be checked because Akismet was unavailable, run again to check them", input));
+		else
+			Files.deleteIfExists(checkpoint);
+		final Progress rv = new Progress(records, spam, failed, inputOffset, inputOffset, records - startRecords, inputOffset - startOffset, System.nanoTime() - start);
+		report(rv);
+		return rv;
+	}
+	
+	private CompletableFuture<CheckResult> check(final Record record, final ExecutorService executor) {
+		final CompletableFuture<CheckResult> rv;
+		if(executor == null)
+			rv = this.akismet.commentCheckDetailedInBulkAsync(record.comment);
+		else
+			rv = CompletableFuture.supplyAsync(() -> {
+				try {
+					return this.akismet.commentCheckDetailedInBulk(record.comment);
+				} catch(AkismetException e) {
+					throw new CompletionException(e);
+				}
+			}, executor);
+		// A fallback verdict is no decision and must not end up in the output
+		return rv.thenApply(result -> {
+			if(result.isFallback())
+				throw new CompletionException(new AkismetUnavailableException("Akismet is unavailable"));
+			return result;
+		});
+	}
+	
+	/**
+	 * @return True if the check failed because Akismet was unavailable
+	 */
+	private static boolean isUnavailable(final CompletableFuture<CheckResult> result) {
+		if(!result.isCompletedExceptionally())
+			return false;
+		final Throwable e = result.handle((r, t) -> t).join();
+		return (e instanceof CompletionException ? e.getCause() : e) instanceof AkismetUnavailableException;
+	}
+	
+	/**
+	 * Waits for a result without throwing, failures are written as verdicts.
+	 */
+	private static CheckResult await(final CompletableFuture<CheckResult> result) throws InterruptedException {
+		try {
+			return result.get();
+		} catch(ExecutionException e) {
+			return null;
+		}
+	}
+	
+	private void report(final Progress progress) {
+		final Consumer<Progress> listener = this.progressListener;
+		if(listener != null)
+			listener.accept(progress);
+	}
+	
+	private static String toJson(final Pending pending, final CheckResult result) {
+		final StringBuilder rv = new StringBuilder("{\"record\":").append(pending.number);
+		if(pending.record.id != null)
+			appendString(rv.append(",\"id\":"), pending.record.id);
+		String error = pending.record.error;
+		if(error == null && result == null) {
+			final Throwable e = pending.result.handle((r, t) -> t).join();
+			final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+			error = String.valueOf(cause.getMessage());
+		}
+		if(error != null)
+			appendString(rv.append(",\"error\":"), error);
+		else
+			rv.append(",\"spam\":").append(result.isSpam()).append(",\"discard\":").append(result.isDiscard());
+		return rv.append("}\n").toString();
+	}
+	
+	private static void appendString(final StringBuilder json, final String value) {
+		json.append('"');
+		for(int i = 0; i < value.length(); ++i) {
+			final char c = value.charAt(i);
+			if(c == '"' || c == '\\')
+				json.append('\\').append(c);
+			else if(c < 0x20)
+				json.append(String.format("\\u%04x", (int) c));
+			else
+				json.append(c);
+		}
+		json.append('"');
+	}
+	
+	/**
+	 * @return The state of the checkpoint or empty properties if there is no checkpoint for the archive
+	 */
+	private Properties readCheckpoint(final Path checkpoint, final Path input) throws IOException {
+		final Properties rv = new Properties();
+		if(Files.exists(checkpoint)) {
+			try(InputStream in = Files.newInputStream(checkpoint)) {
+				rv.load(in);
+			}
+			if(!input.toAbsolutePath().toString().equals(rv.getProperty("input"))) {
+				logger.warn(String.format("Ignoring checkpoint %s of another archive", checkpoint));
+				rv.clear();
+			}
+		}
+		return rv;
+	}
+	
+	private static void writeCheckpoint(final Path checkpoint, final Path input, final long inputOffset, final long outputOffset, final long records, final long spam, final long failed) throws IOException {
+		final Properties state = new Properties();
+		state.setProperty("input", input.toAbsolutePath().toString());
+		state.setProperty("inputOffset", Long.toString(inputOffset));
+		state.setProperty("outputOffset", Long.toString(outputOffset));
+		state.setProperty("records", Long.toString(records));
+		state.setProperty("spam", Long.toString(spam));
+		state.setProperty("failed", Long.toString(failed));
+		final Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+		try(OutputStream out = Files.newOutputStream(tmp)) {
+			state.store(out, null);
+		}
+		Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.batch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads UTF-8 encoded lines from a file through a sliding memory mapped window, 
+ * so that files of any size can be read with constant heap usage.
+ * @author Michael J. Simons
+ */
+final class MappedLineReader implements Closeable {
+	private static final int WINDOW_SIZE = 64 << 20;
+	
+	private final FileChannel channel;
+	private final long size;
+	
+	private MappedByteBuffer window;
+	private long windowStart;
+	
+	/** Position of the next line */
+	private long offset;
+	
+	private byte[] line = new byte[1024];
+	
+	/**
+	 * @param path The file to read
+	 * @param offset Position to start at, must be the beginning of a line
+	 */
+	MappedLineReader(final Path path, final long offset) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.size = this.channel.size();
+		this.offset = offset;
+	}
+	
+	/**
+	 * @return The next line without line terminator or null at the end of the file
+	 */
+	String readLine() throws IOException {
+		if(this.offset >= this.size)
+			return null;
+		int length = 0;
+		long position = this.offset;
+		while(position < this.size) {
+			if(this.window == null || position < this.windowStart || position >= this.windowStart + this.window.limit())
+				map(position);
+			final byte b = this.window.get((int) (position - this.windowStart));
+			++position;
+			if(b == '\n')
+				break;
+			if(length == this.line.length)
+				this.line = Arrays.copyOf(this.line, length * 2);
+			this.line[length++] = b;
+		}
+		this.offset = position;
+		if(length > 0 && this.line[length - 1] == '\r')
+			--length;
+		return new String(this.line, 0, length, StandardCharsets.UTF_8);
+	}
+	
+	private void map(final long position) throws IOException {
+		this.windowStart = position;
+		this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, this.size - position));
+	}
+	
+	/**
+	 * @return The position after the last line read
+	 */
+	long getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * @param offset Position of the next line, must be the beginning of a line
+	 */
+	void seek(final long offset) {
+		this.offset = offset;
+	}
+	
+	long getSize() {
+		return size;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.window = null;
+		this.channel.close();
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.batch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of the progress of a batch run.
+ * @author Michael J. Simons
+ */
+public class Progress {
+	private final long records;
+	private final long spam;
+	private final long failed;
+	private final long bytesRead;
+	private final long totalBytes;
+	/** Records and bytes processed in this run, excluding the ones of previous runs */
+	private final long runRecords;
+	private final long runBytes;
+	private final long elapsedNanos;
+	
+	Progress(final long records, final long spam, final long failed, final long bytesRead, final long totalBytes, final long runRecords, final long runBytes, final long elapsedNanos) {
+		this.records = records;
+		this.spam = spam;
+		this.failed = failed;
+		this.bytesRead = bytesRead;
+		this.totalBytes = totalBytes;
+		this.runRecords = runRecords;
+		this.runBytes = runBytes;
+		this.elapsedNanos = Math.max(elapsedNanos, 1);
+	}
+
+	/**
+	 * @return The number of records processed, including the ones of previous runs
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	public long getSpam() {
+		return spam;
+	}
+
+	/**
+	 * @return The number of records that could not be read or checked
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return The number of records per second in this run
+	 */
+	public double getRecordsPerSecond() {
+		return runRecords * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+	}
+	
+	/**
+	 * @return The estimated remaining time in seconds, based on the bytes per second of this run, -1 if unknown
+	 */
+	public long getEtaSeconds() {
+		if(runBytes == 0)
+			return -1;
+		return (long) ((totalBytes - bytesRead) / (runBytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d records (%d spam, %d failed), %.1f records/s, %.1f%% done, ETA %ds", 
+				records, spam, failed, getRecordsPerSecond(), totalBytes == 0 ? 100.0 : 100.0 * bytesRead / totalBytes, getEtaSeconds());
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.filter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A case insensitive Aho-Corasick automaton over a fixed set of patterns. The automaton
+ * is compiled into a dense transition table, so that matching is a single table lookup
+ * per character and doesn't allocate.
+ * @author Michael J. Simons
+ */
+final class AhoCorasick {
+	/** Maps characters to their index in the alphabet, -1 if not part of any pattern */
+	private final short[] alphabet;
+	
+	private final int alphabetSize;
+	
+	/** Transitions from state s with character index c are at s * alphabetSize + c */
+	private final int[] transitions;
+	
+	/** Number of patterns ending in each state, including the ones reached by failure links */
+	private final int[] matches;
+	
+	AhoCorasick(final Collection<String> patterns) {
+		this.alphabet = new short[Character.MAX_VALUE + 1];
+		Arrays.fill(this.alphabet, (short) -1);
+		short size = 0;
+		for(String pattern : patterns) {
+			for(int i = 0; i < pattern.length(); ++i) {
+				final char c = Character.toLowerCase(pattern.charAt(i));
+				if(this.alphabet[c] < 0)
+					this.alphabet[c] = size++;
+			}
+		}
+		this.alphabetSize = Math.max(1, size);
+		
+		// Build the trie
+		final List<Map<Integer, Integer>> trie = new ArrayList<>();
+		final List<Integer> terminal = new ArrayList<>();
+		trie.add(new HashMap<>());
+		terminal.add(0);
+		for(String pattern : patterns) {
+			if(pattern.isEmpty())
+				continue;
+			int state = 0;
+			for(int i = 0; i < pattern.length(); ++i) {
+				final int c = this.alphabet[Character.toLowerCase(pattern.charAt(i))];
+				Integer next = trie.get(state).get(c);
+				if(next == null) {
+					next = trie.size();
+					trie.add(new HashMap<>());
+					terminal.add(0);
+					trie.get(state).put(c, next);
+				}
+				state = next;
+			}
+			terminal.set(state, terminal.get(state) + 1);
+		}
+		
+		// Compute failure links breadth first and resolve them into the transition table
+		final int states = trie.size();
+		this.transitions = new int[states * this.alphabetSize];
+		this.matches = new int[states];
+		final int[] failure = new int[states];
+		final Deque<Integer> queue = new ArrayDeque<>();
+		for(int c = 0; c < this.alphabetSize; ++c) {
+			final Integer next = trie.get(0).get(c);
+			if(next != null) {
+				this.transitions[c] = next;
+				queue.add(next);
+			}
+		}
+		this.matches[0] = terminal.get(0);
+		while(!queue.isEmpty()) {
+			final int state = queue.poll();
+			this.matches[state] = terminal.get(state) + this.matches[failure[state]];
+			for(int c = 0; c < this.alphabetSize; ++c) {
+				final Integer next = trie.get(state).get(c);
+				if(next == null) {
+					this.transitions[state * this.alphabetSize + c] = this.transitions[failure[state] * this.alphabetSize + c];
+				} else {
+					failure[next] = this.transitions[failure[state] * this.alphabetSize + c];
+					this.transitions[state * this.alphabetSize + c] = next;
+					queue.add(next);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param text The text to search, may be null
+	 * @return The number of (possibly overlapping) pattern occurrences in text
+	 */
+	int count(final CharSequence text) {
+		if(text == null)
+			return 0;
+		int rv = 0;
+		int state = 0;
+		for(int i = 0; i < text.length(); ++i) {
+			final int c = this.alphabet[Character.toLowerCase(text.charAt(i))];
+			state = c < 0 ? 0 : this.transitions[state * this.alphabetSize + c];
+			rv += this.matches[state];
+		}
+		return rv;
+	}
+	
+	/**
+	 * @param text The text to search, may be null
+	 * @return True if any pattern occurs in text
+	 */
+	boolean matches(final CharSequence text) {
+		if(text == null)
+			return false;
+		int state = 0;
+		for(int i = 0; i < text.length(); ++i) {
+			final int c = this.alphabet[Character.toLowerCase(text.charAt(i))];
+			state = c < 0 ? 0 : this.transitions[state * this.alphabetSize + c];
+			if(this.matches[state] > 0)
+				return true;
+		}
+		return false;
+	}
+}
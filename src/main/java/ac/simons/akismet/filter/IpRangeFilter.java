@@ -0,0 +1,236 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.filter;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.PreFilter;
+
+/**
+ * Matches the ip address of a comment against a set of IPv4 and IPv6 ranges in CIDR notation
+ * (for example <code>192.0.2.0/24</code>) or single addresses. The ranges are merged and stored
+ * in sorted primitive arrays, lookups are binary searches. IPv4 lookups don't allocate.
+ * @author Michael J. Simons
+ */
+public class IpRangeFilter implements PreFilter {
+	/** Start and end (inclusive) of the merged IPv4 ranges, as unsigned ints stored in longs */
+	private final long[] v4Starts;
+	private final long[] v4Ends;
+	
+	/** Start and end (inclusive) of the merged IPv6 ranges, high and low bits interleaved */
+	private final long[] v6Starts;
+	private final long[] v6Ends;
+	
+	private final Decision decision;
+	
+	/**
+	 * Creates a filter that decides on spam for all addresses in the given ranges.
+	 * @param ranges Blocklisted ranges
+	 */
+	public IpRangeFilter(final Collection<String> ranges) {
+		this(ranges, Decision.SPAM);
+	}
+	
+	/**
+	 * @param ranges Ranges in CIDR notation or single addresses
+	 * @param decision The decision for all addresses in the given ranges
+	 */
+	public IpRangeFilter(final Collection<String> ranges, final Decision decision) {
+		this.decision = decision;
+		final List<long[]> v4 = new ArrayList<>();
+		final List<long[]> v6 = new ArrayList<>();
+		for(String range : ranges) {
+			final int slash = range.indexOf('/');
+			final String address = (slash < 0 ? range : range.substring(0, slash)).trim();
+			final long v4Address = parseV4(address);
+			if(v4Address >= 0) {
+				final int prefix = slash < 0 ? 32 : Integer.parseInt(range.substring(slash + 1).trim());
+				final long mask = prefix == 0 ? 0 : (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+				v4.add(new long[] {v4Address & mask, (v4Address & mask) | (~mask & 0xFFFFFFFFL)});
+			} else {
+				final long[] v6Address = parseV6(address);
+				if(v6Address == null)
+					throw new IllegalArgumentException(String.format("Invalid ip range: %s", range));
+				final int prefix = slash < 0 ? 128 : Integer.parseInt(range.substring(slash + 1).trim());
+				final long highMask = prefix >= 64 ? -1L : prefix == 0 ? 0 : -1L << (64 - prefix);
+				final long lowMask = prefix <= 64 ? 0 : prefix == 128 ? -1L : -1L << (128 - prefix);
+				v6.add(new long[] {v6Address[0] & highMask, v6Address[1] & lowMask, v6Address[0] | ~highMask, v6Address[1] | ~lowMask});
+			}
+		}
+		
+		v4.sort((a, b) -> Long.compare(a[0], b[0]));
+		final List<long[]> mergedV4 = new ArrayList<>();
+		for(long[] range : v4) {
+			final long[] last = mergedV4.isEmpty() ? null : mergedV4.get(mergedV4.size() - 1);
+			if(last != null && range[0] <= last[1] + 1)
+				last[1] = Math.max(last[1], range[1]);
+			else
+				mergedV4.add(range);
+		}
+		this.v4Starts = new long[mergedV4.size()];
+		this.v4Ends = new long[mergedV4.size()];
+		for(int i = 0; i < mergedV4.size(); ++i) {
+			this.v4Starts[i] = mergedV4.get(i)[0];
+			this.v4Ends[i] = mergedV4.get(i)[1];
+		}
+		
+		v6.sort((a, b) -> compareUnsigned(a[0], a[1], b[0], b[1]));
+		final List<long[]> mergedV6 = new ArrayList<>();
+		for(long[] range : v6) {
+			final long[] last = mergedV6.isEmpty() ? null : mergedV6.get(mergedV6.size() - 1);
+			if(last != null && compareUnsigned(range[0], range[1], last[2], last[3]) <= 0) {
+				if(compareUnsigned(range[2], range[3], last[2], last[3]) > 0) {
+					last[2] = range[2];
+					last[3] = range[3];
+				}
+			} else {
+				mergedV6.add(range);
+			}
+		}
+		this.v6Starts = new long[mergedV6.size() * 2];
+		this.v6Ends = new long[mergedV6.size() * 2];
+		for(int i = 0; i < mergedV6.size(); ++i) {
+			final long[] range = mergedV6.get(i);
+			this.v6Starts[2 * i] = range[0];
+			this.v6Starts[2 * i + 1] = range[1];
+			this.v6Ends[2 * i] = range[2];
+			this.v6Ends[2 * i + 1] = range[3];
+		}
+	}
+	
+	@Override
+	public Decision filter(final AkismetComment comment) {
+		final String userIp = comment.getUserIp();
+		if(userIp == null)
+			return Decision.ASK_AKISMET;
+		return contains(userIp) ? this.decision : Decision.ASK_AKISMET;
+	}
+	
+	/**
+	 * @param address An IPv4 or IPv6 address
+	 * @return True if the address is in one of the ranges of this filter
+	 */
+	public boolean contains(final String address) {
+		final long v4Address = parseV4(address);
+		if(v4Address >= 0) {
+			// Index of the last range starting at or before the address
+			int low = 0, high = this.v4Starts.length - 1, candidate = -1;
+			while(low <= high) {
+				final int mid = (low + high) >>> 1;
+				if(this.v4Starts[mid] <= v4Address) {
+					candidate = mid;
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return candidate >= 0 && v4Address <= this.v4Ends[candidate];
+		}
+		
+		final long[] v6Address = this.v6Starts.length == 0 ? null : parseV6(address);
+		if(v6Address == null)
+			return false;
+		int low = 0, high = this.v6Starts.length / 2 - 1, candidate = -1;
+		while(low <= high) {
+			final int mid = (low + high) >>> 1;
+			if(compareUnsigned(this.v6Starts[2 * mid], this.v6Starts[2 * mid + 1], v6Address[0], v6Address[1]) <= 0) {
+				candidate = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return candidate >= 0 && compareUnsigned(v6Address[0], v6Address[1], this.v6Ends[2 * candidate], this.v6Ends[2 * candidate + 1]) <= 0;
+	}
+	
+	private static int compareUnsigned(final long high1, final long low1, final long high2, final long low2) {
+		final int rv = Long.compareUnsigned(high1, high2);
+		return rv != 0 ? rv : Long.compareUnsigned(low1, low2);
+	}
+	
+	/**
+	 * @param address An address in dotted decimal notation
+	 * @return The address as unsigned int or -1 if it isn't a valid IPv4 address
+	 */
+	static long parseV4(final String address) {
+		long rv = 0;
+		int octets = 0, value = -1;
+		for(int i = 0; i < address.length(); ++i) {
+			final char c = address.charAt(i);
+			if(c >= '0' && c <= '9') {
+				value = (value < 0 ? 0 : value * 10) + (c - '0');
+				if(value > 255)
+					return -1;
+			} else if(c == '.' && value >= 0 && octets < 3) {
+				rv = (rv << 8) | value;
+				++octets;
+				value = -1;
+			} else {
+				return -1;
+			}
+		}
+		if(octets != 3 || value < 0)
+			return -1;
+		return (rv << 8) | value;
+	}
+	
+	/**
+	 * @param address An IPv6 address
+	 * @return High and low 64 bits of the address or null if it isn't a valid IPv6 address
+	 */
+	static long[] parseV6(final String address) {
+		// Only strings containing a colon are parsed as literal, so this never does a name lookup
+		if(address.indexOf(':') < 0)
+			return null;
+		final byte[] bytes;
+		try {
+			bytes = InetAddress.getByName(address).getAddress();
+		} catch(UnknownHostException e) {
+			return null;
+		}
+		if(bytes.length != 16)
+			return null;
+		long high = 0, low = 0;
+		for(int i = 0; i < 8; ++i) {
+			high = (high << 8) | (bytes[i] & 0xFF);
+			low = (low << 8) | (bytes[i + 8] & 0xFF);
+		}
+		return new long[] {high, low};
+	}
+}
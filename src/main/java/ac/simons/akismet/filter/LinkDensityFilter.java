@@ -0,0 +1,129 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.filter;
+
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.PreFilter;
+
+/**
+ * Scores the number of links in the content of a comment. Plain urls and the urls of html 
+ * and BBCode links are counted, urls in the text of a link (auto-linked urls) are not counted again. 
+ * Comments with too many links, either absolute or relative to the length of the content, 
+ * are considered spam.
+ * @author Michael J. Simons
+ */
+public class LinkDensityFilter implements PreFilter {
+	/** Number of links from which on a comment is spam */
+	private final int maxLinks;
+	
+	/** Number of links per 1000 characters from which on a comment with at least two links is spam */
+	private final int maxLinksPerThousandCharacters;
+	
+	/**
+	 * Creates a filter that considers comments with 4 or more links or with more 
+	 * than one link per 100 characters as spam.
+	 */
+	public LinkDensityFilter() {
+		this(4, 10);
+	}
+	
+	/**
+	 * @param maxLinks Number of links from which on a comment is spam
+	 * @param maxLinksPerThousandCharacters Number of links per 1000 characters from which on a comment with at least two links is spam
+	 */
+	public LinkDensityFilter(final int maxLinks, final int maxLinksPerThousandCharacters) {
+		this.maxLinks = maxLinks;
+		this.maxLinksPerThousandCharacters = maxLinksPerThousandCharacters;
+	}
+
+	@Override
+	public Decision filter(final AkismetComment comment) {
+		final String content = comment.getCommentContent();
+		final int links = countLinks(content);
+		if(links >= this.maxLinks || links >= 2 && links * 1000L > (long) this.maxLinksPerThousandCharacters * content.length())
+			return Decision.SPAM;
+		return Decision.ASK_AKISMET;
+	}
+	
+	/**
+	 * @param content The content of a comment, may be null
+	 * @return The number of links in content, each link counted once
+	 */
+	static int countLinks(final String content) {
+		if(content == null)
+			return 0;
+		int rv = 0;
+		// End of the opening tag of a link, 0 outside of tags
+		char tagEnd = 0;
+		// Closing tag of a link, not null while in the text of a link
+		String closing = null;
+		String pendingClosing = null;
+		int i = 0;
+		while(i < content.length()) {
+			if(closing != null) {
+				if(startsAt(content, i, closing)) {
+					i += closing.length();
+					closing = null;
+				} else
+					++i;
+			} else if(startsAt(content, i, "http://") || startsAt(content, i, "https://")) {
+				++rv;
+				i += 7;
+			} else if(tagEnd != 0) {
+				if(content.charAt(i++) == tagEnd) {
+					tagEnd = 0;
+					closing = pendingClosing;
+				}
+			} else if(startsAt(content, i, "<a") && i + 2 < content.length() && Character.isWhitespace(content.charAt(i + 2))) {
+				tagEnd = '>';
+				pendingClosing = "</a>";
+				i += 3;
+			} else if(startsAt(content, i, "[url=")) {
+				tagEnd = ']';
+				pendingClosing = "[/url]";
+				i += 5;
+			} else if(startsAt(content, i, "[link=")) {
+				tagEnd = ']';
+				pendingClosing = "[/link]";
+				i += 6;
+			} else
+				++i;
+		}
+		return rv;
+	}
+	
+	private static boolean startsAt(final String content, final int position, final String prefix) {
+		return content.regionMatches(true, position, prefix, 0, prefix.length());
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.akismet.filter;
+
+import java.util.Collection;
+
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.PreFilter;
+
+/**
+ * Searches the content, author, author email and author url of a comment for a set of 
+ * blocklisted patterns (for example domains or keywords) in a single pass each, using an
+ * Aho-Corasick automaton. Matching is case insensitive.
+ * @author Michael J. Simons
+ */
+public class PatternFilter implements PreFilter {
+	private final AhoCorasick automaton;
+	
+	private final Decision decision;
+	
+	/**
+	 * Creates a filter that decides on spam if any pattern matches.
+	 * @param patterns The blocklisted patterns
+	 */
+	public PatternFilter(final Collection<String> patterns) {
+		this(patterns, Decision.SPAM);
+	}
+	
+	/**
+	 * @param patterns The patterns to search for
+	 * @param decision The decision if any pattern matches
+	 */
+	public PatternFilter(final Collection<String> patterns, final Decision decision) {
+		this.automaton = new AhoCorasick(patterns);
+		this.decision = decision;
+	}
+
+	@Override
+	public Decision filter(final AkismetComment comment) {
+		if(this.automaton.matches(comment.getCommentAuthorUrl()) || this.automaton.matches(comment.getCommentAuthorEmail()) 
+				|| this.automaton.matches(comment.getCommentAuthor()) || this.automaton.matches(comment.getCommentContent()))
+			return this.decision;
+		return Decision.ASK_AKISMET;
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.AkismetException;
+import ac.simons.akismet.Verdict;
+
+/**
+ * Runs the non-blocking api against a {@link LocalAkismetServer}.
+ * @author Michael J. Simons
+ */
+public class AkismetAsyncTest {
+	private LocalAkismetServer server;
+	private CloseableHttpClient httpClient;
+	private CloseableHttpAsyncClient httpAsyncClient;
+	private Akismet akismet;
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = new LocalAkismetServer();
+		this.httpClient = HttpClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient = HttpAsyncClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient.start();
+		this.akismet = new Akismet(httpClient, httpAsyncClient);
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.httpAsyncClient.close();
+		this.httpClient.close();
+		this.server.close();
+	}
+	
+	static AkismetComment newComment(final String author) {
+		final AkismetComment comment = new AkismetComment();
+		comment.setUserIp("80.138.52.114");
+		comment.setUserAgent("Mozilla/5.0 (Windows; U; Windows NT 6.1; en-US) AppleWebKit/534.10 (KHTML, like Gecko) Chrome/8.0.552.224 Safari/534.10");
+		comment.setPermalink("http://dailyfratze.de/marie/2011/1/3");
+		comment.setCommentType("comment");
+		comment.setCommentAuthor(author);
+		comment.setCommentContent("Scharfes Outfit :D");
+		return comment;
+	}
+	
+	@Test
+	public void verifyKeyAsync() {
+		Assert.assertTrue(akismet.verifyKeyAsync().join());
+	}
+	
+	@Test
+	public void commentCheckAsync() throws AkismetException {
+		Assert.assertFalse(akismet.commentCheckAsync(newComment("Michael")).join());
+		Assert.assertTrue(akismet.commentCheckAsync(newComment("viagra-test-123")).join());
+		Assert.assertEquals(akismet.commentCheck(newComment("viagra-test-123")), akismet.commentCheckAsync(newComment("viagra-test-123")).join());
+	}
+	
+	@Test
+	public void submitAsync() {
+		Assert.assertTrue(akismet.submitSpamAsync(newComment("viagra-test-123")).join());
+		Assert.assertTrue(akismet.submitHamAsync(newComment("Michael")).join());
+		server.setStatusCode(500);
+		Assert.assertFalse(akismet.submitHamAsync(newComment("Michael")).join());
+	}
+	
+	@Test
+	public void invalidCommentsFailTheFuture() {
+		try {
+			akismet.commentCheckAsync(new AkismetComment()).join();
+			Assert.fail();
+		} catch(CompletionException e) {
+			Assert.assertTrue(e.getCause() instanceof AkismetException);
+		}
+	}
+	
+	@Test
+	public void missingAsyncClientFailsTheFuture() {
+		try {
+			new Akismet(httpClient).commentCheckAsync(newComment("Michael")).join();
+			Assert.fail();
+		} catch(CompletionException e) {
+			Assert.assertTrue(e.getCause() instanceof AkismetException);
+		}
+	}
+	
+	@Test
+	public void commentCheckAll() throws AkismetException {
+		final List<AkismetComment> comments = new ArrayList<>();
+		for(int i = 0; i < 50; ++i)
+			comments.add(i % 10 == 9 ? new AkismetComment() : newComment(i % 2 == 0 ? "viagra-test-123" : "Michael"));
+		
+		for(Akismet instance : new Akismet[] {akismet, new Akismet(httpClient)}) {
+			instance.setApiKey("123test");
+			instance.setApiConsumer("http://test.com");
+			final List<Verdict> verdicts = instance.commentCheckAll(comments.iterator(), 4);
+			Assert.assertEquals(comments.size(), verdicts.size());
+			for(int i = 0; i < verdicts.size(); ++i) {
+				final Verdict verdict = verdicts.get(i);
+				Assert.assertSame(comments.get(i), verdict.getComment());
+				Assert.assertEquals(i % 10 != 9, verdict.isSuccessful());
+				Assert.assertEquals(i % 10 != 9 && i % 2 == 0, verdict.isSpam());
+			}
+		}
+	}
+}
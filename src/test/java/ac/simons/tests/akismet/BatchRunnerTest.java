@@ -0,0 +1,305 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.RequestScheduler;
+import ac.simons.akismet.RequestScheduler.Priority;
+import ac.simons.akismet.batch.ArchiveFormat;
+import ac.simons.akismet.batch.BatchRunner;
+import ac.simons.akismet.batch.Progress;
+
+/**
+ * @author Michael J. Simons
+ */
+public class BatchRunnerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private LocalAkismetServer server;
+	private CloseableHttpClient httpClient;
+	private CloseableHttpAsyncClient httpAsyncClient;
+	private Akismet akismet;
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = new LocalAkismetServer();
+		this.httpClient = HttpClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient = HttpAsyncClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient.start();
+		this.akismet = new Akismet(httpClient, httpAsyncClient);
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.httpAsyncClient.close();
+		this.httpClient.close();
+		this.server.close();
+	}
+	
+	private Path newJsonLinesArchive(final int records) throws IOException {
+		final List<String> lines = new ArrayList<>();
+		for(int i = 0; i < records; ++i)
+			lines.add(String.format("{\"id\": \"%d\", \"user_ip\": \"80.138.52.114\", \"user_agent\": \"Mozilla/5.0\", \"comment_author\": \"%s\", \"comment_content\": \"Hallo \\\"Welt\\\" \\u00e4\", \"comment_parent\": 4711}", i, i % 3 == 0 ? "viagra-test-123" : "Michael"));
+		final Path rv = folder.newFile("comments.jsonl").toPath();
+		Files.write(rv, lines, StandardCharsets.UTF_8);
+		return rv;
+	}
+	
+	private static void assertVerdicts(final Path output, final int records) throws IOException {
+		final List<String> verdicts = Files.readAllLines(output, StandardCharsets.UTF_8);
+		Assert.assertEquals(records, verdicts.size());
+		for(int i = 0; i < records; ++i)
+			Assert.assertEquals(String.format("{\"record\":%d,\"id\":\"%d\",\"spam\":%s,\"discard\":false}", i, i, i % 3 == 0), verdicts.get(i));
+	}
+	
+	@Test
+	public void jsonLinesArchivesAreChecked() throws Exception {
+		final Path input = newJsonLinesArchive(100);
+		final Path output = folder.getRoot().toPath().resolve("verdicts.jsonl");
+		final BatchRunner runner = new BatchRunner(akismet);
+		runner.setConcurrency(4);
+		
+		final Progress progress = runner.run(input, ArchiveFormat.of(input), output);
+		Assert.assertEquals(100, progress.getRecords());
+		Assert.assertEquals(34, progress.getSpam());
+		Assert.assertEquals(0, progress.getFailed());
+		Assert.assertEquals(100, server.getRequests());
+		assertVerdicts(output, 100);
+		Assert.assertFalse(Files.exists(BatchRunner.checkpointOf(output)));
+	}
+	
+	@Test
+	public void checksQueueBehindLiveChecks() throws Exception {
+		final RequestScheduler scheduler = new RequestScheduler(20, 1);
+		akismet.setRequestScheduler(scheduler);
+		final Path input = newJsonLinesArchive(20);
+		final Path output = folder.getRoot().toPath().resolve("verdicts.jsonl");
+		final BatchRunner runner = new BatchRunner(akismet);
+		runner.setConcurrency(20);
+		
+		final CompletableFuture<Progress> run = CompletableFuture.supplyAsync(() -> {
+			try {
+				return runner.run(input, ArchiveFormat.of(input), output);
+			} catch(Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		for(int i = 0; i < 100 && scheduler.getQueueDepth(Priority.BULK) < 10; ++i)
+			Thread.sleep(10);
+		Assert.assertTrue(scheduler.getQueueDepth(Priority.BULK) > 0);
+		final long start = System.nanoTime();
+		Assert.assertFalse(akismet.commentCheck(AkismetAsyncTest.newComment("Michael")));
+		// The live check waits for one token, not for the queued bulk checks
+		Assert.assertTrue(System.nanoTime() - start < 200_000_000L);
+		Assert.assertFalse(run.isDone());
+		
+		Assert.assertEquals(20, run.join().getRecords());
+		Assert.assertEquals(20, scheduler.getPermits(Priority.BULK));
+		Assert.assertEquals(1, scheduler.getPermits(Priority.LIVE));
+		assertVerdicts(output, 20);
+	}
+	
+	@Test
+	public void csvArchivesAreChecked() throws Exception {
+		final Path input = folder.newFile("comments.csv").toPath();
+		Files.write(input, (
+			"id,user_ip,user_agent,comment_author,comment_content\r\n" + 
+			"1,80.138.52.114,Mozilla/5.0,viagra-test-123,\"Buy, buy, buy\"\r\n" + 
+			"\r\n" +
+			"2,80.138.52.114,Mozilla/5.0,Michael,\"A \"\"quoted\"\"\r\nmultiline comment\"\r\n" +
+			"3,,,Michael,No ip\r\n"
+		).getBytes(StandardCharsets.UTF_8));
+		final Path output = folder.getRoot().toPath().resolve("verdicts.jsonl");
+		
+		final Progress progress = new BatchRunner(akismet).run(input, ArchiveFormat.of(input), output);
+		Assert.assertEquals(3, progress.getRecords());
+		Assert.assertEquals(1, progress.getFailed());
+		final List<String> verdicts = Files.readAllLines(output, StandardCharsets.UTF_8);
+		Assert.assertEquals("{\"record\":0,\"id\":\"1\",\"spam\":true,\"discard\":false}", verdicts.get(0));
+		Assert.assertEquals("{\"record\":1,\"id\":\"2\",\"spam\":false,\"discard\":false}", verdicts.get(1));
+		Assert.assertTrue(verdicts.get(2).startsWith("{\"record\":2,\"id\":\"3\",\"error\":"));
+	}
+	
+	@Test
+	public void unterminatedQuotesAreResynced() throws Exception {
+		final Path input = folder.newFile("comments.csv").toPath();
+		Files.write(input, (
+			"id,user_ip,user_agent,comment_author,comment_content\n" + 
+			"1,80.138.52.114,Mozilla/5.0,Michael,\"Two\nlines\"\n" + 
+			"2,80.138.52.114,Mozilla/5.0,Michael,\"A stray\nquote\nswallows\n" +
+			"3,80.138.52.114,Mozilla/5.0,Michael,Resynced\n" +
+			"4,80.138.52.114,Mozilla/5.0,Michael,\"Unterminated\n"
+		).getBytes(StandardCharsets.UTF_8));
+		final Path output = folder.getRoot().toPath().resolve("verdicts.jsonl");
+		
+		final BatchRunner runner = new BatchRunner(akismet);
+		runner.setMaxRecordLines(2);
+		final Progress progress = runner.run(input, ArchiveFormat.CSV, output);
+		Assert.assertEquals(6, progress.getRecords());
+		Assert.assertEquals(4, progress.getFailed());
+		final List<String> verdicts = Files.readAllLines(output, StandardCharsets.UTF_8);
+		Assert.assertEquals("{\"record\":0,\"id\":\"1\",\"spam\":false,\"discard\":false}", verdicts.get(0));
+		Assert.assertEquals("{\"record\":1,\"error\":\"Quoted value exceeds 2 lines or 1048576 characters\"}", verdicts.get(1));
+		Assert.assertEquals("{\"record\":4,\"id\":\"3\",\"spam\":false,\"discard\":false}", verdicts.get(4));
+		Assert.assertEquals("{\"record\":5,\"error\":\"Unterminated quoted value\"}", verdicts.get(5));
+	}
+	
+	@Test
+	public void malformedRecordsAreReported() throws Exception {
+		final Path input = folder.newFile("comments.jsonl").toPath();
+		Files.write(input, (
+			"{\"user_ip\": \"80.138.52.114\", \"user_agent\": \"Mozilla/5.0\", \"comment_author\": \"Michael\"}\n" + 
+			"{\"user_ip\": \"80.138.52.114\", \"nested\": {}}\n" + 
+			"not json\n"
+		).getBytes(StandardCharsets.UTF_8));
+		final Path output = folder.getRoot().toPath().resolve("verdicts.jsonl");
+		
+		final Progress progress = new BatchRunner(akismet).run(input, ArchiveFormat.JSON_LINES, output);
+		Assert.assertEquals(3, progress.getRecords());
+		Assert.assertEquals(2, progress.getFailed());
+		Assert.assertEquals(1, server.getRequests());
+		final List<String> verdicts = Files.readAllLines(output, StandardCharsets.UTF_8);
+		Assert.assertEquals("{\"record\":0,\"spam\":false,\"discard\":false}", verdicts.get(0));
+		Assert.assertEquals("{\"record\":1,\"error\":\"Nested value of nested is not supported\"}", verdicts.get(1));
+		Assert.assertEquals("{\"record\":2,\"error\":\"Expected '{' at position 0\"}", verdicts.get(2));
+	}
+	
+	@Test
+	public void crashedRunsAreResumed() throws Exception {
+		final Path input = newJsonLinesArchive(100);
+		final Path output = folder.getRoot().toPath().resolve("verdicts.jsonl");
+		
+		final BatchRunner crashing = new BatchRunner(akismet);
+		crashing.setConcurrency(4);
+		crashing.setCheckpointInterval(10);
+		crashing.setReportInterval(0);
+		crashing.setProgressListener(progress -> {
+			if(progress.getRecords() == 45)
+				throw new IllegalStateException("Crash");
+		});
+		try {
+			crashing.run(input, ArchiveFormat.JSON_LINES, output);
+			Assert.fail();
+		} catch(IllegalStateException e) {
+		}
+		final Properties checkpoint = new Properties();
+		try(InputStream in = Files.newInputStream(BatchRunner.checkpointOf(output))) {
+			checkpoint.load(in);
+		}
+		Assert.assertEquals("40", checkpoint.getProperty("records"));
+		final int requestsBeforeCrash = server.getRequests();
+		
+		final BatchRunner runner = new BatchRunner(akismet);
+		runner.setConcurrency(4);
+		final Progress progress = runner.run(input, ArchiveFormat.JSON_LINES, output);
+		Assert.assertEquals(100, progress.getRecords());
+		Assert.assertEquals(34, progress.getSpam());
+		// Checks still in flight when crashing may arrive late
+		Assert.assertTrue(server.getRequests() - requestsBeforeCrash < 100);
+		assertVerdicts(output, 100);
+	}
+	
+	@Test
+	public void unavailableChecksAreNotCheckpointed() throws Exception {
+		final List<String> lines = new ArrayList<>();
+		for(int i = 0; i < 10; ++i)
+			lines.add(String.format("{\"id\": \"%d\", \"user_ip\": \"80.138.52.114\", \"user_agent\": \"Mozilla/5.0\", \"comment_author\": \"Michael\", \"comment_content\": \"%s\"}", i, i == 5 ? "slow" : "fast"));
+		final Path input = folder.newFile("comments.jsonl").toPath();
+		Files.write(input, lines, StandardCharsets.UTF_8);
+		final Path output = folder.getRoot().toPath().resolve("verdicts.jsonl");
+		final AtomicBoolean slow = new AtomicBoolean(true);
+		server.setResponder(parameters -> {
+			if(slow.get() && "slow".equals(parameters.get("comment_content"))) {
+				try {
+					Thread.sleep(500);
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return "false";
+		});
+		// The default fallback verdict is ham, but it must not be written
+		akismet.setLatencyBudget(100);
+		
+		final BatchRunner runner = new BatchRunner(akismet);
+		runner.setConcurrency(2);
+		runner.setCheckpointInterval(1);
+		Progress progress = runner.run(input, ArchiveFormat.JSON_LINES, output);
+		Assert.assertEquals(10, progress.getRecords());
+		Assert.assertEquals(1, progress.getFailed());
+		List<String> verdicts = Files.readAllLines(output, StandardCharsets.UTF_8);
+		Assert.assertEquals("{\"record\":5,\"id\":\"5\",\"error\":\"Akismet is unavailable\"}", verdicts.get(5));
+		final Properties checkpoint = new Properties();
+		try(InputStream in = Files.newInputStream(BatchRunner.checkpointOf(output))) {
+			checkpoint.load(in);
+		}
+		Assert.assertEquals("5", checkpoint.getProperty("records"));
+		
+		slow.set(false);
+		final int requests = server.getRequests();
+		progress = runner.run(input, ArchiveFormat.JSON_LINES, output);
+		Assert.assertEquals(10, progress.getRecords());
+		Assert.assertEquals(0, progress.getFailed());
+		Assert.assertEquals(5, server.getRequests() - requests);
+		verdicts = Files.readAllLines(output, StandardCharsets.UTF_8);
+		Assert.assertEquals(10, verdicts.size());
+		Assert.assertEquals("{\"record\":5,\"id\":\"5\",\"spam\":false,\"discard\":false}", verdicts.get(5));
+		Assert.assertFalse(Files.exists(BatchRunner.checkpointOf(output)));
+	}
+}
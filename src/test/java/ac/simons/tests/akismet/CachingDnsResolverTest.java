@@ -0,0 +1,214 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.conn.DnsResolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+import ac.simons.akismet.CachingDnsResolver;
+
+/**
+ * @author Michael J. Simons
+ */
+public class CachingDnsResolverTest {
+	private final AtomicInteger lookups = new AtomicInteger();
+	
+	private final AtomicBoolean failing = new AtomicBoolean();
+	
+	/** Answers 10.0.0.n for the n-th lookup */
+	private final DnsResolver resolver = host -> {
+		if(failing.get())
+			throw new UnknownHostException(host);
+		return new InetAddress[] {InetAddress.getByAddress(host, new byte[] {10, 0, 0, (byte) lookups.incrementAndGet()})};
+	};
+	
+	private static InetAddress address(final int n) throws UnknownHostException {
+		return InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) n});
+	}
+	
+	private interface Wait {
+		void await() throws InterruptedException;
+	}
+	
+	/** The delegate may only throw an {@link UnknownHostException} */
+	private static void uninterruptibly(final Wait wait) {
+		try {
+			wait.await();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	@Test
+	public void addressesAreCached() throws Exception {
+		final CachingDnsResolver cache = new CachingDnsResolver(resolver, 60_000);
+		Assert.assertEquals(address(1), cache.resolve("123test.rest.akismet.com")[0]);
+		Assert.assertEquals(address(1), cache.resolve("123TEST.rest.akismet.com")[0]);
+		Assert.assertEquals(address(2), cache.resolve("rest.akismet.com")[0]);
+		Assert.assertEquals(2, lookups.get());
+		
+		cache.clear();
+		Assert.assertEquals(address(3), cache.resolve("rest.akismet.com")[0]);
+	}
+	
+	@Test
+	public void addressesAreRefreshedBeforeExpiry() throws Exception {
+		final CachingDnsResolver cache = new CachingDnsResolver(resolver, 500);
+		Assert.assertEquals(address(1), cache.resolve("rest.akismet.com")[0]);
+		Thread.sleep(450);
+		// Answered from the cache while the refresh runs in the background
+		Assert.assertEquals(address(1), cache.resolve("rest.akismet.com")[0]);
+		Thread.sleep(100);
+		Assert.assertEquals(2, lookups.get());
+		Assert.assertEquals(address(2), cache.resolve("rest.akismet.com")[0]);
+		Assert.assertEquals(2, lookups.get());
+	}
+	
+	@Test
+	public void unusedAddressesAreEvicted() throws Exception {
+		final CachingDnsResolver cache = new CachingDnsResolver(resolver, 50);
+		Assert.assertEquals(address(1), cache.resolve("unused.akismet.com")[0]);
+		Thread.sleep(50 * (CachingDnsResolver.EVICTION_TTLS + 1));
+		Assert.assertEquals(address(2), cache.resolve("rest.akismet.com")[0]);
+		// Resolved again on the calling thread instead of returning the expired addresses
+		Assert.assertEquals(address(3), cache.resolve("unused.akismet.com")[0]);
+		Assert.assertEquals(3, lookups.get());
+	}
+	
+	@Test
+	public void lastKnownAddressesAreUsedWhenResolutionFails() throws Exception {
+		final CachingDnsResolver cache = new CachingDnsResolver(resolver, 100);
+		Assert.assertEquals(address(1), cache.resolve("rest.akismet.com")[0]);
+		failing.set(true);
+		Thread.sleep(150);
+		Assert.assertEquals(address(1), cache.resolve("rest.akismet.com")[0]);
+		try {
+			cache.resolve("other.akismet.com");
+			Assert.fail("Unknown host was resolved");
+		} catch(UnknownHostException e) {
+		}
+	}
+	
+	@Test
+	public void concurrentLookupsOfAHostAreCombined() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CachingDnsResolver cache = new CachingDnsResolver(host -> {
+			uninterruptibly(() -> release.await());
+			return resolver.resolve(host);
+		}, 60_000);
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<InetAddress[]>> results = new ArrayList<>();
+			for(int i = 0; i < 8; ++i)
+				results.add(executor.submit(() -> cache.resolve("rest.akismet.com")));
+			Thread.sleep(100);
+			release.countDown();
+			for(Future<InetAddress[]> result : results)
+				Assert.assertEquals(address(1), result.get(1, TimeUnit.SECONDS)[0]);
+		} finally {
+			executor.shutdownNow();
+		}
+		Assert.assertEquals(1, lookups.get());
+	}
+	
+	@Test
+	public void expiredAddressesAreUsedWhileRefreshing() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		final CachingDnsResolver cache = new CachingDnsResolver(host -> {
+			if(attempts.incrementAndGet() > 1)
+				uninterruptibly(() -> Thread.sleep(300));
+			return resolver.resolve(host);
+		}, 100);
+		Assert.assertEquals(address(1), cache.resolve("rest.akismet.com")[0]);
+		Thread.sleep(150);
+		final long start = System.nanoTime();
+		for(int i = 0; i < 10; ++i)
+			Assert.assertEquals(address(1), cache.resolve("rest.akismet.com")[0]);
+		Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(200));
+		Thread.sleep(400);
+		Assert.assertEquals(2, attempts.get());
+		Assert.assertEquals(address(2), cache.resolve("rest.akismet.com")[0]);
+	}
+	
+	@Test
+	public void failedRefreshesExtendTheAddresses() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		final CachingDnsResolver cache = new CachingDnsResolver(host -> {
+			attempts.incrementAndGet();
+			return resolver.resolve(host);
+		}, 500);
+		Assert.assertEquals(address(1), cache.resolve("rest.akismet.com")[0]);
+		failing.set(true);
+		Thread.sleep(550);
+		Assert.assertEquals(address(1), cache.resolve("rest.akismet.com")[0]);
+		Thread.sleep(100);
+		Assert.assertEquals(2, attempts.get());
+		// Kept for another time to live without trying again
+		for(int i = 0; i < 10; ++i)
+			Assert.assertEquals(address(1), cache.resolve("rest.akismet.com")[0]);
+		Assert.assertEquals(2, attempts.get());
+		
+		failing.set(false);
+		Thread.sleep(350);
+		cache.resolve("rest.akismet.com");
+		Thread.sleep(100);
+		Assert.assertEquals(3, attempts.get());
+		Assert.assertEquals(address(2), cache.resolve("rest.akismet.com")[0]);
+	}
+	
+	@Test
+	public void alternativesAreAppended() throws Exception {
+		final CachingDnsResolver cache = new CachingDnsResolver(resolver, 60_000);
+		cache.addAlternatives("rest.akismet.com", address(100), address(101));
+		Assert.assertArrayEquals(new InetAddress[] {address(1), address(100), address(101)}, cache.resolve("rest.akismet.com"));
+		
+		failing.set(true);
+		cache.addAlternatives("rest.akismet.com", address(1));
+		Assert.assertArrayEquals(new InetAddress[] {address(100), address(101), address(1)}, cache.resolve("rest.akismet.com"));
+	}
+}
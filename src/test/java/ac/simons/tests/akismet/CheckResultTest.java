@@ -0,0 +1,144 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import static ac.simons.tests.akismet.AkismetAsyncTest.newComment;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.CheckResult;
+import ac.simons.akismet.Verdict;
+
+/**
+ * @author Michael J. Simons
+ */
+public class CheckResultTest {
+	private LocalAkismetServer server;
+	private CloseableHttpClient httpClient;
+	private CloseableHttpAsyncClient httpAsyncClient;
+	private Akismet akismet;
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = new LocalAkismetServer();
+		// A single connection, so that every unconsumed response blocks the next call
+		this.httpClient = HttpClients.custom()
+			.setProxy(server.getProxy())
+			.setMaxConnTotal(1).setMaxConnPerRoute(1)
+			.setDefaultRequestConfig(RequestConfig.custom().setConnectionRequestTimeout(1000).build())
+			.build();
+		this.httpAsyncClient = HttpAsyncClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient.start();
+		this.akismet = new Akismet(httpClient, httpAsyncClient);
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.httpAsyncClient.close();
+		this.httpClient.close();
+		this.server.close();
+	}
+	
+	@Test
+	public void discardAndHeadersAreReported() throws Exception {
+		final Map<String, String> headers = new HashMap<>();
+		headers.put("X-akismet-pro-tip", "discard");
+		headers.put("X-akismet-guid", "4711");
+		headers.put("X-Other", "ignored");
+		server.setHeaders(headers);
+		
+		final CheckResult spam = akismet.commentCheckDetailed(newComment("viagra-test-123"));
+		Assert.assertTrue(spam.isSpam());
+		Assert.assertTrue(spam.isDiscard());
+		Assert.assertEquals("discard", spam.getProTip());
+		Assert.assertEquals("4711", spam.getHeaders().get("x-akismet-guid"));
+		Assert.assertFalse(spam.getHeaders().containsKey("X-Other"));
+		Assert.assertTrue(akismet.commentCheckDetailedAsync(newComment("viagra-test-123")).join().isDiscard());
+		
+		final CheckResult ham = akismet.commentCheckDetailed(newComment("Michael"));
+		Assert.assertFalse(ham.isSpam());
+		Assert.assertFalse(ham.isDiscard());
+		
+		final List<Verdict> verdicts = akismet.commentCheckAll(Arrays.asList(newComment("viagra-test-123"), newComment("Michael")));
+		Assert.assertTrue(verdicts.get(0).isDiscard());
+		Assert.assertFalse(verdicts.get(1).isDiscard());
+	}
+	
+	@Test
+	public void resultsWithoutHeadersAreShared() throws Exception {
+		Assert.assertSame(CheckResult.SPAM, akismet.commentCheckDetailed(newComment("viagra-test-123")));
+		Assert.assertSame(CheckResult.HAM, akismet.commentCheckDetailed(newComment("Michael")));
+		akismet.setEnabled(false);
+		Assert.assertSame(CheckResult.HAM, akismet.commentCheckDetailed(newComment("viagra-test-123")));
+	}
+	
+	@Test
+	public void responsesAreConsumed() throws Exception {
+		final char[] garbage = new char[256 * 1024];
+		Arrays.fill(garbage, 'x');
+		server.setResponder(parameters -> " true\n" + new String(garbage));
+		for(int i = 0; i < 5; ++i) {
+			Assert.assertFalse(akismet.commentCheck(newComment("viagra-test-123")));
+			Assert.assertFalse(akismet.verifyKey());
+			Assert.assertTrue(akismet.submitSpam(newComment("viagra-test-123")));
+		}
+		server.setStatusCode(500);
+		for(int i = 0; i < 5; ++i)
+			Assert.assertFalse(akismet.commentCheck(newComment("viagra-test-123")));
+		
+		server.setStatusCode(200);
+		server.setResponder(parameters -> "  true \r\n");
+		Assert.assertTrue(akismet.commentCheck(newComment("viagra-test-123")));
+		server.setResponder(parameters -> "truex");
+		Assert.assertFalse(akismet.commentCheck(newComment("viagra-test-123")));
+		server.setResponder(parameters -> "");
+		Assert.assertFalse(akismet.commentCheck(newComment("viagra-test-123")));
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import static ac.simons.tests.akismet.AkismetAsyncTest.newComment;
+
+import java.util.concurrent.CompletionException;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetException;
+import ac.simons.akismet.AkismetUnavailableException;
+import ac.simons.akismet.CircuitBreaker;
+import ac.simons.akismet.FallbackVerdict;
+
+/**
+ * @author Michael J. Simons
+ */
+public class CircuitBreakerTest {
+	private LocalAkismetServer server;
+	private CloseableHttpClient httpClient;
+	private CloseableHttpAsyncClient httpAsyncClient;
+	private Akismet akismet;
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = new LocalAkismetServer();
+		this.httpClient = HttpClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient = HttpAsyncClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient.start();
+		this.akismet = new Akismet(httpClient, httpAsyncClient);
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.httpAsyncClient.close();
+		this.httpClient.close();
+		this.server.close();
+	}
+	
+	@Test
+	public void breakerOpensAndCloses() throws Exception {
+		final CircuitBreaker breaker = new CircuitBreaker(10, 0.5, 1.0, 1000, 200, 2);
+		akismet.setCircuitBreaker(breaker);
+		akismet.setFallbackVerdict(FallbackVerdict.SPAM);
+		
+		server.setStatusCode(500);
+		for(int i = 0; i < 10; ++i)
+			Assert.assertFalse(akismet.commentCheck(newComment("Michael")));
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		
+		server.setStatusCode(200);
+		final int requests = server.getRequests();
+		Assert.assertTrue(akismet.commentCheck(newComment("Michael")));
+		Assert.assertTrue(akismet.commentCheckAsync(newComment("Michael")).join());
+		Assert.assertEquals(requests, server.getRequests());
+		
+		Thread.sleep(250);
+		Assert.assertFalse(akismet.commentCheck(newComment("Michael")));
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		Assert.assertFalse(akismet.commentCheck(newComment("Michael")));
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+	
+	@Test
+	public void onlyTrialCallsCloseTheBreaker() throws Exception {
+		final CircuitBreaker breaker = new CircuitBreaker(2, 0.5, 1.0, 1000, 50, 1);
+		final CircuitBreaker.Permit beforeOpening = breaker.tryAcquire();
+		Assert.assertFalse(beforeOpening.isTrial());
+		breaker.tryAcquire().record(true, 0);
+		breaker.tryAcquire().record(true, 0);
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Assert.assertNull(breaker.tryAcquire());
+		
+		Thread.sleep(100);
+		final CircuitBreaker.Permit trial = breaker.tryAcquire();
+		Assert.assertTrue(trial.isTrial());
+		Assert.assertNull(breaker.tryAcquire());
+		beforeOpening.record(false, 0);
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		
+		// A released trial permit can be used by another call
+		trial.release();
+		trial.record(false, 0);
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.tryAcquire().record(false, 0);
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+	
+	@Test
+	public void cancelledTrialsReturnTheirPermit() throws Exception {
+		final CircuitBreaker breaker = new CircuitBreaker(2, 0.5, 1.0, 1000, 50, 1);
+		akismet.setCircuitBreaker(breaker);
+		akismet.setFallbackVerdict(FallbackVerdict.SPAM);
+		
+		server.setStatusCode(500);
+		akismet.commentCheck(newComment("Michael"));
+		akismet.commentCheck(newComment("Michael"));
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		
+		Thread.sleep(100);
+		server.setStatusCode(200);
+		server.setDelay(500);
+		Assert.assertTrue(akismet.commentCheckAsync(newComment("Michael")).cancel(true));
+		server.setDelay(0);
+		Assert.assertFalse(akismet.commentCheck(newComment("Michael")));
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+	
+	@Test
+	public void latencyBudgetIsApplied() throws Exception {
+		server.setDelay(500);
+		akismet.setLatencyBudget(100);
+		
+		long start = System.nanoTime();
+		Assert.assertFalse(akismet.commentCheck(newComment("viagra-test-123")));
+		Assert.assertTrue(System.nanoTime() - start < 400_000_000L);
+		final Akismet blocking = new Akismet(httpClient);
+		blocking.setApiKey("123test");
+		blocking.setApiConsumer("http://test.com");
+		blocking.setLatencyBudget(100);
+		Assert.assertFalse(blocking.commentCheck(newComment("viagra-test-123")));
+		
+		akismet.setFallbackVerdict(FallbackVerdict.UNKNOWN);
+		try {
+			akismet.commentCheckAsync(newComment("viagra-test-123")).join();
+			Assert.fail();
+		} catch(CompletionException e) {
+			Assert.assertTrue(e.getCause() instanceof AkismetUnavailableException);
+		}
+		try {
+			akismet.commentCheck(newComment("viagra-test-123"));
+			Assert.fail();
+		} catch(AkismetUnavailableException e) {
+		}
+	}
+	
+	@Test
+	public void otherFailuresAreNotMasked() {
+		akismet.setCircuitBreaker(new CircuitBreaker());
+		akismet.setFallbackVerdict(FallbackVerdict.SPAM);
+		try {
+			akismet.commentCheck(new ac.simons.akismet.AkismetComment());
+			Assert.fail();
+		} catch(AkismetException e) {
+			Assert.assertFalse(e instanceof AkismetUnavailableException);
+		}
+	}
+	
+	@Test
+	public void plainTimeoutsAreNotMasked() throws Exception {
+		server.setDelay(500);
+		final RequestConfig requestConfig = RequestConfig.custom().setSocketTimeout(100).build();
+		try(CloseableHttpClient timingOut = HttpClients.custom().setProxy(server.getProxy()).setDefaultRequestConfig(requestConfig).build()) {
+			final Akismet blocking = new Akismet(timingOut);
+			blocking.setApiKey("123test");
+			blocking.setApiConsumer("http://test.com");
+			try {
+				blocking.commentCheck(newComment("viagra-test-123"));
+				Assert.fail();
+			} catch(AkismetUnavailableException e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.AkismetException;
+import ac.simons.akismet.CompactComment;
+import ac.simons.akismet.ConnectionPool;
+
+/**
+ * @author Michael J. Simons
+ */
+public class CompactCommentTest {
+	private static final String[] VALUES = {
+		"Michael", "Hallo Welt!", "a+b=c&d", "~!@#$%^&*()_-.'\"<>/?\\|", "Grüße aus Aachen", "日本語", 
+		"Emoji 😀", "unpaired \uD800 high", "unpaired \uDC00 low", "end \uD83D", "\t\r\n", "\u007F\u0080߿ࠀ￿", " ", ""
+	};
+	
+	private static AkismetComment newComment(final String value) {
+		final AkismetComment rv = new AkismetComment();
+		rv.setUserIp("127.0.0.1");
+		rv.setUserAgent("Mozilla " + value);
+		rv.setReferrer(value);
+		rv.setPermalink(value);
+		rv.setCommentType(value);
+		rv.setCommentAuthor(value);
+		rv.setCommentAuthorEmail(value);
+		rv.setCommentAuthorUrl(value);
+		rv.setCommentContent(value);
+		return rv;
+	}
+	
+	@Test
+	public void formAndFingerprintMatchTheBean() throws AkismetException {
+		for(String value : VALUES) {
+			final AkismetComment comment = newComment(value);
+			final String blog = "http://test.com/" + value;
+			for(CompactComment compact : new CompactComment[] {CompactComment.of(comment), CompactComment.of(comment, blog), CompactComment.of(comment, "http://other.com")}) {
+				Assert.assertArrayEquals(value, comment.toForm(blog), compact.toForm(blog));
+				Assert.assertEquals(value, comment.fingerprint(blog), compact.fingerprint(blog));
+				Assert.assertEquals(value, comment.fingerprint(null), compact.fingerprint(null));
+				Assert.assertEquals(value, comment.fingerprint(blog), compact.fingerprint(blog));
+			}
+		}
+	}
+	
+	@Test
+	public void missingValuesAreHandledLikeTheBean() throws AkismetException {
+		final AkismetComment comment = new AkismetComment();
+		comment.setUserIp("127.0.0.1");
+		comment.setUserAgent("");
+		Assert.assertArrayEquals(comment.toForm(null), CompactComment.of(comment).toForm(null));
+		Assert.assertEquals(comment.fingerprint(null), CompactComment.of(comment).fingerprint(null));
+		
+		try {
+			CompactComment.builder().userIp("127.0.0.1").build().toForm("http://test.com");
+			Assert.fail("Missing user agent must be rejected");
+		} catch(AkismetException e) {
+		}
+		Assert.assertEquals(new AkismetComment().fingerprint("http://test.com"), CompactComment.builder().build().fingerprint("http://test.com"));
+	}
+	
+	@Test
+	public void valuesAreKeptAndShared() {
+		final CompactComment first = CompactComment.builder()
+			.userIp("127.0.0.1")
+			.userAgent("Mozilla/5.0 (Windows NT 10.0; Win64; x64)")
+			.permalink("http://test.com/post/1")
+			.commentType("comment")
+			.commentAuthor("Michael")
+			.commentContent("Grüße aus Aachen")
+			.blog("http://test.com")
+			.build();
+		final CompactComment second = CompactComment.of(newComment("x"), "http://test.com");
+		
+		Assert.assertSame(first, first.withBlog("http://test.com"));
+		Assert.assertNotSame(first, first.withBlog("http://other.com"));
+		Assert.assertEquals("Grüße aus Aachen", first.getCommentContent());
+		Assert.assertEquals("Michael", first.getCommentAuthor());
+		Assert.assertNull(first.getReferrer());
+		Assert.assertSame(first.getBlog(), second.getBlog());
+		Assert.assertSame(first.getUserAgent(), first.withBlog("http://other.com").getUserAgent());
+		Assert.assertEquals(first, CompactComment.of(first.toAkismetComment(), "http://test.com"));
+		Assert.assertNotEquals(first, second);
+	}
+	
+	@Test
+	public void compactCommentsAreConverted() throws AkismetException {
+		final AkismetComment comment = newComment("x");
+		final CompactComment compact = CompactComment.of(comment, "http://test.com");
+		final AkismetComment copy = compact.toAkismetComment();
+		
+		Assert.assertNotSame(copy, compact.toAkismetComment());
+		Assert.assertArrayEquals(comment.toForm("http://test.com"), copy.toForm("http://test.com"));
+		copy.setCommentContent("changed");
+		Assert.assertEquals("x", compact.getCommentContent());
+		Assert.assertEquals(compact, CompactComment.of(compact.toAkismetComment(), "http://test.com"));
+	}
+	
+	@Test
+	public void compactCommentsAreSerializable() throws Exception {
+		final CompactComment comment = CompactComment.of(newComment("Grüße"), "http://test.com");
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try(ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+			out.writeObject(comment);
+		}
+		try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buffer.toByteArray()))) {
+			final CompactComment copy = (CompactComment) in.readObject();
+			Assert.assertEquals(comment, copy);
+			Assert.assertEquals(comment.fingerprint("http://test.com"), copy.fingerprint("http://test.com"));
+		}
+	}
+	
+	@Test
+	public void compactCommentsCanBeChecked() throws Exception {
+		try(
+			LocalAkismetServer server = new LocalAkismetServer();
+			ConnectionPool pool = new ConnectionPool(4, 30_000, 10_000, server.getProxy())
+		) {
+			final Akismet akismet = new Akismet(pool.getHttpClient(), pool.getHttpAsyncClient());
+			akismet.setApiKey("123test");
+			akismet.setApiConsumer("http://test.com");
+			final AkismetComment comment = CompactComment.of(AkismetAsyncTest.newComment("viagra-test-123"), akismet.getApiConsumer()).toAkismetComment();
+			Assert.assertTrue(akismet.commentCheck(comment));
+			Assert.assertTrue(akismet.commentCheckAsync(comment).join());
+		}
+	}
+}
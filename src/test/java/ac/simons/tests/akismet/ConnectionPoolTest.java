@@ -0,0 +1,110 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import static ac.simons.tests.akismet.AkismetAsyncTest.newComment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.ConnectionPool;
+
+/**
+ * @author Michael J. Simons
+ */
+public class ConnectionPoolTest {
+	private LocalAkismetServer server;
+	private ConnectionPool pool;
+	private Akismet akismet;
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = new LocalAkismetServer();
+		this.pool = new ConnectionPool(4, 30_000, 300, server.getProxy());
+		this.akismet = new Akismet(pool.getHttpClient(), pool.getHttpAsyncClient());
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.pool.close();
+		this.server.close();
+	}
+	
+	@Test
+	public void connectionsAreReused() throws Exception {
+		for(int i = 0; i < 10; ++i)
+			Assert.assertTrue(akismet.commentCheck(newComment("viagra-test-123")));
+		Assert.assertEquals(0, pool.getStats().getLeased());
+		Assert.assertEquals(1, pool.getStats().getAvailable());
+	}
+	
+	@Test
+	public void concurrentCallsAreBoundedByRoute() throws Exception {
+		server.setDelay(50);
+		final List<CompletableFuture<Boolean>> checks = new ArrayList<>();
+		for(int i = 0; i < 12; ++i)
+			checks.add(akismet.commentCheckAsync(newComment("Michael")));
+		Thread.sleep(20);
+		Assert.assertEquals(4, pool.getAsyncStats().getLeased());
+		checks.forEach(check -> Assert.assertFalse(check.join()));
+		
+		final List<AkismetComment> comments = new ArrayList<>();
+		for(int i = 0; i < 12; ++i)
+			comments.add(newComment("Michael"));
+		Assert.assertEquals(12, akismet.commentCheckAll(comments).size());
+		Assert.assertEquals(0, pool.getAsyncStats().getLeased());
+		Assert.assertTrue(pool.getAsyncStats().getAvailable() <= 4);
+	}
+	
+	@Test
+	public void idleConnectionsAreEvicted() throws Exception {
+		Assert.assertTrue(akismet.commentCheck(newComment("viagra-test-123")));
+		Assert.assertTrue(akismet.commentCheckAsync(newComment("viagra-test-123")).join());
+		Assert.assertEquals(1, pool.getStats().getAvailable());
+		Assert.assertEquals(1, pool.getAsyncStats().getAvailable());
+		Thread.sleep(1000);
+		Assert.assertEquals(0, pool.getStats().getAvailable());
+		Assert.assertEquals(0, pool.getAsyncStats().getAvailable());
+	}
+}
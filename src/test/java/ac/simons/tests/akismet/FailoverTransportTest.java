@@ -0,0 +1,231 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import static ac.simons.tests.akismet.AkismetAsyncTest.newComment;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.ApacheTransport;
+import ac.simons.akismet.CachingDnsResolver;
+import ac.simons.akismet.ConnectionPool;
+import ac.simons.akismet.FailoverTransport;
+import ac.simons.akismet.FailoverTransport.Endpoint;
+import ac.simons.akismet.Transport;
+import ac.simons.akismet.TransportRequest;
+import ac.simons.akismet.TransportResponse;
+
+/**
+ * @author Michael J. Simons
+ */
+public class FailoverTransportTest {
+	private LocalAkismetServer first;
+	private LocalAkismetServer second;
+	private ConnectionPool pool;
+	private FailoverTransport transport;
+	private Akismet akismet;
+	private String firstEndpoint;
+	private String secondEndpoint;
+	
+	@Before
+	public void setup() throws Exception {
+		this.first = new LocalAkismetServer();
+		this.second = new LocalAkismetServer();
+		// All endpoints are served locally, they only differ by port
+		final CachingDnsResolver resolver = new CachingDnsResolver(host -> new InetAddress[] {InetAddress.getLoopbackAddress()}, 60_000);
+		this.pool = new ConnectionPool(8, 30_000, 10_000, null, resolver);
+		this.firstEndpoint = "first.test:" + first.getProxy().getPort();
+		this.secondEndpoint = "second.test:" + second.getProxy().getPort();
+		this.transport = new FailoverTransport(new ApacheTransport(pool.getHttpClient(), pool.getHttpAsyncClient()), Arrays.asList(firstEndpoint, secondEndpoint), 3, 60_000);
+		this.akismet = new Akismet(transport);
+		this.akismet.setApiEndpoint(firstEndpoint);
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.pool.close();
+		this.first.close();
+		this.second.close();
+	}
+	
+	@Test
+	public void fastestEndpointIsPreferred() throws Exception {
+		first.setDelay(30);
+		for(int i = 0; i < 40; ++i)
+			Assert.assertTrue(akismet.commentCheck(newComment("viagra-test-123")));
+		for(int i = 0; i < 40; ++i)
+			Assert.assertTrue(akismet.commentCheckAsync(newComment("viagra-test-123")).join());
+		
+		Assert.assertEquals(80, first.getRequests() + second.getRequests());
+		Assert.assertTrue(second.getRequests() > 70);
+		final Endpoint slow = transport.getEndpoints().get(0);
+		final Endpoint fast = transport.getEndpoints().get(1);
+		Assert.assertTrue(slow.getLatency() > fast.getLatency());
+		Assert.assertFalse(slow.isEjected());
+		Assert.assertEquals(0.0, fast.getErrorRate(), 0.0);
+	}
+	
+	@Test
+	public void failingEndpointsAreEjected() throws Exception {
+		first.setStatusCode(503);
+		second.setDelay(20);
+		for(int i = 0; i < 20; ++i)
+			akismet.commentCheck(newComment("Michael"));
+		
+		final Endpoint failing = transport.getEndpoints().get(0);
+		Assert.assertTrue(failing.isEjected());
+		Assert.assertTrue(failing.getErrorRate() > 0.4);
+		Assert.assertEquals(3, first.getRequests());
+		Assert.assertEquals(17, second.getRequests());
+	}
+	
+	@Test
+	public void unreachableEndpointsAreSkipped() throws Exception {
+		first.close();
+		for(int i = 0; i < 5; ++i) {
+			Assert.assertTrue(akismet.commentCheck(newComment("viagra-test-123")));
+			Assert.assertTrue(akismet.commentCheckAsync(newComment("viagra-test-123")).join());
+		}
+		Assert.assertEquals(10, second.getRequests());
+		Assert.assertTrue(transport.getEndpoints().get(0).isEjected());
+		
+		second.close();
+		try {
+			akismet.verifyKey();
+			Assert.fail("Call succeeded without endpoint");
+		} catch(Exception e) {
+			Assert.assertTrue(e.getMessage().contains("refused"));
+		}
+	}
+	
+	@Test
+	public void retriesGetTheTimeLeft() throws Exception {
+		final List<Long> timeouts = new CopyOnWriteArrayList<>();
+		final FailoverTransport failover = new FailoverTransport(slowlyRefusing(first.getProxy().getPort(), timeouts), Arrays.asList(firstEndpoint, secondEndpoint), 3, 60_000);
+		final URI uri = URI.create("http://123test." + firstEndpoint + "/1.1/comment-check");
+		final byte[] form = newComment("viagra-test-123").toForm("http://test.com");
+		
+		try(TransportResponse response = failover.execute(new TransportRequest(uri, form, "test", 1_000))) {
+			Assert.assertEquals(200, response.getStatusCode());
+		}
+		try(TransportResponse response = failover.executeAsync(new TransportRequest(uri, form, "test", 1_000)).join()) {
+			Assert.assertEquals(200, response.getStatusCode());
+		}
+		Assert.assertEquals(4, timeouts.size());
+		for(int i = 0; i < 4; i += 2) {
+			Assert.assertEquals(1_000, timeouts.get(i).longValue());
+			Assert.assertTrue(timeouts.get(i + 1) > 0 && timeouts.get(i + 1) <= 800);
+		}
+		Assert.assertEquals(2, second.getRequests());
+	}
+	
+	@Test
+	public void expiredRequestsAreNotRetried() throws Exception {
+		final List<Long> timeouts = new CopyOnWriteArrayList<>();
+		final FailoverTransport failover = new FailoverTransport(slowlyRefusing(first.getProxy().getPort(), timeouts), Arrays.asList(firstEndpoint, secondEndpoint), 3, 60_000);
+		final URI uri = URI.create("http://123test." + firstEndpoint + "/1.1/comment-check");
+		final byte[] form = newComment("viagra-test-123").toForm("http://test.com");
+		
+		try {
+			failover.execute(new TransportRequest(uri, form, "test", 100));
+			Assert.fail("Expired request was retried");
+		} catch(ConnectException e) {
+		}
+		try {
+			failover.executeAsync(new TransportRequest(uri, form, "test", 100)).join();
+			Assert.fail("Expired request was retried");
+		} catch(CompletionException e) {
+			Assert.assertTrue(e.getCause() instanceof ConnectException);
+		}
+		Assert.assertEquals(2, timeouts.size());
+		Assert.assertEquals(0, second.getRequests());
+	}
+	
+	/**
+	 * @return A transport that refuses requests to the given port after 200ms and records the timeouts of all requests
+	 */
+	private Transport slowlyRefusing(final int port, final List<Long> timeouts) {
+		final ApacheTransport delegate = new ApacheTransport(pool.getHttpClient(), pool.getHttpAsyncClient());
+		return new Transport() {
+			@Override
+			public TransportResponse execute(final TransportRequest request) throws IOException {
+				timeouts.add(request.getTimeout());
+				if(request.getUri().getPort() != port)
+					return delegate.execute(request);
+				throw refuse();
+			}
+
+			@Override
+			public CompletableFuture<TransportResponse> executeAsync(final TransportRequest request) {
+				timeouts.add(request.getTimeout());
+				if(request.getUri().getPort() != port)
+					return delegate.executeAsync(request);
+				return CompletableFuture.<TransportResponse>supplyAsync(() -> {
+					throw new CompletionException(refuse());
+				});
+			}
+			
+			private IOException refuse() {
+				try {
+					Thread.sleep(200);
+				} catch(InterruptedException e) {
+					return new InterruptedIOException();
+				}
+				return new ConnectException("Connection refused");
+			}
+
+			@Override
+			public boolean supportsAsync() {
+				return true;
+			}
+		};
+	}
+}
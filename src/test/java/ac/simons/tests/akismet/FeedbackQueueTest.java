@@ -0,0 +1,267 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import static ac.simons.tests.akismet.AkismetAsyncTest.newComment;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.FeedbackQueue;
+
+/**
+ * @author Michael J. Simons
+ */
+public class FeedbackQueueTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	
+	private LocalAkismetServer server;
+	private CloseableHttpClient httpClient;
+	private Akismet akismet;
+	private final List<String> submissions = new CopyOnWriteArrayList<>();
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = new LocalAkismetServer();
+		this.server.setResponder(this::record);
+		this.httpClient = HttpClients.custom().setProxy(server.getProxy()).build();
+		this.akismet = new Akismet(httpClient);
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+	}
+	
+	private String record(final Map<String, String> parameters) {
+		this.submissions.add(parameters.get("function") + ":" + parameters.get("comment_author"));
+		return "Thanks for making the web a better place.";
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.httpClient.close();
+		this.server.close();
+	}
+	
+	private FeedbackQueue newQueue(final Path directory) throws Exception {
+		final FeedbackQueue rv = new FeedbackQueue(akismet, directory, 4096);
+		rv.setBackoff(10, 50, TimeUnit.MILLISECONDS);
+		return rv;
+	}
+	
+	@Test
+	public void submissionsAreSentInBackground() throws Exception {
+		try(FeedbackQueue queue = newQueue(folder.getRoot().toPath())) {
+			for(int i = 0; i < 100; ++i)
+				queue.submitSpam(newComment("spammer" + i));
+			queue.submitHam(newComment("Michael"));
+			Assert.assertTrue(queue.awaitEmpty(10, TimeUnit.SECONDS));
+		}
+		Assert.assertEquals(101, submissions.size());
+		Assert.assertTrue(submissions.contains("submit-ham:Michael"));
+		// Completed segments are removed
+		Assert.assertEquals(1, Files.list(folder.getRoot().toPath()).count());
+	}
+	
+	@Test
+	public void failedSubmissionsAreRetried() throws Exception {
+		server.setStatusCode(503);
+		try(FeedbackQueue queue = newQueue(folder.getRoot().toPath())) {
+			queue.submitSpam(newComment("spammer"));
+			Thread.sleep(100);
+			Assert.assertEquals(1, queue.getPending());
+			server.setStatusCode(200);
+			Assert.assertTrue(queue.awaitEmpty(10, TimeUnit.SECONDS));
+		}
+		Assert.assertTrue(submissions.size() > 1);
+	}
+	
+	@Test
+	public void pendingSubmissionsAreReplayedAndCoalesced() throws Exception {
+		server.setStatusCode(503);
+		final AkismetComment comment = newComment("Michael");
+		try(FeedbackQueue queue = newQueue(folder.getRoot().toPath())) {
+			queue.setMaxAttempts(Integer.MAX_VALUE);
+			for(int i = 0; i < 50; ++i)
+				queue.submitSpam(newComment("spammer" + i));
+			queue.submitSpam(comment);
+			queue.submitHam(comment);
+		}
+		submissions.clear();
+		server.setStatusCode(200);
+		
+		try(FeedbackQueue queue = newQueue(folder.getRoot().toPath())) {
+			Assert.assertTrue(queue.awaitEmpty(10, TimeUnit.SECONDS));
+		}
+		Assert.assertEquals(51, submissions.size());
+		Assert.assertTrue(submissions.contains("submit-ham:Michael"));
+		Assert.assertFalse(submissions.contains("submit-spam:Michael"));
+		
+		submissions.clear();
+		try(FeedbackQueue queue = newQueue(folder.getRoot().toPath())) {
+			Assert.assertEquals(0, queue.getPending());
+		}
+		Assert.assertTrue(submissions.isEmpty());
+	}
+	
+	@Test
+	public void closeDoesNotWaitForHangingSubmissions() throws Exception {
+		server.setDelay(5000);
+		try(CloseableHttpAsyncClient httpAsyncClient = HttpAsyncClients.custom().setProxy(server.getProxy()).build()) {
+			httpAsyncClient.start();
+			final Akismet asyncAkismet = new Akismet(httpClient, httpAsyncClient);
+			asyncAkismet.setApiKey("123test");
+			asyncAkismet.setApiConsumer("http://test.com");
+			
+			final FeedbackQueue queue = new FeedbackQueue(asyncAkismet, folder.getRoot().toPath(), 4096);
+			queue.submitSpam(newComment("spammer"));
+			final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+			while(server.getRequests() == 0 && System.nanoTime() < deadline)
+				Thread.sleep(10);
+			Assert.assertEquals(1, server.getRequests());
+			
+			final long start = System.nanoTime();
+			queue.close();
+			Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+		}
+		
+		// The unfinished submission stays in the journal
+		server.setDelay(0);
+		try(FeedbackQueue queue = newQueue(folder.getRoot().toPath())) {
+			Assert.assertTrue(queue.awaitEmpty(10, TimeUnit.SECONDS));
+		}
+		Assert.assertEquals("submit-spam:spammer", submissions.get(submissions.size() - 1));
+	}
+	
+	/**
+	 * The journal reads the comment while holding its lock, so the first read of a field
+	 * reveals the order in which the submissions have been journaled.
+	 */
+	private static final class JournaledComment extends AkismetComment {
+		private static final long serialVersionUID = 3866237129381447302L;
+		
+		private final transient AtomicBoolean appended = new AtomicBoolean();
+		private final transient String submission;
+		private final transient List<String> journalOrder;
+		
+		JournaledComment(final String submission, final List<String> journalOrder) {
+			this.submission = submission;
+			this.journalOrder = journalOrder;
+		}
+		
+		@Override
+		public String getUserIp() {
+			if(this.appended.compareAndSet(false, true))
+				this.journalOrder.add(this.submission);
+			return super.getUserIp();
+		}
+	}
+	
+	private static AkismetComment journaled(final String author, final String function, final List<String> journalOrder) {
+		final AkismetComment rv = new JournaledComment(function + ":" + author, journalOrder);
+		final AkismetComment template = newComment(author);
+		rv.setUserIp(template.getUserIp());
+		rv.setUserAgent(template.getUserAgent());
+		rv.setPermalink(template.getPermalink());
+		rv.setCommentType(template.getCommentType());
+		rv.setCommentAuthor(template.getCommentAuthor());
+		rv.setCommentContent(template.getCommentContent());
+		return rv;
+	}
+	
+	private static Map<String, String> lastPerAuthor(final List<String> submissions) {
+		final Map<String, String> rv = new HashMap<>();
+		for(String submission : submissions)
+			rv.put(submission.substring(submission.indexOf(':') + 1), submission);
+		return rv;
+	}
+	
+	@Test
+	public void concurrentSubmissionsAreSentInJournalOrder() throws Exception {
+		server.setStatusCode(503);
+		final int threads = 4;
+		final List<String> journalOrder = new CopyOnWriteArrayList<>();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try(FeedbackQueue queue = newQueue(folder.getRoot().toPath())) {
+			queue.setMaxAttempts(Integer.MAX_VALUE);
+			for(int round = 0; round < 200; ++round) {
+				final String author = "flipper" + round;
+				final CyclicBarrier barrier = new CyclicBarrier(threads);
+				final List<Future<?>> futures = new ArrayList<>();
+				for(int i = 0; i < threads; ++i) {
+					final boolean spam = i % 2 == 0;
+					futures.add(executor.submit(() -> {
+						barrier.await();
+						if(spam)
+							queue.submitSpam(journaled(author, "submit-spam", journalOrder));
+						else
+							queue.submitHam(journaled(author, "submit-ham", journalOrder));
+						return null;
+					}));
+				}
+				for(Future<?> future : futures)
+					future.get();
+			}
+			server.setStatusCode(200);
+			Assert.assertTrue(queue.awaitEmpty(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdown();
+		}
+		// Every comment ends up with the submission that has been journaled last
+		Assert.assertEquals(lastPerAuthor(journalOrder), lastPerAuthor(submissions));
+	}
+}
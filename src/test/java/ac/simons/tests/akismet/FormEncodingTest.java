@@ -0,0 +1,114 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import ac.simons.akismet.AkismetComment;
+
+/**
+ * @author Michael J. Simons
+ */
+public class FormEncodingTest {
+	private static final String[] VALUES = {
+		"Michael", "Hallo Welt!", "a+b=c&d", "~!@#$%^&*()_-.'\"<>/?\\|", "Grüße aus Aachen", "日本語", 
+		"Emoji 😀", "unpaired \uD800 high", "unpaired \uDC00 low", "end \uD83D", "\t\r\n", "\u007F\u0080߿ࠀ￿"
+	};
+	
+	@Test
+	public void encodingMatchesUrlEncodedFormEntity() throws Exception {
+		for(String value : VALUES) {
+			final AkismetComment comment = newComment(value);
+			Assert.assertEquals(value, legacyForm(comment, "http://test.com/" + value), form(comment.toForm("http://test.com/" + value)));
+		}
+	}
+	
+	@Test
+	public void blankOptionalFieldsAreSkipped() throws Exception {
+		final AkismetComment comment = newComment(" ");
+		comment.setCommentContent(null);
+		Assert.assertEquals(legacyForm(comment, null), form(comment.toForm(null)));
+		Assert.assertEquals("blog&user_ip=127.0.0.1&userAgent=", form(comment.toForm(null)));
+	}
+	
+	private static AkismetComment newComment(final String value) {
+		final AkismetComment rv = new AkismetComment();
+		rv.setUserIp("127.0.0.1");
+		rv.setUserAgent(value.trim().isEmpty() ? "" : "Mozilla " + value);
+		rv.setReferrer(value);
+		rv.setPermalink(value);
+		rv.setCommentType(value);
+		rv.setCommentAuthor(value);
+		rv.setCommentAuthorEmail(value);
+		rv.setCommentAuthorUrl(value);
+		rv.setCommentContent(value);
+		return rv;
+	}
+	
+	private static String form(final byte[] form) {
+		return new String(form, StandardCharsets.US_ASCII);
+	}
+	
+	/**
+	 * The way comments have been encoded before
+	 */
+	private static String legacyForm(final AkismetComment comment, final String apiConsumer) throws Exception {
+		final List<NameValuePair> p = new ArrayList<>();
+		p.add(new BasicNameValuePair("blog", apiConsumer));
+		p.add(new BasicNameValuePair("user_ip", comment.getUserIp()));
+		p.add(new BasicNameValuePair("userAgent", comment.getUserAgent()));
+		add(p, "referrer", comment.getReferrer());
+		add(p, "permalink", comment.getPermalink());
+		add(p, "comment_type", comment.getCommentType());
+		add(p, "comment_author", comment.getCommentAuthor());
+		add(p, "comment_author_email", comment.getCommentAuthorEmail());
+		add(p, "comment_author_url", comment.getCommentAuthorUrl());
+		add(p, "comment_content", comment.getCommentContent());
+		return EntityUtils.toString(new UrlEncodedFormEntity(p, "UTF-8"), "US-ASCII");
+	}
+	
+	private static void add(final List<NameValuePair> p, final String name, final String value) {
+		if(value != null && !value.trim().isEmpty())
+			p.add(new BasicNameValuePair(name, value));
+	}
+}
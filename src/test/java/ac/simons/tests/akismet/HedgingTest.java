@@ -0,0 +1,174 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.HedgingPolicy;
+import ac.simons.akismet.RequestScheduler;
+import ac.simons.akismet.RequestScheduler.Priority;
+
+/**
+ * @author Michael J. Simons
+ */
+public class HedgingTest {
+	private LocalAkismetServer server;
+	private CloseableHttpClient httpClient;
+	private CloseableHttpAsyncClient httpAsyncClient;
+	private Akismet akismet;
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = new LocalAkismetServer();
+		this.httpClient = HttpClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient = HttpAsyncClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient.start();
+		this.akismet = new Akismet(httpClient, httpAsyncClient);
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.httpAsyncClient.close();
+		this.httpClient.close();
+		this.server.close();
+	}
+	
+	/**
+	 * Lets the first request stall for the given time and answers all others immediately.
+	 */
+	private void stallFirstRequest(final long millis) {
+		final AtomicInteger requests = new AtomicInteger();
+		server.setResponder(parameters -> {
+			if(requests.getAndIncrement() == 0) {
+				try {
+					Thread.sleep(millis);
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return "comment-check".equals(parameters.get("function")) ? String.valueOf(String.valueOf(parameters.get("comment_author")).startsWith("viagra-test-123")) : "valid";
+		});
+	}
+	
+	@Test
+	public void slowCallsAreHedged() throws Exception {
+		// Full rate, so that the first call can be hedged
+		final HedgingPolicy policy = new HedgingPolicy(50, 0.0, 1.0);
+		akismet.setHedgingPolicy(policy);
+		stallFirstRequest(2000);
+		
+		final long start = System.nanoTime();
+		Assert.assertTrue(akismet.commentCheck(AkismetAsyncTest.newComment("viagra-test-123")));
+		Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+		Assert.assertEquals(2, server.getRequests());
+		Assert.assertEquals(1, policy.getHedges());
+		
+		stallFirstRequest(2000);
+		Assert.assertTrue(akismet.verifyKeyAsync().join());
+		Assert.assertEquals(2, policy.getHedges());
+	}
+	
+	@Test
+	public void fastCallsAreNotHedged() throws Exception {
+		final HedgingPolicy policy = new HedgingPolicy(500, 0.0, 1.0);
+		akismet.setHedgingPolicy(policy);
+		for(int i = 0; i < 5; ++i)
+			Assert.assertFalse(akismet.commentCheck(AkismetAsyncTest.newComment("Michael")));
+		Assert.assertEquals(5, server.getRequests());
+		Assert.assertEquals(5, policy.getRequests());
+		Assert.assertEquals(0, policy.getHedges());
+	}
+	
+	@Test
+	public void submissionsAreNeverHedged() throws Exception {
+		final HedgingPolicy policy = new HedgingPolicy(10, 0.0, 1.0);
+		akismet.setHedgingPolicy(policy);
+		server.setDelay(200);
+		Assert.assertTrue(akismet.submitSpam(AkismetAsyncTest.newComment("viagra-test-123")));
+		Assert.assertTrue(akismet.submitHamAsync(AkismetAsyncTest.newComment("Michael")).join());
+		Assert.assertEquals(2, server.getRequests());
+		Assert.assertEquals(0, policy.getRequests());
+	}
+	
+	@Test
+	public void hedgeRateIsCapped() throws Exception {
+		final HedgingPolicy policy = new HedgingPolicy(10, 0.0, 0.1);
+		akismet.setHedgingPolicy(policy);
+		server.setDelay(50);
+		for(int i = 0; i < 20; ++i)
+			Assert.assertFalse(akismet.commentCheck(AkismetAsyncTest.newComment("Michael")));
+		Assert.assertEquals(2, policy.getHedges());
+		Assert.assertEquals(22, server.getRequests());
+	}
+	
+	@Test
+	public void delayTracksPercentile() {
+		final HedgingPolicy policy = new HedgingPolicy(5, 90.0, 0.1);
+		Assert.assertEquals(5, policy.getDelay());
+		for(int i = 1; i <= 128; ++i)
+			policy.record(TimeUnit.MILLISECONDS.toNanos(i));
+		Assert.assertEquals(116, policy.getDelay());
+		for(int i = 0; i < 128; ++i)
+			policy.record(TimeUnit.MILLISECONDS.toNanos(1));
+		Assert.assertEquals(5, policy.getDelay());
+	}
+	
+	@Test
+	public void hedgesRespectTheRateLimit() throws Exception {
+		final HedgingPolicy policy = new HedgingPolicy(20, 0.0, 1.0);
+		akismet.setHedgingPolicy(policy);
+		final RequestScheduler scheduler = new RequestScheduler(1, 1);
+		akismet.setRequestScheduler(scheduler);
+		server.setDelay(200);
+		
+		// The call takes the only token, the hedge cannot get a permit before the call is answered
+		Assert.assertFalse(akismet.commentCheck(AkismetAsyncTest.newComment("Michael")));
+		Assert.assertEquals(1, policy.getHedges());
+		Assert.assertEquals(1, server.getRequests());
+		Assert.assertEquals(0, scheduler.getPermits(Priority.BULK));
+	}
+}
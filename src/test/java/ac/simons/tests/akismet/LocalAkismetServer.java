@@ -0,0 +1,164 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.http.HttpHost;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A minimal stand in for the akismet api. Clients reach it by using it as 
+ * http proxy, so that the per key host names don't need to resolve.
+ * @author Michael J. Simons
+ */
+public class LocalAkismetServer implements AutoCloseable {
+	private final HttpServer server;
+	private final AtomicInteger requests = new AtomicInteger();
+	
+	/** Computes the response body from the function name, the host and the decoded form parameters */
+	private volatile Function<Map<String, String>, String> responder = parameters -> {
+		switch(parameters.get("function")) {
+			case "verify-key": 
+				return "valid";
+			case "comment-check": 
+				return String.valueOf(String.valueOf(parameters.get("comment_author")).startsWith("viagra-test-123"));
+			default: 
+				return "Thanks for making the web a better place.";
+		}
+	};
+	
+	private volatile int statusCode = 200;
+	
+	private volatile long delay = 0;
+	
+	private volatile Map<String, String> headers = new HashMap<>();
+	
+	static {
+		// Otherwise headers and body are delayed by Nagle's algorithm
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+	
+	public LocalAkismetServer() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.setExecutor(Executors.newCachedThreadPool());
+		this.server.createContext("/", this::handle);
+		this.server.start();
+	}
+	
+	private void handle(final HttpExchange exchange) throws IOException {
+		this.requests.incrementAndGet();
+		final Map<String, String> parameters = decode(exchange.getRequestBody());
+		final String path = exchange.getRequestURI().getPath();
+		parameters.put("function", path.substring(path.lastIndexOf('/') + 1));
+		parameters.put("host", exchange.getRequestHeaders().getFirst("Host"));
+		try {
+			if(this.delay > 0)
+				Thread.sleep(this.delay);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		final byte[] body = this.responder.apply(parameters).getBytes(StandardCharsets.UTF_8);
+		this.headers.forEach(exchange.getResponseHeaders()::add);
+		exchange.sendResponseHeaders(this.statusCode, body.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+	
+	private static Map<String, String> decode(final InputStream in) throws IOException {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final byte[] b = new byte[4096];
+		int read;
+		while((read = in.read(b)) != -1)
+			buffer.write(b, 0, read);
+		final Map<String, String> rv = new HashMap<>();
+		final String form = new String(buffer.toByteArray(), StandardCharsets.US_ASCII);
+		if(!form.isEmpty()) {
+			for(String pair : form.split("&")) {
+				final int i = pair.indexOf('=');
+				if(i < 0)
+					rv.put(URLDecoder.decode(pair, "UTF-8"), null);
+				else
+					rv.put(URLDecoder.decode(pair.substring(0, i), "UTF-8"), URLDecoder.decode(pair.substring(i + 1), "UTF-8"));
+			}
+		}
+		return rv;
+	}
+	
+	public HttpHost getProxy() {
+		return new HttpHost("127.0.0.1", this.server.getAddress().getPort());
+	}
+	
+	public int getRequests() {
+		return requests.get();
+	}
+
+	public void setResponder(Function<Map<String, String>, String> responder) {
+		this.responder = responder;
+	}
+
+	public void setStatusCode(int statusCode) {
+		this.statusCode = statusCode;
+	}
+
+	public void setDelay(long delay) {
+		this.delay = delay;
+	}
+
+	/**
+	 * @param headers Additional headers sent with every response
+	 */
+	public void setHeaders(Map<String, String> headers) {
+		this.headers = headers;
+	}
+
+	@Override
+	public void close() {
+		this.server.stop(0);
+	}
+}
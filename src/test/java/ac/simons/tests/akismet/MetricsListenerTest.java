@@ -0,0 +1,200 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import static ac.simons.tests.akismet.AkismetAsyncTest.newComment;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.CallDetails;
+import ac.simons.akismet.ConnectionPool;
+import ac.simons.akismet.HedgingPolicy;
+import ac.simons.akismet.HistogramMetricsListener;
+import ac.simons.akismet.MetricsListener;
+import ac.simons.akismet.MetricsListener.Operation;
+import ac.simons.akismet.MetricsListener.Outcome;
+import ac.simons.akismet.MetricsListener.Retry;
+
+/**
+ * @author Michael J. Simons
+ */
+public class MetricsListenerTest {
+	private LocalAkismetServer server;
+	private CloseableHttpClient httpClient;
+	private CloseableHttpAsyncClient httpAsyncClient;
+	private Akismet akismet;
+	private HistogramMetricsListener metrics;
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = new LocalAkismetServer();
+		this.httpClient = HttpClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient = HttpAsyncClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient.start();
+		this.akismet = new Akismet(httpClient, httpAsyncClient);
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+		this.metrics = new HistogramMetricsListener();
+		this.akismet.setMetricsListener(metrics);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.httpAsyncClient.close();
+		this.httpClient.close();
+		this.server.close();
+	}
+	
+	@Test
+	public void outcomesAreRecorded() throws Exception {
+		Assert.assertTrue(akismet.verifyKey());
+		Assert.assertTrue(akismet.commentCheck(newComment("viagra-test-123")));
+		Assert.assertFalse(akismet.commentCheck(newComment("Michael")));
+		Assert.assertFalse(akismet.commentCheckAsync(newComment("Michael")).join());
+		Assert.assertTrue(akismet.submitSpamAsync(newComment("viagra-test-123")).join());
+		
+		server.setStatusCode(500);
+		Assert.assertFalse(akismet.commentCheck(newComment("Michael")));
+		Assert.assertFalse(akismet.submitHam(newComment("Michael")));
+		Assert.assertFalse(akismet.verifyKeyAsync().join());
+		
+		Assert.assertEquals(1, metrics.getCount(Operation.VERIFY_KEY, Outcome.VALID));
+		Assert.assertEquals(1, metrics.getCount(Operation.VERIFY_KEY, Outcome.BAD_STATUS));
+		Assert.assertEquals(1, metrics.getCount(Operation.COMMENT_CHECK, Outcome.SPAM));
+		Assert.assertEquals(2, metrics.getCount(Operation.COMMENT_CHECK, Outcome.HAM));
+		Assert.assertEquals(1, metrics.getCount(Operation.COMMENT_CHECK, Outcome.BAD_STATUS));
+		Assert.assertEquals(1, metrics.getCount(Operation.SUBMIT_SPAM, Outcome.SUBMITTED));
+		Assert.assertEquals(1, metrics.getCount(Operation.SUBMIT_HAM, Outcome.BAD_STATUS));
+		
+		Assert.assertEquals(4, metrics.getHistogram(Operation.COMMENT_CHECK).getTotalCount());
+		Assert.assertTrue(metrics.getLatency(Operation.COMMENT_CHECK, 99.9) > 0);
+		Assert.assertEquals(4, metrics.getHistogram(Operation.COMMENT_CHECK).getTotalCount());
+		
+		metrics.reset();
+		Assert.assertEquals(0, metrics.getCount(Operation.COMMENT_CHECK, Outcome.SPAM));
+		Assert.assertEquals(0, metrics.getHistogram(Operation.COMMENT_CHECK).getTotalCount());
+	}
+	
+	@Test
+	public void timeoutsAreRecorded() throws Exception {
+		server.setDelay(500);
+		akismet.setLatencyBudget(100);
+		Assert.assertFalse(akismet.commentCheck(newComment("Michael")));
+		Assert.assertEquals(1, metrics.getCount(Operation.COMMENT_CHECK, Outcome.UNAVAILABLE));
+	}
+	
+	@Test
+	public void detailsAreRecorded() throws Exception {
+		final List<CallDetails> calls = new CopyOnWriteArrayList<>();
+		final List<Retry> retries = new CopyOnWriteArrayList<>();
+		final AtomicInteger leases = new AtomicInteger();
+		final AtomicInteger connects = new AtomicInteger();
+		final MetricsListener listener = new MetricsListener() {
+			@Override
+			public void record(final Operation operation, final Outcome outcome, final long durationNanos) {
+			}
+			
+			@Override
+			public boolean isDetailed() {
+				return true;
+			}
+
+			@Override
+			public void recordDetails(final CallDetails details) {
+				calls.add(details);
+			}
+
+			@Override
+			public void recordRetry(final Operation operation, final Retry retry) {
+				retries.add(retry);
+			}
+
+			@Override
+			public void recordConnectionLease(final String host, final long waitNanos) {
+				leases.incrementAndGet();
+			}
+
+			@Override
+			public void recordConnect(final String host, final long durationNanos) {
+				connects.incrementAndGet();
+			}
+		};
+		
+		try(ConnectionPool pool = new ConnectionPool(4, 30_000, 10_000, server.getProxy())) {
+			pool.setMetricsListener(listener);
+			final Akismet pooled = new Akismet(pool.getHttpClient(), pool.getHttpAsyncClient());
+			pooled.setApiKey("123test");
+			pooled.setApiConsumer("http://test.com");
+			pooled.setMetricsListener(listener);
+			
+			Assert.assertTrue(pooled.commentCheck(newComment("viagra-test-123")));
+			Assert.assertTrue(pooled.submitHamAsync(newComment("Michael")).join());
+			Assert.assertEquals(2, leases.get());
+			Assert.assertEquals(1, connects.get());
+			
+			pooled.setHedgingPolicy(new HedgingPolicy(50, 0.0, 1.0));
+			server.setDelay(100);
+			Assert.assertFalse(pooled.commentCheck(newComment("Michael")));
+		}
+		
+		Assert.assertEquals(3, calls.size());
+		final CallDetails check = calls.get(0);
+		Assert.assertEquals(Operation.COMMENT_CHECK, check.getOperation());
+		Assert.assertEquals(Outcome.SPAM, check.getOutcome());
+		Assert.assertEquals(200, check.getStatusCode());
+		Assert.assertTrue(check.getPayloadSize() > 0);
+		Assert.assertEquals(1, check.getAttempts());
+		Assert.assertTrue(check.getEncodeTime() > 0);
+		Assert.assertTrue(check.getResponseTime() > 0);
+		Assert.assertTrue(check.getReadTime() > 0);
+		Assert.assertTrue(check.getDuration() >= check.getEncodeTime() + check.getResponseTime() + check.getReadTime());
+		Assert.assertEquals(Outcome.SUBMITTED, calls.get(1).getOutcome());
+		
+		Assert.assertEquals(2, calls.get(2).getAttempts());
+		Assert.assertEquals(1, retries.size());
+		Assert.assertEquals(Retry.HEDGE, retries.get(0));
+	}
+}
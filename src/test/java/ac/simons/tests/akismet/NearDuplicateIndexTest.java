@@ -0,0 +1,182 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.NearDuplicateIndex;
+
+/**
+ * @author Michael J. Simons
+ */
+public class NearDuplicateIndexTest {
+	private static final String SPAM = "Cheap watches and replica handbags, best prices guaranteed! Visit our online shop today and save up to 80 percent on all luxury brands. ";
+	private static final String CONSUMER = "http://test.com";
+	
+	private LocalAkismetServer server;
+	private CloseableHttpClient httpClient;
+	private CloseableHttpAsyncClient httpAsyncClient;
+	private Akismet akismet;
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = new LocalAkismetServer();
+		this.server.setResponder(parameters -> "comment-check".equals(parameters.get("function")) ? String.valueOf(parameters.get("comment_content").startsWith("Cheap")) : "");
+		this.httpClient = HttpClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient = HttpAsyncClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient.start();
+		this.akismet = new Akismet(httpClient, httpAsyncClient);
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer(CONSUMER);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.httpAsyncClient.close();
+		this.httpClient.close();
+		this.server.close();
+	}
+	
+	private static AkismetComment newComment(final String content) {
+		final AkismetComment rv = AkismetAsyncTest.newComment("Michael");
+		rv.setCommentContent(content);
+		return rv;
+	}
+	
+	@Test
+	public void similarityIsEstimated() {
+		Assert.assertEquals(1.0, NearDuplicateIndex.similarity(SPAM, SPAM.toUpperCase() + "   "), 0.0);
+		Assert.assertTrue(NearDuplicateIndex.similarity(SPAM + "yKWClC http://thmntcyecyjz.com/", SPAM + "PPqwEr http://pizhqyywdhzu.com/") > 0.5);
+		Assert.assertTrue(NearDuplicateIndex.similarity(SPAM, "Thank you for this great article about Java concurrency, I learned a lot about CompletableFuture.") < 0.1);
+	}
+	
+	@Test
+	public void nearDuplicatesOfSpamAreNotChecked() throws Exception {
+		final NearDuplicateIndex index = new NearDuplicateIndex(16, TimeUnit.MINUTES.toMillis(1), 0.5, false);
+		akismet.setNearDuplicateIndex(index);
+		
+		Assert.assertTrue(akismet.commentCheck(newComment(SPAM + "yKWClC http://thmntcyecyjz.com/")));
+		Assert.assertTrue(akismet.commentCheck(newComment(SPAM + "abQrTz http://bfvheegcdlmi.com/")));
+		Assert.assertTrue(akismet.commentCheckAsync(newComment(SPAM + "PPqwEr http://pizhqyywdhzu.com/")).join());
+		Assert.assertEquals(1, server.getRequests());
+		Assert.assertEquals(2, index.getMatches());
+		
+		Assert.assertFalse(akismet.commentCheck(newComment("Thank you for this great article about Java concurrency, I learned a lot.")));
+		Assert.assertEquals(2, server.getRequests());
+	}
+	
+	@Test
+	public void submittedHamRemovesNearDuplicates() throws Exception {
+		final NearDuplicateIndex index = new NearDuplicateIndex(16, TimeUnit.MINUTES.toMillis(1), 0.5, false);
+		akismet.setNearDuplicateIndex(index);
+		
+		Assert.assertTrue(akismet.submitSpam(newComment(SPAM)));
+		Assert.assertTrue(index.matches(SPAM + "yKWClC", CONSUMER));
+		Assert.assertTrue(akismet.submitHam(newComment(SPAM + "abQrTz")));
+		Assert.assertFalse(index.matches(SPAM + "yKWClC", CONSUMER));
+	}
+	
+	@Test
+	public void matchesAreConfirmed() throws Exception {
+		final NearDuplicateIndex index = new NearDuplicateIndex(16, TimeUnit.MINUTES.toMillis(1), 0.5, true);
+		akismet.setNearDuplicateIndex(index);
+		
+		index.add("Thank you for this great article about Java concurrency, I learned a lot.", CONSUMER);
+		Assert.assertTrue(akismet.commentCheck(newComment("Thank you for this great article about Java concurrency, I learned a lot!")));
+		// The confirmation is ham and removes the match
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(index.matches("Thank you for this great article about Java concurrency, I learned a lot.", CONSUMER) && System.nanoTime() < deadline)
+			Thread.sleep(10);
+		Assert.assertEquals(1, server.getRequests());
+		Assert.assertFalse(akismet.commentCheck(newComment("Thank you for this great article about Java concurrency, I learned a lot!")));
+	}
+	
+	@Test
+	public void spamExpires() throws Exception {
+		final NearDuplicateIndex index = new NearDuplicateIndex(16, 50, 0.5, false);
+		index.add(SPAM);
+		Assert.assertTrue(index.matches(SPAM));
+		Thread.sleep(100);
+		Assert.assertFalse(index.matches(SPAM));
+		Assert.assertFalse(index.matches("Too short"));
+	}
+	
+	/**
+	 * @return A content of random words that is not similar to the contents of other seeds
+	 */
+	private static String randomContent(final long seed) {
+		final Random random = new Random(seed);
+		final StringBuilder rv = new StringBuilder();
+		for(int i = 0; i < 12; ++i) {
+			for(int j = 0; j < 6; ++j)
+				rv.append((char) ('a' + random.nextInt(26)));
+			rv.append(' ');
+		}
+		return rv.toString();
+	}
+	
+	@Test
+	public void oldestSpamIsReplaced() {
+		final NearDuplicateIndex index = new NearDuplicateIndex(16, TimeUnit.MINUTES.toMillis(1), 0.5, false);
+		for(int i = 0; i < 100; ++i)
+			index.add(randomContent(i));
+		for(int i = 0; i < 84; ++i)
+			Assert.assertFalse(index.matches(randomContent(i)));
+		for(int i = 84; i < 100; ++i)
+			Assert.assertTrue(index.matches(randomContent(i)));
+	}
+	
+	@Test
+	public void longContentsAreShingledOverStartAndEnd() {
+		final StringBuilder content = new StringBuilder(SPAM);
+		while(content.length() < 64 * 1024)
+			content.append(" Lorem ipsum dolor sit amet, consectetur adipiscing elit ").append(content.length());
+		content.append(SPAM);
+		final NearDuplicateIndex index = new NearDuplicateIndex();
+		index.add(content.toString());
+		Assert.assertTrue(index.matches(content.toString().replace("Lorem", "Ipsum")));
+	}
+}
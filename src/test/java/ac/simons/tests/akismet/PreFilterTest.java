@@ -0,0 +1,134 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import static ac.simons.tests.akismet.AkismetAsyncTest.newComment;
+
+import java.util.Arrays;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.Assert;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.PreFilter.Decision;
+import ac.simons.akismet.filter.IpRangeFilter;
+import ac.simons.akismet.filter.LinkDensityFilter;
+import ac.simons.akismet.filter.PatternFilter;
+
+/**
+ * @author Michael J. Simons
+ */
+public class PreFilterTest {
+	@Test
+	public void ipRanges() {
+		final IpRangeFilter filter = new IpRangeFilter(Arrays.asList("201.45.0.0/16", "10.0.0.0/8", "10.1.0.0/16", "192.0.2.1", "2001:db8::/32"));
+		Assert.assertTrue(filter.contains("201.45.14.18"));
+		Assert.assertTrue(filter.contains("10.255.255.255"));
+		Assert.assertTrue(filter.contains("192.0.2.1"));
+		Assert.assertTrue(filter.contains("2001:db8:1::1"));
+		Assert.assertFalse(filter.contains("201.46.0.0"));
+		Assert.assertFalse(filter.contains("192.0.2.2"));
+		Assert.assertFalse(filter.contains("80.138.52.114"));
+		Assert.assertFalse(filter.contains("2001:db9::1"));
+		Assert.assertFalse(filter.contains("not an address"));
+		Assert.assertFalse(filter.contains("256.1.1.1"));
+		
+		final AkismetComment comment = newComment("yohlctfwnem");
+		comment.setUserIp("201.45.14.18");
+		Assert.assertEquals(Decision.SPAM, filter.filter(comment));
+	}
+	
+	@Test
+	public void patterns() {
+		final PatternFilter filter = new PatternFilter(Arrays.asList("nvwcjd.com", "viagra", "he", "she", "hers"));
+		AkismetComment comment = newComment("Michael");
+		comment.setCommentContent("Scharfes Outfit :D");
+		Assert.assertEquals(Decision.ASK_AKISMET, filter.filter(comment));
+		comment.setCommentAuthorEmail("rcphwp@NVWCJD.com");
+		Assert.assertEquals(Decision.SPAM, filter.filter(comment));
+		comment = newComment("Buy VIAGRA");
+		Assert.assertEquals(Decision.SPAM, filter.filter(comment));
+		comment = newComment("Ushers");
+		Assert.assertEquals(Decision.SPAM, filter.filter(comment));
+	}
+	
+	@Test
+	public void linkDensity() {
+		final LinkDensityFilter filter = new LinkDensityFilter();
+		final AkismetComment comment = newComment("yohlctfwnem");
+		comment.setCommentContent("yKWClC  <a href=\"http://thmntcyecyjz.com/\">thmntcyecyjz</a>, [url=http://bfvheegcdlmi.com/]bfvheegcdlmi[/url], [link=http://pizhqyywdhzu.com/]pizhqyywdhzu[/link], http://gowqkgqrfpag.com/");
+		Assert.assertEquals(Decision.SPAM, filter.filter(comment));
+		comment.setCommentContent("See http://michael-simons.eu for details");
+		Assert.assertEquals(Decision.ASK_AKISMET, filter.filter(comment));
+		comment.setCommentContent(null);
+		Assert.assertEquals(Decision.ASK_AKISMET, filter.filter(comment));
+	}
+	
+	@Test
+	public void autoLinkedUrlsAreCountedOnce() {
+		final LinkDensityFilter filter = new LinkDensityFilter();
+		final AkismetComment comment = newComment("Michael");
+		comment.setCommentContent(
+			"Thanks for the article, I wrote about the same topic a while ago and collected some more links on my blog. " + 
+			"See <a href=\"http://michael-simons.eu/\" rel=\"nofollow\">http://michael-simons.eu/</a>, " +
+			"<A HREF=\"https://github.com/michael-simons\">https://github.com/michael-simons</A> and " +
+			"[url=http://dailyfratze.de]http://dailyfratze.de[/url] for details, maybe it helps someone else, too."
+		);
+		Assert.assertEquals(Decision.ASK_AKISMET, filter.filter(comment));
+		comment.setCommentContent(comment.getCommentContent() + " Also http://example.com");
+		Assert.assertEquals(Decision.SPAM, filter.filter(comment));
+	}
+	
+	@Test
+	public void filtersShortCircuitAkismet() throws Exception {
+		try(LocalAkismetServer server = new LocalAkismetServer(); CloseableHttpClient httpClient = HttpClients.custom().setProxy(server.getProxy()).build()) {
+			final Akismet akismet = new Akismet(httpClient);
+			akismet.setApiKey("123test");
+			akismet.setApiConsumer("http://test.com");
+			akismet.setPreFilters(Arrays.asList(new IpRangeFilter(Arrays.asList("80.138.52.114"), Decision.HAM), new PatternFilter(Arrays.asList("viagra"))));
+			
+			Assert.assertFalse(akismet.commentCheck(newComment("viagra-test-123")));
+			final AkismetComment comment = newComment("viagra-test-123");
+			comment.setUserIp("127.0.0.1");
+			Assert.assertTrue(akismet.commentCheck(comment));
+			Assert.assertEquals(0, server.getRequests());
+			comment.setCommentAuthor("Michael");
+			Assert.assertFalse(akismet.commentCheck(comment));
+			Assert.assertEquals(1, server.getRequests());
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetConfiguration;
+import ac.simons.akismet.AkismetException;
+
+/**
+ * @author Michael J. Simons
+ */
+public class ReconfigureTest {
+	private LocalAkismetServer server;
+	private CloseableHttpClient httpClient;
+	private CloseableHttpAsyncClient httpAsyncClient;
+	private Akismet akismet;
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = new LocalAkismetServer();
+		this.httpClient = HttpClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient = HttpAsyncClients.custom().setProxy(server.getProxy()).setMaxConnTotal(16).setMaxConnPerRoute(16).build();
+		this.httpAsyncClient.start();
+		this.akismet = new Akismet(httpClient, httpAsyncClient);
+		this.akismet.setApiKey("key0");
+		this.akismet.setApiConsumer("http://site0.com");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.httpAsyncClient.close();
+		this.httpClient.close();
+		this.server.close();
+	}
+	
+	@Test
+	public void settersReplaceTheConfiguration() throws Exception {
+		final AkismetConfiguration before = akismet.getConfiguration();
+		akismet.setApiScheme("https");
+		akismet.setEnabled(false);
+		
+		final AkismetConfiguration after = akismet.getConfiguration();
+		Assert.assertEquals("http", before.getApiScheme());
+		Assert.assertTrue(before.isEnabled());
+		Assert.assertEquals("https", after.getApiScheme());
+		Assert.assertFalse(after.isEnabled());
+		Assert.assertEquals("key0", after.getApiKey());
+		Assert.assertEquals("http://site0.com", after.getApiConsumer());
+		Assert.assertFalse(after.toString().contains("key0"));
+		
+		try {
+			akismet.setApiScheme("ftp");
+			Assert.fail("Invalid scheme was accepted");
+		} catch(IllegalArgumentException e) {
+			Assert.assertSame(after, akismet.getConfiguration());
+		}
+		
+		// Disabled instances make no calls
+		Assert.assertFalse(akismet.commentCheck(AkismetAsyncTest.newComment("viagra-test-123")));
+		Assert.assertFalse(akismet.commentCheckAsync(AkismetAsyncTest.newComment("viagra-test-123")).join());
+		Assert.assertEquals(0, server.getRequests());
+	}
+	
+	@Test
+	public void invalidKeysAreReportedByTheCall() throws Exception {
+		akismet.setApiKey("in valid");
+		akismet.reconfigure(configuration -> configuration.withApiEndpoint("rest.akismet.com/{version}"));
+		
+		try {
+			akismet.commentCheck(AkismetAsyncTest.newComment("Michael"));
+			Assert.fail("Invalid key was used");
+		} catch(AkismetException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		try {
+			akismet.submitHamAsync(AkismetAsyncTest.newComment("Michael")).join();
+			Assert.fail("Invalid key was used");
+		} catch(CompletionException e) {
+			Assert.assertTrue(e.getCause() instanceof AkismetException);
+		}
+		Assert.assertEquals(0, server.getRequests());
+		
+		akismet.setApiKey("key0");
+		akismet.setApiEndpoint("rest.akismet.com");
+		Assert.assertFalse(akismet.commentCheck(AkismetAsyncTest.newComment("Michael")));
+	}
+	
+	@Test
+	public void callsUseOneConfigurationWhileKeysAreRotated() throws Exception {
+		final AtomicInteger mismatches = new AtomicInteger();
+		server.setResponder(parameters -> {
+			// key<n>.rest.akismet.com must always come with http://site<n>.com
+			final String host = parameters.get("host");
+			final String key = host.substring(0, host.indexOf('.'));
+			if(!parameters.get("blog").equals("http://site" + key.substring(3) + ".com"))
+				mismatches.incrementAndGet();
+			return "comment-check".equals(parameters.get("function")) ? "false" : "Thanks for making the web a better place.";
+		});
+		
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicInteger rotations = new AtomicInteger();
+		final Thread rotator = new Thread(() -> {
+			while(running.get()) {
+				final int n = rotations.incrementAndGet();
+				akismet.reconfigure(configuration -> configuration.withApiKey("key" + n).withApiConsumer("http://site" + n + ".com"));
+			}
+		});
+		rotator.start();
+		try {
+			final List<CompletableFuture<Boolean>> calls = new ArrayList<>();
+			for(int i = 0; i < 400; ++i) {
+				calls.add(akismet.commentCheckAsync(AkismetAsyncTest.newComment("Michael")));
+				calls.add(akismet.submitHamAsync(AkismetAsyncTest.newComment("Michael")));
+				if(calls.size() >= 32) {
+					calls.forEach(CompletableFuture::join);
+					calls.clear();
+				}
+			}
+			calls.forEach(CompletableFuture::join);
+		} finally {
+			running.set(false);
+			rotator.join();
+		}
+		
+		Assert.assertEquals(800, server.getRequests());
+		Assert.assertTrue(rotations.get() > 1);
+		Assert.assertEquals(0, mismatches.get());
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import java.util.Collections;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.ReputationStore;
+
+/**
+ * @author Michael J. Simons
+ */
+public class ReputationStoreTest {
+	private static final String CONSUMER = "http://test.com";
+
+	private LocalAkismetServer server;
+	private CloseableHttpClient httpClient;
+	private Akismet akismet;
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = new LocalAkismetServer();
+		this.httpClient = HttpClients.custom().setProxy(server.getProxy()).build();
+		this.akismet = new Akismet(httpClient);
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer(CONSUMER);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.httpClient.close();
+		this.server.close();
+	}
+	
+	private static AkismetComment newComment(final String email, final String ip) {
+		final AkismetComment rv = AkismetAsyncTest.newComment("Michael");
+		rv.setCommentAuthorEmail(email);
+		rv.setUserIp(ip);
+		return rv;
+	}
+	
+	@Test
+	public void trustedAuthorsAreNotChecked() throws Exception {
+		final ReputationStore store = new ReputationStore(1024, 3, 0.0);
+		akismet.setReputationStore(store);
+		
+		for(int i = 0; i < 5; ++i)
+			Assert.assertFalse(akismet.commentCheck(newComment("michael@simons.ac", "10.0.0.1")));
+		Assert.assertEquals(3, server.getRequests());
+		Assert.assertEquals(2, store.getSkipped());
+		// Normalized identity
+		Assert.assertEquals(3, store.getStreak(newComment(" Michael@Simons.ac", "10.0.0.1"), CONSUMER));
+		// Other authors are still checked
+		Assert.assertFalse(akismet.commentCheck(newComment("michael@simons.ac", "10.0.0.2")));
+		Assert.assertEquals(4, server.getRequests());
+	}
+	
+	@Test
+	public void spamResetsTheStreak() throws Exception {
+		final ReputationStore store = new ReputationStore(1024, 3, 0.0);
+		akismet.setReputationStore(store);
+		
+		final AkismetComment comment = newComment("michael@simons.ac", "10.0.0.1");
+		for(int i = 0; i < 3; ++i)
+			akismet.commentCheck(comment);
+		Assert.assertEquals(3, store.getStreak(comment, CONSUMER));
+		Assert.assertTrue(akismet.submitSpam(comment));
+		Assert.assertEquals(0, store.getStreak(comment, CONSUMER));
+		Assert.assertTrue(akismet.submitHam(comment));
+		Assert.assertEquals(1, store.getStreak(comment, CONSUMER));
+		
+		server.setResponder(parameters -> "comment-check".equals(parameters.get("function")) ? "true" : "");
+		Assert.assertTrue(akismet.commentCheck(comment));
+		Assert.assertEquals(0, store.getStreak(comment, CONSUMER));
+	}
+	
+	@Test
+	public void invalidAnswersAreNoVerdicts() throws Exception {
+		final ReputationStore store = new ReputationStore(1024, 3, 0.0);
+		akismet.setReputationStore(store);
+		server.setResponder(parameters -> "invalid");
+		server.setHeaders(Collections.singletonMap("X-akismet-debug-help", "Empty \"blog\" value"));
+		
+		final AkismetComment comment = newComment("michael@simons.ac", "10.0.0.1");
+		for(int i = 0; i < 5; ++i)
+			Assert.assertFalse(akismet.commentCheck(comment));
+		Assert.assertEquals(5, server.getRequests());
+		Assert.assertEquals(0, store.getStreak(comment, CONSUMER));
+		Assert.assertFalse(store.isTrusted(comment, CONSUMER));
+	}
+	
+	@Test
+	public void trustedAuthorsAreSampled() {
+		final ReputationStore store = new ReputationStore(1024, 1, 0.25);
+		final AkismetComment comment = newComment("michael@simons.ac", "10.0.0.1");
+		store.record(comment, true);
+		int trusted = 0;
+		for(int i = 0; i < 10000; ++i)
+			trusted += store.isTrusted(comment) ? 1 : 0;
+		Assert.assertTrue(trusted > 7000 && trusted < 8000);
+	}
+	
+	@Test
+	public void authorsWithShortestStreaksAreEvicted() {
+		final ReputationStore store = new ReputationStore(8, 100, 0.0);
+		final AkismetComment trusted = newComment("trusted@simons.ac", "10.0.0.1");
+		for(int i = 0; i < 50; ++i)
+			store.record(trusted, true);
+		for(int i = 0; i < 1000; ++i)
+			store.record(newComment("author" + i + "@simons.ac", "10.0.0.1"), true);
+		Assert.assertEquals(50, store.getStreak(trusted));
+		// Spam of unknown authors doesn't take a slot
+		store.record(newComment("spammer@simons.ac", "10.0.0.1"), false);
+		Assert.assertEquals(0, store.getStreak(newComment("spammer@simons.ac", "10.0.0.1")));
+	}
+}
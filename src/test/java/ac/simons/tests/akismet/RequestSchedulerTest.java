@@ -0,0 +1,156 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.RequestScheduler;
+import ac.simons.akismet.RequestScheduler.Priority;
+import ac.simons.akismet.Verdict;
+
+/**
+ * @author Michael J. Simons
+ */
+public class RequestSchedulerTest {
+	private LocalAkismetServer server;
+	private CloseableHttpClient httpClient;
+	private CloseableHttpAsyncClient httpAsyncClient;
+	private Akismet akismet;
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = new LocalAkismetServer();
+		this.httpClient = HttpClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient = HttpAsyncClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient.start();
+		this.akismet = new Akismet(httpClient, httpAsyncClient);
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.httpAsyncClient.close();
+		this.httpClient.close();
+		this.server.close();
+	}
+	
+	@Test
+	public void callsAreRateLimited() throws Exception {
+		final RequestScheduler scheduler = new RequestScheduler(20, 1);
+		akismet.setRequestScheduler(scheduler);
+		
+		final long start = System.nanoTime();
+		for(int i = 0; i < 5; ++i)
+			Assert.assertTrue(akismet.verifyKey());
+		for(int i = 0; i < 5; ++i)
+			Assert.assertTrue(akismet.submitSpamAsync(AkismetAsyncTest.newComment("viagra-test-123")).join());
+		Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(400));
+		Assert.assertEquals(10, server.getRequests());
+		Assert.assertEquals(5, scheduler.getPermits(Priority.LIVE));
+		Assert.assertEquals(5, scheduler.getPermits(Priority.FEEDBACK));
+	}
+	
+	@Test
+	public void liveCallsGoFirst() {
+		final RequestScheduler scheduler = new RequestScheduler(10, 1);
+		final List<CompletableFuture<Void>> bulk = new ArrayList<>();
+		for(int i = 0; i < 4; ++i)
+			bulk.add(scheduler.acquire(Priority.BULK));
+		final CompletableFuture<Void> feedback = scheduler.acquire(Priority.FEEDBACK);
+		final CompletableFuture<Void> live = scheduler.acquire(Priority.LIVE);
+		Assert.assertTrue(bulk.get(0).isDone());
+		Assert.assertEquals(3, scheduler.getQueueDepth(Priority.BULK));
+		
+		live.join();
+		Assert.assertFalse(feedback.isDone());
+		feedback.join();
+		Assert.assertFalse(bulk.get(1).isDone());
+		CompletableFuture.allOf(bulk.toArray(new CompletableFuture<?>[bulk.size()])).join();
+		Assert.assertEquals(0, scheduler.getQueueDepth(Priority.BULK));
+		Assert.assertEquals(4, scheduler.getPermits(Priority.BULK));
+		Assert.assertTrue(scheduler.getWaitTime(Priority.BULK) >= 3 * 100);
+	}
+	
+	@Test
+	public void bulkChecksAreScheduled() throws Exception {
+		final RequestScheduler scheduler = new RequestScheduler(100, 10);
+		akismet.setRequestScheduler(scheduler);
+		final List<AkismetComment> comments = new ArrayList<>();
+		for(int i = 0; i < 20; ++i)
+			comments.add(AkismetAsyncTest.newComment("Michael " + i));
+		for(Verdict verdict : akismet.commentCheckAll(comments))
+			Assert.assertFalse(verdict.isSpam());
+		Assert.assertEquals(20, scheduler.getPermits(Priority.BULK));
+		Assert.assertEquals(0, scheduler.getPermits(Priority.LIVE));
+	}
+	
+	@Test
+	public void overloadReducesRate() throws Exception {
+		final RequestScheduler scheduler = new RequestScheduler(100, 10);
+		akismet.setRequestScheduler(scheduler);
+		server.setStatusCode(429);
+		Assert.assertFalse(akismet.submitHam(AkismetAsyncTest.newComment("Michael")));
+		// At most one reduction per second
+		Assert.assertFalse(akismet.submitHam(AkismetAsyncTest.newComment("Michael")));
+		Assert.assertEquals(50.0, scheduler.getRate(), 0.001);
+		
+		server.setStatusCode(200);
+		for(int i = 0; i < 10; ++i)
+			Assert.assertTrue(akismet.submitHam(AkismetAsyncTest.newComment("Michael")));
+		Assert.assertEquals(60.0, scheduler.getRate(), 0.001);
+	}
+	
+	@Test
+	public void waitingPermitsAreNotCompletedOnTheSchedulerThread() {
+		final RequestScheduler scheduler = new RequestScheduler(10, 1);
+		scheduler.acquire(Priority.LIVE).join();
+		final CompletableFuture<String> thread = scheduler.acquire(Priority.LIVE).thenApply(v -> Thread.currentThread().getName());
+		Assert.assertNotEquals("akismet-scheduler", thread.join());
+	}
+}
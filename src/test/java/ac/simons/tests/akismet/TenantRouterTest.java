@@ -0,0 +1,270 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetComment;
+import ac.simons.akismet.AkismetException;
+import ac.simons.akismet.CallDetails;
+import ac.simons.akismet.MetricsListener;
+import ac.simons.akismet.MetricsListener.Operation;
+import ac.simons.akismet.MetricsListener.Outcome;
+import ac.simons.akismet.MetricsListener.Retry;
+import ac.simons.akismet.NearDuplicateIndex;
+import ac.simons.akismet.RequestScheduler;
+import ac.simons.akismet.RequestScheduler.Priority;
+import ac.simons.akismet.ReputationStore;
+import ac.simons.akismet.TenantRouter;
+import ac.simons.akismet.TenantRouter.Tenant;
+
+/**
+ * @author Michael J. Simons
+ */
+public class TenantRouterTest {
+	private LocalAkismetServer server;
+	private CloseableHttpClient httpClient;
+	private CloseableHttpAsyncClient httpAsyncClient;
+	private TenantRouter router;
+	/** Blogs of all comment-checks received by the server */
+	private final List<String> blogs = new CopyOnWriteArrayList<>();
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = new LocalAkismetServer();
+		this.server.setResponder(parameters -> {
+			switch(parameters.get("function")) {
+				case "verify-key": 
+					return parameters.get("key").startsWith("valid") ? "valid" : "invalid";
+				case "comment-check": 
+					this.blogs.add(parameters.get("blog"));
+					return String.valueOf("viagra-test-123".equals(parameters.get("comment_author")));
+				default: 
+					return "Thanks for making the web a better place.";
+			}
+		});
+		this.httpClient = HttpClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient = HttpAsyncClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient.start();
+		this.router = new TenantRouter(new Akismet(httpClient, httpAsyncClient));
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.httpAsyncClient.close();
+		this.httpClient.close();
+		this.server.close();
+	}
+	
+	@Test
+	public void callsAreMadeForTheirTenant() throws Exception {
+		final Tenant first = this.router.register("first", "valid-1", "http://first.com");
+		final Tenant second = this.router.register("second", "valid-2", "http://second.com");
+		final List<String> recorded = new CopyOnWriteArrayList<>();
+		this.router.setMetricsListener((tenant, operation, outcome, durationNanos) -> recorded.add(tenant + ":" + outcome));
+		
+		Assert.assertTrue(this.router.commentCheck("first", AkismetAsyncTest.newComment("viagra-test-123")));
+		Assert.assertFalse(this.router.commentCheckAsync("second", AkismetAsyncTest.newComment("michael")).join());
+		Assert.assertTrue(this.router.submitHam("second", AkismetAsyncTest.newComment("michael")));
+		
+		Assert.assertEquals("http://first.com", this.blogs.get(0));
+		Assert.assertEquals("http://second.com", this.blogs.get(1));
+		Assert.assertEquals("valid-1", first.getAkismet().getApiKey());
+		Assert.assertEquals(1, first.getCalls(Outcome.SPAM));
+		Assert.assertEquals(1, second.getCalls(Outcome.HAM));
+		Assert.assertEquals(1, second.getCalls(Outcome.SUBMITTED));
+		Assert.assertTrue(second.getDuration() > 0);
+		Assert.assertEquals(3, recorded.size());
+		Assert.assertTrue(recorded.contains("first:SPAM"));
+		Assert.assertTrue(recorded.contains("second:SUBMITTED"));
+	}
+	
+	@Test
+	public void templateListenersReceiveAllMetrics() throws Exception {
+		final List<String> recorded = new CopyOnWriteArrayList<>();
+		final Akismet template = new Akismet(httpClient, httpAsyncClient);
+		template.setMetricsListener(new MetricsListener() {
+			@Override
+			public void record(final Operation operation, final Outcome outcome, final long durationNanos) {
+				recorded.add("record:" + outcome);
+			}
+			
+			@Override
+			public boolean isDetailed() {
+				return true;
+			}
+			
+			@Override
+			public void recordDetails(final CallDetails details) {
+				recorded.add("details:" + details.getOutcome());
+			}
+			
+			@Override
+			public void recordRetry(final Operation operation, final Retry retry) {
+				recorded.add("retry:" + retry);
+			}
+			
+			@Override
+			public void recordConnectionLease(final String host, final long waitNanos) {
+				recorded.add("lease:" + host);
+			}
+			
+			@Override
+			public void recordConnect(final String host, final long durationNanos) {
+				recorded.add("connect:" + host);
+			}
+		});
+		final Tenant tenant = new TenantRouter(template).register("first", "valid-1", "http://first.com");
+		
+		Assert.assertTrue(tenant.getAkismet().commentCheck(AkismetAsyncTest.newComment("viagra-test-123")));
+		final MetricsListener listener = tenant.getAkismet().getMetricsListener();
+		listener.recordRetry(Operation.COMMENT_CHECK, Retry.HEDGE);
+		listener.recordConnectionLease("rest.akismet.com", 1);
+		listener.recordConnect("rest.akismet.com", 1);
+		
+		Assert.assertEquals(1, tenant.getCalls(Outcome.SPAM));
+		Assert.assertEquals("[record:SPAM, details:SPAM, retry:HEDGE, lease:rest.akismet.com, connect:rest.akismet.com]", recorded.toString());
+	}
+	
+	@Test
+	public void sharedStateIsKeptPerTenant() throws Exception {
+		final Akismet template = new Akismet(httpClient, httpAsyncClient);
+		final ReputationStore store = new ReputationStore(1024, 1, 0.0);
+		final NearDuplicateIndex index = new NearDuplicateIndex(16, TimeUnit.MINUTES.toMillis(1), 0.5, false);
+		template.setReputationStore(store);
+		template.setNearDuplicateIndex(index);
+		final TenantRouter router = new TenantRouter(template);
+		router.register("first", "valid-1", "http://first.com");
+		router.register("second", "valid-2", "http://second.com");
+		
+		final AkismetComment comment = AkismetAsyncTest.newComment("michael");
+		Assert.assertTrue(router.submitHam("first", comment));
+		Assert.assertTrue(store.isTrusted(comment, "http://first.com"));
+		Assert.assertFalse(store.isTrusted(comment, "http://second.com"));
+		Assert.assertFalse(router.commentCheck("second", comment));
+		Assert.assertEquals(1, this.blogs.size());
+		
+		final AkismetComment spam = AkismetAsyncTest.newComment("someone");
+		spam.setUserIp("10.0.0.1");
+		spam.setCommentContent("Cheap watches and replica handbags, best prices guaranteed! Visit our online shop today.");
+		Assert.assertTrue(router.submitSpam("first", spam));
+		Assert.assertTrue(index.matches(spam.getCommentContent(), "http://first.com"));
+		Assert.assertFalse(index.matches(spam.getCommentContent(), "http://second.com"));
+		Assert.assertFalse(router.commentCheck("second", spam));
+		Assert.assertEquals(2, this.blogs.size());
+	}
+	
+	@Test
+	public void verifyKeyResultsAreCached() throws Exception {
+		this.router.register("first", "valid-1", "http://first.com");
+		this.server.setDelay(100);
+		final List<CompletableFuture<Boolean>> verifications = IntStream.range(0, 10)
+				.mapToObj(i -> this.router.verifyKeyAsync("first"))
+				.collect(Collectors.toList());
+		Assert.assertTrue(verifications.stream().allMatch(CompletableFuture::join));
+		Assert.assertTrue(this.router.verifyKey("first"));
+		Assert.assertEquals(1, this.server.getRequests());
+		
+		this.router.setVerifyKeyTtl(0);
+		Assert.assertTrue(this.router.verifyKey("first"));
+		Assert.assertEquals(2, this.server.getRequests());
+	}
+	
+	@Test
+	public void tenantsWithInvalidKeysFailFast() throws Exception {
+		final Tenant tenant = this.router.register("invalid", "wrong", "http://invalid.com");
+		Assert.assertFalse(this.router.verifyKey("invalid"));
+		Assert.assertTrue(tenant.isKeyInvalid());
+		
+		try {
+			this.router.commentCheck("invalid", AkismetAsyncTest.newComment("michael"));
+			Assert.fail("Invalid key must fail");
+		} catch(AkismetException e) {
+		}
+		try {
+			this.router.submitSpamAsync("invalid", AkismetAsyncTest.newComment("michael")).join();
+			Assert.fail("Invalid key must fail");
+		} catch(CompletionException e) {
+			Assert.assertTrue(e.getCause() instanceof AkismetException);
+		}
+		Assert.assertEquals(1, this.server.getRequests());
+		
+		// A new registration starts without cached verification
+		this.router.register("invalid", "valid-now", "http://invalid.com");
+		Assert.assertFalse(this.router.commentCheck("invalid", AkismetAsyncTest.newComment("michael")));
+	}
+	
+	@Test
+	public void quotasArePerTenant() throws Exception {
+		final RequestScheduler quota = new RequestScheduler(100, 10);
+		final Tenant limited = this.router.register("limited", "valid-1", "http://limited.com", quota);
+		final Tenant unlimited = this.router.register("unlimited", "valid-2", "http://unlimited.com");
+		
+		this.router.commentCheck("limited", AkismetAsyncTest.newComment("michael"));
+		this.router.commentCheck("unlimited", AkismetAsyncTest.newComment("michael"));
+		
+		Assert.assertSame(quota, limited.getAkismet().getRequestScheduler());
+		Assert.assertNull(unlimited.getAkismet().getRequestScheduler());
+		Assert.assertEquals(1, quota.getPermits(Priority.LIVE));
+	}
+	
+	@Test
+	public void unknownTenantsAreRejected() {
+		try {
+			this.router.commentCheck("unknown", AkismetAsyncTest.newComment("michael"));
+			Assert.fail("Unknown tenant must fail");
+		} catch(AkismetException e) {
+			Assert.assertEquals("Unknown tenant unknown", e.getMessage());
+		}
+		Assert.assertTrue(this.router.verifyKeyAsync("unknown").isCompletedExceptionally());
+		Assert.assertNull(this.router.remove("unknown"));
+		Assert.assertEquals(0, this.server.getRequests());
+	}
+}
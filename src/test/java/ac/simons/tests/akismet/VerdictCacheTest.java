@@ -0,0 +1,163 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import static ac.simons.tests.akismet.AkismetAsyncTest.newComment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetException;
+import ac.simons.akismet.VerdictCache;
+
+/**
+ * @author Michael J. Simons
+ */
+public class VerdictCacheTest {
+	private LocalAkismetServer server;
+	private CloseableHttpClient httpClient;
+	private CloseableHttpAsyncClient httpAsyncClient;
+	private Akismet akismet;
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = new LocalAkismetServer();
+		this.httpClient = HttpClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient = HttpAsyncClients.custom().setProxy(server.getProxy()).build();
+		this.httpAsyncClient.start();
+		this.akismet = new Akismet(httpClient, httpAsyncClient);
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.httpAsyncClient.close();
+		this.httpClient.close();
+		this.server.close();
+	}
+	
+	@Test
+	public void identicalChecksAreCached() throws AkismetException {
+		final VerdictCache cache = new VerdictCache(1, TimeUnit.MINUTES, 100);
+		akismet.setVerdictCache(cache);
+		
+		Assert.assertTrue(akismet.commentCheck(newComment("viagra-test-123")));
+		Assert.assertTrue(akismet.commentCheck(newComment("viagra-test-123")));
+		Assert.assertTrue(akismet.commentCheckAsync(newComment("viagra-test-123")).join());
+		Assert.assertFalse(akismet.commentCheck(newComment("Michael")));
+		
+		Assert.assertEquals(2, server.getRequests());
+		Assert.assertEquals(2, cache.getHits());
+		Assert.assertEquals(2, cache.getMisses());
+	}
+	
+	@Test
+	public void concurrentChecksAreCoalesced() {
+		final VerdictCache cache = new VerdictCache(1, TimeUnit.MINUTES, 100);
+		akismet.setVerdictCache(cache);
+		server.setDelay(200);
+		
+		final List<CompletableFuture<Boolean>> checks = new ArrayList<>();
+		for(int i = 0; i < 10; ++i)
+			checks.add(akismet.commentCheckAsync(newComment("viagra-test-123")));
+		checks.forEach(check -> Assert.assertTrue(check.join()));
+		
+		Assert.assertEquals(1, server.getRequests());
+		Assert.assertEquals(9, cache.getCoalesced());
+	}
+	
+	@Test
+	public void failedChecksAreNotCached() throws AkismetException {
+		akismet.setVerdictCache(new VerdictCache(1, TimeUnit.MINUTES, 100));
+		server.setStatusCode(500);
+		Assert.assertFalse(akismet.commentCheck(newComment("viagra-test-123")));
+		server.setStatusCode(200);
+		Assert.assertTrue(akismet.commentCheck(newComment("viagra-test-123")));
+		Assert.assertEquals(2, server.getRequests());
+	}
+	
+	@Test
+	public void invalidAnswersAreNotCached() throws AkismetException {
+		final VerdictCache cache = new VerdictCache(1, TimeUnit.MINUTES, 100);
+		akismet.setVerdictCache(cache);
+		server.setResponder(parameters -> "invalid");
+		Assert.assertFalse(akismet.commentCheck(newComment("viagra-test-123")));
+		Assert.assertFalse(akismet.commentCheckAsync(newComment("viagra-test-123")).join());
+		Assert.assertEquals(0, cache.getHits());
+		
+		server.setResponder(parameters -> "true");
+		Assert.assertTrue(akismet.commentCheck(newComment("viagra-test-123")));
+		Assert.assertEquals(3, server.getRequests());
+	}
+	
+	@Test
+	public void entriesExpire() throws InterruptedException {
+		final VerdictCache cache = new VerdictCache(50, TimeUnit.MILLISECONDS, 100);
+		cache.put("a", true);
+		Assert.assertEquals(Boolean.TRUE, cache.getIfPresent("a"));
+		Thread.sleep(100);
+		Assert.assertNull(cache.getIfPresent("a"));
+	}
+	
+	@Test
+	public void sizeIsBounded() {
+		final VerdictCache cache = new VerdictCache(1, TimeUnit.MINUTES, 160);
+		for(int i = 0; i < 10_000; ++i)
+			cache.put(Integer.toString(i), false);
+		Assert.assertTrue(cache.size() <= 160);
+	}
+	
+	@Test
+	public void configuredMaximumHoldsExactly() {
+		for(int maxEntries : new int[] {1, 5, 16, 40, 1000}) {
+			final VerdictCache cache = new VerdictCache(1, TimeUnit.MINUTES, maxEntries);
+			for(int i = 0; i < 10_000; ++i)
+				cache.put(Integer.toString(i), false);
+			Assert.assertEquals(maxEntries, cache.size());
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Created by Michael Simons, michael-simons.eu
+ * and released under The BSD License
+ * http://www.opensource.org/licenses/bsd-license.php
+ *
+ * Copyright (c) 2011-2016, Michael Simons
+ * All rights reserved.
+ *
+ * Redistribution  and  use  in  source   and  binary  forms,  with  or   without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source   code must retain   the above copyright   notice,
+ *   this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary  form must reproduce  the above copyright  notice,
+ *   this list of conditions  and the following  disclaimer in the  documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name  of  michael-simons.eu   nor the names  of its contributors
+ *   may be used  to endorse   or promote  products derived  from  this  software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS  PROVIDED BY THE  COPYRIGHT HOLDERS AND  CONTRIBUTORS "AS IS"
+ * AND ANY  EXPRESS OR  IMPLIED WARRANTIES,  INCLUDING, BUT  NOT LIMITED  TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL  THE COPYRIGHT HOLDER OR CONTRIBUTORS  BE LIABLE
+ * FOR ANY  DIRECT, INDIRECT,  INCIDENTAL, SPECIAL,  EXEMPLARY, OR  CONSEQUENTIAL
+ * DAMAGES (INCLUDING,  BUT NOT  LIMITED TO,  PROCUREMENT OF  SUBSTITUTE GOODS OR
+ * SERVICES; LOSS  OF USE,  DATA, OR  PROFITS; OR  BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT  LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE  USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ac.simons.tests.akismet;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ac.simons.akismet.Akismet;
+import ac.simons.akismet.AkismetException;
+import ac.simons.akismet.ConnectionPool;
+
+/**
+ * @author Michael J. Simons
+ */
+public class WarmUpTest {
+	private LocalAkismetServer server;
+	private ConnectionPool pool;
+	private Akismet akismet;
+	private final AtomicInteger keyHostRequests = new AtomicInteger();
+	
+	@Before
+	public void setup() throws Exception {
+		this.server = new LocalAkismetServer();
+		this.server.setResponder(parameters -> {
+			if(parameters.get("host").startsWith("123test."))
+				keyHostRequests.incrementAndGet();
+			return "123test".equals(parameters.get("key")) ? "valid" : "invalid";
+		});
+		this.pool = new ConnectionPool(8, 30_000, 10_000, server.getProxy());
+		this.akismet = new Akismet(pool.getHttpClient(), pool.getHttpAsyncClient());
+		this.akismet.setApiKey("123test");
+		this.akismet.setApiConsumer("http://test.com");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		this.pool.close();
+		this.server.close();
+	}
+	
+	@Test
+	public void warmUpVerifiesKeyAndOpensConnections() throws Exception {
+		server.setDelay(100);
+		Assert.assertFalse(akismet.isReady());
+		Assert.assertTrue(akismet.warmUp(4).join());
+		Assert.assertTrue(akismet.isReady());
+		
+		Assert.assertEquals(5, server.getRequests());
+		Assert.assertEquals(4, keyHostRequests.get());
+		// One connection for verify-key and all connections to the host of the key stay open
+		Assert.assertEquals(5, pool.getAsyncStats().getAvailable());
+		Assert.assertEquals(0, pool.getAsyncStats().getLeased());
+	}
+	
+	@Test
+	public void warmUpWorksWithBlockingTransports() throws Exception {
+		try(CloseableHttpClient httpClient = HttpClients.custom().setProxy(server.getProxy()).build()) {
+			final Akismet blocking = new Akismet(httpClient);
+			blocking.setApiKey("123test");
+			blocking.setApiConsumer("http://test.com");
+			Assert.assertTrue(blocking.warmUp(2).join());
+			Assert.assertTrue(blocking.isReady());
+			Assert.assertEquals(2, keyHostRequests.get());
+		}
+	}
+	
+	@Test
+	public void invalidKeysAreNotReady() throws Exception {
+		akismet.setApiKey("invalid");
+		Assert.assertFalse(akismet.warmUp(2).join());
+		Assert.assertFalse(akismet.isReady());
+	}
+	
+	@Test
+	public void failedWarmUpsAreNotReady() throws Exception {
+		server.close();
+		try {
+			akismet.warmUp(2).join();
+			Assert.fail("Warm-up succeeded without server");
+		} catch(CompletionException e) {
+			Assert.assertTrue(e.getCause() instanceof AkismetException);
+		}
+		Assert.assertFalse(akismet.isReady());
+	}
+}